@@ -0,0 +1,365 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.miltschek.openttdadmin.data.ChatMessage;
+
+/**
+ * Routes chat commands (lines starting with ! or /) to their handlers.
+ * Command names are kept in a prefix trie walked along the first word of the line,
+ * so that the cost of routing depends on the length of the word and not on the number of commands.
+ * Plain chat lines are rejected with a single check of the first character.
+ * Each client has a token bucket per command, shared by aliases with the same limit key, so that a burst
+ * of a few calls is allowed but a flood of commands is dropped before it reaches the game server or the database.
+ */
+public class ChatCommandRouter {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChatCommandRouter.class);
+	
+	/**
+	 * Handler of a chat command.
+	 */
+	public interface Handler {
+		/**
+		 * Executes the command.
+		 * @param t chat message containing the command
+		 * @param senderId description of the sender
+		 * @param senderData data of the sender or null if not known
+		 */
+		void execute(ChatMessage t, String senderId, ClientData senderData);
+	}
+	
+	/**
+	 * Statistics of a chat command.
+	 */
+	public static class Stats {
+		private final String name;
+		private long calls;
+		private long dropped;
+		private long totalNanos;
+		
+		private Stats(String name) {
+			this.name = name;
+		}
+		
+		/**
+		 * Gets the name of the command.
+		 * @return name of the command
+		 */
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * Gets the number of executions.
+		 * @return number of executions
+		 */
+		public synchronized long getCalls() {
+			return calls;
+		}
+		
+		/**
+		 * Gets the number of calls dropped due to the rate limit.
+		 * @return number of dropped calls
+		 */
+		public synchronized long getDropped() {
+			return dropped;
+		}
+		
+		/**
+		 * Gets the average execution time.
+		 * @return average execution time in microseconds, 0 if never executed
+		 */
+		public synchronized long getAverageLatency() {
+			return calls == 0 ? 0 : totalNanos / calls / 1000;
+		}
+	}
+	
+	private static class Command {
+		private final int index;
+		/** Index of the token bucket, shared by commands with the same limit key. */
+		private final int bucket;
+		private final Handler handler;
+		private final boolean prefix;
+		private final boolean exact;
+		private final String limitKey;
+		private final long defaultInterval;
+		private final int defaultBurst;
+		private volatile long interval;
+		private volatile int burst;
+		private final Stats stats;
+		
+		private Command(int index, int bucket, String name, Handler handler, boolean prefix, boolean exact, String limitKey, long interval, int burst) {
+			this.index = index;
+			this.bucket = bucket;
+			this.handler = handler;
+			this.prefix = prefix;
+			this.exact = exact;
+			this.limitKey = limitKey;
+			this.defaultInterval = interval;
+			this.defaultBurst = burst;
+			this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+			this.burst = burst;
+			this.stats = new Stats(name);
+		}
+	}
+	
+	private static class Node {
+		private final Map<Character, Node> children = new HashMap<>(4);
+		private Command command;
+	}
+	
+	private final Context context;
+	private final Node root = new Node();
+	private final List<Stats> stats = new ArrayList<>();
+	private final List<Command> configurable = new ArrayList<>();
+	private final Map<String, Integer> limitBuckets = new HashMap<>();
+	private int buckets;
+	private final RateLimiter limiter = new RateLimiter(64);
+	private volatile String rateLimitMessage;
+	private long unknown;
+	
+	/**
+	 * Creates an empty router.
+	 * @param context context of the game, used to answer rate-limited or unknown commands
+	 */
+	public ChatCommandRouter(Context context) {
+		this.context = context;
+	}
+	
+	/**
+	 * Sets the answer to a dropped command, sent once until the client is allowed again.
+	 * @param rateLimitMessage answer, ${COMMAND} is replaced by the command name; null or empty to drop silently
+	 */
+	public void setRateLimitMessage(String rateLimitMessage) {
+		this.rateLimitMessage = rateLimitMessage;
+	}
+	
+	/**
+	 * Registers a command.
+	 * @param name name of the command including the leading ! or /
+	 * @param prefix true to accept also words starting with the name (like !admin: for !admin), false to accept the exact word only
+	 * @param exact true to accept the command only if the whole line is the name (no arguments), ignored for prefix commands
+	 * @param interval time in milliseconds a client earns another call of the command after, 0 for no limit
+	 * @param burst number of calls a client may make in a row after a pause
+	 * @param handler handler of the command
+	 */
+	public void register(String name, boolean prefix, boolean exact, long interval, int burst, Handler handler) {
+		register(name, prefix, exact, null, interval, burst, handler);
+	}
+	
+	/**
+	 * Registers a command whose rate limit is taken from the chat settings and follows their changes.
+	 * @param name name of the command including the leading ! or /
+	 * @param prefix true to accept also words starting with the name (like !admin: for !admin), false to accept the exact word only
+	 * @param exact true to accept the command only if the whole line is the name (no arguments), ignored for prefix commands
+	 * @param limitKey name of the command in the chat settings, null for a fixed limit
+	 * @param defaultInterval time in milliseconds a client earns another call of the command after, if not configured; 0 for no limit
+	 * @param defaultBurst number of calls a client may make in a row after a pause, if not configured
+	 * @param handler handler of the command
+	 */
+	public synchronized void register(String name, boolean prefix, boolean exact, String limitKey, long defaultInterval, int defaultBurst, Handler handler) {
+		Node node = root;
+		for (int n = 0; n < name.length(); n++) {
+			node = node.children.computeIfAbsent(name.charAt(n), c -> new Node());
+		}
+		
+		if (node.command != null) {
+			LOGGER.warn("Chat command {} registered more than once.", name);
+			stats.set(node.command.index, null);
+		}
+		
+		Integer bucket = limitKey == null ? null : limitBuckets.get(limitKey);
+		if (bucket == null) {
+			bucket = buckets++;
+			if (limitKey != null) {
+				limitBuckets.put(limitKey, bucket);
+			}
+		}
+		
+		node.command = new Command(stats.size(), bucket, name, handler, prefix, exact && !prefix, limitKey, defaultInterval, defaultBurst);
+		stats.add(node.command.stats);
+		
+		if (limitKey != null) {
+			configurable.add(node.command);
+			applyLimits(node.command);
+		}
+	}
+	
+	/**
+	 * Takes the rate limit of a command from the chat settings.
+	 * @param command command to be configured
+	 */
+	private void applyLimits(Command command) {
+		command.interval = TimeUnit.MILLISECONDS.toNanos(context.getChatCommandInterval(command.limitKey, (int)command.defaultInterval));
+		command.burst = context.getChatCommandBurst(command.limitKey, command.defaultBurst);
+	}
+	
+	/**
+	 * Takes the rate limits and the rate-limit answer from the current chat settings, e.g. after a configuration reload.
+	 */
+	public synchronized void reconfigure() {
+		for (Command command : configurable) {
+			applyLimits(command);
+		}
+		
+		this.rateLimitMessage = context.getChatRateLimitMessage();
+	}
+	
+	/**
+	 * Finds the command of the first word of a line.
+	 * The exact word wins (unless the command takes no arguments and the line has some),
+	 * otherwise the longest registered prefix accepting longer words.
+	 * @param line chat line
+	 * @return the command or null if none matches
+	 */
+	private Command find(String line) {
+		Node node = root;
+		Command candidate = null;
+		
+		int n = 0;
+		for (; n < line.length(); n++) {
+			char c = line.charAt(n);
+			if (c == ' ' || c == '\t') {
+				break;
+			}
+			
+			if (node.command != null && node.command.prefix) {
+				candidate = node.command;
+			}
+			
+			node = node.children.get(c);
+			if (node == null) {
+				return candidate;
+			}
+		}
+		
+		if (node.command != null && (!node.command.exact || n == line.length())) {
+			return node.command;
+		}
+		
+		return candidate;
+	}
+	
+	/**
+	 * Routes a chat message to the handler of its command.
+	 * @param t chat message
+	 * @param senderId description of the sender
+	 * @param senderData data of the sender or null if not known
+	 * @return true if the message was a command (handled, rate-limited or unknown), false if it is a plain chat message
+	 */
+	public boolean route(ChatMessage t, String senderId, ClientData senderData) {
+		String line = t.getMessage();
+		if (line.isEmpty() || line.charAt(0) != '!' && line.charAt(0) != '/') {
+			return false;
+		}
+		
+		Command command;
+		synchronized (this) {
+			command = find(line);
+			if (command == null) {
+				if (line.charAt(0) != '!') {
+					// slash-lines that are no commands are regular chat
+					return false;
+				}
+				
+				unknown++;
+			}
+		}
+		
+		if (command == null) {
+			LOGGER.debug("User {} entered an invalid command {}.", t.getSenderId(), line);
+			this.context.notifyUser(t.getSenderId(), "No such command. For help, enter !help");
+			return true;
+		}
+		
+		if (command.interval > 0) {
+			long key = ((long)command.bucket << 32) | (t.getSenderId() & 0xffffffffL);
+			int result = limiter.acquire(key, command.interval, command.burst, System.nanoTime());
+			if (result != RateLimiter.ALLOWED) {
+				synchronized (command.stats) {
+					command.stats.dropped++;
+				}
+				
+				LOGGER.debug("User {} is using {} too often.", t.getSenderId(), command.stats.name);
+				if (result == RateLimiter.DENIED && rateLimitMessage != null && !rateLimitMessage.isEmpty()) {
+					this.context.respondUser(t.getSenderId(), rateLimitMessage.replace("${COMMAND}", command.stats.name));
+				}
+				
+				return true;
+			}
+		}
+		
+		long startTs = System.nanoTime();
+		try {
+			command.handler.execute(t, senderId, senderData);
+		} finally {
+			synchronized (command.stats) {
+				command.stats.calls++;
+				command.stats.totalNanos += System.nanoTime() - startTs;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Forgets the rate limits of a client, to be called when the client leaves.
+	 * @param clientId client ID
+	 */
+	public void forget(int clientId) {
+		limiter.removeIf(key -> (int)key == clientId);
+	}
+	
+	/**
+	 * Gets the statistics of all commands in the order of registration.
+	 * @return statistics of all commands
+	 */
+	public synchronized List<Stats> getStats() {
+		List<Stats> result = new ArrayList<>(stats.size());
+		for (Stats entry : stats) {
+			if (entry != null) {
+				result.add(entry);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Gets the number of unknown commands entered.
+	 * @return number of unknown commands
+	 */
+	public synchronized long getUnknown() {
+		return unknown;
+	}
+}
@@ -26,8 +26,10 @@ package de.miltschek.genowefa;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
@@ -52,6 +54,7 @@ public class ChatListener implements Consumer<ChatMessage> {
 	private static final SimpleDateFormat SDF = new SimpleDateFormat("HH:mm:ss dd.MM.yyyy", Locale.ROOT);
 	private static final DecimalFormat DECF = new DecimalFormat("#,###");
 	private final Context context;
+	private final ChatCommandRouter router;
 	
 	/**
 	 * Instantiates the handler with the context.
@@ -59,6 +62,18 @@ public class ChatListener implements Consumer<ChatMessage> {
 	 */
 	public ChatListener(Context context) {
 		this.context = context;
+		this.router = context.getChatCommandRouter();
+		this.router.setRateLimitMessage(context.getChatRateLimitMessage());
+		
+		this.router.register("!admin", true, false, "!admin", 30000, 2, this::requestAdmin);
+		this.router.register("/admin", true, false, "!admin", 30000, 2, this::requestAdmin);
+		this.router.register("!reset", false, true, "!reset", 10000, 1, this::requestReset);
+		this.router.register("!name", true, false, "!name", 5000, 2, this::requestRename);
+		this.router.register("!help", false, true, "!help", 2000, 2, this::showHelp);
+		this.router.register("/help", false, true, "!help", 2000, 2, this::showHelp);
+		this.router.register("!lang", true, false, "!lang", 2000, 3, this::configureLanguage);
+		this.router.register("!top", false, true, "!top", 10000, 2, this::showTopList);
+		this.router.register("!who", false, true, "!who", 10000, 2, this::showPlayers);
 	}
 	
 	/**
@@ -71,214 +86,201 @@ public class ChatListener implements Consumer<ChatMessage> {
 		if (t.getMessage() == null) {
 			// nix
 			LOGGER.debug("A null chat message has been received from {} to {} private {} company {} public {}.", t.getSenderId(), t.getRecipientId(), t.isPrivate(), t.isCompany(), t.isPublic());
-		} else if (t.getMessage().startsWith("!admin") || t.getMessage().startsWith("/admin")) {
-			LOGGER.warn("Admin action has been requested by {}: {}.", t.getSenderId(), t.getMessage());
-	    	if (this.context.notifyAdmin(
-	    			EventType.AdminRequest,
-	    			":boom: " + senderId + " " + t.getMessage())) {
-	    		this.context.notifyUser(t.getSenderId(), "Your message has been sent to the admin. Thank you!");
-	    	} else {
-	    		this.context.notifyUser(t.getSenderId(), "No connection to the administrator at the moment, please try again later.");
-	    	}
-		} else if (t.getMessage().equals("!reset")) {
-			LOGGER.info("Company reset has been requested by {}.", t.getSenderId());
+		} else if (this.router.route(t, senderId, senderData)) {
+			// command handled
+		} else if (t.getSenderId() != 1 && !t.getMessage().isEmpty()) {
+			LOGGER.debug("User {} sent a message to {} {}: {}.",
+					t.getSenderId(),
+					t.isPrivate() ? "user" : t.isCompany() ? "company" : t.isPublic() ? "all" : "unknown",
+					t.getRecipientId(),
+					t.getMessage());
 
-			// need to find, what company is playing the sender
-			// then, what other clients do play the same company
-			// then, kick them
-			// then, reset the company
-			// (did not find a way to reset a company with active clients, TODO?)
-			if (!this.context.startResetProcess(t.getSenderId())) {
-				this.context.notifyUser(t.getSenderId(), "Another reset request still being processed. Please retry in a few seconds.");
-			}
-			
-			this.context.requestAllClientsInfo();
-			
+			// translations are slow, don't hold up the following packets of the game server
+			this.context.getTranslationStage().submit(t, senderId);
+		}
+	}
+	
+	/**
+	 * Forwards a message of a player to the admin.
+	 * @param t chat message
+	 * @param senderId description of the sender
+	 * @param senderData data of the sender or null if not known
+	 */
+	private void requestAdmin(ChatMessage t, String senderId, ClientData senderData) {
+		LOGGER.warn("Admin action has been requested by {}: {}.", t.getSenderId(), t.getMessage());
+    	if (this.context.notifyAdmin(
+    			EventType.AdminRequest,
+    			":boom: " + senderId + " " + t.getMessage())) {
+    		this.context.respondUser(t.getSenderId(), "Your message has been sent to the admin. Thank you!");
+    	} else {
+    		this.context.respondUser(t.getSenderId(), "No connection to the administrator at the moment, please try again later.");
+    	}
+	}
+	
+	/**
+	 * Starts a reset of the sender's company.
+	 * @param t chat message
+	 * @param senderId description of the sender
+	 * @param senderData data of the sender or null if not known
+	 */
+	private void requestReset(ChatMessage t, String senderId, ClientData senderData) {
+		LOGGER.info("Company reset has been requested by {}.", t.getSenderId());
+
+		// a company cannot be reset with active clients, so they get kicked first
+		// and the company is reset once all of them have quit
+		switch (this.context.getResetCoordinator().start(t.getSenderId(), CustomClientListener.RESET_KICK_REASON)) {
+		case Busy:
+			this.context.respondUser(t.getSenderId(), "Another reset request still being processed. Please retry in a few seconds.");
+			break;
+		case NoCompany:
+			this.context.respondUser(t.getSenderId(), "You are not playing any company.");
+			break;
+		default:
+			break;
+		}
+		
+		this.context.notifyAdmin(
+				EventType.Client,
+				":recycle: user " + senderId + " requested a reset");
+	}
+	
+	/**
+	 * Renames the sender.
+	 * @param t chat message
+	 * @param senderId description of the sender
+	 * @param senderData data of the sender or null if not known
+	 */
+	private void requestRename(ChatMessage t, String senderId, ClientData senderData) {
+		LOGGER.info("Name change has been requested by {} raw {}.", t.getSenderId(), t.getMessage());
+
+		Matcher m = RENAME_PATTERN.matcher(t.getMessage());
+		if (m.find()) {
+			String newName = m.group("value");
+			this.context.renameUser(t.getSenderId(), newName);
 			this.context.notifyAdmin(
 					EventType.Client,
-					":recycle: user " + senderId + " requested a reset");
-		} else if (t.getMessage().startsWith("!name")) {
-			LOGGER.info("Name change has been requested by {} raw {}.", t.getSenderId(), t.getMessage());
-
-			Matcher m = RENAME_PATTERN.matcher(t.getMessage());
+					":name_badge: user " + senderId + " requested a rename to " + newName);
+		}
+	}
+	
+	/**
+	 * Shows the list of available commands.
+	 * @param t chat message
+	 * @param senderId description of the sender
+	 * @param senderData data of the sender or null if not known
+	 */
+	private void showHelp(ChatMessage t, String senderId, ClientData senderData) {
+		LOGGER.info("User {} requested help.", t.getSenderId());
+		
+		List<String> lines = new ArrayList<>();
+		lines.add("((Powered by github::Genowefa)) - Available commands:");
+		lines.add("!admin <message>: sends the message to the server's admin");
+		lines.add("!reset: resets your company; you will be kicked of the server, so please re-join");
+		lines.add("!name <new_name>: changes your name; surround multiple words with double quotes");
+		lines.add("!lang <language_code>: translates chats to your language, enter !lang for more info");
+		lines.add("!top: shows a short Hall of Fame list");
+		lines.add("!who: shows a list of players");
+		
+		String info;
+		if ((info = this.context.getHelpMessage()) != null) {
+			lines.add(info);
+		}
+		
+		this.context.respond(t.getSenderId(), false, lines);
+	}
+	
+	/**
+	 * Configures automatic translations for the sender.
+	 * @param t chat message
+	 * @param senderId description of the sender
+	 * @param senderData data of the sender or null if not known
+	 */
+	private void configureLanguage(ChatMessage t, String senderId, ClientData senderData) {
+		if (t.getMessage().equals("!lang")) {
+			// more info needed
+			this.context.respond(t.getSenderId(), false, Arrays.asList(
+					"Chats can be automatically traslated to your language using Google-Translator.",
+					"To turn it on, write !lang <two_letter_code>",
+					"language_code must be an ISO 639-1 language code; please note: not all languages are known by Google",
+					"For example: !lang en = English, !lang de = German, !lang ru = Russian, !lang cs = Czech, !lang zh = Chinese, !lang zh-TW = Chinese Traditional",
+					"To turn it off, write !lang off"));
+		} else if (senderData == null) {
+			LOGGER.error("Failed configuring translation for user {} - no user data found.", t.getSenderId());
+			this.context.respondUser(t.getSenderId(), "Something went wrong configuring your option.");
+		} else if (t.getMessage().equals("!lang off")) {
+			senderData.setTranslationLanguage(null);
+			this.context.respondUser(t.getSenderId(), "Automatic translations are deactivated.");
+			LOGGER.info("Translations turned off by the user {}.", t.getSenderId());
+		} else {
+			Matcher m = LANGUAGE_PATTERN.matcher(t.getMessage());
 			if (m.find()) {
-				String newName = m.group("value");
-				this.context.renameUser(t.getSenderId(), newName);
-				this.context.notifyAdmin(
-						EventType.Client,
-						":name_badge: user " + senderId + " requested a rename to " + newName);
-			}
-		} else if (t.getMessage().equals("!help") || t.getMessage().equals("/help")) {
-			LOGGER.info("User {} requested help.", t.getSenderId());
-			
-			this.context.notifyUser(t.getSenderId(), "((Powered by github::Genowefa)) - Available commands:");
-			this.context.notifyUser(t.getSenderId(), "!admin <message>: sends the message to the server's admin");
-			this.context.notifyUser(t.getSenderId(), "!reset: resets your company; you will be kicked of the server, so please re-join");
-			this.context.notifyUser(t.getSenderId(), "!name <new_name>: changes your name; surround multiple words with double quotes");
-			this.context.notifyUser(t.getSenderId(), "!lang <language_code>: translates chats to your language, enter !lang for more info");
-			this.context.notifyUser(t.getSenderId(), "!top: shows a short Hall of Fame list");
-			this.context.notifyUser(t.getSenderId(), "!who: shows a list of players");
-			
-			String info;
-			if ((info = this.context.getHelpMessage()) != null) {
-				this.context.notifyUser(t.getSenderId(), info);
-			}
-		} else if (t.getMessage().startsWith("!lang")) {
-			if (t.getMessage().equals("!lang")) {
-				// more info needed
-				this.context.notifyUser(t.getSenderId(), "Chats can be automatically traslated to your language using Google-Translator.");
-				this.context.notifyUser(t.getSenderId(), "To turn it on, write !lang <two_letter_code>");
-				this.context.notifyUser(t.getSenderId(), "language_code must be an ISO 639-1 language code; please note: not all languages are known by Google");
-				this.context.notifyUser(t.getSenderId(), "For example: !lang en = English, !lang de = German, !lang ru = Russian, !lang cs = Czech, !lang zh = Chinese, !lang zh-TW = Chinese Traditional");
-				this.context.notifyUser(t.getSenderId(), "To turn it off, write !lang off");
-			} else if (senderData == null) {
-				LOGGER.error("Failed configuring translation for user {} - no user data found.", t.getSenderId());
-				this.context.notifyUser(t.getSenderId(), "Something went wrong configuring your option.");
-			} else if (t.getMessage().equals("!lang off")) {
-				senderData.setTranslationLanguage(null);
-				this.context.notifyUser(t.getSenderId(), "Automatic translations are deactivated.");
-				LOGGER.info("Translations turned off by the user {}.", t.getSenderId());
-			} else {
-				Matcher m = LANGUAGE_PATTERN.matcher(t.getMessage());
-				if (m.find()) {
-					String lang = m.group(1);
-					if (GoogleTranslate.checkLanguageCode(lang)) {
-						senderData.setTranslationLanguage(lang);
-						this.context.notifyUser(t.getSenderId(), "Automatic translations are active for language: " + lang);
-						LOGGER.info("User {} activated translations for {}.", t.getSenderId(), lang);
-					} else {
-						this.context.notifyUser(t.getSenderId(), "Unknown language code. For more info, visit https://cloud.google.com/translate/docs/languages");
-						LOGGER.warn("Unknown language {} requested by the user {}.", lang, t.getSenderId());
-					}
+				String lang = m.group(1);
+				if (GoogleTranslate.checkLanguageCode(lang)) {
+					senderData.setTranslationLanguage(lang);
+					this.context.respondUser(t.getSenderId(), "Automatic translations are active for language: " + lang);
+					LOGGER.info("User {} activated translations for {}.", t.getSenderId(), lang);
 				} else {
-					this.context.notifyUser(t.getSenderId(), "Did not understand your request. The correct syntax is !lang <language_code>");
+					this.context.respondUser(t.getSenderId(), "Unknown language code. For more info, visit https://cloud.google.com/translate/docs/languages");
+					LOGGER.warn("Unknown language {} requested by the user {}.", lang, t.getSenderId());
 				}
-			}
-
-		} else if (t.getMessage().equals("!top")) {
-			LOGGER.info("User {} requested a top list.", t.getSenderId());
-			SDF.setTimeZone(TimeZone.getTimeZone("UTC"));
-			List<TopPlayer> topList = this.context.getTopList();
-			if (topList == null || topList.size() == 0) {
-				this.context.notifyAll("Hall of Fame is currently not available.");
 			} else {
-				int n = 1;
-				for (TopPlayer top : topList) {
-					String message = (n++) + ". " + top.getCompanyName() + " - value " + DECF.format(top.getTopCompanyValue()) + " GBP - "
-							+ ((top.getGameFinishTs() == 0) ? "current game" : "game finished on " + SDF.format( new Date(top.getGameFinishTs()) ) + " UTC" );
-					
-					if (t.isPublic()) {
-						this.context.notifyAll(message);
-					} else {
-						this.context.notifyUser(t.getSenderId(), message);
-					}
-				}
-
-				String info;
-				if ((info = this.context.getHallOfFameLink()) != null) {
-					if (t.isPublic()) {
-						this.context.notifyAll(info);
-					} else {
-						this.context.notifyUser(t.getSenderId(), info);
-					}
-				}
+				this.context.respondUser(t.getSenderId(), "Did not understand your request. The correct syntax is !lang <language_code>");
 			}
-		} else if (t.getMessage().equals("!who")) {
-			LOGGER.info("User {} requested a user list.", t.getSenderId());
-			
-			for (ClientData client : this.context.getClients()) {
-				if (client.getClientId() == 1) {
-					continue;
-				}
-				
-				if (client.getLeftTs() > 0) {
-					continue;
-				}
-				
-				CompanyData company = this.context.getCompany(client.getPlaysAs());
-				String message = client.getName() + (company != null ? " as " + company.getName() + "/" + company.getColorName() : " as spectator") + (client.getCountry() != null ? " from " + client.getCountry() : "");
-				
-				if (t.isPublic()) {
-					this.context.notifyAll(message);
-				} else {
-					this.context.notifyUser(t.getSenderId(), message);
-				}
+		}
+	}
+	
+	/**
+	 * Shows the hall of fame.
+	 * @param t chat message
+	 * @param senderId description of the sender
+	 * @param senderData data of the sender or null if not known
+	 */
+	private void showTopList(ChatMessage t, String senderId, ClientData senderData) {
+		LOGGER.info("User {} requested a top list.", t.getSenderId());
+		SDF.setTimeZone(TimeZone.getTimeZone("UTC"));
+		List<TopPlayer> topList = this.context.getTopList();
+		if (topList == null || topList.size() == 0) {
+			this.context.respond(t.getSenderId(), true, Collections.singletonList("Hall of Fame is currently not available."));
+		} else {
+			List<String> lines = new ArrayList<>();
+			int n = 1;
+			for (TopPlayer top : topList) {
+				lines.add((n++) + ". " + top.getCompanyName() + " - value " + DECF.format(top.getTopCompanyValue()) + " GBP - "
+						+ ((top.getGameFinishTs() == 0) ? "current game" : "game finished on " + SDF.format( new Date(top.getGameFinishTs()) ) + " UTC" ));
 			}
-			
-		} else if (t.getMessage().startsWith("!")) {
-			LOGGER.debug("User {} entered an invalid command {}.", t.getSenderId(), t.getMessage());
-			this.context.notifyUser(t.getSenderId(), "No such command. For help, enter !help");
-			
-		} else if (t.getSenderId() != 1 && !t.getMessage().isEmpty()) {
-			LOGGER.debug("User {} sent a message to {} {}: {}.",
-					t.getSenderId(),
-					t.isPrivate() ? "user" : t.isCompany() ? "company" : t.isPublic() ? "all" : "unknown",
-					t.getRecipientId(),
-					t.getMessage());
 
-			Statement translation = this.context.translate(new Statement(t.getMessage()));
+			String info;
+			if ((info = this.context.getHallOfFameLink()) != null) {
+				lines.add(info);
+			}
 			
-			// only public chats are to be translated to others
-			if (t.isPublic() && translation != null) {
-				HashMap<String, String> translations = new HashMap<>();
-				translations.put(translation.getTargetLanguage(), translation.getStatement());
-
-				for (ClientData user : this.context.getClients()) {
-					// skip disconnected users
-					if (user.getLeftTs() > 0) {
-						continue;
-					}
-					
-					// skip translations to the sender
-					if (user.getClientId() == t.getSenderId()) {
-						continue;
-					}
-					
-					// only for users that requested a translation...
-					String target;
-					if ((target = user.getTranslationLanguage()) != null) {
-
-						// only if the statement is not already in the target language...
-						if (!target.equals(translation.getSourceLanguage())) {
-						
-							// try to find a cached value...
-							String customTranslation = null;
-							if ((customTranslation = translations.get(target)) == null) {
-
-								// didn't find, so try to translate it...
-								Statement statement = this.context.translate(new Statement(null, target, t.getMessage()));
-
-								// store the result if available...
-								if (statement != null && statement.getStatement() != null) {
-									translations.put(target, statement.getStatement());
-									customTranslation = statement.getStatement();
-								}
-							}
-							
-							if (customTranslation == null) {
-								LOGGER.warn("Failed to translate the message {} to {}.", t.getMessage(), target);
-							} else {
-								this.context.notifyUser(user.getClientId(), "[translation] " + customTranslation);
-							}
-						}
-					}
-				}
+			this.context.respond(t.getSenderId(), t.isPublic(), lines);
+		}
+	}
+	
+	/**
+	 * Shows the list of players.
+	 * @param t chat message
+	 * @param senderId description of the sender
+	 * @param senderData data of the sender or null if not known
+	 */
+	private void showPlayers(ChatMessage t, String senderId, ClientData senderData) {
+		LOGGER.info("User {} requested a user list.", t.getSenderId());
+		
+		List<String> lines = new ArrayList<>();
+		for (ClientData client : this.context.getClients()) {
+			if (client.getClientId() == 1) {
+				continue;
 			}
 			
-			if (translation != null && !"en".equals(translation.getSourceLanguage())) {
-				this.context.notifyAdmin(
-						EventType.Chat,
-						":pencil: " + senderId + " "
-						+ (t.isPrivate() ? ("(P->" + t.getRecipientId() + ") ") : (t.isCompany() ? ("(C->" + t.getRecipientId() + ") ") : ""))
-						+ t.getMessage() + "\r\n"
-						+ ":flags: " + translation.getStatement());
-			} else {
-				this.context.notifyAdmin(
-						EventType.Chat,
-						":pencil: " + senderId + " "
-						+ (t.isPrivate() ? ("(P->" + t.getRecipientId() + ") ") : (t.isCompany() ? ("(C->" + t.getRecipientId() + ") ") : ""))
-						+ t.getMessage());
+			if (client.getLeftTs() > 0) {
+				continue;
 			}
+			
+			CompanyData company = this.context.getCompany(client.getPlaysAs());
+			lines.add(client.getName() + (company != null ? " as " + company.getName() + "/" + company.getColorName() : " as spectator") + (client.getCountry() != null ? " from " + client.getCountry() : ""));
 		}
+		
+		this.context.respond(t.getSenderId(), t.isPublic(), lines);
 	}
 }
\ No newline at end of file
@@ -36,7 +36,9 @@ import de.miltschek.openttdadmin.data.Language;
 public class ClientData {
 	private final int clientId;
 	private ClientInfo clientInfo;
-	private GeoIp geoIp;
+	private volatile GeoIp geoIp;
+	private volatile boolean geoIpResolved;
+	private volatile boolean welcomePending;
 	private final long joinedTs;
 	private long leftTs;
 	private Date leftGameDate;
@@ -51,6 +53,7 @@ public class ClientData {
 	public ClientData(int clientId, GeoIp geoIp) {
 		this.clientId = clientId;
 		this.geoIp = geoIp;
+		this.geoIpResolved = geoIp != null;
 		this.joinedTs = System.currentTimeMillis();
 	}
 	
@@ -102,6 +105,47 @@ public class ClientData {
 		return this.geoIp == null ? null : this.geoIp.getCity();
 	}
 	
+	/**
+	 * Returns the geolocation data of the client or null if unknown.
+	 * @return the geolocation data of the client or null if unknown
+	 */
+	public GeoIp getGeoIp() {
+		return this.geoIp;
+	}
+	
+	/**
+	 * Sets the geolocation data as delivered by a lookup and marks the lookup as completed.
+	 * @param geoIp geolocation data or null if the address could not be located
+	 */
+	public void setGeoIp(GeoIp geoIp) {
+		this.geoIp = geoIp;
+		this.geoIpResolved = true;
+	}
+	
+	/**
+	 * Returns a value indicating whether a lookup of the geolocation data has been completed (successfully or not).
+	 * @return true if the lookup has been completed, false if still pending or not yet started
+	 */
+	public boolean isGeoIpResolved() {
+		return geoIpResolved;
+	}
+	
+	/**
+	 * Returns a value indicating whether the welcome message waits for the geolocation data.
+	 * @return true if the welcome message is still to be sent, false otherwise
+	 */
+	public boolean isWelcomePending() {
+		return welcomePending;
+	}
+	
+	/**
+	 * Sets a value indicating whether the welcome message waits for the geolocation data.
+	 * @param welcomePending true if the welcome message is still to be sent, false otherwise
+	 */
+	public void setWelcomePending(boolean welcomePending) {
+		this.welcomePending = welcomePending;
+	}
+	
 	/**
 	 * Returns a value denoting whether the address of the client is considered to be a proxy/VPN or false if unknown.
 	 * @return true if the address is consideres as a proxy/VPN, false otherwise (including unknown)
@@ -0,0 +1,238 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.miltschek.integrations.SlackMessage;
+
+/**
+ * Registry of Slack slash commands mapping command names to handlers.
+ * Resolves the game context of the channel, checks the caller's grants,
+ * splits the arguments and measures the execution time per command.
+ */
+public class CommandRegistry {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CommandRegistry.class);
+	
+	private static final Pattern P_PARAM = Pattern.compile("\\\"(?<v1>[^\"]*)\\\"|(?<v2>[^ \t\"]+)");
+	
+	/**
+	 * Handler of a single command.
+	 */
+	public interface Handler {
+		/**
+		 * Executes the command.
+		 * @param context context of the game bound to the channel
+		 * @param params command arguments, quoted arguments may contain spaces
+		 * @param slackMessage original command
+		 * @return text to be answered with or null if there is nothing to answer
+		 */
+		String execute(Context context, String[] params, SlackMessage slackMessage);
+	}
+	
+	/**
+	 * Execution statistics of a command.
+	 */
+	public static class Stats {
+		private long calls;
+		private long failures;
+		private long totalNanos;
+		private long maxNanos;
+		
+		private synchronized void record(long nanos, boolean failed) {
+			calls++;
+			if (failed) {
+				failures++;
+			}
+			
+			totalNanos += nanos;
+			if (nanos > maxNanos) {
+				maxNanos = nanos;
+			}
+		}
+		
+		/**
+		 * Gets the number of executions.
+		 * @return number of executions
+		 */
+		public synchronized long getCalls() {
+			return calls;
+		}
+		
+		/**
+		 * Gets the number of executions that threw an exception.
+		 * @return number of failed executions
+		 */
+		public synchronized long getFailures() {
+			return failures;
+		}
+		
+		/**
+		 * Gets the average execution time.
+		 * @return average execution time in milliseconds, 0 if never executed
+		 */
+		public synchronized long getAverageLatency() {
+			return calls == 0 ? 0 : totalNanos / calls / 1000000;
+		}
+		
+		/**
+		 * Gets the longest execution time.
+		 * @return longest execution time in milliseconds
+		 */
+		public synchronized long getMaxLatency() {
+			return maxNanos / 1000000;
+		}
+	}
+	
+	private static class Command {
+		private final Handler handler;
+		private final Stats stats = new Stats();
+		
+		private Command(Handler handler) {
+			this.handler = handler;
+		}
+	}
+	
+	private final Function<String, Context> contexts;
+	private final Map<String, Command> commands = new ConcurrentHashMap<>();
+	
+	/**
+	 * Creates an empty registry.
+	 * @param contexts function resolving a Slack channel name to the game context or null if none bound
+	 */
+	public CommandRegistry(Function<String, Context> contexts) {
+		this.contexts = contexts;
+	}
+	
+	/**
+	 * Registers a command handler.
+	 * @param command command name including the slash
+	 * @param handler handler of the command
+	 */
+	public void register(String command, Handler handler) {
+		if (commands.put(command, new Command(handler)) != null) {
+			LOGGER.warn("Command {} registered more than once.", command);
+		}
+	}
+	
+	/**
+	 * Gets the names of all registered commands.
+	 * @return names of all registered commands
+	 */
+	public Iterable<String> getCommands() {
+		return new TreeMap<>(commands).keySet();
+	}
+	
+	/**
+	 * Gets the execution statistics of a command.
+	 * @param command command name including the slash
+	 * @return statistics or null if the command is not registered
+	 */
+	public Stats getStats(String command) {
+		Command entry = commands.get(command);
+		return entry == null ? null : entry.stats;
+	}
+	
+	/**
+	 * Executes a command, checking the context and grants of the caller first.
+	 * @param slackMessage command to be executed
+	 * @return text to be answered with or null if there is nothing to answer
+	 */
+	public String execute(SlackMessage slackMessage) {
+		Command command = commands.get(slackMessage.getCommand());
+		if (command == null) {
+			LOGGER.error("Unknown command {}.", slackMessage.getCommand());
+			return null;
+		}
+		
+		Context context = contexts.apply(slackMessage.getChannelName());
+		if (context == null) {
+			LOGGER.error("No context found for the channel {}.", slackMessage.getChannelName());
+			return null;
+		}
+		
+		if (slackMessage.getUserId() == null) {
+			LOGGER.warn("Command {} without a user id. Ignoring.", slackMessage.getCommand());
+			return null;
+		}
+		
+		Configuration.Administrator administrator = context.getAdministrator(slackMessage.getUserId());
+		if (administrator == null) {
+			LOGGER.warn("Command {} from an unregistered user id {}. Ignoring.", slackMessage.getCommand(), slackMessage.getUserId());
+			return null;
+		}
+		
+		if (!administrator.getGrants().contains("*") && !administrator.getGrants().contains(slackMessage.getCommand())) {
+			LOGGER.warn("No grants for the command {} for the user id {}. Ignoring.", slackMessage.getCommand(), slackMessage.getUserId());
+			return ":exclamation: No permission for the command.";
+		}
+		
+		long startTs = System.nanoTime();
+		boolean failed = false;
+		try {
+			return command.handler.execute(context, parameters(slackMessage.getText()), slackMessage);
+		} catch (Exception ex) {
+			failed = true;
+			LOGGER.error("Failed to handle a command {}.", slackMessage, ex);
+			return ":x: Failed to execute " + slackMessage.getCommand();
+		} finally {
+			long nanos = System.nanoTime() - startTs;
+			command.stats.record(nanos, failed);
+			LOGGER.debug("Command {} executed in {} ms.", slackMessage.getCommand(), nanos / 1000000);
+		}
+	}
+	
+	/**
+	 * Splits command arguments, double quotes group words containing spaces.
+	 * @param line command arguments
+	 * @return array of arguments, empty if none
+	 */
+	static String[] parameters(String line) {
+		List<String> result = new ArrayList<String>();
+		if (line == null) {
+			return new String[0];
+		}
+		
+		Matcher m = P_PARAM.matcher(line);
+		while (m.find()) {
+			if (m.group("v1") != null) {
+				result.add(m.group("v1"));
+			} else {
+				result.add(m.group("v2"));
+			}
+		}
+		
+		return result.toArray(new String[result.size()]);
+	}
+}
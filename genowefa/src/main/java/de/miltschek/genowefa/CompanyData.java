@@ -37,6 +37,7 @@ public class CompanyData {
 	//private static final Logger LOGGER = LoggerFactory.getLogger(CompanyData.class);
 	
 	private byte companyId;
+	private volatile long dbId;
 	private int inauguratedYear;
 	private Color color;
 	private String name;
@@ -82,6 +83,22 @@ public class CompanyData {
 		return companyId;
 	}
 	
+	/**
+	 * Returns the company's database ID, if already known.
+	 * @return the company's database ID or 0 if not known yet
+	 */
+	public long getDbId() {
+		return dbId;
+	}
+	
+	/**
+	 * Sets the company's database ID.
+	 * @param dbId the company's database ID
+	 */
+	public void setDbId(long dbId) {
+		this.dbId = dbId;
+	}
+	
 	/**
 	 * Returns the year of company's establishment.
 	 * @return year of company's establishment
@@ -30,6 +30,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -38,6 +39,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import de.miltschek.genowefa.Context.EventType;
+
 /**
  * Holds application's configuration.
  */
@@ -53,6 +56,13 @@ public class Configuration {
 		private boolean reportCompanyEvents = true;
 		private boolean reportClientEvents = true;
 		private boolean reportChatMessages = true;
+		private int outboxCoalesceWindow = 500;
+		private int outboxMaxMessageLength = 4000;
+		private int outboxQueueSize = 500;
+		private int digestClientWindow = 5000;
+		private int digestCompanyWindow = 5000;
+		private int digestServerWindow = 0;
+		private int channelRefreshInterval = 600;
 		
 		/**
 		 * Creates settings for a Slack connector.
@@ -144,6 +154,112 @@ public class Configuration {
 		public void setReportServerEvents(boolean reportServerEvents) {
 			this.reportServerEvents = reportServerEvents;
 		}
+		
+		/**
+		 * Gets the time regular notifications wait in the outbox to be coalesced with further ones.
+		 * @return coalescing window in milliseconds
+		 */
+		public int getOutboxCoalesceWindow() {
+			return outboxCoalesceWindow;
+		}
+		
+		/**
+		 * Sets the time regular notifications wait in the outbox to be coalesced with further ones.
+		 * @param outboxCoalesceWindow coalescing window in milliseconds
+		 */
+		public void setOutboxCoalesceWindow(int outboxCoalesceWindow) {
+			this.outboxCoalesceWindow = outboxCoalesceWindow;
+		}
+		
+		/**
+		 * Gets the maximum length of a message made of coalesced notifications.
+		 * @return maximum message length in characters
+		 */
+		public int getOutboxMaxMessageLength() {
+			return outboxMaxMessageLength;
+		}
+		
+		/**
+		 * Sets the maximum length of a message made of coalesced notifications.
+		 * @param outboxMaxMessageLength maximum message length in characters
+		 */
+		public void setOutboxMaxMessageLength(int outboxMaxMessageLength) {
+			this.outboxMaxMessageLength = outboxMaxMessageLength;
+		}
+		
+		/**
+		 * Gets the maximum number of notifications waiting in the outbox per channel.
+		 * @return maximum number of waiting notifications
+		 */
+		public int getOutboxQueueSize() {
+			return outboxQueueSize;
+		}
+		
+		/**
+		 * Sets the maximum number of notifications waiting in the outbox per channel.
+		 * @param outboxQueueSize maximum number of waiting notifications
+		 */
+		public void setOutboxQueueSize(int outboxQueueSize) {
+			this.outboxQueueSize = outboxQueueSize;
+		}
+		
+		/**
+		 * Gets the time window notifications of the given type are aggregated over before being posted as one summary.
+		 * @param eventType type of the event
+		 * @return time window in milliseconds, 0 if notifications of this type are posted immediately
+		 */
+		public int getDigestWindow(EventType eventType) {
+			switch (eventType) {
+			case Client:
+				return digestClientWindow;
+			case Company:
+				return digestCompanyWindow;
+			case Server:
+				return digestServerWindow;
+			default:
+				return 0;
+			}
+		}
+		
+		/**
+		 * Sets the time window client-related notifications are aggregated over.
+		 * @param digestClientWindow time window in milliseconds, 0 to post them immediately
+		 */
+		public void setDigestClientWindow(int digestClientWindow) {
+			this.digestClientWindow = digestClientWindow;
+		}
+		
+		/**
+		 * Sets the time window company-related notifications are aggregated over.
+		 * @param digestCompanyWindow time window in milliseconds, 0 to post them immediately
+		 */
+		public void setDigestCompanyWindow(int digestCompanyWindow) {
+			this.digestCompanyWindow = digestCompanyWindow;
+		}
+		
+		/**
+		 * Sets the time window server-related notifications are aggregated over.
+		 * @param digestServerWindow time window in milliseconds, 0 to post them immediately
+		 */
+		public void setDigestServerWindow(int digestServerWindow) {
+			this.digestServerWindow = digestServerWindow;
+		}
+		
+		/**
+		 * Gets the interval of refreshing the list of Slack channels.
+		 * @return refresh interval in seconds, 0 if turned off
+		 */
+		public int getChannelRefreshInterval() {
+			return channelRefreshInterval;
+		}
+		
+		/**
+		 * Sets the interval of refreshing the list of Slack channels.
+		 * @param channelRefreshInterval refresh interval in seconds, 0 to turn it off
+		 */
+		public void setChannelRefreshInterval(int channelRefreshInterval) {
+			this.channelRefreshInterval = channelRefreshInterval;
+		}
 	}
 
 	/**
@@ -151,6 +267,13 @@ public class Configuration {
 	 */
 	public static class Google {
 		private final String keyFile;
+		private int translationCacheSize = 10000;
+		private int translationCacheTtl = 86400;
+		private boolean fastPath = true;
+		private int translationBatchWindow = 100;
+		private int translationThreads = 2;
+		private int translationQueueSize = 64;
+		private int translationDeadline = 5000;
 
 		/**
 		 * Creates settings for Google services.
@@ -168,6 +291,126 @@ public class Configuration {
 		public String getKeyFile() {
 			return keyFile;
 		}
+		
+		/**
+		 * Sets the maximum number of translations kept in the cache.
+		 * @param translationCacheSize maximum number of cached translations, 0 to turn the cache off
+		 */
+		public void setTranslationCacheSize(int translationCacheSize) {
+			this.translationCacheSize = translationCacheSize;
+		}
+		
+		/**
+		 * Gets the maximum number of translations kept in the cache.
+		 * Default 10000.
+		 * @return maximum number of cached translations, 0 if the cache is turned off
+		 */
+		public int getTranslationCacheSize() {
+			return translationCacheSize;
+		}
+		
+		/**
+		 * Sets the time in seconds a translation is served from the cache.
+		 * @param translationCacheTtl time in seconds a translation is served from the cache
+		 */
+		public void setTranslationCacheTtl(int translationCacheTtl) {
+			this.translationCacheTtl = translationCacheTtl;
+		}
+		
+		/**
+		 * Gets the time in seconds a translation is served from the cache.
+		 * Default 86400 (one day).
+		 * @return time in seconds a translation is served from the cache
+		 */
+		public int getTranslationCacheTtl() {
+			return translationCacheTtl;
+		}
+		
+		/**
+		 * Sets whether common chat tokens like "gg" or "lol" are assumed to be English without asking the service.
+		 * @param fastPath true to recognize common chat tokens locally, false to always ask the service
+		 */
+		public void setFastPath(boolean fastPath) {
+			this.fastPath = fastPath;
+		}
+		
+		/**
+		 * Gets whether common chat tokens like "gg" or "lol" are assumed to be English without asking the service.
+		 * Default true.
+		 * @return true if common chat tokens are recognized locally, false if the service is always asked
+		 */
+		public boolean isFastPath() {
+			return fastPath;
+		}
+		
+		/**
+		 * Sets the time window in milliseconds of collecting translation requests to be sent together.
+		 * @param translationBatchWindow time window in milliseconds, 0 to send each request immediately
+		 */
+		public void setTranslationBatchWindow(int translationBatchWindow) {
+			this.translationBatchWindow = translationBatchWindow;
+		}
+		
+		/**
+		 * Gets the time window in milliseconds of collecting translation requests to be sent together.
+		 * Default 100.
+		 * @return time window in milliseconds, 0 if each request is sent immediately
+		 */
+		public int getTranslationBatchWindow() {
+			return translationBatchWindow;
+		}
+		
+		/**
+		 * Sets the number of threads per game preparing chat translations.
+		 * @param translationThreads number of threads per game preparing chat translations
+		 */
+		public void setTranslationThreads(int translationThreads) {
+			this.translationThreads = translationThreads;
+		}
+		
+		/**
+		 * Gets the number of threads per game preparing chat translations.
+		 * Default 2.
+		 * @return number of threads per game preparing chat translations
+		 */
+		public int getTranslationThreads() {
+			return translationThreads;
+		}
+		
+		/**
+		 * Sets the maximum number of chat messages per game waiting to be translated.
+		 * @param translationQueueSize maximum number of chat messages waiting to be translated
+		 */
+		public void setTranslationQueueSize(int translationQueueSize) {
+			this.translationQueueSize = translationQueueSize;
+		}
+		
+		/**
+		 * Gets the maximum number of chat messages per game waiting to be translated.
+		 * Further messages are reported without a translation.
+		 * Default 64.
+		 * @return maximum number of chat messages waiting to be translated
+		 */
+		public int getTranslationQueueSize() {
+			return translationQueueSize;
+		}
+		
+		/**
+		 * Sets the time in milliseconds after which a chat translation is not delivered anymore.
+		 * @param translationDeadline time in milliseconds after which a chat translation is dropped
+		 */
+		public void setTranslationDeadline(int translationDeadline) {
+			this.translationDeadline = translationDeadline;
+		}
+		
+		/**
+		 * Gets the time in milliseconds after which a chat translation is not delivered anymore.
+		 * Default 5000.
+		 * @return time in milliseconds after which a chat translation is dropped
+		 */
+		public int getTranslationDeadline() {
+			return translationDeadline;
+		}
 	}
 	
 	/**
@@ -183,6 +426,7 @@ public class Configuration {
 		private String slackAdminChannel;
 		private String welcomeMessagePath = "on_new_client.txt";
 		private boolean forceNameChange;
+		private String shard;
 
 		/**
 		 * Creates settings of an OTTD game server.
@@ -293,6 +537,33 @@ public class Configuration {
 		public boolean isForceNameChange() {
 			return forceNameChange;
 		}
+		
+		/**
+		 * Sets the shard key of the game, i.e. the Genowefa process to administer the game.
+		 * @param shard shard key or null if not assigned to any shard
+		 */
+		public void setShard(String shard) {
+			this.shard = shard;
+		}
+		
+		/**
+		 * Gets the shard key of the game, i.e. the Genowefa process to administer the game.
+		 * Default none.
+		 * @return shard key or null if not assigned to any shard
+		 */
+		public String getShard() {
+			return shard;
+		}
+		
+		/**
+		 * Gets a value indicating whether the game is to be administered by a process of the given shard.
+		 * A process without a shard key administers all games.
+		 * @param processShard shard key of the process or null if none
+		 * @return true if to be administered, false otherwise
+		 */
+		public boolean isInShard(String processShard) {
+			return processShard == null || processShard.equals(this.shard);
+		}
 	}
 	
 	/**
@@ -304,6 +575,15 @@ public class Configuration {
 		private final String username;
 		private final String password;
 		private boolean dropTables;
+		private int historyRetentionQuarters = 8;
+		private int historyBatchSize = 50;
+		private int historyFlushInterval = 30;
+		private int hallOfFameSize = 10;
+		private String journalPath = "journal";
+		private int journalMaxSize = 64;
+		private GameStateSampler.Mode samplingMode = GameStateSampler.Mode.GameDays;
+		private int samplingInterval = GameStateSampler.DEFAULT_INTERVAL;
+		private int performanceHistorySize = GameStateSampler.DEFAULT_RING_SIZE;
 
 		/**
 		 * Creates settings of a database connection.
@@ -360,6 +640,90 @@ public class Configuration {
 		public boolean isDropTables() {
 			return dropTables;
 		}
+		
+		/**
+		 * Gets the number of full quarters (of real time) the raw economy and infrastructure history is kept for.
+		 * Older samples are rolled up into per-quarter aggregates and dropped.
+		 * Default 8.
+		 * @return number of quarters to keep the raw history for
+		 */
+		public int getHistoryRetentionQuarters() {
+			return historyRetentionQuarters;
+		}
+		
+		/**
+		 * Gets the number of history samples collected before they are written to the database in one batch.
+		 * Default 50.
+		 * @return number of history samples per batch
+		 */
+		public int getHistoryBatchSize() {
+			return historyBatchSize;
+		}
+		
+		/**
+		 * Gets the maximum time in seconds history samples are buffered before being written to the database.
+		 * Default 30.
+		 * @return maximum buffering time in seconds
+		 */
+		public int getHistoryFlushInterval() {
+			return historyFlushInterval;
+		}
+		
+		/**
+		 * Gets the number of top companies kept per game name in the hall of fame.
+		 * Default 10.
+		 * @return number of top companies kept per game name
+		 */
+		public int getHallOfFameSize() {
+			return hallOfFameSize;
+		}
+		
+		/**
+		 * Gets the directory of the local journal, where database mutations are stored while the database is not available.
+		 * Default "journal". Null or empty to disable the journal.
+		 * @return directory of the local journal
+		 */
+		public String getJournalPath() {
+			return journalPath;
+		}
+		
+		/**
+		 * Gets the maximum disk space in MB used by the local journal.
+		 * If exceeded, the oldest mutations are discarded.
+		 * Default 64.
+		 * @return maximum disk space in MB used by the local journal
+		 */
+		public int getJournalMaxSize() {
+			return journalMaxSize;
+		}
+		
+		/**
+		 * Gets the mode of sampling the in-game date and performance of games to be written to the database.
+		 * Default {@link GameStateSampler.Mode#GameDays}.
+		 * @return sampling mode
+		 */
+		public GameStateSampler.Mode getSamplingMode() {
+			return samplingMode;
+		}
+		
+		/**
+		 * Gets the minimum distance between two writes of the in-game date and performance
+		 * in units of the sampling mode (in-game days or real-time seconds).
+		 * Default 10.
+		 * @return sampling interval
+		 */
+		public int getSamplingInterval() {
+			return samplingInterval;
+		}
+		
+		/**
+		 * Gets the number of performance samples kept in memory per game.
+		 * Default 256.
+		 * @return number of performance samples kept in memory
+		 */
+		public int getPerformanceHistorySize() {
+			return performanceHistorySize;
+		}
 	}
 	
 	/**
@@ -368,6 +732,11 @@ public class Configuration {
 	public static class Chat {
 		private String hallOfFameLink;
 		private String helpMessage;
+		private int topListTtl = 60;
+		private final Map<String, Integer> commandIntervals = new HashMap<>();
+		private final Map<String, Integer> commandBursts = new HashMap<>();
+		private String rateLimitMessage = "Please wait a few seconds before using ${COMMAND} again.";
+		private int maxOutboundPerSecond = 20;
 		
 		/**
 		 * Sets the message shown as a link to the hall of fame.
@@ -400,6 +769,425 @@ public class Configuration {
 		public String getHelpMessage() {
 			return helpMessage;
 		}
+		
+		/**
+		 * Sets the time in seconds a retrieved top list is served from memory.
+		 * @param topListTtl time in seconds a retrieved top list is served from memory
+		 */
+		public void setTopListTtl(int topListTtl) {
+			this.topListTtl = topListTtl;
+		}
+		
+		/**
+		 * Gets the time in seconds a retrieved top list is served from memory.
+		 * Default 60.
+		 * @return time in seconds a retrieved top list is served from memory
+		 */
+		public int getTopListTtl() {
+			return topListTtl;
+		}
+		
+		/**
+		 * Sets the time after which a player earns another use of a chat command.
+		 * @param command name of the command including the exclamation mark
+		 * @param interval time in milliseconds, 0 for no limit
+		 */
+		public void setCommandInterval(String command, int interval) {
+			this.commandIntervals.put(command, interval);
+		}
+		
+		/**
+		 * Gets the time after which a player earns another use of a chat command.
+		 * @param command name of the command including the exclamation mark
+		 * @param defaultInterval time in milliseconds to be used if not configured
+		 * @return time in milliseconds, 0 for no limit
+		 */
+		public int getCommandInterval(String command, int defaultInterval) {
+			Integer interval = this.commandIntervals.get(command);
+			return interval == null ? defaultInterval : interval;
+		}
+		
+		/**
+		 * Sets the number of uses of a chat command a player may make in a row.
+		 * @param command name of the command including the exclamation mark
+		 * @param burst number of uses in a row
+		 */
+		public void setCommandBurst(String command, int burst) {
+			this.commandBursts.put(command, burst);
+		}
+		
+		/**
+		 * Gets the number of uses of a chat command a player may make in a row.
+		 * @param command name of the command including the exclamation mark
+		 * @param defaultBurst number of uses to be used if not configured
+		 * @return number of uses in a row
+		 */
+		public int getCommandBurst(String command, int defaultBurst) {
+			Integer burst = this.commandBursts.get(command);
+			return burst == null ? defaultBurst : burst;
+		}
+		
+		/**
+		 * Sets the answer to a chat command dropped due to the rate limit.
+		 * @param rateLimitMessage answer text, ${COMMAND} standing for the command name, null or empty to drop silently
+		 */
+		public void setRateLimitMessage(String rateLimitMessage) {
+			this.rateLimitMessage = rateLimitMessage;
+		}
+		
+		/**
+		 * Gets the answer to a chat command dropped due to the rate limit.
+		 * @return answer text, ${COMMAND} standing for the command name, null or empty to drop silently
+		 */
+		public String getRateLimitMessage() {
+			return rateLimitMessage;
+		}
+		
+		/**
+		 * Sets the maximum number of chat messages sent to a game server per second.
+		 * @param maxOutboundPerSecond maximum number of chat messages per second, 0 for no limit
+		 */
+		public void setMaxOutboundPerSecond(int maxOutboundPerSecond) {
+			this.maxOutboundPerSecond = maxOutboundPerSecond;
+		}
+		
+		/**
+		 * Gets the maximum number of chat messages sent to a game server per second.
+		 * A multi-line response to a chat command is either sent as a whole or replaced by a single busy line.
+		 * Default 20.
+		 * @return maximum number of chat messages per second, 0 for no limit
+		 */
+		public int getMaxOutboundPerSecond() {
+			return maxOutboundPerSecond;
+		}
+	}
+	
+	/**
+	 * Settings of the geolocation of network addresses.
+	 */
+	public static class Geolocation {
+		private int cacheSize = 4096;
+		private int cacheTtl = 86400;
+		private int negativeCacheTtl = 3600;
+		private String cacheFile = "geoip-cache.bin";
+		private int snapshotInterval = 600;
+		private String databaseFile;
+		private String csvFile;
+		private boolean httpFallback = true;
+		
+		/**
+		 * Sets the maximum number of network addresses kept in the lookup cache.
+		 * @param cacheSize maximum number of cached network addresses, 0 to turn the cache off
+		 */
+		public void setCacheSize(int cacheSize) {
+			this.cacheSize = cacheSize;
+		}
+		
+		/**
+		 * Gets the maximum number of network addresses kept in the lookup cache.
+		 * Default 4096.
+		 * @return maximum number of cached network addresses, 0 if the cache is turned off
+		 */
+		public int getCacheSize() {
+			return cacheSize;
+		}
+		
+		/**
+		 * Sets the time in seconds a successful lookup is served from the cache.
+		 * @param cacheTtl time in seconds a successful lookup is served from the cache
+		 */
+		public void setCacheTtl(int cacheTtl) {
+			this.cacheTtl = cacheTtl;
+		}
+		
+		/**
+		 * Gets the time in seconds a successful lookup is served from the cache.
+		 * Default 86400 (one day).
+		 * @return time in seconds a successful lookup is served from the cache
+		 */
+		public int getCacheTtl() {
+			return cacheTtl;
+		}
+		
+		/**
+		 * Sets the time in seconds a failed lookup is served from the cache.
+		 * @param negativeCacheTtl time in seconds a failed lookup is served from the cache, 0 not to cache failures
+		 */
+		public void setNegativeCacheTtl(int negativeCacheTtl) {
+			this.negativeCacheTtl = negativeCacheTtl;
+		}
+		
+		/**
+		 * Gets the time in seconds a failed lookup is served from the cache.
+		 * Default 3600 (one hour).
+		 * @return time in seconds a failed lookup is served from the cache, 0 if failures are not cached
+		 */
+		public int getNegativeCacheTtl() {
+			return negativeCacheTtl;
+		}
+		
+		/**
+		 * Sets the path to the file the cache is persisted to.
+		 * @param cacheFile path to the snapshot file, null or empty not to persist the cache
+		 */
+		public void setCacheFile(String cacheFile) {
+			this.cacheFile = cacheFile;
+		}
+		
+		/**
+		 * Gets the path to the file the cache is persisted to.
+		 * Default geoip-cache.bin in the current working directory.
+		 * @return path to the snapshot file, null or empty if the cache is not persisted
+		 */
+		public String getCacheFile() {
+			return cacheFile;
+		}
+		
+		/**
+		 * Sets the interval in seconds of persisting the cache.
+		 * @param snapshotInterval interval in seconds of persisting the cache, 0 to persist on exit only
+		 */
+		public void setSnapshotInterval(int snapshotInterval) {
+			this.snapshotInterval = snapshotInterval;
+		}
+		
+		/**
+		 * Gets the interval in seconds of persisting the cache.
+		 * Default 600.
+		 * @return interval in seconds of persisting the cache, 0 if persisted on exit only
+		 */
+		public int getSnapshotInterval() {
+			return snapshotInterval;
+		}
+		
+		/**
+		 * Sets the path to the local geolocation database.
+		 * @param databaseFile path to the local geolocation database, null to use the remote service only
+		 */
+		public void setDatabaseFile(String databaseFile) {
+			this.databaseFile = databaseFile;
+		}
+		
+		/**
+		 * Gets the path to the local geolocation database.
+		 * Default none.
+		 * @return path to the local geolocation database, null if the remote service is used only
+		 */
+		public String getDatabaseFile() {
+			return databaseFile;
+		}
+		
+		/**
+		 * Sets the path to the CSV data set the local geolocation database is imported from.
+		 * @param csvFile path to the CSV data set, null not to import
+		 */
+		public void setCsvFile(String csvFile) {
+			this.csvFile = csvFile;
+		}
+		
+		/**
+		 * Gets the path to the CSV data set the local geolocation database is imported from.
+		 * The import takes place on start if the CSV file is newer than the database file.
+		 * Default none.
+		 * @return path to the CSV data set, null if not to be imported
+		 */
+		public String getCsvFile() {
+			return csvFile;
+		}
+		
+		/**
+		 * Sets a value indicating whether to ask the remote service for addresses not known to the local database.
+		 * @param httpFallback true to ask the remote service, false to work offline
+		 */
+		public void setHttpFallback(boolean httpFallback) {
+			this.httpFallback = httpFallback;
+		}
+		
+		/**
+		 * Gets a value indicating whether to ask the remote service for addresses not known to the local database.
+		 * Default true.
+		 * @return true to ask the remote service, false to work offline
+		 */
+		public boolean isHttpFallback() {
+			return httpFallback;
+		}
+	}
+	
+	/**
+	 * Settings of the runtime of the games.
+	 */
+	public static class Runtime {
+		private String shard;
+		private int eventQueueSize = 1000;
+		private int eventStallTimeout = 60000;
+		private int supervisorInterval = 30;
+		private boolean configWatch = true;
+		private boolean listenerProfiling;
+		private int slowListenerThreshold = 1000;
+		
+		/**
+		 * Sets the shard key of this process.
+		 * @param shard shard key of this process or null to administer all games
+		 */
+		public void setShard(String shard) {
+			this.shard = shard;
+		}
+		
+		/**
+		 * Gets the shard key of this process.
+		 * Default none.
+		 * @return shard key of this process or null to administer all games
+		 */
+		public String getShard() {
+			return shard;
+		}
+		
+		/**
+		 * Sets the maximum number of events per game waiting to be processed.
+		 * @param eventQueueSize maximum number of events per game waiting to be processed
+		 */
+		public void setEventQueueSize(int eventQueueSize) {
+			this.eventQueueSize = eventQueueSize;
+		}
+		
+		/**
+		 * Gets the maximum number of events per game waiting to be processed.
+		 * Further events are dropped.
+		 * Default 1000.
+		 * @return maximum number of events per game waiting to be processed
+		 */
+		public int getEventQueueSize() {
+			return eventQueueSize;
+		}
+		
+		/**
+		 * Sets the time in milliseconds a single event of a game may be processed for.
+		 * @param eventStallTimeout time in milliseconds a single event of a game may be processed for, 0 for no limit
+		 */
+		public void setEventStallTimeout(int eventStallTimeout) {
+			this.eventStallTimeout = eventStallTimeout;
+		}
+		
+		/**
+		 * Gets the time in milliseconds a single event of a game may be processed for.
+		 * The game is restarted if exceeded.
+		 * Default 60000.
+		 * @return time in milliseconds a single event of a game may be processed for, 0 for no limit
+		 */
+		public int getEventStallTimeout() {
+			return eventStallTimeout;
+		}
+		
+		/**
+		 * Sets the interval in seconds of checking the health of the games.
+		 * @param supervisorInterval interval in seconds of checking the health of the games
+		 */
+		public void setSupervisorInterval(int supervisorInterval) {
+			this.supervisorInterval = supervisorInterval;
+		}
+		
+		/**
+		 * Gets the interval in seconds of checking the health of the games.
+		 * Default 30.
+		 * @return interval in seconds of checking the health of the games
+		 */
+		public int getSupervisorInterval() {
+			return supervisorInterval;
+		}
+		
+		/**
+		 * Sets a value indicating whether the configuration file is watched for changes.
+		 * @param configWatch true to reload the configuration on changes, false otherwise
+		 */
+		public void setConfigWatch(boolean configWatch) {
+			this.configWatch = configWatch;
+		}
+		
+		/**
+		 * Gets a value indicating whether the configuration file is watched for changes.
+		 * Default true.
+		 * @return true to reload the configuration on changes, false otherwise
+		 */
+		public boolean isConfigWatch() {
+			return configWatch;
+		}
+		
+		/**
+		 * Sets a value indicating whether each call of a listener is timed.
+		 * @param listenerProfiling true to time each call of a listener, false otherwise
+		 */
+		public void setListenerProfiling(boolean listenerProfiling) {
+			this.listenerProfiling = listenerProfiling;
+		}
+		
+		/**
+		 * Gets a value indicating whether each call of a listener is timed.
+		 * Default false.
+		 * @return true to time each call of a listener, false otherwise
+		 */
+		public boolean isListenerProfiling() {
+			return listenerProfiling;
+		}
+		
+		/**
+		 * Sets the time in milliseconds of a slow listener call.
+		 * @param slowListenerThreshold time in milliseconds of a slow listener call, 0 to turn off detecting slow calls
+		 */
+		public void setSlowListenerThreshold(int slowListenerThreshold) {
+			this.slowListenerThreshold = slowListenerThreshold;
+		}
+		
+		/**
+		 * Gets the time in milliseconds of a slow listener call.
+		 * The stack of a slow call is logged while the call is still running.
+		 * Default 1000.
+		 * @return time in milliseconds of a slow listener call, 0 to turn off detecting slow calls
+		 */
+		public int getSlowListenerThreshold() {
+			return slowListenerThreshold;
+		}
+	}
+	
+	/**
+	 * Settings of the metrics endpoint.
+	 */
+	public static class Metrics {
+		private String address = "127.0.0.1";
+		private int port;
+		
+		/**
+		 * Sets the local address the metrics endpoint is bound to.
+		 * @param address local address the metrics endpoint is bound to
+		 */
+		public void setAddress(String address) {
+			this.address = address;
+		}
+		
+		/**
+		 * Gets the local address the metrics endpoint is bound to.
+		 * Default 127.0.0.1.
+		 * @return local address the metrics endpoint is bound to
+		 */
+		public String getAddress() {
+			return address;
+		}
+		
+		/**
+		 * Sets the port number of the metrics endpoint.
+		 * @param port port number of the metrics endpoint, 0 to turn it off
+		 */
+		public void setPort(int port) {
+			this.port = port;
+		}
+		
+		/**
+		 * Gets the port number of the metrics endpoint.
+		 * Default 0 (off).
+		 * @return port number of the metrics endpoint, 0 to turn it off
+		 */
+		public int getPort() {
+			return port;
+		}
 	}
 	
 	/**
@@ -501,12 +1289,16 @@ public class Configuration {
 	private final Slack slack;
 	private final Google google;
 	private final List<Game> games;
-	private final Map<String, String> welcomeMessages;
+	private final Map<String, WelcomeTemplate> welcomeTemplates = new HashMap<>();
 	private final String[] playerNames;
 	private final Database database;
 	private final Chat chat = new Chat();
+	private final Geolocation geolocation = new Geolocation();
+	private final Runtime runtime = new Runtime();
+	private final Metrics metrics = new Metrics();
 	private final Map<String, Administrator> administrators = new HashMap<String, Administrator>();
-	private final Set<DenyRule> denyRules = new HashSet<>();
+	private final Set<DenyRule> denyRules = new LinkedHashSet<>();
+	private final DenyRuleEngine denyRuleEngine;
 	
 	/**
 	 * Loads the configuration out of a JSON file.
@@ -526,6 +1318,34 @@ public class Configuration {
 				this.slack.setReportClientEvents(!slackJson.has("report_client_events") || slackJson.getBoolean("report_client_events"));
 				this.slack.setReportCompanyEvents(!slackJson.has("report_company_events") || slackJson.getBoolean("report_company_events"));
 				this.slack.setReportServerEvents(!slackJson.has("report_server_events") || slackJson.getBoolean("report_server_events"));
+				
+				if (slackJson.has("outbox_coalesce_window")) {
+					this.slack.setOutboxCoalesceWindow(slackJson.getInt("outbox_coalesce_window"));
+				}
+				
+				if (slackJson.has("outbox_max_message_length")) {
+					this.slack.setOutboxMaxMessageLength(slackJson.getInt("outbox_max_message_length"));
+				}
+				
+				if (slackJson.has("outbox_queue_size")) {
+					this.slack.setOutboxQueueSize(slackJson.getInt("outbox_queue_size"));
+				}
+				
+				if (slackJson.has("digest_client_window")) {
+					this.slack.setDigestClientWindow(slackJson.getInt("digest_client_window"));
+				}
+				
+				if (slackJson.has("digest_company_window")) {
+					this.slack.setDigestCompanyWindow(slackJson.getInt("digest_company_window"));
+				}
+				
+				if (slackJson.has("digest_server_window")) {
+					this.slack.setDigestServerWindow(slackJson.getInt("digest_server_window"));
+				}
+				
+				if (slackJson.has("channel_refresh_interval")) {
+					this.slack.setChannelRefreshInterval(slackJson.getInt("channel_refresh_interval"));
+				}
 			} else {
 				this.slack = null;
 			}
@@ -533,6 +1353,34 @@ public class Configuration {
 			if (json.has("google")) {
 				JSONObject googleJson = json.getJSONObject("google");
 				this.google = new Google(googleJson.getString("key_file"));
+				
+				if (googleJson.has("translation_cache_size")) {
+					this.google.setTranslationCacheSize(googleJson.getInt("translation_cache_size"));
+				}
+				
+				if (googleJson.has("translation_cache_ttl")) {
+					this.google.setTranslationCacheTtl(googleJson.getInt("translation_cache_ttl"));
+				}
+				
+				if (googleJson.has("fast_path")) {
+					this.google.setFastPath(googleJson.getBoolean("fast_path"));
+				}
+				
+				if (googleJson.has("translation_batch_window")) {
+					this.google.setTranslationBatchWindow(googleJson.getInt("translation_batch_window"));
+				}
+				
+				if (googleJson.has("translation_threads")) {
+					this.google.setTranslationThreads(googleJson.getInt("translation_threads"));
+				}
+				
+				if (googleJson.has("translation_queue_size")) {
+					this.google.setTranslationQueueSize(googleJson.getInt("translation_queue_size"));
+				}
+				
+				if (googleJson.has("translation_deadline")) {
+					this.google.setTranslationDeadline(googleJson.getInt("translation_deadline"));
+				}
 			} else {
 				this.google = null;
 			}
@@ -564,6 +1412,10 @@ public class Configuration {
 					
 					game.setForceNameChange(gameJson.has("force_name_change") && gameJson.getBoolean("force_name_change")); 
 					
+					if (gameJson.has("shard")) {
+						game.setShard(gameJson.getString("shard"));
+					}
+					
 					this.games.add(game);
 				}
 			} else {
@@ -582,6 +1434,51 @@ public class Configuration {
 				if (dbJson.has("drop_tables") && dbJson.getBoolean("drop_tables")) {
 					this.database.dropTables = true;
 				}
+				
+				if (dbJson.has("history_retention_quarters")) {
+					this.database.historyRetentionQuarters = dbJson.getInt("history_retention_quarters");
+				}
+				
+				if (dbJson.has("history_batch_size")) {
+					this.database.historyBatchSize = dbJson.getInt("history_batch_size");
+				}
+				
+				if (dbJson.has("history_flush_interval")) {
+					this.database.historyFlushInterval = dbJson.getInt("history_flush_interval");
+				}
+				
+				if (dbJson.has("hall_of_fame_size")) {
+					this.database.hallOfFameSize = dbJson.getInt("hall_of_fame_size");
+				}
+				
+				if (dbJson.has("journal_path")) {
+					this.database.journalPath = dbJson.isNull("journal_path") ? null : dbJson.getString("journal_path");
+				}
+				
+				if (dbJson.has("journal_max_size")) {
+					this.database.journalMaxSize = dbJson.getInt("journal_max_size");
+				}
+				
+				if (dbJson.has("sampling_mode")) {
+					switch (dbJson.getString("sampling_mode")) {
+					case "game_days":
+						this.database.samplingMode = GameStateSampler.Mode.GameDays;
+						break;
+					case "wall_clock":
+						this.database.samplingMode = GameStateSampler.Mode.WallClock;
+						break;
+					default:
+						throw new JSONException("Unknown sampling mode " + dbJson.getString("sampling_mode") + ", expected game_days or wall_clock.");
+					}
+				}
+				
+				if (dbJson.has("sampling_interval")) {
+					this.database.samplingInterval = dbJson.getInt("sampling_interval");
+				}
+				
+				if (dbJson.has("performance_history_size")) {
+					this.database.performanceHistorySize = dbJson.getInt("performance_history_size");
+				}
 			} else {
 				this.database = null;
 			}
@@ -596,18 +1493,120 @@ public class Configuration {
 				if (chatJson.has("help_message")) {
 					this.chat.setHelpMessage(chatJson.getString("help_message"));
 				}
+				
+				if (chatJson.has("top_list_ttl")) {
+					this.chat.setTopListTtl(chatJson.getInt("top_list_ttl"));
+				}
+				
+				if (chatJson.has("command_intervals")) {
+					JSONObject intervalsJson = chatJson.getJSONObject("command_intervals");
+					for (String command : intervalsJson.keySet()) {
+						this.chat.setCommandInterval(command, intervalsJson.getInt(command));
+					}
+				}
+				
+				if (chatJson.has("command_bursts")) {
+					JSONObject burstsJson = chatJson.getJSONObject("command_bursts");
+					for (String command : burstsJson.keySet()) {
+						this.chat.setCommandBurst(command, burstsJson.getInt(command));
+					}
+				}
+				
+				if (chatJson.has("rate_limit_message")) {
+					this.chat.setRateLimitMessage(chatJson.isNull("rate_limit_message") ? null : chatJson.getString("rate_limit_message"));
+				}
+				
+				if (chatJson.has("max_outbound_per_second")) {
+					this.chat.setMaxOutboundPerSecond(chatJson.getInt("max_outbound_per_second"));
+				}
 			}
 			
-			if (json.has("welcome_messages")) {
-				this.welcomeMessages = new HashMap<>();
+			if (json.has("geoip")) {
+				JSONObject geoJson = json.getJSONObject("geoip");
+				
+				if (geoJson.has("cache_size")) {
+					this.geolocation.setCacheSize(geoJson.getInt("cache_size"));
+				}
 				
+				if (geoJson.has("cache_ttl")) {
+					this.geolocation.setCacheTtl(geoJson.getInt("cache_ttl"));
+				}
+				
+				if (geoJson.has("negative_cache_ttl")) {
+					this.geolocation.setNegativeCacheTtl(geoJson.getInt("negative_cache_ttl"));
+				}
+				
+				if (geoJson.has("cache_file")) {
+					this.geolocation.setCacheFile(geoJson.isNull("cache_file") ? null : geoJson.getString("cache_file"));
+				}
+				
+				if (geoJson.has("snapshot_interval")) {
+					this.geolocation.setSnapshotInterval(geoJson.getInt("snapshot_interval"));
+				}
+				
+				if (geoJson.has("database_file")) {
+					this.geolocation.setDatabaseFile(geoJson.getString("database_file"));
+				}
+				
+				if (geoJson.has("csv_file")) {
+					this.geolocation.setCsvFile(geoJson.getString("csv_file"));
+				}
+				
+				if (geoJson.has("http_fallback")) {
+					this.geolocation.setHttpFallback(geoJson.getBoolean("http_fallback"));
+				}
+			}
+			
+			if (json.has("runtime")) {
+				JSONObject runtimeJson = json.getJSONObject("runtime");
+				
+				if (runtimeJson.has("shard")) {
+					this.runtime.setShard(runtimeJson.isNull("shard") ? null : runtimeJson.getString("shard"));
+				}
+				
+				if (runtimeJson.has("event_queue_size")) {
+					this.runtime.setEventQueueSize(runtimeJson.getInt("event_queue_size"));
+				}
+				
+				if (runtimeJson.has("event_stall_timeout")) {
+					this.runtime.setEventStallTimeout(runtimeJson.getInt("event_stall_timeout"));
+				}
+				
+				if (runtimeJson.has("supervisor_interval")) {
+					this.runtime.setSupervisorInterval(runtimeJson.getInt("supervisor_interval"));
+				}
+				
+				if (runtimeJson.has("config_watch")) {
+					this.runtime.setConfigWatch(runtimeJson.getBoolean("config_watch"));
+				}
+				
+				if (runtimeJson.has("listener_profiling")) {
+					this.runtime.setListenerProfiling(runtimeJson.getBoolean("listener_profiling"));
+				}
+				
+				if (runtimeJson.has("slow_listener_threshold")) {
+					this.runtime.setSlowListenerThreshold(runtimeJson.getInt("slow_listener_threshold"));
+				}
+			}
+			
+			if (json.has("metrics")) {
+				JSONObject metricsJson = json.getJSONObject("metrics");
+				
+				if (metricsJson.has("address")) {
+					this.metrics.setAddress(metricsJson.getString("address"));
+				}
+				
+				if (metricsJson.has("port")) {
+					this.metrics.setPort(metricsJson.getInt("port"));
+				}
+			}
+			
+			if (json.has("welcome_messages")) {
 				JSONArray welcomeJson = json.getJSONArray("welcome_messages");
 				for (int n = welcomeJson.length() - 1; n >= 0; n--) {
 					JSONObject welcome = welcomeJson.getJSONObject(n);
-					this.welcomeMessages.put(welcome.getString("country"), welcome.getString("message"));
+					this.welcomeTemplates.put(welcome.getString("country"), WelcomeTemplate.parse(welcome.getString("message")));
 				}
-			} else {
-				this.welcomeMessages = null;
 			}
 			
 			if (json.has("player_names")) {
@@ -640,7 +1639,7 @@ public class Configuration {
 			
 			if (json.has("deny_rules")) {
 				JSONArray denyRulesJson = json.getJSONArray("deny_rules");
-				for (int n = denyRulesJson.length() - 1; n >= 0; n--) {
+				for (int n = 0; n < denyRulesJson.length(); n++) {
 					JSONObject denyRuleJson = denyRulesJson.getJSONObject(n);
 					
 					this.denyRules.add(new DenyRule(
@@ -649,6 +1648,8 @@ public class Configuration {
 							denyRuleJson.getString("message")));
 				}
 			}
+			
+			this.denyRuleEngine = new DenyRuleEngine(this.denyRules);
 		} catch (JSONException ex) {
 			throw new IOException(ex);
 		}
@@ -703,21 +1704,41 @@ public class Configuration {
 	}
 	
 	/**
-	 * Gets a welcome-message template for a given country.
+	 * Gets settings of the geolocation of network addresses.
+	 * @return settings of the geolocation of network addresses
+	 */
+	public Geolocation getGeolocation() {
+		return geolocation;
+	}
+	
+	/**
+	 * Gets settings of the runtime of the games.
+	 * @return settings of the runtime of the games
+	 */
+	public Runtime getRuntime() {
+		return runtime;
+	}
+	
+	/**
+	 * Gets settings of the metrics endpoint.
+	 * @return settings of the metrics endpoint
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Gets a parsed welcome-message template for a given country.
 	 * @param countryCode country code (ISO 3166-1 alpha-2)
-	 * @param fallbackToDefault true to return the default message if the specific not available
-	 * @return a message template or null if not found
+	 * @param fallbackToDefault true to return the default template if the specific not available
+	 * @return a parsed template or null if not found
 	 */
-	public String getWelcomeMessage(String countryCode, boolean fallbackToDefault) {
-		if (this.welcomeMessages == null) {
-			return null;
+	public WelcomeTemplate getWelcomeTemplate(String countryCode, boolean fallbackToDefault) {
+		WelcomeTemplate result = this.welcomeTemplates.get(countryCode);
+		if (result == null && fallbackToDefault) {
+			return this.welcomeTemplates.get("*");
 		} else {
-			String result = this.welcomeMessages.get(countryCode);
-			if (result == null && fallbackToDefault) {
-				return this.welcomeMessages.get("*");
-			} else {
-				return result;
-			}
+			return result;
 		}
 	}
 	
@@ -737,4 +1758,12 @@ public class Configuration {
 	public Set<? extends DenyRule> getDenyRules() {
 		return this.denyRules;
 	}
+	
+	/**
+	 * Gets the deny rules compiled for evaluation.
+	 * @return the compiled deny rules
+	 */
+	public DenyRuleEngine getDenyRuleEngine() {
+		return this.denyRuleEngine;
+	}
 }
@@ -0,0 +1,203 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the configuration file and reloads it on changes.
+ * A changed file is parsed and validated completely before the new configuration
+ * gets applied, an invalid file is rejected and the current configuration stays in place.
+ * Changes are detected by a hash of the file's content, so that touching the file
+ * does not trigger a reload, while an edit keeping the size and the timestamp does.
+ */
+public class ConfigurationWatcher implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConfigurationWatcher.class);
+	
+	/** Time in milliseconds to wait for further changes, editors tend to write a file in several steps. */
+	private static final long SETTLE_TIME = 500;
+	
+	private final File file;
+	private final Function<Configuration, String> validator;
+	private final Consumer<Configuration> applier;
+	private final WatchService watchService;
+	private final Thread thread;
+	
+	/** Hash of the content of the file last loaded, null if not readable. */
+	private byte[] hash;
+	
+	private final AtomicLong reloads = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	
+	/**
+	 * Starts watching the configuration file.
+	 * @param path path to the configuration file
+	 * @param validator checks a new configuration, returns a description of the problem or null if valid
+	 * @param applier applies a new, valid configuration
+	 * @throws IOException if the file cannot be watched
+	 */
+	public ConfigurationWatcher(String path, Function<Configuration, String> validator, Consumer<Configuration> applier) throws IOException {
+		this.file = new File(path).getAbsoluteFile();
+		this.validator = validator;
+		this.applier = applier;
+		this.hash = hash(this.file);
+		
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.file.getParentFile().toPath().register(this.watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		
+		this.thread = new Thread(this::watch, "config-watcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	/**
+	 * Waits for changes of the file.
+	 */
+	private void watch() {
+		Path fileName = this.file.toPath().getFileName();
+		
+		try {
+			while (true) {
+				WatchKey key = this.watchService.take();
+				boolean changed = false;
+				do {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (fileName.equals(event.context())) {
+							changed = true;
+						}
+					}
+					
+					key.reset();
+				} while ((key = this.watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS)) != null);
+				
+				if (changed) {
+					reload();
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException ex) {
+			LOGGER.debug("Configuration watcher stopped.");
+		}
+	}
+	
+	/**
+	 * Calculates a hash of the content of a file.
+	 * @param file file to be read
+	 * @return SHA-256 hash of the content or null if the file could not be read
+	 */
+	private static byte[] hash(File file) {
+		try {
+			return DigestUtils.sha256(Files.readAllBytes(file.toPath()));
+		} catch (IOException ex) {
+			LOGGER.debug("Failed to read the configuration file {}.", file, ex);
+			return null;
+		}
+	}
+	
+	/**
+	 * Loads, validates and applies the configuration file if its content has changed.
+	 */
+	private void reload() {
+		byte[] fileHash = hash(this.file);
+		if (fileHash == null || Arrays.equals(fileHash, this.hash)) {
+			return;
+		}
+		
+		this.hash = fileHash;
+		
+		Configuration configuration;
+		try {
+			configuration = new Configuration(this.file.getPath());
+		} catch (Exception ex) {
+			this.rejected.incrementAndGet();
+			LOGGER.error("Rejected the changed configuration file {}, keeping the current configuration.", this.file, ex);
+			return;
+		}
+		
+		String problem = this.validator.apply(configuration);
+		if (problem != null) {
+			this.rejected.incrementAndGet();
+			LOGGER.error("Rejected the changed configuration file {}, keeping the current configuration: {}.", this.file, problem);
+			return;
+		}
+		
+		LOGGER.info("Applying the changed configuration file {}.", this.file);
+		try {
+			this.applier.accept(configuration);
+			this.reloads.incrementAndGet();
+		} catch (Exception ex) {
+			LOGGER.error("Failed to apply the changed configuration file {}.", this.file, ex);
+		}
+	}
+	
+	/**
+	 * Gets the number of configurations applied so far.
+	 * @return number of applied configurations
+	 */
+	public long getReloads() {
+		return this.reloads.get();
+	}
+	
+	/**
+	 * Gets the number of configurations rejected so far.
+	 * @return number of rejected configurations
+	 */
+	public long getRejected() {
+		return this.rejected.get();
+	}
+	
+	/**
+	 * Stops watching the file.
+	 */
+	@Override
+	public void close() {
+		try {
+			this.watchService.close();
+		} catch (IOException ex) {
+			LOGGER.warn("Failed to close the configuration watcher.", ex);
+		}
+		
+		this.thread.interrupt();
+	}
+}
@@ -25,12 +25,13 @@ package de.miltschek.genowefa;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
-import java.util.function.BiConsumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
@@ -39,8 +40,7 @@ import org.slf4j.LoggerFactory;
 import de.miltschek.genowefa.Configuration.Administrator;
 import de.miltschek.genowefa.Configuration.DenyRule;
 import de.miltschek.integrations.GoogleTranslate;
-import de.miltschek.integrations.GoogleTranslate.Result;
-import de.miltschek.integrations.SlackRTMClient;
+import de.miltschek.integrations.SlackOutbox;
 import de.miltschek.openttdadmin.OttdAdminClient;
 import de.miltschek.openttdadmin.data.ChatMessage;
 import de.miltschek.openttdadmin.data.ChatMessage.Recipient;
@@ -48,6 +48,8 @@ import de.miltschek.openttdadmin.data.ClosureReason;
 import de.miltschek.openttdadmin.data.CompanyEconomy;
 import de.miltschek.openttdadmin.data.CompanyStatistics;
 import de.miltschek.openttdadmin.data.Date;
+import de.miltschek.openttdadmin.metrics.Histogram;
+import de.miltschek.openttdadmin.metrics.MetricsRegistry;
 
 /**
  * Application's context.
@@ -55,17 +57,36 @@ import de.miltschek.openttdadmin.data.Date;
 public class Context {
 	private static final Logger LOGGER = LoggerFactory.getLogger(Context.class);
 	
+	/** Metrics: time until a statement is translated, including cache hits and waiting for a batch. */
+	private static final Histogram TRANSLATE_TIME = MetricsRegistry.getDefault().histogram("genowefa_translate_end_to_end_seconds",
+			"End-to-end time of translating chat messages, including cache hits and waiting for a batch.");
+	
 	private final Random randomizer = new Random();
 	
-	private final Configuration configuration;
-	private final Configuration.Game thisGame;
-	private final ResetLock resetLock;
+	/**
+	 * Settings of this game, replaced as a whole on a configuration reload.
+	 */
+	private static class Settings {
+		private final Configuration configuration;
+		private final Configuration.Game thisGame;
+		private final String channel;
+		private final String adminChannel;
+		
+		private Settings(Configuration configuration, Configuration.Game thisGame, String channel, String adminChannel) {
+			this.configuration = configuration;
+			this.thisGame = thisGame;
+			this.channel = channel;
+			this.adminChannel = adminChannel;
+		}
+	}
+	
+	private volatile Settings settings;
+	private final ResetCoordinator resetCoordinator;
 	private final OttdAdminClient admin;
-	private final SlackRTMClient slack;
-	private final String channel;
-	private final String adminChannel;
+	private final SlackOutbox slack;
 	private final GoogleTranslate googleTranslate;
 	private final DatabaseConnector db;
+	private final Executor eventExecutor;
 	
 	private ClientDataProvider clientDataProvider;
 	private CompanyDataProvider companyDataProvider;
@@ -74,10 +95,32 @@ public class Context {
 	private long dbGameId;
 	private long gameSalt;
 	private Date currentDate = new Date(0);
-	private int dbUpdateCounterDate = 0;
-	private int performance;
-	private int dbUpdateCounterPerformance = 0;
-	private final int DB_UPDATE_INTERVAL = 10;
+	private int performance = DatabaseConnector.UNKNOWN_PERFORMANCE;
+	private final GameStateSampler gameStateSampler;
+	private final TranslationStage translationStage;
+	private final SlackDigest slackDigest;
+	private final ChatCommandRouter chatCommandRouter = new ChatCommandRouter(this);
+	private final RateLimiter outboundLimiter = new RateLimiter(1);
+	private volatile WelcomeFile welcomeFile;
+	private long outboundDropped;
+	private static final int TOP_LIST_LIMIT = 5;
+	private volatile TopList topList;
+	private final AtomicBoolean topListRefreshing = new AtomicBoolean();
+	
+	/**
+	 * Top players list of a game, as read from the database at a given time.
+	 */
+	private static class TopList {
+		private final long gameId;
+		private final long ts;
+		private final List<TopPlayer> players;
+		
+		private TopList(long gameId, long ts, List<TopPlayer> players) {
+			this.gameId = gameId;
+			this.ts = ts;
+			this.players = players;
+		}
+	}
 	
 	/**
 	 * Describes type of an event for filtering purposes.
@@ -144,31 +187,129 @@ public class Context {
 	/**
 	 * Creates an application's context object.
 	 * @param configuration reference to the application's configuration.
-	 * @param resetLock lock object for company-reset function.
 	 * @param admin OTTD admin client.
-	 * @param slack Slack real-time-messaging connector or null if not available.
+	 * @param slack outbox of the Slack connector or null if not available.
 	 * @param channel slack channel name (including hash-symbol) to bind with the given game server. 
 	 * @param googleTranslate Google Translate service or null if not available.
 	 * @param db Database connector for storing statistical data or null if not available.
+	 * @param eventExecutor executor of the events of this game.
 	 */
 	public Context(Configuration configuration,
 			Configuration.Game thisGame,
-			ResetLock resetLock,
 			OttdAdminClient admin,
-			SlackRTMClient slack,
+			SlackOutbox slack,
 			String channel,
 			String adminChannel,
 			GoogleTranslate googleTranslate,
-			DatabaseConnector db) {
-		this.configuration = configuration;
-		this.thisGame = thisGame;
-		this.resetLock = resetLock;
+			DatabaseConnector db,
+			Executor eventExecutor) {
+		this.settings = new Settings(configuration, thisGame, channel, adminChannel);
 		this.admin = admin;
 		this.slack = slack;
-		this.channel = channel;
-		this.adminChannel = adminChannel;
 		this.googleTranslate = googleTranslate;
 		this.db = db;
+		this.eventExecutor = eventExecutor;
+		
+		Configuration.Database dbConfig = configuration.getDatabase();
+		this.gameStateSampler = dbConfig == null
+				? new GameStateSampler(GameStateSampler.Mode.GameDays, GameStateSampler.DEFAULT_INTERVAL, GameStateSampler.DEFAULT_RING_SIZE)
+				: new GameStateSampler(dbConfig.getSamplingMode(), dbConfig.getSamplingInterval(), dbConfig.getPerformanceHistorySize());
+		
+		Configuration.Google googleConfig = configuration.getGoogle() == null ? new Configuration.Google(null) : configuration.getGoogle();
+		this.translationStage = new TranslationStage(this,
+				googleConfig.getTranslationThreads(),
+				googleConfig.getTranslationQueueSize(),
+				googleConfig.getTranslationDeadline());
+		
+		this.slackDigest = slack == null ? null : new SlackDigest(slack, channel, configuration.getSlack());
+		this.welcomeFile = new WelcomeFile(thisGame.getWelcomeMessagePath());
+		this.resetCoordinator = new ResetCoordinator(this, ResetCoordinator.DEFAULT_TIMEOUT);
+	}
+	
+	/**
+	 * Applies a reloaded configuration to this game without interrupting the connection to the game server.
+	 * The configuration is swapped as a whole, so that any call sees either the old or the new settings.
+	 * The settings of the game server (address and port) must not change.
+	 * @param configuration the new application's configuration
+	 * @param thisGame the new settings of this game server, part of the new configuration
+	 */
+	public synchronized void reconfigure(Configuration configuration, Configuration.Game thisGame) {
+		String welcomeMessagePath = this.settings.thisGame.getWelcomeMessagePath();
+		
+		this.settings = new Settings(configuration, thisGame, thisGame.getSlackChannel(), thisGame.getSlackAdminChannel());
+		this.topList = null;
+		
+		if (this.slackDigest != null) {
+			this.slackDigest.reconfigure(thisGame.getSlackChannel(), configuration.getSlack());
+		}
+		
+		if (welcomeMessagePath == null ? thisGame.getWelcomeMessagePath() != null : !welcomeMessagePath.equals(thisGame.getWelcomeMessagePath())) {
+			this.welcomeFile = new WelcomeFile(thisGame.getWelcomeMessagePath());
+		}
+		
+		this.chatCommandRouter.reconfigure();
+	}
+	
+	/**
+	 * Gets the router of chat commands of this game.
+	 * @return the router of chat commands
+	 */
+	public ChatCommandRouter getChatCommandRouter() {
+		return chatCommandRouter;
+	}
+	
+	/**
+	 * Gets the time after which a player earns another use of a chat command.
+	 * @param command name of the command including the exclamation mark
+	 * @param defaultInterval time in milliseconds to be used if not configured
+	 * @return time in milliseconds, 0 for no limit
+	 */
+	public int getChatCommandInterval(String command, int defaultInterval) {
+		return this.settings.configuration.getChat().getCommandInterval(command, defaultInterval);
+	}
+	
+	/**
+	 * Gets the number of uses of a chat command a player may make in a row.
+	 * @param command name of the command including the exclamation mark
+	 * @param defaultBurst number of uses to be used if not configured
+	 * @return number of uses in a row
+	 */
+	public int getChatCommandBurst(String command, int defaultBurst) {
+		return this.settings.configuration.getChat().getCommandBurst(command, defaultBurst);
+	}
+	
+	/**
+	 * Gets the answer to a chat command dropped due to the rate limit.
+	 * @return answer text, ${COMMAND} standing for the command name, or null to drop silently
+	 */
+	public String getChatRateLimitMessage() {
+		return this.settings.configuration.getChat().getRateLimitMessage();
+	}
+	
+	/**
+	 * Gets the digest aggregating admin notifications of this game.
+	 * @return the digest or null if Slack is not available
+	 */
+	public SlackDigest getSlackDigest() {
+		return slackDigest;
+	}
+	
+	/**
+	 * Gets the stage translating chat messages of this game.
+	 * @return the stage translating chat messages of this game
+	 */
+	public TranslationStage getTranslationStage() {
+		return translationStage;
+	}
+	
+	/**
+	 * Gets the executor of the events of this game.
+	 * Results of asynchronous operations shall be processed by this executor
+	 * in order to keep them in line with the events of the game server.
+	 * @return the executor of the events of this game
+	 */
+	public Executor getEventExecutor() {
+		return eventExecutor;
 	}
 	
 	/**
@@ -176,7 +317,7 @@ public class Context {
 	 * @return the network address of the game server
 	 */
 	public String getAddress() {
-		return this.thisGame.getAddress();
+		return this.settings.thisGame.getAddress();
 	}
 	
 	/**
@@ -184,7 +325,7 @@ public class Context {
 	 * @return the port number of the game server
 	 */
 	public int getPort() {
-		return this.thisGame.getPort();
+		return this.settings.thisGame.getPort();
 	}
 	
 	/**
@@ -194,12 +335,8 @@ public class Context {
 	public void setCurrentDate(Date currentDate) {
 		this.currentDate = currentDate;
 		
-		if (this.db != null && dbGameId > 0 && (this.dbUpdateCounterDate++ % DB_UPDATE_INTERVAL == 0)) {
-			if (db.updateGameDate(dbGameId, currentDate)) {
-				LOGGER.debug("Updated game {} date {}.", dbGameId, currentDate);
-			} else {
-				LOGGER.error("Failed to update game {} date {}.", dbGameId, currentDate);
-			}
+		if (gameStateSampler.dateChanged(currentDate)) {
+			storeGameState();
 		}
 	}
 	
@@ -218,11 +355,21 @@ public class Context {
 	public void setPerformance(int performance) {
 		this.performance = performance;
 		
-		if (this.db != null && dbGameId > 0 && (this.dbUpdateCounterPerformance++ % DB_UPDATE_INTERVAL == 0)) {
-			if (db.updateGamePerformance(dbGameId, performance)) {
-				LOGGER.debug("Updated game {} performance {}.", dbGameId, performance);
+		if (gameStateSampler.performanceMeasured(performance)) {
+			storeGameState();
+		}
+	}
+	
+	/**
+	 * Writes the current in-game date and performance to the database in one go.
+	 */
+	private void storeGameState() {
+		if (this.db != null && dbGameId > 0) {
+			if (db.updateGameState(dbGameId, currentDate, performance)) {
+				gameStateSampler.written();
+				LOGGER.debug("Updated game {} date {}, performance {}.", dbGameId, currentDate, performance);
 			} else {
-				LOGGER.error("Failed to update game {} performance {}.", dbGameId, performance);
+				LOGGER.error("Failed to update game {} date {}, performance {}.", dbGameId, currentDate, performance);
 			}
 		}
 	}
@@ -235,6 +382,23 @@ public class Context {
 		return performance;
 	}
 	
+	/**
+	 * Gets the average duration of one in-game day over the recent performance samples kept in memory.
+	 * @param lastSamples number of the most recent samples to be considered
+	 * @return average duration of one in-game day expressed as real-time milliseconds or -1 if not available
+	 */
+	public int getAveragePerformance(int lastSamples) {
+		return gameStateSampler.getAveragePerformance(lastSamples);
+	}
+	
+	/**
+	 * Gets the number of in-game days covered by the performance samples kept in memory.
+	 * @return number of in-game days covered by the performance samples
+	 */
+	public int getPerformanceHistoryDays() {
+		return gameStateSampler.getCoveredDays();
+	}
+	
 	/**
 	 * Gets the database ID of the game.
 	 * @return the database ID of the game
@@ -265,20 +429,28 @@ public class Context {
 	}
 	
 	/**
-	 * Retrieves a welcome-message template for the given country.
+	 * Retrieves a path to a text file containing a customized server-welcome message. 
+	 * @return a file path
+	 */
+	public String getWelcomeMessagePath() {
+		return this.settings.thisGame.getWelcomeMessagePath();
+	}
+	
+	/**
+	 * Retrieves a parsed welcome-message template for the given country.
 	 * @param countryCode country code (ISO 3166-1 alpha-2)
-	 * @return a welcome-message template or null if not available
+	 * @return a parsed welcome-message template or null if not available
 	 */
-	public String getWelcomeMessage(String countryCode) {
-		return this.configuration.getWelcomeMessage(countryCode, true);
+	public WelcomeTemplate getWelcomeTemplate(String countryCode) {
+		return this.settings.configuration.getWelcomeTemplate(countryCode, true);
 	}
 	
 	/**
-	 * Retrieves a path to a text file containing a customized server-welcome message. 
-	 * @return a file path
+	 * Retrieves the lines of the customized server-welcome message, cached in memory.
+	 * @return lines of the message or an empty list if not available
 	 */
-	public String getWelcomeMessagePath() {
-		return this.thisGame.getWelcomeMessagePath();
+	public List<String> getWelcomeMessageLines() {
+		return this.welcomeFile.getLines();
 	}
 	
 	/**
@@ -286,7 +458,7 @@ public class Context {
 	 * @return the message shown as a link to the hall of fame
 	 */
 	public String getHallOfFameLink() {
-		return this.configuration.getChat().getHallOfFameLink();
+		return this.settings.configuration.getChat().getHallOfFameLink();
 	}
 	
 	/**
@@ -294,7 +466,7 @@ public class Context {
 	 * @return the additional help message shown when a user requests help
 	 */
 	public String getHelpMessage() {
-		return this.configuration.getChat().getHelpMessage();
+		return this.settings.configuration.getChat().getHelpMessage();
 	}
 	
 	/**
@@ -302,33 +474,49 @@ public class Context {
 	 * @return forceNameChange true to generate names for no-named players, false otherwise
 	 */
 	public boolean isForceNameChange() {
-		return this.thisGame.isForceNameChange();
+		return this.settings.thisGame.isForceNameChange();
 	}
 	
 	/**
 	 * Sends a message to administrator (over Slack).
+	 * The message is queued in the Slack outbox, so the call never blocks;
+	 * admin requests are posted with priority.
+	 * Client, company and server events are aggregated into one summary per type if configured so.
 	 * @param eventType type of the event for filtering purposes
 	 * @param message message text
-	 * @return true if succeeded, false otherwise
+	 * @return true if queued, false otherwise (including a game without a Slack channel)
 	 */
 	public boolean notifyAdmin(EventType eventType, String message) {
 		if (this.slack != null) {
+			Settings settings = this.settings;
+			
 			// filtering
-			if (eventType == EventType.Chat && !this.configuration.getSlack().isReportChatMessages()
-					|| eventType == EventType.Client && !this.configuration.getSlack().isReportClientEvents()
-					|| eventType == EventType.Server && !this.configuration.getSlack().isReportServerEvents()
-					|| eventType == EventType.Company && !this.configuration.getSlack().isReportCompanyEvents()) {
+			Configuration.Slack slackConfig = settings.configuration.getSlack();
+			if (eventType == EventType.Chat && !slackConfig.isReportChatMessages()
+					|| eventType == EventType.Client && !slackConfig.isReportClientEvents()
+					|| eventType == EventType.Server && !slackConfig.isReportServerEvents()
+					|| eventType == EventType.Company && !slackConfig.isReportCompanyEvents()) {
 				return true;
 			}
 			
+			boolean priority = eventType == EventType.AdminRequest;
+			if (settings.channel == null) {
+				// the game has no channel of its own, only admin requests reach the admin channel
+				return priority && settings.adminChannel != null && this.slack.offer(settings.adminChannel, message, true);
+			}
+			
+			if (this.slackDigest.isDigested(eventType)) {
+				return this.slackDigest.add(eventType, message);
+			}
+			
 			boolean result;
-			if (eventType == EventType.AdminRequest && this.adminChannel != null) {
-				result = this.slack.sendMessage(this.adminChannel, message + " /" + this.channel);
+			if (priority && settings.adminChannel != null) {
+				result = this.slack.offer(settings.adminChannel, message + " /" + settings.channel, true);
 			} else {
 				result = true;
 			}
 			
-			return this.slack.sendMessage(this.channel, message) & result;
+			return this.slack.offer(settings.channel, message, priority) & result;
 		}
 		
 		return false;
@@ -338,23 +526,114 @@ public class Context {
 	 * Sends a game chat message to the specified user.
 	 * @param clientId client ID
 	 * @param message chat message
-	 * @return true of succeeded, false otherwise
+	 * @return true of succeeded, false otherwise (including a dropped message due to the outbound limit)
 	 */
 	public boolean notifyUser(int clientId, String message) {
+		if (!acquireOutbound()) {
+			return false;
+		}
+		
 		this.admin.sendChat(new ChatMessage(0, Recipient.Client, clientId, message));
 		return true;
 	}
 	
+	/**
+	 * Sends a game chat message to the specified user in response to a command of this user.
+	 * @param clientId client ID of the user that entered the command
+	 * @param message chat message
+	 * @see #respond(int, boolean, List)
+	 */
+	public void respondUser(int clientId, String message) {
+		respond(clientId, false, Collections.singletonList(message));
+	}
+	
+	/**
+	 * Sends the response to a command of a user, either to this user or to everyone.
+	 * The whole response takes its share of the outbound limit up front, so that it is sent
+	 * completely or not at all; if the limit is reached, the user gets a single short line instead.
+	 * @param clientId client ID of the user that entered the command
+	 * @param toAll true to send the response to everyone, false to the user only
+	 * @param lines chat messages of the response
+	 * @return true if the response has been sent, false if rejected due to the outbound limit
+	 */
+	public boolean respond(int clientId, boolean toAll, List<String> lines) {
+		if (lines.isEmpty()) {
+			return true;
+		}
+		
+		if (!acquireOutbound(lines.size())) {
+			this.admin.sendChat(new ChatMessage(0, Recipient.Client, clientId, "The server is busy, please try again in a moment."));
+			return false;
+		}
+		
+		for (String line : lines) {
+			this.admin.sendChat(toAll ? new ChatMessage(0, Recipient.All, 0, line) : new ChatMessage(0, Recipient.Client, clientId, line));
+		}
+		
+		return true;
+	}
+	
 	/**
 	 * Sends a game chat message to everyone.
 	 * @param message chat message
-	 * @return true if succeeded, false otherwise
+	 * @return true if succeeded, false otherwise (including a dropped message due to the outbound limit)
 	 */
 	public boolean notifyAll(String message) {
+		if (!acquireOutbound()) {
+			return false;
+		}
+		
 		this.admin.sendChat(new ChatMessage(0, Recipient.All, 0, message));
 		return true;
 	}
 	
+	/**
+	 * Checks the ceiling of chat messages sent to the game server per second.
+	 * @return true if the message may be sent, false if it has to be dropped
+	 */
+	private boolean acquireOutbound() {
+		return acquireOutbound(1);
+	}
+	
+	/**
+	 * Checks the ceiling of chat messages sent to the game server per second for several messages at once.
+	 * Either all of them may be sent or none.
+	 * @param messages number of messages to be sent
+	 * @return true if the messages may be sent, false if they have to be dropped
+	 */
+	private boolean acquireOutbound(int messages) {
+		int perSecond = this.settings.configuration.getChat().getMaxOutboundPerSecond();
+		if (perSecond <= 0
+				|| this.outboundLimiter.acquire(0, 1000000000L / perSecond, perSecond, messages, System.nanoTime()) == RateLimiter.ALLOWED) {
+			return true;
+		}
+		
+		long before;
+		long dropped;
+		synchronized (this.outboundLimiter) {
+			before = this.outboundDropped;
+			this.outboundDropped += messages;
+			dropped = this.outboundDropped;
+		}
+		
+		// warns on the first drop and then once per hundred dropped messages
+		if (before == 0 || (before - 1) / 100 != (dropped - 1) / 100) {
+			LOGGER.warn("Outbound chat limit of {}:{} reached, {} messages dropped so far.", getAddress(), getPort(), dropped);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Gets the number of chat messages dropped due to the outbound limit.
+	 * @return number of dropped chat messages
+	 */
+	public long getOutboundDropped() {
+		synchronized (this.outboundLimiter) {
+			return this.outboundDropped;
+		}
+	}
+	
 	/**
 	 * Requests information on all connected clients.
 	 */
@@ -444,44 +723,32 @@ public class Context {
 	}
 	
 	public String[] getPlayerNames() {
-		return this.configuration.getPlayerNames();
+		return this.settings.configuration.getPlayerNames();
 	}
 	
 	/**
-	 * Activate the lock for the company reset routine.
-	 * @param clientId client ID that requested a reset
-	 * @return true if a process has been started, false if not possible (e.g. another process still in place)
+	 * Gets the coordinator of company resets of this game.
+	 * @return the coordinator of company resets
 	 */
-	public boolean startResetProcess(int clientId) {
-		return this.resetLock.startResetProcess(clientId);
+	public ResetCoordinator getResetCoordinator() {
+		return this.resetCoordinator;
 	}
 	
 	/**
-	 * Sends a company reset request to the server.
-	 * @param clientId client ID to be cached for the reset process
-	 * @param playAs client's company ID to be cached for the reset process
-	 * @param resetCallback function taking care of kicking the client and trying to remove the company
-	 * @return true if the reset process is still in place, false if no reset process is active at the moment
-	 */
-	public boolean tryResetCompany(int clientId, byte playAs, BiConsumer<Integer, Byte> resetCallback) {
-		return this.resetLock.tryResetCompany(clientId, playAs, resetCallback);
-	}
-	
-	/**
-	 * Translate the given text.
+	 * Translate the given text without blocking the caller.
+	 * Requests issued within a short time window are sent together, one call per target language.
 	 * @param input text to get translated.
-	 * @return translated result if available, null otherwise
+	 * @return future completed with the translated result if available or null otherwise
 	 */
-	public Statement translate(Statement input) {
+	public CompletableFuture<Statement> translateAsync(Statement input) {
 		if (this.googleTranslate == null) {
-			return null;
-		} else if (input.getTargetLanguage() == null) {
-			Result result = this.googleTranslate.translateToEnglish(input.getStatement());
-			return new Statement(result.getSourceLanguage(), result.getTargetLanguage(), result.getTranslatedText());
-		} else {
-			Result result = this.googleTranslate.translate(input.getStatement(), input.getTargetLanguage());
-			return new Statement(result.getSourceLanguage(), result.getTargetLanguage(), result.getTranslatedText());
+			return CompletableFuture.completedFuture(null);
 		}
+		
+		long start = System.nanoTime();
+		return this.googleTranslate.translateAsync(input.getStatement(), input.getTargetLanguage() == null ? "en" : input.getTargetLanguage())
+				.whenComplete((result, ex) -> TRANSLATE_TIME.recordSince(start))
+				.thenApply(result -> new Statement(result.getSourceLanguage(), result.getTargetLanguage(), result.getTranslatedText()));
 	}
 	
 	/**
@@ -598,6 +865,8 @@ public class Context {
 		}
 		
 		dbGameId = 0;
+		topList = null;
+		gameStateSampler.reset();
 	}
 	
 	/**
@@ -609,33 +878,7 @@ public class Context {
 	public void gameUpdate(GameData gameData) {
 		if (this.db != null) {
 			if (dbGameId == 0) {
-				Map<Long, GameData> games = db.getGames(true);
-				
-				long candidateId = 0, candidateTs = 0;
-				
-				if (games != null) {
-					// iterate through available games
-					// find the one that matches the parameters of the current game
-					// take the most recent one if multiple are found
-					for (Entry<Long, GameData> entry : games.entrySet()) {
-						long id = entry.getKey();
-						GameData canditate = entry.getValue();
-						
-						if (gameData.getAddress().equals(canditate.getAddress())
-								&& gameData.getPort() == canditate.getPort()
-								&& gameData.getGenerationSeed() == canditate.getGenerationSeed()
-								&& gameData.getMapSizeX() == canditate.getMapSizeX()
-								&& gameData.getMapSizeY() == canditate.getMapSizeY()
-								&& gameData.getStartingYear() == canditate.getStartingYear()
-								&& gameData.getServerName().equals(canditate.getServerName())
-								&& gameData.getMapName().equals(canditate.getMapName())) {
-							if (canditate.getStartedTs() > candidateTs) {
-								candidateId = id;
-								candidateTs = canditate.getStartedTs();
-							}
-						}
-					}
-				}
+				long candidateId = db.findActiveGame(gameData);
 				
 				if (candidateId > 0) {
 					dbGameId = candidateId;
@@ -646,7 +889,7 @@ public class Context {
 							this.getPort(),
 							gameData.getServerName());
 				} else {
-					dbGameId = db.createNewGame(this.thisGame.getGameName(), gameData);
+					dbGameId = db.createNewGame(this.settings.thisGame.getGameName(), gameData);
 					
 					if (dbGameId > 0) {
 						LOGGER.info("Created a new Game ID {} in the database for the server {}:{}, name {}.",
@@ -691,6 +934,8 @@ public class Context {
 			
 			if (id > 0) {
 				LOGGER.debug("Created/updated company data of company ID {} for the game ID {}. Generated ID {}.", companyData.getCompanyId(), dbGameId, id);
+			} else if (id == 0) {
+				LOGGER.debug("Journaled company data of company ID {} for the game ID {}.", companyData.getCompanyId(), dbGameId);
 			} else {
 				LOGGER.error("Failed to create/update company data of company ID {} for the game ID {}. Code {}.", companyData.getCompanyId(), dbGameId, id);
 			}
@@ -715,29 +960,41 @@ public class Context {
 	
 	/**
 	 * Stores economical data of the company in a database.
-	 * @param companyData company data containing economical values
+	 * @param companyData company data
+	 * @param companyEconomy economical values
 	 */
-	public void companyEconomyUpdate(byte companyId, CompanyEconomy companyEconomy) {
+	public void companyEconomyUpdate(CompanyData companyData, CompanyEconomy companyEconomy) {
 		if (this.db != null && dbGameId > 0) {
+			byte companyId = companyData.getCompanyId();
 			if (db.storeEconomicData(dbGameId, companyId, companyEconomy)) {
 				LOGGER.debug("Stored economy of company ID {} for the game ID {}.", companyId, dbGameId);
 			} else {
 				LOGGER.error("Failed to store economy of company ID {} for the game ID {}.", companyId, dbGameId);
 			}
+			
+			if (!db.appendEconomicHistory(dbGameId, companyId, companyData.getDbId(), currentDate, companyEconomy)) {
+				LOGGER.error("Failed to append economy history of company ID {} for the game ID {}.", companyId, dbGameId);
+			}
 		}
 	}
 	
 	/**
 	 * Stores statistical (infrastructure) data of the company in a database.
-	 * @param companyData company data containing statistical (infrastructure) values
+	 * @param companyData company data
+	 * @param companyStatistics statistical (infrastructure) values
 	 */
-	public void companyStatisticsUpdate(byte companyId, CompanyStatistics companyStatistics) {
+	public void companyStatisticsUpdate(CompanyData companyData, CompanyStatistics companyStatistics) {
 		if (this.db != null && dbGameId > 0) {
+			byte companyId = companyData.getCompanyId();
 			if (db.storeStatisticalData(dbGameId, companyId, companyStatistics)) {
 				LOGGER.debug("Stored statistics of company ID {} for the game ID {}.", companyId, dbGameId);
 			} else {
 				LOGGER.error("Failed to store statistics of company ID {} for the game ID {}.", companyId, dbGameId);
 			}
+			
+			if (!db.appendStatisticalHistory(dbGameId, companyId, companyData.getDbId(), currentDate, companyStatistics)) {
+				LOGGER.error("Failed to append statistics history of company ID {} for the game ID {}.", companyId, dbGameId);
+			}
 		}
 	}
 	
@@ -769,11 +1026,43 @@ public class Context {
 	
 	/**
 	 * Retrieves a top players list for the current server.
-	 * @return an ordered list of top players
+	 * The list is served from memory for the configured time to live, so that repeated requests
+	 * do not hit the database. The database is queried without holding any lock of the context;
+	 * while one caller refreshes the list, the other ones get the stale list of the same game,
+	 * or query the database on their own if there is none yet.
+	 * The cached list is dropped on a new game and on a reconfiguration.
+	 * @return an ordered list of top players or null if not available
 	 */
 	public List<TopPlayer> getTopList() {
-		if (this.db != null && dbGameId > 0) {
-			return db.getTopList(dbGameId, 5);
+		long gameId = this.dbGameId;
+		if (this.db != null && gameId > 0) {
+			long now = System.currentTimeMillis();
+			TopList cached = this.topList;
+			if (cached != null && cached.gameId != gameId) {
+				cached = null;
+			}
+			
+			if (cached != null && now - cached.ts <= this.settings.configuration.getChat().getTopListTtl() * 1000L) {
+				return cached.players;
+			}
+			
+			if (!this.topListRefreshing.compareAndSet(false, true)) {
+				return cached != null ? cached.players : db.getTopList(gameId, TOP_LIST_LIMIT);
+			}
+			
+			try {
+				List<TopPlayer> players = db.getTopList(gameId, TOP_LIST_LIMIT);
+				if (players == null) {
+					// database failure, serve the stale list if any
+					return cached != null ? cached.players : null;
+				}
+				
+				players = Collections.unmodifiableList(players);
+				this.topList = new TopList(gameId, now, players);
+				return players;
+			} finally {
+				this.topListRefreshing.set(false);
+			}
 		}
 		
 		return null;
@@ -798,7 +1087,7 @@ public class Context {
 	 * @return administrator's settings object or null if not available
 	 */
 	public Configuration.Administrator getAdministrator(String userId) {
-		return this.configuration.getAdministrator(userId);
+		return this.settings.configuration.getAdministrator(userId);
 	}
 	
 	/**
@@ -806,6 +1095,14 @@ public class Context {
 	 * @return a set of deny rules
 	 */
 	public Set<? extends Configuration.DenyRule> getDenyRules() {
-		return this.configuration.getDenyRules();
+		return this.settings.configuration.getDenyRules();
+	}
+	
+	/**
+	 * Gets the deny rules compiled for evaluation.
+	 * @return the compiled deny rules
+	 */
+	public DenyRuleEngine getDenyRuleEngine() {
+		return this.settings.configuration.getDenyRuleEngine();
 	}
 }
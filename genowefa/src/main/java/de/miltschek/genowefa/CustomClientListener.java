@@ -23,13 +23,12 @@
  */
 package de.miltschek.genowefa;
 
-import java.io.File;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
@@ -43,6 +42,8 @@ import de.miltschek.openttdadmin.data.ClientInfo;
 import de.miltschek.openttdadmin.data.ClientListenerAdapter;
 import de.miltschek.openttdadmin.data.CompanyInfo;
 import de.miltschek.openttdadmin.data.ErrorCode;
+import de.miltschek.openttdadmin.metrics.Histogram;
+import de.miltschek.openttdadmin.metrics.MetricsRegistry;
 
 /**
  * Handler of client-specific events.
@@ -50,6 +51,13 @@ import de.miltschek.openttdadmin.data.ErrorCode;
 public class CustomClientListener extends ClientListenerAdapter implements ClientDataProvider {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CustomClientListener.class);
 	
+	/** Metrics: time from a client joining until its geolocation is known, including cache hits and waiting for a batch. */
+	private static final Histogram GEOIP_TIME = MetricsRegistry.getDefault().histogram("genowefa_geoip_end_to_end_seconds",
+			"End-to-end time of locating clients, including cache hits and waiting for a batch.");
+	
+	/** Reason shown to clients kicked due to a company reset. */
+	static final String RESET_KICK_REASON = "resetting company; please re-join";
+	
 	private static Pattern NO_NAME_PLAYER = Pattern.compile("^Player( [#][0-9]+)?$");
 	
 	private static final String[] NAMES = new String[] {
@@ -257,6 +265,7 @@ public class CustomClientListener extends ClientListenerAdapter implements Clien
 
 	private final Context context;
 	private final HashMap<Integer, ClientData> newClients = new HashMap<>();
+	private final NameAllocator nameAllocator;
 
 	/**
 	 * Returns a 1-based company identifier or a name for special cases (e.g. a spectator).
@@ -289,6 +298,8 @@ public class CustomClientListener extends ClientListenerAdapter implements Clien
 		synchronized (newClients) {
 			newClients.clear();
 		}
+		
+		this.nameAllocator.clear();
 	}
 	
 	/**
@@ -297,44 +308,70 @@ public class CustomClientListener extends ClientListenerAdapter implements Clien
 	 */
 	public CustomClientListener(Context context) {
 		this.context = context;
+		this.nameAllocator = new NameAllocator((context.getPlayerNames() == null
+				|| context.getPlayerNames().length == 0) ? NAMES : context.getPlayerNames());
 		context.registerClientDataProvider(this);
 	}
 	
 	@Override
 	public void clientInfoReceived(ClientInfo clientInfo) {
-		if (this.context.tryResetCompany(clientInfo.getClientId(),
-				clientInfo.getPlayAs(),
-				(clientId, companyId) -> {
-					LOGGER.info("Kicking user {}.", clientId);
-					this.context.kickClient(clientId, "resetting company; please re-join");
-
-					// ugly: since we don't know, how many clients are still to be delivered
-					// we need to try our luck with each client to achieve the goal = reset the company
-					LOGGER.info("Trying to reset the company {}.", companyId);
-					this.context.resetCompany(companyId);
-		})) {
-			// within of a reset-time-window, nothing more to do
-			return;
-		}
-
-		// the further part will be executed only if not within the reset-company-process
-		
-		GeoIp geoIp = GeoIp.lookup(clientInfo.getNetworkAddress());
-		if (geoIp == null) {
-			LOGGER.warn("User info {} IP {} no geo info.", clientInfo.getClientId(), clientInfo.getNetworkAddress());
-		} else {
-			LOGGER.info("User info {} IP {} from {}, {} proxy {}.", clientInfo.getClientId(), clientInfo.getNetworkAddress(), geoIp.getCountry(), geoIp.getCity(), geoIp.isProxy());
-		}
-		
 		ClientData clientData;
 		synchronized (newClients) {
 			clientData = newClients.get(clientInfo.getClientId());
 			if (clientData == null) {
-				clientData = new ClientData(clientInfo.getClientId(), geoIp);
+				clientData = new ClientData(clientInfo.getClientId(), null);
 				newClients.put(clientInfo.getClientId(), clientData);
 			}
 			
 			clientData.setClientInfo(clientInfo);
+			this.nameAllocator.update(clientInfo.getClientId(), clientInfo.getClientName());
+		}
+		
+		if (this.context.getResetCoordinator().clientUpdated(clientInfo.getClientId(), clientInfo.getPlayAs(), RESET_KICK_REASON)) {
+			// playing a company being reset, nothing more to do
+			return;
+		}
+		
+		// the geolocation is delivered immediately if cached, otherwise by another thread
+		// without blocking the admin connection; everything depending on it waits for the result
+		// and is processed by the event thread of the game again
+		final ClientData client = clientData;
+		final long lookupStart = System.nanoTime();
+		CompletableFuture<GeoIp> geoIpFuture = clientData.isGeoIpResolved()
+				? CompletableFuture.completedFuture(clientData.getGeoIp())
+				: GeoIp.lookupAsync(clientInfo.getNetworkAddress()).whenComplete((geoIp, ex) -> GEOIP_TIME.recordSince(lookupStart));
+		(geoIpFuture.isDone()
+				? geoIpFuture.thenAccept(geoIp -> geoIpReceived(clientInfo, client, geoIp))
+				: geoIpFuture.thenAcceptAsync(geoIp -> geoIpReceived(clientInfo, client, geoIp), this.context.getEventExecutor()))
+			.exceptionally(ex -> {
+				LOGGER.error("Failed to process the client info {}.", clientInfo.getClientId(), ex);
+				return null;
+			});
+	}
+	
+	/**
+	 * Processes a client info once the geolocation of the client is known.
+	 * @param clientInfo client info as received
+	 * @param clientData client's data
+	 * @param geoIp geolocation of the client or null if not available
+	 */
+	private void geoIpReceived(ClientInfo clientInfo, ClientData clientData, GeoIp geoIp) {
+		boolean sendWelcome;
+		synchronized (newClients) {
+			if (newClients.get(clientInfo.getClientId()) != clientData) {
+				LOGGER.debug("Client {} left before the geolocation has been received.", clientInfo.getClientId());
+				return;
+			}
+			
+			clientData.setGeoIp(geoIp);
+			sendWelcome = clientData.isWelcomePending();
+			clientData.setWelcomePending(false);
+		}
+		
+		if (geoIp == null) {
+			LOGGER.warn("User info {} IP {} no geo info.", clientInfo.getClientId(), clientInfo.getNetworkAddress());
+		} else {
+			LOGGER.info("User info {} IP {} from {}, {} proxy {}.", clientInfo.getClientId(), clientInfo.getNetworkAddress(), geoIp.getCountry(), geoIp.getCity(), geoIp.isProxy());
 		}
 		
 		this.context.clientUpdate(clientData);
@@ -351,71 +388,27 @@ public class CustomClientListener extends ClientListenerAdapter implements Clien
 				// + ", lang " + clientInfo.getLanguage() // it's always 'Any'
 				+ ((geoIp != null) ? (", from " + geoIp.getCountry() + ", " + geoIp.getCity()) + (geoIp.isProxy() ? ", proxy" : ""): ""));
 		
-		boolean denyMatched = false;
-		for (DenyRule denyRule : this.context.getDenyRules()) {
-			if ("country".equals(denyRule.getType())) {
-				if (geoIp != null && geoIp.getCountryCode() != null
-						&& geoIp.getCountryCode().equalsIgnoreCase(denyRule.getPattern())) {
-					denyMatched = true;
-				}
-			}
-			
-			if ("name".equals(denyRule.getType())) {
-				if (clientInfo.getClientName() != null
-						&& clientInfo.getClientName().matches(denyRule.getPattern())) {
-					denyMatched = true;
-				}
-			}
-			
-			if ("proxy".equals(denyRule.getType())) {
-				if (geoIp != null && geoIp.isProxy()) {
-					denyMatched = true;
-				}
-			}
-			
-			if (denyMatched) {
-				LOGGER.info("Kicking client {} due to a matching rule {}/{}.", clientInfo.getClientId(), denyRule.getType(), denyRule.getPattern());
-				this.context.kickClient(clientInfo.getClientId(), denyRule.getMessage());
-				return;
-			}
+		DenyRule denyRule = this.context.getDenyRuleEngine().matchClient(clientInfo.getClientName(), geoIp);
+		if (denyRule != null) {
+			LOGGER.info("Kicking client {} due to a matching rule {}/{}.", clientInfo.getClientId(), denyRule.getType(), denyRule.getPattern());
+			this.context.kickClient(clientInfo.getClientId(), denyRule.getMessage());
+			return;
 		}
 		
 		if (this.context.isForceNameChange() && NO_NAME_PLAYER.matcher(clientInfo.getClientName()).matches()) {
-			int hash = clientInfo.getNetworkAddress().hashCode() & 0x7fffffff;
-
-			String[] namesTable = (this.context.getPlayerNames() == null
-					|| this.context.getPlayerNames().length == 0) ? NAMES : this.context.getPlayerNames();
-			
-			int index = hash % namesTable.length;
-			final int loopDetection = index;
-			
-			boolean free;
-			do {
-				free = true;
-				index++;
-				if (index >= namesTable.length) {
-					index = 0;
-				}
-				
-				if (index == loopDetection) {
-					LOGGER.error("Could not find a new name for the client {} IP {}.", clientInfo.getClientId(), clientInfo.getNetworkAddress());
-					break;
-				}
-				
-				for (ClientData otherClient : newClients.values()) {
-					if (namesTable[index].equals(otherClient.getName())) {
-						free = false;
-						break;
-					}
-				}
-			} while (!free);
-			
-			if (free) {
-				LOGGER.info("Forcing the player {} to get a new name {}.", clientInfo.getClientId(), namesTable[index]);
+			String name = this.nameAllocator.allocate(clientInfo.getClientId(), clientInfo.getNetworkAddress().hashCode());
+			if (name == null) {
+				LOGGER.error("Could not find a new name for the client {} IP {}.", clientInfo.getClientId(), clientInfo.getNetworkAddress());
+			} else {
+				LOGGER.info("Forcing the player {} to get a new name {}.", clientInfo.getClientId(), name);
 				// nobody reads it this.context.notifyUser(clientInfo.getClientId(), "You will get a new nice name. Feel free to change it via !name or in multiplayer settings.");
-				this.context.renameUser(clientInfo.getClientId(), namesTable[index]);
+				this.context.renameUser(clientInfo.getClientId(), name);
 			}
 		}
+		
+		if (sendWelcome) {
+			sendWelcome(clientData);
+		}
 	}
 	
 	@Override
@@ -423,40 +416,44 @@ public class CustomClientListener extends ClientListenerAdapter implements Clien
 		LOGGER.info("New user {}.", clientId);
 		
 		ClientData clientData;
+		boolean sendWelcome;
 		synchronized (newClients) {
 			clientData = newClients.get((Integer)clientId);
 			if (clientData == null) {
 				clientData = new ClientData(clientId, null);
 				newClients.put(clientId, clientData);
 			}
+			
+			// the welcome message depends on the geolocation, defer it if a lookup is still running
+			sendWelcome = clientData.isGeoIpResolved() || clientData.getNetworkAddress() == null;
+			clientData.setWelcomePending(!sendWelcome);
 		}
-
-		String welcomeMessage = this.context.getWelcomeMessage(clientData.getCountryCode() == null ? "*" : clientData.getCountryCode())
-					.replaceAll("[$][{]COUNTRY[}]", clientData.getCountry() == null ? "the Universe" : clientData.getCountry())
-					.replaceAll("[$][{]CITY[}]", clientData.getCity() == null ? "the beautiful City" : clientData.getCity());
-		
-		if (clientData.getName() == null) {
-			welcomeMessage = welcomeMessage.replaceAll("[$][{]USERNAME[}]", "player");
-		} else {
-			welcomeMessage = welcomeMessage.replaceAll("[$][{]USERNAME[}]", clientData.getName());
-		}
-		
-		this.context.notifyAll(welcomeMessage);
 		
 		this.context.notifyAdmin(
 			EventType.Client,
 			":bust_in_silhouette: new ID " + clientId
 				+ (clientData.getName() == null ? "" : (", name " + clientData.getName())));
-
-		try {
-			File onNewClient = new File(this.context.getWelcomeMessagePath());
-			if (onNewClient.exists()) {
-				for (String line : Files.readAllLines(onNewClient.toPath())) {
-					this.context.notifyUser(clientId, line);
-				}
-			}
-		} catch (Exception ex) {
-			LOGGER.error("Failed to send on-new-client message.", ex);
+		
+		if (sendWelcome) {
+			sendWelcome(clientData);
+		}
+	}
+	
+	/**
+	 * Sends the welcome messages to a new client.
+	 * @param clientData client's data
+	 */
+	private void sendWelcome(ClientData clientData) {
+		WelcomeTemplate template = this.context.getWelcomeTemplate(clientData.getCountryCode() == null ? "*" : clientData.getCountryCode());
+		if (template != null) {
+			this.context.notifyAll(template.render(
+					clientData.getName() == null ? "player" : clientData.getName(),
+					clientData.getCountry() == null ? "the Universe" : clientData.getCountry(),
+					clientData.getCity() == null ? "the beautiful City" : clientData.getCity()));
+		}
+		
+		for (String line : this.context.getWelcomeMessageLines()) {
+			this.context.notifyUser(clientData.getClientId(), line);
 		}
 	}
 	
@@ -472,6 +469,10 @@ public class CustomClientListener extends ClientListenerAdapter implements Clien
 			}
 		}
 		
+		this.context.getChatCommandRouter().forget(clientId);
+		this.nameAllocator.release(clientId);
+		this.context.getResetCoordinator().clientQuit(clientId);
+		
 		// todo TODO optionally put the clientData in a separate collection, oldClients
 		
 		context.playerLeft(clientId);
@@ -496,6 +497,10 @@ public class CustomClientListener extends ClientListenerAdapter implements Clien
 				clientData.left(this.context.getCurrentDate());
 			}
 		}
+		
+		this.context.getChatCommandRouter().forget(clientId);
+		this.nameAllocator.release(clientId);
+		this.context.getResetCoordinator().clientQuit(clientId);
 
 		// todo TODO optionally put the clientData in a separate collection, oldClients
 		
@@ -523,8 +528,12 @@ public class CustomClientListener extends ClientListenerAdapter implements Clien
 			} else {
 				clientData.setClientInfo(new ClientInfo(clientId, clientData.getNetworkAddress(), clientName, clientData.getLanguage(), clientData.getJoinDate(), playAs));
 			}
+			
+			this.nameAllocator.update(clientId, clientName);
 		}
 		
+		this.context.getResetCoordinator().clientUpdated(clientId, playAs, RESET_KICK_REASON);
+		
 		context.clientUpdate(clientData);
 		context.playerJoined(clientId, playAs);
 
@@ -535,20 +544,10 @@ public class CustomClientListener extends ClientListenerAdapter implements Clien
 				+ ", name " + clientName
 				+ ", plays as " + getCompanyDescription(playAs));
 		
-		boolean denyMatched = false;
-		for (DenyRule denyRule : this.context.getDenyRules()) {
-			if ("name".equals(denyRule.getType())) {
-				if (clientName != null
-						&& clientName.matches(denyRule.getPattern())) {
-					denyMatched = true;
-				}
-			}
-			
-			if (denyMatched) {
-				LOGGER.info("Kicking client {} due to a matching rule {}/{}.", clientId, denyRule.getType(), denyRule.getPattern());
-				this.context.kickClient(clientId, denyRule.getMessage());
-				return;
-			}
+		DenyRule denyRule = this.context.getDenyRuleEngine().matchClient(clientName, null);
+		if (denyRule != null) {
+			LOGGER.info("Kicking client {} due to a matching rule {}/{}.", clientId, denyRule.getType(), denyRule.getPattern());
+			this.context.kickClient(clientId, denyRule.getMessage());
 		}
 	}
 
@@ -108,29 +108,17 @@ public class CustomCompanyListener extends CompanyListenerAdapter implements Com
 				+ ", manager " + companyInfo.getManagerName()
 				+ ", " + (companyInfo.isPasswordProtected() ? "protected" : "unprotected"));
 		
-		boolean denyMatched = false;
-		for (DenyRule denyRule : this.context.getDenyRules()) {
-			if ("name".equals(denyRule.getType())) {
-				if (companyInfo.getCompanyName() != null
-						&& companyInfo.getCompanyName().matches(denyRule.getPattern())
-						|| companyInfo.getManagerName() != null
-						&& companyInfo.getManagerName().matches(denyRule.getPattern())) {
-					denyMatched = true;
-				}
-			}
-			
-			if (denyMatched) {
-				/*LOGGER.info("Closing company (0-based) {}:{}, manager {} due to a matching rule {}/{}.",
-						companyInfo.getIndex(), companyInfo.getCompanyName(), companyInfo.getManagerName(),
-						denyRule.getType(), denyRule.getPattern());
-				this.context.resetCompany(companyInfo.getIndex(), denyRule.getMessage());*/
-				this.context.notifyAdmin(EventType.AdminRequest,
-						"Deny rule matched for company (1-based) " + (companyInfo.getIndex() + 1)
-							+ ":" + companyInfo.getCompanyName()
-							+ ", manager " + companyInfo.getManagerName()
-							+ ". No automatic action taken.");
-				return;
-			}
+		DenyRule denyRule = this.context.getDenyRuleEngine().matchCompany(companyInfo.getCompanyName(), companyInfo.getManagerName());
+		if (denyRule != null) {
+			/*LOGGER.info("Closing company (0-based) {}:{}, manager {} due to a matching rule {}/{}.",
+					companyInfo.getIndex(), companyInfo.getCompanyName(), companyInfo.getManagerName(),
+					denyRule.getType(), denyRule.getPattern());
+			this.context.resetCompany(companyInfo.getIndex(), denyRule.getMessage());*/
+			this.context.notifyAdmin(EventType.AdminRequest,
+					"Deny rule matched for company (1-based) " + (companyInfo.getIndex() + 1)
+						+ ":" + companyInfo.getCompanyName()
+						+ ", manager " + companyInfo.getManagerName()
+						+ ". No automatic action taken.");
 		}
 	}
 	
@@ -201,28 +189,16 @@ public class CustomCompanyListener extends CompanyListenerAdapter implements Com
 				+ (newManager ? ", new manager " + companyData.getManagerName() : "")
 				+ (newPassword ? ", " + (companyData.isPasswordProtected() ? "protected" : "unprotected") : ""));
 		
-		boolean denyMatched = false;
-		for (DenyRule denyRule : this.context.getDenyRules()) {
-			if ("name".equals(denyRule.getType())) {
-				if (companyInfo.getCompanyName() != null
-						&& companyInfo.getCompanyName().matches(denyRule.getPattern())
-						|| companyInfo.getManagerName() != null
-						&& companyInfo.getManagerName().matches(denyRule.getPattern())) {
-					denyMatched = true;
-				}
-			}
-			
-			if (denyMatched) {
-				LOGGER.info("Closing company (0-based) {}:{}, manager {} due to a matching rule {}/{}.",
-						companyInfo.getIndex(), companyInfo.getCompanyName(), companyInfo.getManagerName(),
-						denyRule.getType(), denyRule.getPattern());
-				this.context.notifyAdmin(EventType.AdminRequest,
-						"Deny rule matched for company (1-based) " + (companyInfo.getIndex() + 1)
-							+ ":" + companyInfo.getCompanyName()
-							+ ", manager " + companyInfo.getManagerName()
-							+ ". No automatic action taken.");
-				return;
-			}
+		DenyRule denyRule = this.context.getDenyRuleEngine().matchCompany(companyInfo.getCompanyName(), companyInfo.getManagerName());
+		if (denyRule != null) {
+			LOGGER.info("Closing company (0-based) {}:{}, manager {} due to a matching rule {}/{}.",
+					companyInfo.getIndex(), companyInfo.getCompanyName(), companyInfo.getManagerName(),
+					denyRule.getType(), denyRule.getPattern());
+			this.context.notifyAdmin(EventType.AdminRequest,
+					"Deny rule matched for company (1-based) " + (companyInfo.getIndex() + 1)
+						+ ":" + companyInfo.getCompanyName()
+						+ ", manager " + companyInfo.getManagerName()
+						+ ". No automatic action taken.");
 		}
 	}
 	
@@ -241,7 +217,7 @@ public class CustomCompanyListener extends CompanyListenerAdapter implements Com
 			companyData.updateData(companyEconomy);
 		}
 		
-		this.context.companyEconomyUpdate(companyId, companyEconomy);
+		this.context.companyEconomyUpdate(companyData, companyEconomy);
 	}
 	
 	@Override
@@ -258,7 +234,7 @@ public class CustomCompanyListener extends CompanyListenerAdapter implements Com
 			companyData.updateData(companyStatistics);
 		}
 		
-		this.context.companyStatisticsUpdate(companyId, companyStatistics);
+		this.context.companyStatisticsUpdate(companyData, companyStatistics);
 	}
 	
 	@Override
@@ -1,32 +1,57 @@
 package de.miltschek.genowefa;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.miltschek.openttdadmin.data.ClosureReason;
+import de.miltschek.openttdadmin.data.Color;
 import de.miltschek.openttdadmin.data.CompanyEconomy;
+import de.miltschek.openttdadmin.data.CompanyInfo;
 import de.miltschek.openttdadmin.data.CompanyStatistics;
 import de.miltschek.openttdadmin.data.Date;
+import de.miltschek.openttdadmin.metrics.Counter;
+import de.miltschek.openttdadmin.metrics.Histogram;
+import de.miltschek.openttdadmin.metrics.MetricsRegistry;
 
 public class DatabaseConnector implements Closeable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseConnector.class);
 	
+	/** Metrics: time of writing to the database. */
+	private static final Histogram WRITE_TIME = MetricsRegistry.getDefault().histogram("genowefa_db_write_seconds", "Time of writing to the database.");
+	/** Metrics: mutations journaled instead of written to the database. */
+	private static final Counter JOURNALED = MetricsRegistry.getDefault().counter("genowefa_db_journaled_total", "Mutations journaled while the database is not available.");
+	
 	private static final String F_ID = "`id`",
 			F_TS_STARTED = "`ts_started`",
 			F_TS_FINISHED = "`ts_finished`",
@@ -71,10 +96,19 @@ public class DatabaseConnector implements Closeable {
 			F_ADDRESS = "`address`",
 			F_PORT = "`port`",
 			F_GAME_DATE = "`game_date`",
-			F_GAME_NAME = "`game_name`";
+			F_GAME_NAME = "`game_name`",
+			F_IDENTITY_HASH = "`identity_hash`",
+			F_DELIVERED_CARGO = "`delivered_cargo`",
+			F_QUARTER = "`quarter`",
+			F_SAMPLES = "`samples`",
+			F_MIN_VALUE = "`min_value`",
+			F_AVG_VALUE = "`avg_value`";
 	
 	private static final String TABLE_GAMES = "`genowefa_games`";
-	private static final String CREATE_GAMES = "CREATE TABLE " + TABLE_GAMES + " (" + 
+	// lookup of the active (not finished) game of an identity; not unique, as games of the same identity
+	// may be finished in the same second and a changed game may take over the identity of a stale one
+	static final String GAME_IDENTITY_INDEX = "KEY `game_identity` (" + F_IDENTITY_HASH + ", " + F_TS_FINISHED + ")";
+	static final String CREATE_GAMES = "CREATE TABLE " + TABLE_GAMES + " (" + 
 			F_ID + " BIGINT unsigned NOT NULL AUTO_INCREMENT," +
 			F_GAME_NAME + " VARCHAR(255), " +
 			F_ADDRESS + " VARCHAR(255) NOT NULL," +
@@ -89,7 +123,9 @@ public class DatabaseConnector implements Closeable {
 			F_MAP_SIZE_Y + " INT," + 
 			F_GAME_DATE + " DATE," +
 			F_PERFORMANCE + " INT," +
-			"PRIMARY KEY (" + F_ID + ")" + 
+			F_IDENTITY_HASH + " CHAR(64)," +
+			"PRIMARY KEY (" + F_ID + ")," + 
+			GAME_IDENTITY_INDEX +
 			");";
 	
 	private static final String TABLE_COMPANIES = "`genowefa_companies`";
@@ -180,17 +216,604 @@ public class DatabaseConnector implements Closeable {
 			" ON UPDATE CASCADE" +
 			");";
 
-	private Connection connection;
+	// time series tables are append-only and partitioned by quarters of real time,
+	// so that the retention can drop whole partitions instead of deleting rows;
+	// partitioned InnoDB tables do not support foreign keys, hence none are defined here
+	private static final String PARTITION_FUTURE = "p_future";
+	private static final Pattern PARTITION_NAME = Pattern.compile("p[0-9]{4}q[1-4]");
+	
+	private static final String KEY_ECONOMICS_ENTRY = "`economics_entry`";
+	private static final String KEY_INFRASTRUCTURE_ENTRY = "`infrastructure_entry`";
+	
+	private static final String TABLE_ECONOMICS_HISTORY = "`genowefa_economics_history`";
+	private static final String CREATE_ECONOMICS_HISTORY = "CREATE TABLE " + TABLE_ECONOMICS_HISTORY + " (" +
+			F_ID + " BIGINT unsigned NOT NULL AUTO_INCREMENT," +
+			F_COMPANY_ID + " BIGINT unsigned NOT NULL," +
+			F_TS + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+			F_GAME_DATE + " DATE," +
+			F_INCOME + " BIGINT NOT NULL," + 
+			F_LOAN + " BIGINT NOT NULL," + 
+			F_MONEY + " BIGINT NOT NULL," + 
+			F_VALUE + " BIGINT NOT NULL," + 
+			F_PERFORMANCE + " INT NOT NULL," + 
+			F_DELIVERED_CARGO + " INT NOT NULL," +
+			"PRIMARY KEY (" + F_ID + ", " + F_TS + ")," +
+			// one entry per company and time, so that replaying the journal twice does not duplicate entries
+			"UNIQUE KEY " + KEY_ECONOMICS_ENTRY + " (" + F_COMPANY_ID + ", " + F_TS + ")," +
+			// covering index of the trajectory queries
+			"KEY `economics_trajectory` (" + F_COMPANY_ID + ", " + F_TS + ", " + F_GAME_DATE + ", "
+				+ F_INCOME + ", " + F_LOAN + ", " + F_MONEY + ", " + F_VALUE + ", " + F_PERFORMANCE + ", " + F_DELIVERED_CARGO + ")" +
+			") PARTITION BY RANGE (UNIX_TIMESTAMP(" + F_TS + ")) (PARTITION " + PARTITION_FUTURE + " VALUES LESS THAN MAXVALUE);";
+	
+	private static final String TABLE_INFRASTRUCTURE_HISTORY = "`genowefa_infrastructure_history`";
+	private static final String CREATE_INFRASTRUCTURE_HISTORY = "CREATE TABLE " + TABLE_INFRASTRUCTURE_HISTORY + " (" +
+			F_ID + " BIGINT unsigned NOT NULL AUTO_INCREMENT," +
+			F_COMPANY_ID + " BIGINT unsigned NOT NULL," +
+			F_TS + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+			F_GAME_DATE + " DATE," +
+			F_NTRAINS + " INT NOT NULL," +
+			F_NLORRIES + " INT NOT NULL," +
+			F_NBUSSES + " INT NOT NULL," +
+			F_NPLANES + " INT NOT NULL," +
+			F_NSHIPS + " INT NOT NULL," +
+			F_NSTATIONS + " INT NOT NULL," +
+			F_NDEPOTS + " INT NOT NULL," +
+			F_NSTOPS + " INT NOT NULL," +
+			F_NAIRPORTS + " INT NOT NULL," +
+			F_NHARBOURS + " INT NOT NULL," +
+			"PRIMARY KEY (" + F_ID + ", " + F_TS + ")," +
+			// one entry per company and time, so that replaying the journal twice does not duplicate entries
+			"UNIQUE KEY " + KEY_INFRASTRUCTURE_ENTRY + " (" + F_COMPANY_ID + ", " + F_TS + ")," +
+			// covering index of the trajectory queries
+			"KEY `infrastructure_trajectory` (" + F_COMPANY_ID + ", " + F_TS + ", " + F_GAME_DATE + ", "
+				+ F_NTRAINS + ", " + F_NLORRIES + ", " + F_NBUSSES + ", " + F_NPLANES + ", " + F_NSHIPS + ", "
+				+ F_NSTATIONS + ", " + F_NDEPOTS + ", " + F_NSTOPS + ", " + F_NAIRPORTS + ", " + F_NHARBOURS + ")" +
+			") PARTITION BY RANGE (UNIX_TIMESTAMP(" + F_TS + ")) (PARTITION " + PARTITION_FUTURE + " VALUES LESS THAN MAXVALUE);";
+	
+	private static final String TABLE_ECONOMICS_ROLLUP = "`genowefa_economics_rollup`";
+	private static final String CREATE_ECONOMICS_ROLLUP = "CREATE TABLE " + TABLE_ECONOMICS_ROLLUP + " (" +
+			F_COMPANY_ID + " BIGINT unsigned NOT NULL," +
+			F_QUARTER + " DATE NOT NULL," +
+			F_SAMPLES + " INT NOT NULL," +
+			F_INCOME + " BIGINT NOT NULL," + 
+			F_LOAN + " BIGINT NOT NULL," + 
+			F_MONEY + " BIGINT NOT NULL," + 
+			F_VALUE + " BIGINT NOT NULL," + 
+			F_MIN_VALUE + " BIGINT NOT NULL," + 
+			F_AVG_VALUE + " BIGINT NOT NULL," + 
+			F_PERFORMANCE + " INT NOT NULL," + 
+			F_DELIVERED_CARGO + " INT NOT NULL," +
+			"PRIMARY KEY (" + F_COMPANY_ID + ", " + F_QUARTER + ")" +
+			");";
+	
+	private static final String TABLE_INFRASTRUCTURE_ROLLUP = "`genowefa_infrastructure_rollup`";
+	private static final String CREATE_INFRASTRUCTURE_ROLLUP = "CREATE TABLE " + TABLE_INFRASTRUCTURE_ROLLUP + " (" +
+			F_COMPANY_ID + " BIGINT unsigned NOT NULL," +
+			F_QUARTER + " DATE NOT NULL," +
+			F_SAMPLES + " INT NOT NULL," +
+			F_NTRAINS + " INT NOT NULL," +
+			F_NLORRIES + " INT NOT NULL," +
+			F_NBUSSES + " INT NOT NULL," +
+			F_NPLANES + " INT NOT NULL," +
+			F_NSHIPS + " INT NOT NULL," +
+			F_NSTATIONS + " INT NOT NULL," +
+			F_NDEPOTS + " INT NOT NULL," +
+			F_NSTOPS + " INT NOT NULL," +
+			F_NAIRPORTS + " INT NOT NULL," +
+			F_NHARBOURS + " INT NOT NULL," +
+			"PRIMARY KEY (" + F_COMPANY_ID + ", " + F_QUARTER + ")" +
+			");";
+	
+	private static final String QUARTER_OF_TS = "MAKEDATE(YEAR(" + F_TS + "), 1) + INTERVAL (QUARTER(" + F_TS + ") - 1) QUARTER";
+	
+	// %s is the name of the partition being rolled up, the statements are idempotent
+	private static final String ROLLUP_ECONOMICS = "INSERT INTO " + TABLE_ECONOMICS_ROLLUP + " ("
+			+ F_COMPANY_ID + ", " + F_QUARTER + ", " + F_SAMPLES + ", "
+			+ F_INCOME + ", " + F_LOAN + ", " + F_MONEY + ", " + F_VALUE + ", " + F_MIN_VALUE + ", " + F_AVG_VALUE + ", "
+			+ F_PERFORMANCE + ", " + F_DELIVERED_CARGO + ") "
+			+ "SELECT " + F_COMPANY_ID + ", " + QUARTER_OF_TS + " AS q, COUNT(*), "
+			+ "MAX(" + F_INCOME + "), MAX(" + F_LOAN + "), MAX(" + F_MONEY + "), MAX(" + F_VALUE + "), MIN(" + F_VALUE + "), AVG(" + F_VALUE + "), "
+			+ "MAX(" + F_PERFORMANCE + "), MAX(" + F_DELIVERED_CARGO + ") "
+			+ "FROM " + TABLE_ECONOMICS_HISTORY + " PARTITION (%s) GROUP BY " + F_COMPANY_ID + ", q "
+			+ "ON DUPLICATE KEY UPDATE "
+			+ F_SAMPLES + " = VALUES(" + F_SAMPLES + "), "
+			+ F_INCOME + " = VALUES(" + F_INCOME + "), "
+			+ F_LOAN + " = VALUES(" + F_LOAN + "), "
+			+ F_MONEY + " = VALUES(" + F_MONEY + "), "
+			+ F_VALUE + " = VALUES(" + F_VALUE + "), "
+			+ F_MIN_VALUE + " = VALUES(" + F_MIN_VALUE + "), "
+			+ F_AVG_VALUE + " = VALUES(" + F_AVG_VALUE + "), "
+			+ F_PERFORMANCE + " = VALUES(" + F_PERFORMANCE + "), "
+			+ F_DELIVERED_CARGO + " = VALUES(" + F_DELIVERED_CARGO + ")";
+	
+	private static final String ROLLUP_INFRASTRUCTURE = "INSERT INTO " + TABLE_INFRASTRUCTURE_ROLLUP + " ("
+			+ F_COMPANY_ID + ", " + F_QUARTER + ", " + F_SAMPLES + ", "
+			+ F_NTRAINS + ", " + F_NLORRIES + ", " + F_NBUSSES + ", " + F_NPLANES + ", " + F_NSHIPS + ", "
+			+ F_NSTATIONS + ", " + F_NDEPOTS + ", " + F_NSTOPS + ", " + F_NAIRPORTS + ", " + F_NHARBOURS + ") "
+			+ "SELECT " + F_COMPANY_ID + ", " + QUARTER_OF_TS + " AS q, COUNT(*), "
+			+ "MAX(" + F_NTRAINS + "), MAX(" + F_NLORRIES + "), MAX(" + F_NBUSSES + "), MAX(" + F_NPLANES + "), MAX(" + F_NSHIPS + "), "
+			+ "MAX(" + F_NSTATIONS + "), MAX(" + F_NDEPOTS + "), MAX(" + F_NSTOPS + "), MAX(" + F_NAIRPORTS + "), MAX(" + F_NHARBOURS + ") "
+			+ "FROM " + TABLE_INFRASTRUCTURE_HISTORY + " PARTITION (%s) GROUP BY " + F_COMPANY_ID + ", q "
+			+ "ON DUPLICATE KEY UPDATE "
+			+ F_SAMPLES + " = VALUES(" + F_SAMPLES + "), "
+			+ F_NTRAINS + " = VALUES(" + F_NTRAINS + "), "
+			+ F_NLORRIES + " = VALUES(" + F_NLORRIES + "), "
+			+ F_NBUSSES + " = VALUES(" + F_NBUSSES + "), "
+			+ F_NPLANES + " = VALUES(" + F_NPLANES + "), "
+			+ F_NSHIPS + " = VALUES(" + F_NSHIPS + "), "
+			+ F_NSTATIONS + " = VALUES(" + F_NSTATIONS + "), "
+			+ F_NDEPOTS + " = VALUES(" + F_NDEPOTS + "), "
+			+ F_NSTOPS + " = VALUES(" + F_NSTOPS + "), "
+			+ F_NAIRPORTS + " = VALUES(" + F_NAIRPORTS + "), "
+			+ F_NHARBOURS + " = VALUES(" + F_NHARBOURS + ")";
+	
+	private static final long HISTORY_MAINTENANCE_INTERVAL_H = 6;
+	
+	// materialized hall of fame: top N companies per game name, maintained on each economy/infrastructure update
+	private static final String TABLE_TOP_LIST = "`genowefa_top_list`";
+	private static final String CREATE_TOP_LIST = "CREATE TABLE " + TABLE_TOP_LIST + " (" +
+			F_COMPANY_ID + " BIGINT unsigned NOT NULL PRIMARY KEY," +
+			F_GAME_ID + " BIGINT unsigned NOT NULL," +
+			F_GAME_NAME + " VARCHAR(255)," +
+			F_NAME + " VARCHAR(255)," +
+			F_COLOR + " INT," +
+			F_INCOME + " BIGINT NOT NULL," + 
+			F_LOAN + " BIGINT NOT NULL," + 
+			F_MONEY + " BIGINT NOT NULL," + 
+			F_VALUE + " BIGINT NOT NULL," + 
+			F_PERFORMANCE + " INT NOT NULL," + 
+			F_NTRAINS + " INT NOT NULL DEFAULT 0," +
+			F_NLORRIES + " INT NOT NULL DEFAULT 0," +
+			F_NBUSSES + " INT NOT NULL DEFAULT 0," +
+			F_NPLANES + " INT NOT NULL DEFAULT 0," +
+			F_NSHIPS + " INT NOT NULL DEFAULT 0," +
+			F_NSTATIONS + " INT NOT NULL DEFAULT 0," +
+			F_NDEPOTS + " INT NOT NULL DEFAULT 0," +
+			F_NSTOPS + " INT NOT NULL DEFAULT 0," +
+			F_NAIRPORTS + " INT NOT NULL DEFAULT 0," +
+			F_NHARBOURS + " INT NOT NULL DEFAULT 0," +
+			F_TS_STARTED + " TIMESTAMP DEFAULT 0," +
+			F_TS_FINISHED + " TIMESTAMP DEFAULT 0," +
+			"KEY `top_list_rank` (" + F_GAME_NAME + ", " + F_VALUE + ")," +
+			"KEY `top_list_game` (" + F_GAME_ID + ")," +
+			"CONSTRAINT `fk_top_list_company`\r\n" +
+			"FOREIGN KEY (" + F_COMPANY_ID + ") REFERENCES " + TABLE_COMPANIES + " (" + F_ID + ")" + 
+			" ON DELETE CASCADE\r\n" + 
+			" ON UPDATE CASCADE" +
+			");";
+	
+	private static final String TOP_LIST_COLUMNS = F_COMPANY_ID + ", " + F_GAME_ID + ", " + F_GAME_NAME + ", "
+			+ F_NAME + ", " + F_COLOR + ", "
+			+ F_INCOME + ", " + F_LOAN + ", " + F_MONEY + ", " + F_VALUE + ", " + F_PERFORMANCE + ", "
+			+ F_NTRAINS + ", " + F_NLORRIES + ", " + F_NBUSSES + ", " + F_NPLANES + ", " + F_NSHIPS + ", "
+			+ F_NSTATIONS + ", " + F_NDEPOTS + ", " + F_NSTOPS + ", " + F_NAIRPORTS + ", " + F_NHARBOURS + ", "
+			+ F_TS_STARTED + ", " + F_TS_FINISHED;
+	
+	private static final String TOP_LIST_SOURCE = "SELECT c." + F_ID + ", c." + F_GAME_ID + ", g." + F_GAME_NAME + ", "
+			+ "c." + F_NAME + ", c." + F_COLOR + ", "
+			+ "e." + F_INCOME + ", e." + F_LOAN + ", e." + F_MONEY + ", e." + F_VALUE + ", e." + F_PERFORMANCE + ", "
+			+ "IFNULL(i." + F_NTRAINS + ", 0), IFNULL(i." + F_NLORRIES + ", 0), IFNULL(i." + F_NBUSSES + ", 0), "
+			+ "IFNULL(i." + F_NPLANES + ", 0), IFNULL(i." + F_NSHIPS + ", 0), IFNULL(i." + F_NSTATIONS + ", 0), "
+			+ "IFNULL(i." + F_NDEPOTS + ", 0), IFNULL(i." + F_NSTOPS + ", 0), IFNULL(i." + F_NAIRPORTS + ", 0), "
+			+ "IFNULL(i." + F_NHARBOURS + ", 0), "
+			+ "g." + F_TS_STARTED + ", g." + F_TS_FINISHED + " "
+			+ "FROM " + TABLE_COMPANIES + " AS c "
+			+ "JOIN " + TABLE_ECONOMICS + " AS e ON (e." + F_COMPANY_ID + " = c." + F_ID + ") "
+			+ "JOIN " + TABLE_GAMES + " AS g ON (g." + F_ID + " = c." + F_GAME_ID + ") "
+			+ "LEFT JOIN " + TABLE_INFRASTRUCTURE + " AS i ON (i." + F_COMPANY_ID + " = c." + F_ID + ")";
+	
+	private static final String TOP_LIST_UPSERT = "INSERT INTO " + TABLE_TOP_LIST + " (" + TOP_LIST_COLUMNS + ") "
+			+ TOP_LIST_SOURCE + " WHERE c." + F_ID + " = ? "
+			+ "ON DUPLICATE KEY UPDATE "
+			+ F_NAME + " = VALUES(" + F_NAME + "), "
+			+ F_COLOR + " = VALUES(" + F_COLOR + "), "
+			+ F_INCOME + " = VALUES(" + F_INCOME + "), "
+			+ F_LOAN + " = VALUES(" + F_LOAN + "), "
+			+ F_MONEY + " = VALUES(" + F_MONEY + "), "
+			+ F_VALUE + " = VALUES(" + F_VALUE + "), "
+			+ F_PERFORMANCE + " = VALUES(" + F_PERFORMANCE + "), "
+			+ F_NTRAINS + " = VALUES(" + F_NTRAINS + "), "
+			+ F_NLORRIES + " = VALUES(" + F_NLORRIES + "), "
+			+ F_NBUSSES + " = VALUES(" + F_NBUSSES + "), "
+			+ F_NPLANES + " = VALUES(" + F_NPLANES + "), "
+			+ F_NSHIPS + " = VALUES(" + F_NSHIPS + "), "
+			+ F_NSTATIONS + " = VALUES(" + F_NSTATIONS + "), "
+			+ F_NDEPOTS + " = VALUES(" + F_NDEPOTS + "), "
+			+ F_NSTOPS + " = VALUES(" + F_NSTOPS + "), "
+			+ F_NAIRPORTS + " = VALUES(" + F_NAIRPORTS + "), "
+			+ F_NHARBOURS + " = VALUES(" + F_NHARBOURS + "), "
+			+ F_TS_STARTED + " = VALUES(" + F_TS_STARTED + "), "
+			+ F_TS_FINISHED + " = VALUES(" + F_TS_FINISHED + ")";
+
+	// types of journaled mutations, never change the values as they are stored on disk
+	private static final byte J_CLOSE_GAME = 1,
+			J_STORE_COMPANY = 2,
+			J_CLOSE_COMPANY = 3,
+			J_STORE_ECONOMY = 4,
+			J_STORE_STATISTICS = 5,
+			J_STORE_CLIENT = 6,
+			J_STORE_PLAYER = 7,
+			J_PLAYER_QUIT = 8,
+			J_CLIENT_QUIT = 9,
+			J_APPEND_ECONOMY = 10,
+			J_APPEND_STATISTICS = 11,
+			J_ECONOMY_HISTORY = 12,
+			J_STATISTICS_HISTORY = 13,
+			J_GAME_STATE = 14;
+	
+	/** Performance value denoting that no measurement is available yet. */
+	public static final int UNKNOWN_PERFORMANCE = -1;
+	
+	private static final int JOURNAL_REPLAY_BATCH = 100;
+	private static final long JOURNAL_REPLAY_INTERVAL_S = 10;
+	
+	/**
+	 * Thrown out of a mutation, if the database connection has been lost, so that the mutation gets journaled.
+	 */
+	private static class ConnectionLostException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public ConnectionLostException(SQLException cause) {
+			super(cause);
+		}
+	}
+	
+	/**
+	 * Serializes a mutation to be journaled.
+	 */
+	private interface JournalWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+	
+	private final String jdbcUrl;
+	private final String username;
+	private final String password;
+	private volatile Connection connection;
+	
+	private final DatabaseJournal journal;
+	private final ThreadLocal<Boolean> inMutation = ThreadLocal.withInitial(() -> false);
+	
+	private final int hallOfFameSize;
+	private final int historyBatchSize;
+	private final int historyRetentionQuarters;
+	private final List<HistoryEntry<CompanyEconomy>> pendingEconomics = new ArrayList<>();
+	private final List<HistoryEntry<CompanyStatistics>> pendingInfrastructure = new ArrayList<>();
+	private final ScheduledExecutorService historyExecutor;
 
 	public DatabaseConnector(Configuration.Database config) throws SQLException {
-		this.connection = DriverManager.getConnection("jdbc:"
+		this.jdbcUrl = "jdbc:"
 				+ config.getUrl()
 				+ (config.getUrl().endsWith("/") ? "" : "/")
-				+ config.getDbName(),
-			config.getUsername(),
-			config.getPassword());
+				+ config.getDbName();
+		this.username = config.getUsername();
+		this.password = config.getPassword();
+		this.connection = DriverManager.getConnection(jdbcUrl, username, password);
+		
+		this.hallOfFameSize = Math.max(1, config.getHallOfFameSize());
 		
 		createTables(config.isDropTables());
+		
+		this.historyBatchSize = Math.max(1, config.getHistoryBatchSize());
+		this.historyRetentionQuarters = Math.max(1, config.getHistoryRetentionQuarters());
+		this.historyExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "db-history");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		int flushInterval = Math.max(1, config.getHistoryFlushInterval());
+		this.historyExecutor.scheduleWithFixedDelay(this::flushHistory, flushInterval, flushInterval, TimeUnit.SECONDS);
+		this.historyExecutor.scheduleWithFixedDelay(this::maintainHistory, 0, HISTORY_MAINTENANCE_INTERVAL_H, TimeUnit.HOURS);
+		
+		DatabaseJournal journal = null;
+		if (config.getJournalPath() != null && !config.getJournalPath().isEmpty()) {
+			try {
+				journal = new DatabaseJournal(Paths.get(config.getJournalPath()), config.getJournalMaxSize() * 1024L * 1024L);
+			} catch (IOException ex) {
+				LOGGER.error("Failed to open the journal {}, mutations will be lost while the database is not available.", config.getJournalPath(), ex);
+			}
+		}
+		
+		this.journal = journal;
+		this.historyExecutor.scheduleWithFixedDelay(this::replayJournal, 0, JOURNAL_REPLAY_INTERVAL_S, TimeUnit.SECONDS);
+	}
+	
+	private boolean journaled(byte type, long key, JournalWriter writer, BooleanSupplier mutation) {
+		long start = System.nanoTime();
+		if (journal == null || inMutation.get()) {
+			// no journal or replaying: a lost connection propagates up to the replay
+			try {
+				return mutation.getAsBoolean();
+			} finally {
+				WRITE_TIME.recordSince(start);
+			}
+		}
+		
+		if (!journal.isEmpty()) {
+			// keep the order, older mutations are still waiting for the replay
+			JOURNALED.inc();
+			return journal(type, key, writer);
+		}
+		
+		inMutation.set(true);
+		try {
+			return mutation.getAsBoolean();
+		} catch (ConnectionLostException ex) {
+			LOGGER.warn("Database connection lost ({}), journaling mutations until it is back.", ex.getCause().getMessage());
+			JOURNALED.inc();
+			return journal(type, key, writer);
+		} finally {
+			inMutation.set(false);
+			WRITE_TIME.recordSince(start);
+		}
+	}
+	
+	private boolean journal(byte type, long key, JournalWriter writer) {
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(buffer);
+			writer.write(out);
+			out.flush();
+			
+			return journal.append(type, key, buffer.toByteArray());
+		} catch (IOException ex) {
+			LOGGER.error("Failed to serialize a mutation of type {}.", type, ex);
+			return false;
+		}
+	}
+	
+	private static void ensureUniqueKey(Statement statement, String table, String key) {
+		try (ResultSet resultSet = statement.executeQuery("SHOW INDEX FROM " + table + " WHERE Key_name = '" + key.replace("`", "") + "'")) {
+			if (resultSet.next()) {
+				return;
+			}
+		} catch (SQLException ex) {
+			LOGGER.warn("Failed to check the indexes of the table {}.", table, ex);
+			return;
+		}
+		
+		try {
+			statement.executeUpdate("ALTER TABLE " + table + " ADD UNIQUE KEY " + key + " (" + F_COMPANY_ID + ", " + F_TS + ")");
+			LOGGER.info("Added the unique key {} to the table {}.", key, table);
+		} catch (SQLException ex) {
+			LOGGER.warn("Failed to add the unique key {} to the table {}, replaying the journal may duplicate history entries.", key, table, ex);
+		}
+	}
+	
+	private void connectionLost(SQLException ex) {
+		if (inMutation.get()
+				&& (ex instanceof SQLTransientConnectionException
+						|| ex instanceof SQLNonTransientConnectionException
+						|| ex instanceof SQLRecoverableException
+						|| (ex.getSQLState() != null && ex.getSQLState().startsWith("08")))) {
+			throw new ConnectionLostException(ex);
+		}
+	}
+	
+	private boolean ensureConnection() {
+		try {
+			if (connection.isValid(5)) {
+				return true;
+			}
+		} catch (SQLException ex) {}
+		
+		try {
+			connection.close();
+		} catch (Exception e) {}
+		
+		try {
+			connection = DriverManager.getConnection(jdbcUrl, username, password);
+			LOGGER.info("Reconnected to the database.");
+			return true;
+		} catch (SQLException ex) {
+			LOGGER.warn("Database is still not available: {}", ex.getMessage());
+			return false;
+		}
+	}
+	
+	private void replayJournal() {
+		if (journal == null || journal.isEmpty() || !ensureConnection()) {
+			return;
+		}
+		
+		LOGGER.info("Replaying the journal into the database.");
+		
+		inMutation.set(true);
+		try {
+			List<DatabaseJournal.Record> records;
+			while (!(records = journal.read(JOURNAL_REPLAY_BATCH)).isEmpty()) {
+				DatabaseJournal.Record replayed = null;
+				try {
+					for (DatabaseJournal.Record record : records) {
+						try {
+							if (!replay(record)) {
+								LOGGER.error("Failed to replay a journaled mutation of type {}, skipping it.", record.getType());
+							}
+						} catch (IOException ex) {
+							LOGGER.error("Failed to deserialize a journaled mutation of type {}, skipping it.", record.getType(), ex);
+						}
+						
+						replayed = record;
+					}
+				} finally {
+					if (replayed != null) {
+						journal.commit(replayed);
+					}
+				}
+			}
+		} catch (ConnectionLostException ex) {
+			LOGGER.warn("Database connection lost again while replaying the journal ({}).", ex.getCause().getMessage());
+		} finally {
+			inMutation.set(false);
+		}
+	}
+	
+	private boolean replay(DatabaseJournal.Record record) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.getPayload()));
+		
+		switch (record.getType()) {
+		case J_CLOSE_GAME:
+			return closeGame(in.readLong(), in.readLong());
+		case J_STORE_COMPANY: {
+			long gameId = in.readLong();
+			byte companyId = in.readByte();
+			String name = readString(in);
+			String managerName = readString(in);
+			int color = in.readInt();
+			boolean passwordProtected = in.readBoolean();
+			int inauguratedYear = in.readInt();
+			
+			CompanyData companyData = new CompanyData(companyId);
+			companyData.updateData(inauguratedYear == 0
+					? new CompanyInfo(companyId, name, managerName, color < 0 ? null : Color.getEnum(color), passwordProtected, (byte)0, false, null)
+					: new CompanyInfo(companyId, name, managerName, color < 0 ? null : Color.getEnum(color), passwordProtected, inauguratedYear, false, (byte)0, false, null));
+			
+			return storeCompany(gameId, companyData) > 0;
+		}
+		case J_CLOSE_COMPANY: {
+			long gameId = in.readLong();
+			byte companyId = in.readByte();
+			Date closureDate = new Date(in.readInt());
+			int closureReason = in.readInt();
+			
+			return storeCompanyClosure(gameId, companyId, closureDate, closureReason < 0 ? null : ClosureReason.values()[closureReason]);
+		}
+		case J_STORE_ECONOMY:
+			return storeEconomy(in.readLong(), in.readByte(), readEconomy(in));
+		case J_STORE_STATISTICS:
+			return storeStatistics(in.readLong(), in.readByte(), readStatistics(in));
+		case J_STORE_CLIENT:
+			return storeClient(in.readLong(), in.readInt(), readString(in), readString(in), readString(in), readString(in), in.readBoolean(), in.readLong());
+		case J_STORE_PLAYER:
+			return storePlayer(in.readLong(), in.readInt(), in.readByte(), in.readLong());
+		case J_PLAYER_QUIT:
+			return playerQuit(in.readLong(), in.readInt(), in.readLong());
+		case J_CLIENT_QUIT:
+			return clientQuit(in.readLong(), in.readInt(), in.readLong());
+		case J_GAME_STATE:
+			return storeGameState(in.readLong(), new Date(in.readInt()), in.readInt());
+		case J_APPEND_ECONOMY: {
+			long gameId = in.readLong();
+			byte companyId = in.readByte();
+			long ts = in.readLong();
+			int gameDate = in.readInt();
+			
+			return appendEconomicHistory(gameId, companyId, 0, ts, gameDate < 0 ? null : new Date(gameDate), readEconomy(in));
+		}
+		case J_APPEND_STATISTICS: {
+			long gameId = in.readLong();
+			byte companyId = in.readByte();
+			long ts = in.readLong();
+			int gameDate = in.readInt();
+			
+			return appendStatisticalHistory(gameId, companyId, 0, ts, gameDate < 0 ? null : new Date(gameDate), readStatistics(in));
+		}
+		case J_ECONOMY_HISTORY: {
+			int count = in.readInt();
+			List<HistoryEntry<CompanyEconomy>> entries = new ArrayList<>(count);
+			for (int n = 0; n < count; n++) {
+				entries.add(new HistoryEntry<>(in.readLong(), in.readLong(), readString(in), readEconomy(in)));
+			}
+			
+			return insertEconomicHistory(entries);
+		}
+		case J_STATISTICS_HISTORY: {
+			int count = in.readInt();
+			List<HistoryEntry<CompanyStatistics>> entries = new ArrayList<>(count);
+			for (int n = 0; n < count; n++) {
+				entries.add(new HistoryEntry<>(in.readLong(), in.readLong(), readString(in), readStatistics(in)));
+			}
+			
+			return insertStatisticalHistory(entries);
+		}
+		default:
+			LOGGER.error("Unknown type {} of a journaled mutation.", record.getType());
+			return false;
+		}
+	}
+	
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+	
+	private static void writeHistoryEntry(DataOutputStream out, HistoryEntry<?> entry) throws IOException {
+		out.writeLong(entry.getDbCompanyId());
+		out.writeLong(entry.getTs());
+		writeString(out, entry.getGameDate());
+	}
+	
+	private static void writeEconomy(DataOutputStream out, CompanyEconomy economy) throws IOException {
+		out.writeLong(economy.getMoney());
+		out.writeLong(economy.getLoan());
+		out.writeLong(economy.getIncome());
+		out.writeInt(economy.getDeliveredCargo());
+		
+		long[] pastCompanyValue = economy.getPastCompanyValue();
+		out.writeInt(pastCompanyValue.length);
+		for (long value : pastCompanyValue) {
+			out.writeLong(value);
+		}
+		
+		int[] pastPerformance = economy.getPastPerformance();
+		out.writeInt(pastPerformance.length);
+		for (int value : pastPerformance) {
+			out.writeInt(value);
+		}
+		
+		int[] pastDeliveredCargo = economy.getPastDeliveredCargo();
+		out.writeInt(pastDeliveredCargo.length);
+		for (int value : pastDeliveredCargo) {
+			out.writeInt(value);
+		}
+	}
+	
+	private static CompanyEconomy readEconomy(DataInputStream in) throws IOException {
+		long money = in.readLong();
+		long loan = in.readLong();
+		long income = in.readLong();
+		int deliveredCargo = in.readInt();
+		
+		long[] pastCompanyValue = new long[in.readInt()];
+		for (int n = 0; n < pastCompanyValue.length; n++) {
+			pastCompanyValue[n] = in.readLong();
+		}
+		
+		int[] pastPerformance = new int[in.readInt()];
+		for (int n = 0; n < pastPerformance.length; n++) {
+			pastPerformance[n] = in.readInt();
+		}
+		
+		int[] pastDeliveredCargo = new int[in.readInt()];
+		for (int n = 0; n < pastDeliveredCargo.length; n++) {
+			pastDeliveredCargo[n] = in.readInt();
+		}
+		
+		return new CompanyEconomy(money, loan, income, deliveredCargo, pastCompanyValue, pastPerformance, pastDeliveredCargo);
+	}
+	
+	private static void writeStatistics(DataOutputStream out, CompanyStatistics stats) throws IOException {
+		out.writeInt(stats.getNumberOfTrains());
+		out.writeInt(stats.getNumberOfLorries());
+		out.writeInt(stats.getNumberOfBusses());
+		out.writeInt(stats.getNumberOfPlanes());
+		out.writeInt(stats.getNumberOfShips());
+		out.writeInt(stats.getNumberOfTrainStations());
+		out.writeInt(stats.getNumberOfLorryDepots());
+		out.writeInt(stats.getNumberOfBusStops());
+		out.writeInt(stats.getNumberOfAirports());
+		out.writeInt(stats.getNumberOfHarbours());
+	}
+	
+	private static CompanyStatistics readStatistics(DataInputStream in) throws IOException {
+		return new CompanyStatistics(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+				in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
 	}
 	
 	private void createTables(boolean dropTables) throws SQLException {
@@ -200,6 +823,11 @@ public class DatabaseConnector implements Closeable {
 			LOGGER.warn("Dropping tables on startup.");
 			
 			try {
+				statement.executeUpdate("DROP TABLE IF EXISTS " + TABLE_ECONOMICS_HISTORY);
+				statement.executeUpdate("DROP TABLE IF EXISTS " + TABLE_INFRASTRUCTURE_HISTORY);
+				statement.executeUpdate("DROP TABLE IF EXISTS " + TABLE_ECONOMICS_ROLLUP);
+				statement.executeUpdate("DROP TABLE IF EXISTS " + TABLE_INFRASTRUCTURE_ROLLUP);
+				statement.executeUpdate("DROP TABLE IF EXISTS " + TABLE_TOP_LIST);
 				statement.executeUpdate("DROP TABLE IF EXISTS " + TABLE_PLAYERS);
 				statement.executeUpdate("DROP TABLE IF EXISTS " + TABLE_CLIENTS);
 				statement.executeUpdate("DROP TABLE IF EXISTS " + TABLE_ECONOMICS);
@@ -215,10 +843,14 @@ public class DatabaseConnector implements Closeable {
 		ResultSet resultSet;
 		try {
 			resultSet = statement.executeQuery("SELECT * FROM " + TABLE_GAMES + " WHERE " + F_ID + " = 0");
-			if (resultSet.getMetaData().getColumnCount() != 14) {
-				LOGGER.warn("Table {} contains an unexpected number of columns {}.", TABLE_GAMES, resultSet.getMetaData().getColumnCount());
-			}
+			int columnCount = resultSet.getMetaData().getColumnCount();
 			resultSet.close();
+			
+			if (columnCount == 14) {
+				addGameIdentity(statement);
+			} else if (columnCount != 15) {
+				LOGGER.warn("Table {} contains an unexpected number of columns {}.", TABLE_GAMES, columnCount);
+			}
 		} catch (SQLException ex) {
 			if (statement.executeUpdate(CREATE_GAMES) == 0) {
 				LOGGER.info("Created table {}.", TABLE_GAMES);
@@ -284,6 +916,115 @@ public class DatabaseConnector implements Closeable {
 				LOGGER.info("Created table {}.", TABLE_PLAYERS);
 			}
 		}
+		
+		try {
+			resultSet = statement.executeQuery("SELECT * FROM " + TABLE_ECONOMICS_HISTORY + " WHERE " + F_ID + " = 0");
+			if (resultSet.getMetaData().getColumnCount() != 10) {
+				LOGGER.warn("Table {} contains an unexpected number of columns {}.", TABLE_ECONOMICS_HISTORY, resultSet.getMetaData().getColumnCount());
+			}
+			resultSet.close();
+			ensureUniqueKey(statement, TABLE_ECONOMICS_HISTORY, KEY_ECONOMICS_ENTRY);
+		} catch (SQLException ex) {
+			if (statement.executeUpdate(CREATE_ECONOMICS_HISTORY) == 0) {
+				LOGGER.info("Created table {}.", TABLE_ECONOMICS_HISTORY);
+			}
+		}
+		
+		try {
+			resultSet = statement.executeQuery("SELECT * FROM " + TABLE_INFRASTRUCTURE_HISTORY + " WHERE " + F_ID + " = 0");
+			if (resultSet.getMetaData().getColumnCount() != 14) {
+				LOGGER.warn("Table {} contains an unexpected number of columns {}.", TABLE_INFRASTRUCTURE_HISTORY, resultSet.getMetaData().getColumnCount());
+			}
+			resultSet.close();
+			ensureUniqueKey(statement, TABLE_INFRASTRUCTURE_HISTORY, KEY_INFRASTRUCTURE_ENTRY);
+		} catch (SQLException ex) {
+			if (statement.executeUpdate(CREATE_INFRASTRUCTURE_HISTORY) == 0) {
+				LOGGER.info("Created table {}.", TABLE_INFRASTRUCTURE_HISTORY);
+			}
+		}
+		
+		try {
+			resultSet = statement.executeQuery("SELECT * FROM " + TABLE_ECONOMICS_ROLLUP + " WHERE " + F_COMPANY_ID + " = 0");
+			if (resultSet.getMetaData().getColumnCount() != 11) {
+				LOGGER.warn("Table {} contains an unexpected number of columns {}.", TABLE_ECONOMICS_ROLLUP, resultSet.getMetaData().getColumnCount());
+			}
+			resultSet.close();
+		} catch (SQLException ex) {
+			if (statement.executeUpdate(CREATE_ECONOMICS_ROLLUP) == 0) {
+				LOGGER.info("Created table {}.", TABLE_ECONOMICS_ROLLUP);
+			}
+		}
+		
+		try {
+			resultSet = statement.executeQuery("SELECT * FROM " + TABLE_INFRASTRUCTURE_ROLLUP + " WHERE " + F_COMPANY_ID + " = 0");
+			if (resultSet.getMetaData().getColumnCount() != 13) {
+				LOGGER.warn("Table {} contains an unexpected number of columns {}.", TABLE_INFRASTRUCTURE_ROLLUP, resultSet.getMetaData().getColumnCount());
+			}
+			resultSet.close();
+		} catch (SQLException ex) {
+			if (statement.executeUpdate(CREATE_INFRASTRUCTURE_ROLLUP) == 0) {
+				LOGGER.info("Created table {}.", TABLE_INFRASTRUCTURE_ROLLUP);
+			}
+		}
+		
+		try {
+			resultSet = statement.executeQuery("SELECT * FROM " + TABLE_TOP_LIST + " WHERE " + F_COMPANY_ID + " = 0");
+			if (resultSet.getMetaData().getColumnCount() != 22) {
+				LOGGER.warn("Table {} contains an unexpected number of columns {}.", TABLE_TOP_LIST, resultSet.getMetaData().getColumnCount());
+			}
+			resultSet.close();
+		} catch (SQLException ex) {
+			if (statement.executeUpdate(CREATE_TOP_LIST) == 0) {
+				LOGGER.info("Created table {}.", TABLE_TOP_LIST);
+				rebuildTopList(statement);
+			}
+		}
+	}
+	
+	private void addGameIdentity(Statement statement) throws SQLException {
+		LOGGER.info("Adding the game identity to the table {}.", TABLE_GAMES);
+		
+		statement.executeUpdate("ALTER TABLE " + TABLE_GAMES + " ADD COLUMN " + F_IDENTITY_HASH + " CHAR(64)");
+		
+		Map<Long, GameData> games = getGames(false);
+		if (games == null) {
+			throw new SQLException("Failed to read the games to compute their identities.");
+		}
+		
+		PreparedStatement update = connection.prepareStatement("UPDATE " + TABLE_GAMES + " SET " + F_IDENTITY_HASH + " = ? WHERE " + F_ID + " = ?");
+		try {
+			for (Map.Entry<Long, GameData> entry : games.entrySet()) {
+				int n = 1;
+				update.setString(n++, entry.getValue().getIdentityHash());
+				update.setLong(n++, entry.getKey());
+				update.addBatch();
+			}
+			
+			update.executeBatch();
+		} finally {
+			try {
+				update.close();
+			} catch (Exception e) {}
+		}
+		
+		statement.executeUpdate("ALTER TABLE " + TABLE_GAMES + " ADD " + GAME_IDENTITY_INDEX);
+	}
+	
+	private void rebuildTopList(Statement statement) throws SQLException {
+		statement.executeUpdate("INSERT INTO " + TABLE_TOP_LIST + " (" + TOP_LIST_COLUMNS + ") " + TOP_LIST_SOURCE);
+		
+		List<String> gameNames = new ArrayList<>();
+		ResultSet resultSet = statement.executeQuery("SELECT DISTINCT " + F_GAME_NAME + " FROM " + TABLE_TOP_LIST);
+		while (resultSet.next()) {
+			gameNames.add(resultSet.getString(1));
+		}
+		resultSet.close();
+		
+		for (String gameName : gameNames) {
+			trimTopList(gameName);
+		}
+		
+		LOGGER.info("Filled table {} with the top companies of {} game name(s).", TABLE_TOP_LIST, gameNames.size());
 	}
 	
 	public Map<Long, GameData> getGames(boolean activeOnly) {
@@ -330,6 +1071,7 @@ public class DatabaseConnector implements Closeable {
 		
 			return result;
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to get a list of games, active only {}.", activeOnly, ex);
 			return null;
 		} finally {
@@ -339,11 +1081,41 @@ public class DatabaseConnector implements Closeable {
 		}
 	}
 	
-	public boolean updateGame(long gameId, GameData gameData) {
+	public long findActiveGame(GameData gameData) {
 		PreparedStatement statement = null;
 		try {
-			statement = connection.prepareStatement(
-					"UPDATE " + TABLE_GAMES + " SET "
+			// uses the game_identity index
+			statement = connection.prepareStatement("SELECT " + F_ID + " FROM " + TABLE_GAMES
+					+ " WHERE " + F_IDENTITY_HASH + " = ? AND " + F_TS_FINISHED + " = 0"
+					+ " ORDER BY " + F_TS_STARTED + " DESC LIMIT 1");
+			statement.setString(1, gameData.getIdentityHash());
+			
+			long result;
+			ResultSet rs = statement.executeQuery();
+			if (rs.next()) {
+				result = rs.getLong(1);
+			} else {
+				result = 0;
+			}
+			
+			rs.close();
+			return result;
+		} catch (SQLException ex) {
+			connectionLost(ex);
+			LOGGER.error("Failed to find an active game for the server {}:{}, name {}.", gameData.getAddress(), gameData.getPort(), gameData.getServerName(), ex);
+			return -1;
+		} finally {
+			try {
+				statement.close();
+			} catch (Exception e) {}
+		}
+	}
+	
+	public boolean updateGame(long gameId, GameData gameData) {
+		PreparedStatement statement = null;
+		try {
+			statement = connection.prepareStatement(
+					"UPDATE " + TABLE_GAMES + " SET "
 							+ F_ADDRESS + " = ?, "
 							+ F_PORT + " = ?, "
 							+ F_SERVER_NAME + " = ?, "
@@ -351,7 +1123,8 @@ public class DatabaseConnector implements Closeable {
 							+ F_GENERATION_SEED + " = ?, "
 							+ F_STARTING_YEAR + " = ?, "
 							+ F_MAP_SIZE_X + " = ?, "
-							+ F_MAP_SIZE_Y + " = ?"
+							+ F_MAP_SIZE_Y + " = ?, "
+							+ F_IDENTITY_HASH + " = ?"
 								+ " WHERE " + F_ID + " = ?");
 			
 			int n = 1;
@@ -363,11 +1136,13 @@ public class DatabaseConnector implements Closeable {
 			statement.setInt(n++, gameData.getStartingYear());
 			statement.setInt(n++, gameData.getMapSizeX());
 			statement.setInt(n++, gameData.getMapSizeY());
+			statement.setString(n++, gameData.getIdentityHash());
 			
 			statement.setLong(n++, gameId);
 			
 			return statement.executeUpdate() == 1;
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to update the game {}.", gameId, ex);
 			return false;
 		} finally {
@@ -391,7 +1166,8 @@ public class DatabaseConnector implements Closeable {
 							+ F_GENERATION_SEED + ", "
 							+ F_STARTING_YEAR + ", "
 							+ F_MAP_SIZE_X + ", "
-							+ F_MAP_SIZE_Y + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+							+ F_MAP_SIZE_Y + ", "
+							+ F_IDENTITY_HASH + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
 					Statement.RETURN_GENERATED_KEYS);
 			
 			int n = 1;
@@ -405,6 +1181,7 @@ public class DatabaseConnector implements Closeable {
 			statement.setInt(n++, gameData.getStartingYear());
 			statement.setInt(n++, gameData.getMapSizeX());
 			statement.setInt(n++, gameData.getMapSizeY());
+			statement.setString(n++, gameData.getIdentityHash());
 
 			statement.executeQuery();
 			
@@ -415,6 +1192,7 @@ public class DatabaseConnector implements Closeable {
 				return -2;
 			}
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to create a new game for server {}:{}, name {}.", gameData.getAddress(), gameData.getPort(), gameData.getServerName(), ex);
 			return -1;
 		} finally {
@@ -425,17 +1203,37 @@ public class DatabaseConnector implements Closeable {
 	}
 	
 	public boolean closeGame(long gameId) {
+		long ts = System.currentTimeMillis();
+		return journaled(J_CLOSE_GAME, DatabaseJournal.NO_KEY, out -> {
+			out.writeLong(gameId);
+			out.writeLong(ts);
+		}, () -> closeGame(gameId, ts));
+	}
+	
+	private boolean closeGame(long gameId, long ts) {
 		PreparedStatement statement = null;
 		try {
 			statement = connection.prepareStatement(
 					"UPDATE " + TABLE_GAMES + " SET " + F_TS_FINISHED + " = ? WHERE " + F_ID + " = ?");
 			
 			int n = 1;
-			statement.setTimestamp(n++, new Timestamp(System.currentTimeMillis()));
+			statement.setTimestamp(n++, new Timestamp(ts));
 			statement.setLong(n++, gameId);
 
-			return statement.executeUpdate() == 1;
+			if (statement.executeUpdate() != 1) {
+				return false;
+			}
+			
+			statement.close();
+			statement = connection.prepareStatement(
+					"UPDATE " + TABLE_TOP_LIST + " AS t JOIN " + TABLE_GAMES + " AS g ON (g." + F_ID + " = t." + F_GAME_ID + ") "
+					+ "SET t." + F_TS_FINISHED + " = g." + F_TS_FINISHED + " WHERE t." + F_GAME_ID + " = ?");
+			statement.setLong(1, gameId);
+			statement.executeUpdate();
+			
+			return true;
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to close a game {}.", gameId, ex);
 			return false;
 		} finally {
@@ -482,6 +1280,7 @@ public class DatabaseConnector implements Closeable {
 				return -2;
 			}
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to create a new company {} of the game {}.", companyData.getCompanyId(), gameId, ex);
 			return -3;
 		} finally {
@@ -516,8 +1315,11 @@ public class DatabaseConnector implements Closeable {
 			
 			statement.setLong(n++, dbCompanyId);
 
-			return statement.executeUpdate() == 1;
+			if (statement.executeUpdate() != 1) {
+				return false;
+			}
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to update the company db-id {}.", dbCompanyId);
 			return false;
 		} finally {
@@ -525,14 +1327,48 @@ public class DatabaseConnector implements Closeable {
 				statement.close();
 			} catch (Exception e) {}
 		}
+		
+		refreshTopList(dbCompanyId);
+		return true;
 	}
 	
 	public long createOrUpdateCompany(long gameId, CompanyData companyData) {
-		long dbCompanyId = getCompanyId(gameId, companyData.getCompanyId());
+		// 0 if journaled, as the db-id is not known yet
+		long[] result = new long[1];
+		boolean stored = journaled(J_STORE_COMPANY, DatabaseJournal.NO_KEY, out -> {
+			out.writeLong(gameId);
+			out.writeByte(companyData.getCompanyId());
+			writeString(out, companyData.getName());
+			writeString(out, companyData.getManagerName());
+			out.writeInt(companyData.getColor() == null ? -1 : companyData.getColor().getValue());
+			out.writeBoolean(companyData.isPasswordProtected());
+			out.writeInt(companyData.getInauguratedYear());
+		}, () -> (result[0] = storeCompany(gameId, companyData)) > 0);
+		
+		if (!stored && result[0] == 0) {
+			// neither stored nor journaled
+			return -5;
+		}
+		
+		return result[0];
+	}
+	
+	private long storeCompany(long gameId, CompanyData companyData) {
+		long dbCompanyId = companyData.getDbId();
+		if (dbCompanyId == 0) {
+			dbCompanyId = getCompanyId(gameId, companyData.getCompanyId());
+		}
+		
 		if (dbCompanyId == 0) {
-			return createCompany(gameId, companyData);
+			dbCompanyId = createCompany(gameId, companyData);
+			if (dbCompanyId > 0) {
+				companyData.setDbId(dbCompanyId);
+			}
+			
+			return dbCompanyId;
 		} else {
 			if (updateCompany(dbCompanyId, companyData)) {
+				companyData.setDbId(dbCompanyId);
 				return dbCompanyId;
 			} else {
 				return -4;
@@ -541,6 +1377,15 @@ public class DatabaseConnector implements Closeable {
 	}
 	
 	public boolean closeCompany(long gameId, byte companyId, Date closureDate, ClosureReason closureReason) {
+		return journaled(J_CLOSE_COMPANY, DatabaseJournal.NO_KEY, out -> {
+			out.writeLong(gameId);
+			out.writeByte(companyId);
+			out.writeInt(closureDate.getRawValue());
+			out.writeInt(closureReason == null ? -1 : closureReason.ordinal());
+		}, () -> storeCompanyClosure(gameId, companyId, closureDate, closureReason));
+	}
+	
+	private boolean storeCompanyClosure(long gameId, byte companyId, Date closureDate, ClosureReason closureReason) {
 		PreparedStatement statement = null;
 		try {
 			statement = connection.prepareStatement(
@@ -548,14 +1393,7 @@ public class DatabaseConnector implements Closeable {
 							+ F_GAME_ID + " = ? AND " + F_COMPANY_ID + " = ? AND " + F_CLOSED + " IS NULL");
 			
 			int n = 1;
-			statement.setString(n++,
-					String.format("%04d-%02d-%02d",
-							closureDate.getYear(),
-							closureDate.getMonth(),
-							// fix for date issues of the game:
-							// some years in the game are leap-years, while they should NOT be
-							// SQL is complaining about such dates, so we correct ALL end-of-Feb to 28th to be sure
-							(closureDate.getDay() == 29 && closureDate.getMonth() == 2) ? 28 : closureDate.getDay()));
+			statement.setString(n++, toSqlDate(closureDate));
 			statement.setString(n++, closureReason == null ? null : closureReason.toString());
 			
 			statement.setLong(n++, gameId);
@@ -563,6 +1401,7 @@ public class DatabaseConnector implements Closeable {
 
 			return statement.executeUpdate() == 1;
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to close a company {} of the game {}.", companyId, gameId, ex);
 			return false;
 		} finally {
@@ -610,6 +1449,7 @@ public class DatabaseConnector implements Closeable {
 				return null;
 			}
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to get economic data of company db-id {}.", dbCompanyId, ex);
 			return null;
 		} finally {
@@ -668,6 +1508,7 @@ public class DatabaseConnector implements Closeable {
 				return null;
 			}
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to get infrastructure data of company db-id {}.", dbCompanyId, ex);
 			return null;
 		} finally {
@@ -678,6 +1519,14 @@ public class DatabaseConnector implements Closeable {
 	}
 	
 	public boolean storeEconomicData(long gameId, byte companyId, CompanyEconomy economy) {
+		return journaled(J_STORE_ECONOMY, DatabaseJournal.NO_KEY, out -> {
+			out.writeLong(gameId);
+			out.writeByte(companyId);
+			writeEconomy(out, economy);
+		}, () -> storeEconomy(gameId, companyId, economy));
+	}
+	
+	private boolean storeEconomy(long gameId, byte companyId, CompanyEconomy economy) {
 		long dbCompanyId = getCompanyId(gameId, companyId);
 		if (dbCompanyId == 0) {
 			return false;
@@ -718,8 +1567,11 @@ public class DatabaseConnector implements Closeable {
 
 			statement.setLong(n++, dbCompanyId);
 			
-			return statement.executeUpdate() == 1;
+			if (statement.executeUpdate() != 1) {
+				return false;
+			}
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to store economic data of company {} of the game {}.", companyId, gameId, ex);
 			return false;
 		} finally {
@@ -727,6 +1579,120 @@ public class DatabaseConnector implements Closeable {
 				statement.close();
 			} catch (Exception e) {}
 		}
+		
+		updateTopList(dbCompanyId);
+		return true;
+	}
+	
+	/**
+	 * Updates the top list with the company after its data has been stored.
+	 * The top list is derived data: a failure is logged, but it does neither fail
+	 * nor journal the write that triggered it, the next write repairs the entry.
+	 * @param dbCompanyId DB-ID of the company
+	 * @return true on success, false otherwise
+	 */
+	private boolean updateTopList(long dbCompanyId) {
+		PreparedStatement statement = null;
+		String gameName;
+		try {
+			statement = connection.prepareStatement(TOP_LIST_UPSERT);
+			statement.setLong(1, dbCompanyId);
+			statement.executeUpdate();
+			statement.close();
+			
+			statement = connection.prepareStatement("SELECT " + F_GAME_NAME + " FROM " + TABLE_TOP_LIST + " WHERE " + F_COMPANY_ID + " = ?");
+			statement.setLong(1, dbCompanyId);
+			
+			ResultSet rs = statement.executeQuery();
+			if (!rs.next()) {
+				return true;
+			}
+			
+			gameName = rs.getString(1);
+			rs.close();
+		} catch (SQLException ex) {
+			LOGGER.error("Failed to update the top list with the company db-id {}.", dbCompanyId, ex);
+			return false;
+		} finally {
+			try {
+				statement.close();
+			} catch (Exception e) {}
+		}
+		
+		return trimTopList(gameName);
+	}
+	
+	private boolean trimTopList(String gameName) {
+		PreparedStatement statement = null;
+		try {
+			// value of the last company still on the list, uses the top_list_rank index
+			statement = connection.prepareStatement("SELECT " + F_VALUE + " FROM " + TABLE_TOP_LIST
+					+ " WHERE " + F_GAME_NAME + " = ? ORDER BY " + F_VALUE + " DESC LIMIT 1 OFFSET ?");
+			
+			int n = 1;
+			statement.setString(n++, gameName);
+			statement.setInt(n++, hallOfFameSize - 1);
+			
+			ResultSet rs = statement.executeQuery();
+			if (!rs.next()) {
+				return true;
+			}
+			
+			long lowestValue = rs.getLong(1);
+			rs.close();
+			statement.close();
+			
+			statement = connection.prepareStatement("DELETE FROM " + TABLE_TOP_LIST
+					+ " WHERE " + F_GAME_NAME + " = ? AND " + F_VALUE + " < ?");
+			
+			n = 1;
+			statement.setString(n++, gameName);
+			statement.setLong(n++, lowestValue);
+			
+			statement.executeUpdate();
+			return true;
+		} catch (SQLException ex) {
+			LOGGER.error("Failed to trim the top list of the game name {}.", gameName, ex);
+			return false;
+		} finally {
+			try {
+				statement.close();
+			} catch (Exception e) {}
+		}
+	}
+	
+	private boolean refreshTopList(long dbCompanyId) {
+		PreparedStatement statement = null;
+		try {
+			// updates the entry only if the company is already on the list
+			statement = connection.prepareStatement("UPDATE " + TABLE_TOP_LIST + " AS t "
+					+ "JOIN " + TABLE_COMPANIES + " AS c ON (c." + F_ID + " = t." + F_COMPANY_ID + ") "
+					+ "LEFT JOIN " + TABLE_INFRASTRUCTURE + " AS i ON (i." + F_COMPANY_ID + " = t." + F_COMPANY_ID + ") "
+					+ "SET t." + F_NAME + " = c." + F_NAME + ", "
+					+ "t." + F_COLOR + " = c." + F_COLOR + ", "
+					+ "t." + F_NTRAINS + " = IFNULL(i." + F_NTRAINS + ", 0), "
+					+ "t." + F_NLORRIES + " = IFNULL(i." + F_NLORRIES + ", 0), "
+					+ "t." + F_NBUSSES + " = IFNULL(i." + F_NBUSSES + ", 0), "
+					+ "t." + F_NPLANES + " = IFNULL(i." + F_NPLANES + ", 0), "
+					+ "t." + F_NSHIPS + " = IFNULL(i." + F_NSHIPS + ", 0), "
+					+ "t." + F_NSTATIONS + " = IFNULL(i." + F_NSTATIONS + ", 0), "
+					+ "t." + F_NDEPOTS + " = IFNULL(i." + F_NDEPOTS + ", 0), "
+					+ "t." + F_NSTOPS + " = IFNULL(i." + F_NSTOPS + ", 0), "
+					+ "t." + F_NAIRPORTS + " = IFNULL(i." + F_NAIRPORTS + ", 0), "
+					+ "t." + F_NHARBOURS + " = IFNULL(i." + F_NHARBOURS + ", 0) "
+					+ "WHERE t." + F_COMPANY_ID + " = ?");
+			statement.setLong(1, dbCompanyId);
+			
+			statement.executeUpdate();
+			return true;
+		} catch (SQLException ex) {
+			LOGGER.error("Failed to refresh the top list entry of the company db-id {}.", dbCompanyId, ex);
+			return false;
+		} finally {
+			try {
+				statement.close();
+			} catch (Exception e) {}
+		}
 	}
 	
 	public long getCompanyId(long gameId, byte companyId) {
@@ -754,6 +1720,7 @@ public class DatabaseConnector implements Closeable {
 			rs.close();
 			return result;
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to get the company's {} db-id of the game {}.", companyId, gameId, ex);
 			return 0;
 		} finally {
@@ -764,6 +1731,14 @@ public class DatabaseConnector implements Closeable {
 	}
 	
 	public boolean storeStatisticalData(long gameId, byte companyId, CompanyStatistics stats) {
+		return journaled(J_STORE_STATISTICS, DatabaseJournal.NO_KEY, out -> {
+			out.writeLong(gameId);
+			out.writeByte(companyId);
+			writeStatistics(out, stats);
+		}, () -> storeStatistics(gameId, companyId, stats));
+	}
+	
+	private boolean storeStatistics(long gameId, byte companyId, CompanyStatistics stats) {
 		long dbCompanyId = getCompanyId(gameId, companyId);
 		if (dbCompanyId == 0) {
 			return false;
@@ -818,8 +1793,11 @@ public class DatabaseConnector implements Closeable {
 
 			statement.setLong(n++, dbCompanyId);
 			
-			return statement.executeUpdate() == 1;
+			if (statement.executeUpdate() != 1) {
+				return false;
+			}
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to store statistical data of company {} of the game {}.", companyId, gameId, ex);
 			return false;
 		} finally {
@@ -827,9 +1805,26 @@ public class DatabaseConnector implements Closeable {
 				statement.close();
 			} catch (Exception e) {}
 		}
+		
+		refreshTopList(dbCompanyId);
+		return true;
 	}
 	
 	public boolean createOrUpdatePlayer(long gameId, int clientId, String name, String networkAddress, String countryCode, String city, boolean proxy) {
+		long ts = System.currentTimeMillis();
+		return journaled(J_STORE_CLIENT, DatabaseJournal.NO_KEY, out -> {
+			out.writeLong(gameId);
+			out.writeInt(clientId);
+			writeString(out, name);
+			writeString(out, networkAddress);
+			writeString(out, countryCode);
+			writeString(out, city);
+			out.writeBoolean(proxy);
+			out.writeLong(ts);
+		}, () -> storeClient(gameId, clientId, name, networkAddress, countryCode, city, proxy, ts));
+	}
+	
+	private boolean storeClient(long gameId, int clientId, String name, String networkAddress, String countryCode, String city, boolean proxy, long ts) {
 		PreparedStatement statement = null;
 		try {
 			statement = connection.prepareStatement(
@@ -856,8 +1851,9 @@ public class DatabaseConnector implements Closeable {
 						+ F_CITY + ", "
 						+ F_PROXY + ", "
 						+ F_GAME_ID + ", "
-						+ F_CLIENT_ID
-						+ ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+						+ F_CLIENT_ID + ", "
+						+ F_TS_JOINED
+						+ ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
 			} else if (count == 1) {
 				statement = connection.prepareStatement("UPDATE " + TABLE_CLIENTS + " SET "
 						+ F_NAME + " = ?, "
@@ -880,9 +1876,14 @@ public class DatabaseConnector implements Closeable {
 			
 			statement.setLong(n++, gameId);
 			statement.setInt(n++, clientId);
+			
+			if (count == 0) {
+				statement.setTimestamp(n++, new Timestamp(ts));
+			}
 
 			return statement.executeUpdate() == 1;
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to create/update client data: game {}, client {}.", gameId, clientId, ex);
 			return false;
 		} finally {
@@ -893,6 +1894,16 @@ public class DatabaseConnector implements Closeable {
 	}
 	
 	public boolean storePlayer(long gameId, int playerId, byte companyId) {
+		long ts = System.currentTimeMillis();
+		return journaled(J_STORE_PLAYER, DatabaseJournal.NO_KEY, out -> {
+			out.writeLong(gameId);
+			out.writeInt(playerId);
+			out.writeByte(companyId);
+			out.writeLong(ts);
+		}, () -> storePlayer(gameId, playerId, companyId, ts));
+	}
+	
+	private boolean storePlayer(long gameId, int playerId, byte companyId, long ts) {
 		long dbCompanyId = getCompanyId(gameId, companyId);
 		
 		if (dbCompanyId == 0) {
@@ -932,6 +1943,7 @@ public class DatabaseConnector implements Closeable {
 				return true;
 			}
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to check whether player {} is already stored for the company {} of the game {}.", playerId, companyId, gameId, ex);
 			return false;
 		} finally {
@@ -945,16 +1957,19 @@ public class DatabaseConnector implements Closeable {
 					"INSERT INTO " + TABLE_PLAYERS + " ("
 					+ F_GAME_ID + ", "
 					+ F_CLIENT_ID + ", "
-					+ F_COMPANY_ID + ") "
-					+ "VALUES (?, ?, ?)");
+					+ F_COMPANY_ID + ", "
+					+ F_TS_JOINED + ") "
+					+ "VALUES (?, ?, ?, ?)");
 			
 			int n = 1;
 			statement.setLong(n++, gameId);
 			statement.setInt(n++, playerId);
 			statement.setLong(n++, dbCompanyId);
+			statement.setTimestamp(n++, new Timestamp(ts));
 			
 			return statement.executeUpdate() == 1;
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to store player {} joining company {} of the game {}.", playerId, companyId, gameId, ex);
 			return false;
 		} finally {
@@ -965,6 +1980,15 @@ public class DatabaseConnector implements Closeable {
 	}
 	
 	public boolean playerQuit(long gameId, int playerId) {
+		long ts = System.currentTimeMillis();
+		return journaled(J_PLAYER_QUIT, DatabaseJournal.NO_KEY, out -> {
+			out.writeLong(gameId);
+			out.writeInt(playerId);
+			out.writeLong(ts);
+		}, () -> playerQuit(gameId, playerId, ts));
+	}
+	
+	private boolean playerQuit(long gameId, int playerId, long ts) {
 		PreparedStatement statement = null;
 		try {
 			statement = connection.prepareStatement(
@@ -973,13 +1997,14 @@ public class DatabaseConnector implements Closeable {
 						+ "WHERE " + F_GAME_ID + " = ? AND " + F_CLIENT_ID + " = ?");
 			
 			int n = 1;
-			statement.setTimestamp(n++, new Timestamp(System.currentTimeMillis()));
+			statement.setTimestamp(n++, new Timestamp(ts));
 			
 			statement.setLong(n++, gameId);
 			statement.setInt(n++, playerId);
 			
 			return statement.executeUpdate() >= 1;
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to log player {} quitting game {}.", playerId, gameId, ex);
 			return false;
 		} finally {
@@ -990,6 +2015,15 @@ public class DatabaseConnector implements Closeable {
 	}
 	
 	public boolean clientQuit(long gameId, int playerId) {
+		long ts = System.currentTimeMillis();
+		return journaled(J_CLIENT_QUIT, DatabaseJournal.NO_KEY, out -> {
+			out.writeLong(gameId);
+			out.writeInt(playerId);
+			out.writeLong(ts);
+		}, () -> clientQuit(gameId, playerId, ts));
+	}
+	
+	private boolean clientQuit(long gameId, int playerId, long ts) {
 		PreparedStatement statement = null;
 		try {
 			statement = connection.prepareStatement("UPDATE " + TABLE_CLIENTS + " SET "
@@ -997,13 +2031,14 @@ public class DatabaseConnector implements Closeable {
 					+ "WHERE " + F_GAME_ID + " = ? AND " + F_CLIENT_ID + " = ?");
 
 			int n = 1;
-			statement.setTimestamp(n++, new Timestamp(System.currentTimeMillis()));
+			statement.setTimestamp(n++, new Timestamp(ts));
 			
 			statement.setLong(n++, gameId);
 			statement.setInt(n++, playerId);
 			
 			return statement.executeUpdate() >= 1;
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to log client {} quitting game {}.", playerId, gameId, ex);
 			return false;
 		} finally {
@@ -1013,51 +2048,43 @@ public class DatabaseConnector implements Closeable {
 		}
 	}
 	
-	public boolean updateGameDate(long gameId, Date gameDate) {
-		PreparedStatement statement = null;
-		try {
-			statement = connection.prepareStatement(
-					"UPDATE " + TABLE_GAMES + " SET "
-					+ F_GAME_DATE + " = ? "
-					+ "WHERE " + F_ID + " = ?");
-			
-			int n = 1;
-			statement.setString(n++,
-					String.format("%04d-%02d-%02d",
-							gameDate.getYear(),
-							gameDate.getMonth(),
-							// fix for date issues of the game:
-							// some years in the game are leap-years, while they should NOT be
-							// SQL is complaining about such dates, so we correct ALL end-of-Feb to 28th to be sure
-							(gameDate.getDay() == 29 && gameDate.getMonth() == 2) ? 28 : gameDate.getDay()));
-			statement.setLong(n++, gameId);
-			
-			return statement.executeUpdate() == 1;
-		} catch (SQLException ex) {
-			LOGGER.error("Failed to update game {} date {}", gameId, gameDate, ex);
-			return false;
-		} finally {
-			try {
-				statement.close();
-			} catch (Exception e) {}
-		}
+	/**
+	 * Updates the in-game date and the performance of a game.
+	 * @param gameId database ID of the game
+	 * @param gameDate current in-game date
+	 * @param performance duration of one in-game day expressed as real-time milliseconds
+	 *                    or {@link #UNKNOWN_PERFORMANCE} to leave the stored value untouched
+	 * @return true if stored or journaled, false otherwise
+	 */
+	public boolean updateGameState(long gameId, Date gameDate, int performance) {
+		// only the latest state matters, older ones are compacted away
+		return journaled(J_GAME_STATE, gameId, out -> {
+			out.writeLong(gameId);
+			out.writeInt(gameDate.getRawValue());
+			out.writeInt(performance);
+		}, () -> storeGameState(gameId, gameDate, performance));
 	}
 	
-	public boolean updateGamePerformance(long gameId, int performance) {
+	private boolean storeGameState(long gameId, Date gameDate, int performance) {
 		PreparedStatement statement = null;
 		try {
 			statement = connection.prepareStatement(
 					"UPDATE " + TABLE_GAMES + " SET "
-					+ F_PERFORMANCE + " = ? "
+					+ F_GAME_DATE + " = ?"
+					+ (performance != UNKNOWN_PERFORMANCE ? ", " + F_PERFORMANCE + " = ? " : " ")
 					+ "WHERE " + F_ID + " = ?");
 			
 			int n = 1;
-			statement.setInt(n++, performance);;
+			statement.setString(n++, toSqlDate(gameDate));
+			if (performance != UNKNOWN_PERFORMANCE) {
+				statement.setInt(n++, performance);
+			}
 			statement.setLong(n++, gameId);
 			
 			return statement.executeUpdate() == 1;
 		} catch (SQLException ex) {
-			LOGGER.error("Failed to update game {} performance {}", gameId, performance, ex);
+			connectionLost(ex);
+			LOGGER.error("Failed to update game {} date {}, performance {}", gameId, gameDate, performance, ex);
 			return false;
 		} finally {
 			try {
@@ -1072,14 +2099,12 @@ public class DatabaseConnector implements Closeable {
 			ArrayList<TopPlayer> result = new ArrayList<>(limit);
 			
 			statement = connection.prepareStatement(
-					"SELECT c." + F_NAME + ", "
-							+ "e." + F_INCOME + ", e." + F_LOAN + ", e." + F_MONEY + ", e." + F_VALUE + " AS here, e." + F_PERFORMANCE + ", "
-							+ "g." + F_TS_STARTED + ", g." + F_TS_FINISHED + " "
-							+ "FROM " + TABLE_COMPANIES + " AS c "
-							+ "LEFT JOIN " + TABLE_ECONOMICS + " AS e ON (e." + F_COMPANY_ID + " = c." + F_ID + ") "
-							+ "LEFT JOIN " + TABLE_GAMES + " AS g ON (c." + F_GAME_ID + " = g." + F_ID + ") "
-							+ "WHERE g." + F_GAME_NAME + " = (SELECT " + F_GAME_NAME + " FROM " + TABLE_GAMES + " WHERE " + F_ID + " = ?) "
-							+ "ORDER BY here DESC "
+					"SELECT " + F_NAME + ", "
+							+ F_INCOME + ", " + F_LOAN + ", " + F_MONEY + ", " + F_VALUE + ", " + F_PERFORMANCE + ", "
+							+ F_TS_STARTED + ", " + F_TS_FINISHED + " "
+							+ "FROM " + TABLE_TOP_LIST + " "
+							+ "WHERE " + F_GAME_NAME + " = (SELECT " + F_GAME_NAME + " FROM " + TABLE_GAMES + " WHERE " + F_ID + " = ?) "
+							+ "ORDER BY " + F_VALUE + " DESC "
 							+ "LIMIT ?");
 			
 			int n = 1;
@@ -1108,6 +2133,7 @@ public class DatabaseConnector implements Closeable {
 			return result;
 			
 		} catch (SQLException ex) {
+			connectionLost(ex);
 			LOGGER.error("Failed to get a top list of the game {}.", gameId, ex);
 			return null;
 		} finally {
@@ -1117,8 +2143,476 @@ public class DatabaseConnector implements Closeable {
 		}
 	}
 	
+	public boolean appendEconomicHistory(long gameId, byte companyId, long dbCompanyId, Date gameDate, CompanyEconomy economy) {
+		long ts = System.currentTimeMillis();
+		return journaled(J_APPEND_ECONOMY, DatabaseJournal.NO_KEY, out -> {
+			out.writeLong(gameId);
+			out.writeByte(companyId);
+			out.writeLong(ts);
+			out.writeInt(gameDate == null ? -1 : gameDate.getRawValue());
+			writeEconomy(out, economy);
+		}, () -> appendEconomicHistory(gameId, companyId, dbCompanyId, ts, gameDate, economy));
+	}
+	
+	private boolean appendEconomicHistory(long gameId, byte companyId, long knownDbCompanyId, long ts, Date gameDate, CompanyEconomy economy) {
+		long dbCompanyId = knownDbCompanyId > 0 ? knownDbCompanyId : getCompanyId(gameId, companyId);
+		if (dbCompanyId == 0) {
+			return false;
+		}
+		
+		HistoryEntry<CompanyEconomy> entry = new HistoryEntry<>(dbCompanyId,
+				ts,
+				gameDate == null ? null : toSqlDate(gameDate),
+				economy);
+		
+		synchronized (pendingEconomics) {
+			pendingEconomics.add(entry);
+			if (pendingEconomics.size() == historyBatchSize) {
+				historyExecutor.execute(this::flushHistory);
+			}
+		}
+		
+		return true;
+	}
+	
+	public boolean appendStatisticalHistory(long gameId, byte companyId, long dbCompanyId, Date gameDate, CompanyStatistics stats) {
+		long ts = System.currentTimeMillis();
+		return journaled(J_APPEND_STATISTICS, DatabaseJournal.NO_KEY, out -> {
+			out.writeLong(gameId);
+			out.writeByte(companyId);
+			out.writeLong(ts);
+			out.writeInt(gameDate == null ? -1 : gameDate.getRawValue());
+			writeStatistics(out, stats);
+		}, () -> appendStatisticalHistory(gameId, companyId, dbCompanyId, ts, gameDate, stats));
+	}
+	
+	private boolean appendStatisticalHistory(long gameId, byte companyId, long knownDbCompanyId, long ts, Date gameDate, CompanyStatistics stats) {
+		long dbCompanyId = knownDbCompanyId > 0 ? knownDbCompanyId : getCompanyId(gameId, companyId);
+		if (dbCompanyId == 0) {
+			return false;
+		}
+		
+		HistoryEntry<CompanyStatistics> entry = new HistoryEntry<>(dbCompanyId,
+				ts,
+				gameDate == null ? null : toSqlDate(gameDate),
+				stats);
+		
+		synchronized (pendingInfrastructure) {
+			pendingInfrastructure.add(entry);
+			if (pendingInfrastructure.size() == historyBatchSize) {
+				historyExecutor.execute(this::flushHistory);
+			}
+		}
+		
+		return true;
+	}
+	
+	public void flushHistory() {
+		List<HistoryEntry<CompanyEconomy>> economics;
+		synchronized (pendingEconomics) {
+			economics = new ArrayList<>(pendingEconomics);
+			pendingEconomics.clear();
+		}
+		
+		List<HistoryEntry<CompanyStatistics>> infrastructure;
+		synchronized (pendingInfrastructure) {
+			infrastructure = new ArrayList<>(pendingInfrastructure);
+			pendingInfrastructure.clear();
+		}
+		
+		if (!economics.isEmpty()) {
+			journaled(J_ECONOMY_HISTORY, DatabaseJournal.NO_KEY, out -> {
+				out.writeInt(economics.size());
+				for (HistoryEntry<CompanyEconomy> entry : economics) {
+					writeHistoryEntry(out, entry);
+					writeEconomy(out, entry.getData());
+				}
+			}, () -> insertEconomicHistory(economics));
+		}
+		
+		if (!infrastructure.isEmpty()) {
+			journaled(J_STATISTICS_HISTORY, DatabaseJournal.NO_KEY, out -> {
+				out.writeInt(infrastructure.size());
+				for (HistoryEntry<CompanyStatistics> entry : infrastructure) {
+					writeHistoryEntry(out, entry);
+					writeStatistics(out, entry.getData());
+				}
+			}, () -> insertStatisticalHistory(infrastructure));
+		}
+	}
+	
+	private boolean insertEconomicHistory(List<HistoryEntry<CompanyEconomy>> entries) {
+		PreparedStatement statement = null;
+		try {
+			statement = connection.prepareStatement(
+					"INSERT INTO " + TABLE_ECONOMICS_HISTORY + " ("
+					+ F_COMPANY_ID + ", "
+					+ F_TS + ", "
+					+ F_GAME_DATE + ", "
+					+ F_INCOME + ", "
+					+ F_LOAN + ", "
+					+ F_MONEY + ", "
+					+ F_VALUE + ", "
+					+ F_PERFORMANCE + ", "
+					+ F_DELIVERED_CARGO + ") "
+					+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) "
+					// replayed entries are already there
+					+ "ON DUPLICATE KEY UPDATE " + F_ID + " = " + F_ID);
+			
+			for (HistoryEntry<CompanyEconomy> entry : entries) {
+				CompanyEconomy economy = entry.getData();
+				
+				int n = 1;
+				statement.setLong(n++, entry.getDbCompanyId());
+				statement.setTimestamp(n++, new Timestamp(entry.getTs()));
+				statement.setString(n++, entry.getGameDate());
+				statement.setLong(n++, economy.getIncome());
+				statement.setLong(n++, economy.getLoan());
+				statement.setLong(n++, economy.getMoney());
+				statement.setLong(n++, economy.getPastCompanyValue()[0]);
+				statement.setInt(n++, economy.getPastPerformance()[0]);
+				statement.setInt(n++, economy.getDeliveredCargo());
+				
+				statement.addBatch();
+			}
+			
+			statement.executeBatch();
+			return true;
+		} catch (SQLException ex) {
+			connectionLost(ex);
+			LOGGER.error("Failed to store {} economic history entries.", entries.size(), ex);
+			return false;
+		} finally {
+			try {
+				statement.close();
+			} catch (Exception e) {}
+		}
+	}
+	
+	private boolean insertStatisticalHistory(List<HistoryEntry<CompanyStatistics>> entries) {
+		PreparedStatement statement = null;
+		try {
+			statement = connection.prepareStatement(
+					"INSERT INTO " + TABLE_INFRASTRUCTURE_HISTORY + " ("
+					+ F_COMPANY_ID + ", "
+					+ F_TS + ", "
+					+ F_GAME_DATE + ", "
+					+ F_NTRAINS + ", "
+					+ F_NLORRIES + ", "
+					+ F_NBUSSES + ", "
+					+ F_NPLANES + ", "
+					+ F_NSHIPS + ", "
+					+ F_NSTATIONS + ", "
+					+ F_NDEPOTS + ", "
+					+ F_NSTOPS + ", "
+					+ F_NAIRPORTS + ", "
+					+ F_NHARBOURS + ") "
+					+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+					// replayed entries are already there
+					+ "ON DUPLICATE KEY UPDATE " + F_ID + " = " + F_ID);
+			
+			for (HistoryEntry<CompanyStatistics> entry : entries) {
+				CompanyStatistics stats = entry.getData();
+				
+				int n = 1;
+				statement.setLong(n++, entry.getDbCompanyId());
+				statement.setTimestamp(n++, new Timestamp(entry.getTs()));
+				statement.setString(n++, entry.getGameDate());
+				statement.setInt(n++, stats.getNumberOfTrains());
+				statement.setInt(n++, stats.getNumberOfLorries());
+				statement.setInt(n++, stats.getNumberOfBusses());
+				statement.setInt(n++, stats.getNumberOfPlanes());
+				statement.setInt(n++, stats.getNumberOfShips());
+				statement.setInt(n++, stats.getNumberOfTrainStations());
+				statement.setInt(n++, stats.getNumberOfLorryDepots());
+				statement.setInt(n++, stats.getNumberOfBusStops());
+				statement.setInt(n++, stats.getNumberOfAirports());
+				statement.setInt(n++, stats.getNumberOfHarbours());
+				
+				statement.addBatch();
+			}
+			
+			statement.executeBatch();
+			return true;
+		} catch (SQLException ex) {
+			connectionLost(ex);
+			LOGGER.error("Failed to store {} infrastructure history entries.", entries.size(), ex);
+			return false;
+		} finally {
+			try {
+				statement.close();
+			} catch (Exception e) {}
+		}
+	}
+	
+	public List<HistoryEntry<CompanyEconomy>> getEconomicHistory(long gameId, byte companyId, long fromTs, long toTs) {
+		long dbCompanyId = getCompanyId(gameId, companyId);
+		if (dbCompanyId == 0) {
+			return null;
+		}
+		
+		return getEconomicHistory(dbCompanyId, fromTs, toTs);
+	}
+	
+	public List<HistoryEntry<CompanyEconomy>> getEconomicHistory(long dbCompanyId, long fromTs, long toTs) {
+		PreparedStatement statement = null;
+		try {
+			ArrayList<HistoryEntry<CompanyEconomy>> result = new ArrayList<>();
+			
+			// served from the economics_trajectory index only
+			statement = connection.prepareStatement("SELECT "
+					+ F_TS + ", "
+					+ F_GAME_DATE + ", "
+					+ F_MONEY + ", "
+					+ F_LOAN + ", "
+					+ F_INCOME + ", "
+					+ F_DELIVERED_CARGO + ", "
+					+ F_VALUE + ", "
+					+ F_PERFORMANCE + " "
+					+ "FROM " + TABLE_ECONOMICS_HISTORY + " "
+					+ "WHERE " + F_COMPANY_ID + " = ? AND " + F_TS + " >= ? AND " + F_TS + " < ? "
+					+ "ORDER BY " + F_TS + " ASC");
+			
+			int n = 1;
+			statement.setLong(n++, dbCompanyId);
+			statement.setTimestamp(n++, new Timestamp(fromTs));
+			statement.setTimestamp(n++, new Timestamp(toTs));
+			
+			ResultSet rs = statement.executeQuery();
+			while (rs.next()) {
+				n = 1;
+				long ts = rs.getTimestamp(n++).getTime();
+				String gameDate = rs.getString(n++);
+				long money = rs.getLong(n++);
+				long loan = rs.getLong(n++);
+				long income = rs.getLong(n++);
+				int deliveredCargo = rs.getInt(n++);
+				
+				result.add(new HistoryEntry<>(dbCompanyId, ts, gameDate, new CompanyEconomy(
+						money,
+						loan,
+						income,
+						deliveredCargo,
+						new long[] { rs.getLong(n++), -1 }, // past company value
+						new int[] { rs.getInt(n++), -1 }, // past performance
+						new int[] { -1, -1 }))); // past delivered cargo
+			}
+			
+			return result;
+		} catch (SQLException ex) {
+			connectionLost(ex);
+			LOGGER.error("Failed to get economic history of company db-id {}.", dbCompanyId, ex);
+			return null;
+		} finally {
+			try {
+				statement.close();
+			} catch (Exception e) {}
+		}
+	}
+	
+	public List<HistoryEntry<CompanyStatistics>> getStatisticalHistory(long gameId, byte companyId, long fromTs, long toTs) {
+		long dbCompanyId = getCompanyId(gameId, companyId);
+		if (dbCompanyId == 0) {
+			return null;
+		}
+		
+		return getStatisticalHistory(dbCompanyId, fromTs, toTs);
+	}
+	
+	public List<HistoryEntry<CompanyStatistics>> getStatisticalHistory(long dbCompanyId, long fromTs, long toTs) {
+		PreparedStatement statement = null;
+		try {
+			ArrayList<HistoryEntry<CompanyStatistics>> result = new ArrayList<>();
+			
+			// served from the infrastructure_trajectory index only
+			statement = connection.prepareStatement("SELECT "
+					+ F_TS + ", "
+					+ F_GAME_DATE + ", "
+					+ F_NTRAINS + ", "
+					+ F_NLORRIES + ", "
+					+ F_NBUSSES + ", "
+					+ F_NPLANES + ", "
+					+ F_NSHIPS + ", "
+					+ F_NSTATIONS + ", "
+					+ F_NDEPOTS + ", "
+					+ F_NSTOPS + ", "
+					+ F_NAIRPORTS + ", "
+					+ F_NHARBOURS + " "
+					+ "FROM " + TABLE_INFRASTRUCTURE_HISTORY + " "
+					+ "WHERE " + F_COMPANY_ID + " = ? AND " + F_TS + " >= ? AND " + F_TS + " < ? "
+					+ "ORDER BY " + F_TS + " ASC");
+			
+			int n = 1;
+			statement.setLong(n++, dbCompanyId);
+			statement.setTimestamp(n++, new Timestamp(fromTs));
+			statement.setTimestamp(n++, new Timestamp(toTs));
+			
+			ResultSet rs = statement.executeQuery();
+			while (rs.next()) {
+				n = 1;
+				long ts = rs.getTimestamp(n++).getTime();
+				String gameDate = rs.getString(n++);
+				
+				result.add(new HistoryEntry<>(dbCompanyId, ts, gameDate, new CompanyStatistics(
+						rs.getInt(n++), // numberOfTrains
+						rs.getInt(n++), // numberOfLorries
+						rs.getInt(n++), // numberOfBusses
+						rs.getInt(n++), // numberOfPlanes
+						rs.getInt(n++), // numberOfShips
+						
+						rs.getInt(n++), // numberOfTrainStations
+						rs.getInt(n++), // numberOfLorryDepots
+						rs.getInt(n++), // numberOfBusStops
+						rs.getInt(n++), // numberOfAirports
+						rs.getInt(n++) // numberOfHarbours
+						)));
+			}
+			
+			return result;
+		} catch (SQLException ex) {
+			connectionLost(ex);
+			LOGGER.error("Failed to get infrastructure history of company db-id {}.", dbCompanyId, ex);
+			return null;
+		} finally {
+			try {
+				statement.close();
+			} catch (Exception e) {}
+		}
+	}
+	
+	/**
+	 * Creates partitions of the current and the next quarter,
+	 * rolls up and drops partitions older than the retention period.
+	 */
+	public void maintainHistory() {
+		LocalDate quarterStart = LocalDate.now(ZoneOffset.UTC).withDayOfMonth(1);
+		quarterStart = quarterStart.withMonth(quarterStart.getMonthValue() - (quarterStart.getMonthValue() - 1) % 3);
+		
+		LocalDate retentionCutoff = quarterStart.minusMonths(3L * historyRetentionQuarters);
+		
+		maintainHistory(TABLE_ECONOMICS_HISTORY, ROLLUP_ECONOMICS, quarterStart, retentionCutoff);
+		maintainHistory(TABLE_INFRASTRUCTURE_HISTORY, ROLLUP_INFRASTRUCTURE, quarterStart, retentionCutoff);
+	}
+	
+	private void maintainHistory(String table, String rollupStatement, LocalDate quarterStart, LocalDate retentionCutoff) {
+		Map<String, Long> partitions = getPartitions(table);
+		if (partitions == null) {
+			return;
+		}
+		
+		long maxBound = Long.MIN_VALUE;
+		for (Map.Entry<String, Long> partition : partitions.entrySet()) {
+			if (partition.getValue() != null) {
+				maxBound = Math.max(maxBound, partition.getValue());
+			}
+		}
+		
+		// partitions of the current and the next quarter
+		for (int quarter = 0; quarter < 2; quarter++) {
+			LocalDate start = quarterStart.plusMonths(3L * quarter);
+			long bound = start.plusMonths(3).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+			if (bound > maxBound) {
+				String name = String.format("p%04dq%d", start.getYear(), (start.getMonthValue() - 1) / 3 + 1);
+				if (executeUpdate("ALTER TABLE " + table + " REORGANIZE PARTITION " + PARTITION_FUTURE + " INTO ("
+						+ "PARTITION " + name + " VALUES LESS THAN (" + bound + "), "
+						+ "PARTITION " + PARTITION_FUTURE + " VALUES LESS THAN MAXVALUE)")) {
+					LOGGER.info("Created partition {} of the table {}.", name, table);
+					maxBound = bound;
+				}
+			}
+		}
+		
+		// retention: roll up whole partitions, then drop them
+		long cutoff = retentionCutoff.atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+		for (Map.Entry<String, Long> partition : partitions.entrySet()) {
+			if (partition.getValue() == null
+					|| partition.getValue() > cutoff
+					|| !PARTITION_NAME.matcher(partition.getKey()).matches()) {
+				continue;
+			}
+			
+			if (executeUpdate(String.format(rollupStatement, partition.getKey()))
+					&& executeUpdate("ALTER TABLE " + table + " DROP PARTITION " + partition.getKey())) {
+				LOGGER.info("Rolled up and dropped partition {} of the table {}.", partition.getKey(), table);
+			}
+		}
+	}
+	
+	private Map<String, Long> getPartitions(String table) {
+		PreparedStatement statement = null;
+		try {
+			HashMap<String, Long> result = new HashMap<>();
+			
+			statement = connection.prepareStatement("SELECT PARTITION_NAME, PARTITION_DESCRIPTION "
+					+ "FROM information_schema.PARTITIONS "
+					+ "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?");
+			statement.setString(1, table.replace("`", ""));
+			
+			ResultSet rs = statement.executeQuery();
+			while (rs.next()) {
+				String name = rs.getString(1);
+				String description = rs.getString(2);
+				
+				if (name != null) {
+					// the MAXVALUE partition has no numeric bound
+					result.put(name, description == null || !description.matches("-?[0-9]+") ? null : Long.parseLong(description));
+				}
+			}
+			
+			return result;
+		} catch (SQLException ex) {
+			connectionLost(ex);
+			LOGGER.error("Failed to get partitions of the table {}.", table, ex);
+			return null;
+		} finally {
+			try {
+				statement.close();
+			} catch (Exception e) {}
+		}
+	}
+	
+	private boolean executeUpdate(String sql) {
+		Statement statement = null;
+		try {
+			statement = connection.createStatement();
+			statement.executeUpdate(sql);
+			return true;
+		} catch (SQLException ex) {
+			connectionLost(ex);
+			LOGGER.error("Failed to execute {}.", sql, ex);
+			return false;
+		} finally {
+			try {
+				statement.close();
+			} catch (Exception e) {}
+		}
+	}
+	
+	private static String toSqlDate(Date gameDate) {
+		return String.format("%04d-%02d-%02d",
+				gameDate.getYear(),
+				gameDate.getMonth(),
+				// fix for date issues of the game:
+				// some years in the game are leap-years, while they should NOT be
+				// SQL is complaining about such dates, so we correct ALL end-of-Feb to 28th to be sure
+				(gameDate.getDay() == 29 && gameDate.getMonth() == 2) ? 28 : gameDate.getDay());
+	}
+	
 	@Override
 	public void close() throws IOException {
+		historyExecutor.shutdown();
+		try {
+			historyExecutor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		flushHistory();
+		
+		if (journal != null) {
+			journal.close();
+		}
+		
 		try {
 			this.connection.close();
 		} catch (SQLException e) {
@@ -0,0 +1,532 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local append-only journal of database mutations.
+ * Records are stored in segment files, each record is protected by a CRC32 checksum.
+ * A checkpoint file keeps the position of the next record to be replayed.
+ * Record layout: length (4 bytes, of the rest excl. the checksum), CRC32 (4 bytes), type (1 byte), key (8 bytes), payload.
+ */
+public class DatabaseJournal implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseJournal.class);
+	
+	/** Key of records that must never be compacted away. */
+	public static final long NO_KEY = -1;
+	
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String CHECKPOINT_FILE = "checkpoint";
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_PREFIX_SIZE = 9;
+	private static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+	private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+	
+	private final Path directory;
+	private final long maxSize;
+	private final TreeMap<Long, Path> segments = new TreeMap<>();
+	
+	private FileChannel writer;
+	private long writerSegment;
+	private long totalSize;
+	
+	private long readSegment;
+	private long readOffset;
+	
+	/**
+	 * A journaled record.
+	 */
+	public static class Record {
+		private final byte type;
+		private final long key;
+		private final byte[] payload;
+		private final long segment;
+		private final long end;
+		
+		private Record(byte type, long key, byte[] payload, long segment, long end) {
+			this.type = type;
+			this.key = key;
+			this.payload = payload;
+			this.segment = segment;
+			this.end = end;
+		}
+		
+		/**
+		 * Gets the type of the record.
+		 * @return type of the record
+		 */
+		public byte getType() {
+			return type;
+		}
+		
+		/**
+		 * Gets the compaction key of the record.
+		 * @return compaction key of the record or {@link DatabaseJournal#NO_KEY}
+		 */
+		public long getKey() {
+			return key;
+		}
+		
+		/**
+		 * Gets the payload of the record.
+		 * @return payload of the record
+		 */
+		public byte[] getPayload() {
+			return payload;
+		}
+	}
+	
+	/**
+	 * Opens or creates a journal in the given directory.
+	 * @param directory directory of the segment files
+	 * @param maxSize maximum total size of all segment files in bytes
+	 * @throws IOException if the directory or the checkpoint can't be accessed
+	 */
+	public DatabaseJournal(Path directory, long maxSize) throws IOException {
+		this.directory = directory;
+		this.maxSize = Math.max(maxSize, 2 * SEGMENT_SIZE);
+		
+		Files.createDirectories(directory);
+		
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				try {
+					long seq = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+					segments.put(seq, path);
+					totalSize += Files.size(path);
+				} catch (NumberFormatException ex) {
+					LOGGER.warn("Ignoring an unexpected journal file {}.", path);
+				}
+			}
+		}
+		
+		Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+		if (Files.exists(checkpoint)) {
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+			if (buffer.remaining() == 16) {
+				readSegment = buffer.getLong();
+				readOffset = buffer.getLong();
+			}
+		}
+		
+		if (segments.isEmpty()) {
+			readSegment = 0;
+			readOffset = 0;
+		} else if (!segments.containsKey(readSegment)) {
+			readSegment = segments.firstKey();
+			readOffset = 0;
+		}
+		
+		if (!segments.isEmpty()) {
+			LOGGER.warn("Found {} journal segment(s), {} bytes, to be replayed into the database.", segments.size(), totalSize);
+		}
+	}
+	
+	/**
+	 * Gets a value indicating whether there are no records waiting to be replayed.
+	 * @return true if there are no records waiting to be replayed, false otherwise
+	 */
+	public synchronized boolean isEmpty() {
+		return segments.isEmpty();
+	}
+	
+	/**
+	 * Appends a record to the journal and forces it to the disk.
+	 * @param type type of the record
+	 * @param key compaction key: of all records of the same type and key only the last one is kept
+	 * during the compaction; {@link #NO_KEY} to never compact the record away
+	 * @param payload payload of the record
+	 * @return true on success, false otherwise
+	 */
+	public synchronized boolean append(byte type, long key, byte[] payload) {
+		int length = RECORD_PREFIX_SIZE + payload.length;
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+		buffer.putInt(length);
+		buffer.putInt(0);
+		buffer.put(type);
+		buffer.putLong(key);
+		buffer.put(payload);
+		
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), HEADER_SIZE, length);
+		buffer.putInt(4, (int)crc.getValue());
+		buffer.flip();
+		
+		try {
+			if (writer == null || writer.size() + buffer.remaining() > SEGMENT_SIZE) {
+				roll();
+			}
+			
+			while (totalSize + buffer.remaining() > maxSize && segments.size() > 1) {
+				dropOldestSegment();
+			}
+			
+			if (totalSize + buffer.remaining() > maxSize) {
+				LOGGER.error("Journal is full ({} bytes), record of type {} discarded.", totalSize, type);
+				return false;
+			}
+			
+		} catch (IOException ex) {
+			LOGGER.error("Failed to append a record of type {} to the journal.", type, ex);
+			return false;
+		}
+		
+		long position = -1;
+		try {
+			position = writer.size();
+			write(writer, buffer);
+			writer.force(false);
+		} catch (IOException ex) {
+			LOGGER.error("Failed to append a record of type {} to the journal.", type, ex);
+			discardTornRecord(position);
+			return false;
+		}
+		
+		totalSize += buffer.limit();
+		return true;
+	}
+	
+	/**
+	 * Writes the whole buffer to the segment being written.
+	 * @param channel channel of the segment
+	 * @param buffer data to be written
+	 * @throws IOException on write errors
+	 */
+	void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+	
+	/**
+	 * Removes a partially written record from the end of the segment being written,
+	 * so that the records appended later are not hidden behind it.
+	 * If the segment can't be truncated, a new segment is started with the next record.
+	 * @param position size of the segment before the record was written, negative if unknown
+	 */
+	private void discardTornRecord(long position) {
+		try {
+			if (position >= 0) {
+				writer.truncate(position);
+				writer.force(false);
+				return;
+			}
+		} catch (IOException ex) {
+			LOGGER.error("Failed to discard a partially written journal record, starting a new segment.", ex);
+		}
+		
+		try {
+			if (position >= 0) {
+				totalSize += writer.size() - position;
+			}
+			writer.close();
+		} catch (IOException ex) {}
+		writer = null;
+	}
+	
+	/**
+	 * Reads records to be replayed, beginning with the oldest one.
+	 * The read position is advanced only by {@link #commit(Record)}.
+	 * @param maxRecords maximum number of records to be read
+	 * @return list of records, empty if none are waiting
+	 */
+	public synchronized List<Record> read(int maxRecords) {
+		List<Record> result = new ArrayList<>();
+		
+		long segment = readSegment;
+		long offset = readOffset;
+		
+		if (!segments.containsKey(segment) && !segments.isEmpty()) {
+			// the segment has been discarded meanwhile
+			segment = segments.firstKey();
+			offset = 0;
+		}
+		
+		while (result.size() < maxRecords && segments.containsKey(segment)) {
+			try (FileChannel channel = FileChannel.open(segments.get(segment), StandardOpenOption.READ)) {
+				channel.position(offset);
+				
+				Record record;
+				while (result.size() < maxRecords && (record = readRecord(channel, segment)) != null) {
+					result.add(record);
+				}
+			} catch (IOException ex) {
+				LOGGER.error("Failed to read the journal segment {}.", segments.get(segment), ex);
+			}
+			
+			if (result.size() < maxRecords) {
+				Long next = segments.higherKey(segment);
+				if (next == null) {
+					break;
+				}
+				
+				segment = next;
+				offset = 0;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Marks all records up to and including the given one as replayed.
+	 * Fully replayed segments are deleted.
+	 * @param record last replayed record
+	 */
+	public synchronized void commit(Record record) {
+		if (!segments.containsKey(record.segment)) {
+			// the segment has been discarded meanwhile
+			return;
+		}
+		
+		readSegment = record.segment;
+		readOffset = record.end;
+		
+		try {
+			// segments before the current read position are done
+			while (!segments.isEmpty() && segments.firstKey() < readSegment) {
+				deleteSegment(segments.firstKey());
+			}
+			
+			if (segments.containsKey(readSegment) && readOffset >= Files.size(segments.get(readSegment))) {
+				Long next = segments.higherKey(readSegment);
+				deleteSegment(readSegment);
+				
+				if (next == null) {
+					// everything replayed, start over with a fresh journal
+					readSegment = 0;
+					readOffset = 0;
+					Files.deleteIfExists(directory.resolve(CHECKPOINT_FILE));
+					LOGGER.info("Journal fully replayed.");
+					return;
+				}
+				
+				readSegment = next;
+				readOffset = 0;
+			}
+			
+			writeCheckpoint();
+		} catch (IOException ex) {
+			LOGGER.error("Failed to store the journal checkpoint.", ex);
+		}
+	}
+	
+	private Record readRecord(FileChannel channel, long segment) throws IOException {
+		long start = channel.position();
+		
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if (readFully(channel, header) < HEADER_SIZE) {
+			return null;
+		}
+		
+		header.flip();
+		int length = header.getInt();
+		int checksum = header.getInt();
+		if (length < RECORD_PREFIX_SIZE || length > MAX_RECORD_SIZE) {
+			LOGGER.error("Corrupted journal record at {} of the segment {}, skipping the rest of the segment.", start, segment);
+			return null;
+		}
+		
+		ByteBuffer body = ByteBuffer.allocate(length);
+		if (readFully(channel, body) < length) {
+			// incomplete write, e.g. on a crash
+			LOGGER.warn("Incomplete journal record at {} of the segment {}.", start, segment);
+			return null;
+		}
+		
+		CRC32 crc = new CRC32();
+		crc.update(body.array(), 0, length);
+		if ((int)crc.getValue() != checksum) {
+			LOGGER.error("Journal record at {} of the segment {} failed the CRC check, skipping the rest of the segment.", start, segment);
+			return null;
+		}
+		
+		body.flip();
+		byte type = body.get();
+		long key = body.getLong();
+		byte[] payload = new byte[length - RECORD_PREFIX_SIZE];
+		body.get(payload);
+		
+		return new Record(type, key, payload, segment, channel.position());
+	}
+	
+	private static int readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		int total = 0;
+		int read;
+		while (buffer.hasRemaining() && (read = channel.read(buffer)) > 0) {
+			total += read;
+		}
+		
+		return total;
+	}
+	
+	private void roll() throws IOException {
+		long previous = -1;
+		if (writer != null) {
+			writer.close();
+			previous = writerSegment;
+		}
+		
+		writerSegment = segments.isEmpty() ? readSegment + 1 : segments.lastKey() + 1;
+		Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, writerSegment, SEGMENT_SUFFIX));
+		writer = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		segments.put(writerSegment, path);
+		totalSize += writer.size();
+		
+		if (segments.size() == 1) {
+			readSegment = writerSegment;
+			readOffset = 0;
+			writeCheckpoint();
+		}
+		
+		// never compact a segment being replayed, the positions of its records would move
+		if (previous > readSegment) {
+			compact(previous);
+		}
+	}
+	
+	/**
+	 * Rewrites a closed segment keeping only the last record of each type and key.
+	 */
+	private void compact(long segment) throws IOException {
+		Path path = segments.get(segment);
+		if (path == null) {
+			return;
+		}
+		
+		List<Record> records = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			Record record;
+			while ((record = readRecord(channel, segment)) != null) {
+				records.add(record);
+			}
+		}
+		
+		Set<String> seen = new HashSet<>();
+		List<Record> kept = new ArrayList<>(records.size());
+		for (int n = records.size() - 1; n >= 0; n--) {
+			Record record = records.get(n);
+			if (record.key == NO_KEY || seen.add(record.type + ":" + record.key)) {
+				kept.add(0, record);
+			}
+		}
+		
+		if (kept.size() == records.size()) {
+			return;
+		}
+		
+		long oldSize = Files.size(path);
+		Path tmp = directory.resolve(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (Record record : kept) {
+				int length = RECORD_PREFIX_SIZE + record.payload.length;
+				ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+				buffer.putInt(length);
+				buffer.putInt(0);
+				buffer.put(record.type);
+				buffer.putLong(record.key);
+				buffer.put(record.payload);
+				
+				CRC32 crc = new CRC32();
+				crc.update(buffer.array(), HEADER_SIZE, length);
+				buffer.putInt(4, (int)crc.getValue());
+				buffer.flip();
+				
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			
+			channel.force(true);
+		}
+		
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		totalSize += Files.size(path) - oldSize;
+		
+		LOGGER.info("Compacted journal segment {}: {} of {} records kept.", segment, kept.size(), records.size());
+	}
+	
+	private void dropOldestSegment() throws IOException {
+		long oldest = segments.firstKey();
+		LOGGER.error("Journal exceeded {} bytes, discarding the oldest segment {}.", maxSize, segments.get(oldest));
+		
+		deleteSegment(oldest);
+		
+		if (oldest == readSegment) {
+			readSegment = segments.firstKey();
+			readOffset = 0;
+			writeCheckpoint();
+		}
+	}
+	
+	private void deleteSegment(long segment) throws IOException {
+		Path path = segments.remove(segment);
+		
+		if (writer != null && segment == writerSegment) {
+			writer.close();
+			writer = null;
+		}
+		
+		totalSize -= Files.size(path);
+		Files.deleteIfExists(path);
+	}
+	
+	private void writeCheckpoint() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.putLong(readSegment);
+		buffer.putLong(readOffset);
+		
+		Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+		Files.write(tmp, buffer.array());
+		Files.move(tmp, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+}
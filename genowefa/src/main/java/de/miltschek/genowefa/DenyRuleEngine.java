@@ -0,0 +1,300 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.miltschek.genowefa.Configuration.DenyRule;
+import de.miltschek.integrations.GeoIp;
+
+/**
+ * Deny rules compiled once at the configuration load.
+ * All name patterns are combined into a single regular expression (alternatives in the order of the rules),
+ * patterns that cannot be combined safely are evaluated on their own in between; country rules are kept in a hash map and the proxy rule is a flag, so that the evaluation cost
+ * does not grow with the number of rules.
+ * The first matching rule (in the order of the configuration file) wins and its hit counter is incremented.
+ */
+public class DenyRuleEngine {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DenyRuleEngine.class);
+	
+	/** Back-references are numbered, so patterns using them cannot be combined with others. */
+	private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\(?:[1-9]|k<)");
+	
+	/**
+	 * A combined regular expression of consecutive name rules or a single standalone rule.
+	 */
+	private static class Segment {
+		private final Pattern pattern;
+		/** Index of the rule per capturing group wrapping an alternative, -1 for the patterns' own groups. */
+		private final int[] groupToRule;
+		/** Index of the rule of a standalone pattern, -1 for a combined one. */
+		private final int rule;
+		
+		private Segment(Pattern pattern, int[] groupToRule, int rule) {
+			this.pattern = pattern;
+			this.groupToRule = groupToRule;
+			this.rule = rule;
+		}
+	}
+	
+	private final List<DenyRule> rules;
+	private final AtomicLongArray hits;
+	private final List<Segment> nameSegments = new ArrayList<>();
+	private final Map<String, Integer> countryRules = new HashMap<>();
+	private final int proxyRule;
+	
+	/**
+	 * Compiles the deny rules.
+	 * Rules of unknown types or with invalid patterns are logged and ignored.
+	 * @param denyRules rules in the order of their priority
+	 */
+	public DenyRuleEngine(Collection<? extends DenyRule> denyRules) {
+		this.rules = Collections.unmodifiableList(new ArrayList<>(denyRules));
+		this.hits = new AtomicLongArray(this.rules.size());
+		
+		int proxy = -1;
+		StringBuilder combined = new StringBuilder();
+		List<Integer> groups = new ArrayList<>();
+		
+		for (int index = 0; index < this.rules.size(); index++) {
+			DenyRule rule = this.rules.get(index);
+			
+			if ("country".equals(rule.getType())) {
+				this.countryRules.putIfAbsent(rule.getPattern().toUpperCase(Locale.ROOT), index);
+			} else if ("proxy".equals(rule.getType())) {
+				if (proxy < 0) {
+					proxy = index;
+				}
+			} else if ("name".equals(rule.getType())) {
+				int groupCount;
+				try {
+					groupCount = Pattern.compile(rule.getPattern()).matcher("").groupCount();
+				} catch (PatternSyntaxException ex) {
+					LOGGER.error("Invalid pattern of the deny rule {}/{}, ignoring it.", rule.getType(), rule.getPattern(), ex);
+					continue;
+				}
+				
+				if (BACK_REFERENCE.matcher(rule.getPattern()).find() || !isSelfContained(rule.getPattern(), groupCount)) {
+					// standalone, keeping the order of the rules
+					addSegment(combined, groups);
+					this.nameSegments.add(new Segment(Pattern.compile(rule.getPattern()), null, index));
+				} else {
+					if (combined.length() > 0) {
+						combined.append('|');
+					}
+					
+					combined.append('(').append(rule.getPattern()).append(')');
+					groups.add(index);
+					for (int n = 0; n < groupCount; n++) {
+						groups.add(-1);
+					}
+				}
+			} else {
+				LOGGER.warn("Unknown type of the deny rule {}/{}, ignoring it.", rule.getType(), rule.getPattern());
+			}
+		}
+		
+		addSegment(combined, groups);
+		this.proxyRule = proxy;
+	}
+	
+	/**
+	 * Checks whether a pattern can be wrapped into a group and followed by other alternatives without changing its meaning.
+	 * This is not the case e.g. for an unterminated {@code \Q} or a comment in the comments mode {@code (?x)},
+	 * as both would swallow the closing parenthesis and the following alternatives.
+	 * @param pattern valid pattern
+	 * @param groupCount number of capturing groups of the pattern
+	 * @return true if the pattern may be combined with others, false otherwise
+	 */
+	private static boolean isSelfContained(String pattern, int groupCount) {
+		try {
+			// the empty sentinel group is only counted if it is still a group on its own
+			return Pattern.compile("(" + pattern + ")|()").matcher("").groupCount() == groupCount + 2;
+		} catch (PatternSyntaxException ex) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Compiles the collected alternatives into a segment and resets the collection.
+	 * If the alternatives conflict with each other (e.g. by duplicate group names),
+	 * each rule becomes a standalone segment instead.
+	 * @param combined alternatives
+	 * @param groups rule indexes of the capturing groups
+	 */
+	private void addSegment(StringBuilder combined, List<Integer> groups) {
+		if (groups.isEmpty()) {
+			return;
+		}
+		
+		int[] groupToRule = new int[groups.size() + 1];
+		groupToRule[0] = -1;
+		for (int n = 0; n < groups.size(); n++) {
+			groupToRule[n + 1] = groups.get(n);
+		}
+		
+		try {
+			this.nameSegments.add(new Segment(Pattern.compile(combined.toString()), groupToRule, -1));
+		} catch (PatternSyntaxException ex) {
+			LOGGER.warn("Deny rules cannot be combined ({}), evaluating them one by one.", ex.getDescription());
+			for (int index : groups) {
+				if (index >= 0) {
+					this.nameSegments.add(new Segment(Pattern.compile(this.rules.get(index).getPattern()), null, index));
+				}
+			}
+		}
+		
+		combined.setLength(0);
+		groups.clear();
+	}
+	
+	/**
+	 * Finds the first name rule matching the whole name.
+	 * @param name name to be checked, may be null
+	 * @return index of the rule or -1 if none matches
+	 */
+	private int matchName(String name) {
+		if (name == null) {
+			return -1;
+		}
+		
+		for (Segment segment : this.nameSegments) {
+			Matcher m = segment.pattern.matcher(name);
+			if (m.matches()) {
+				if (segment.rule >= 0) {
+					return segment.rule;
+				}
+				
+				// alternatives are tried in order, so the first participating wrapper group is the first matching rule
+				for (int group = 1; group < segment.groupToRule.length; group++) {
+					if (segment.groupToRule[group] >= 0 && m.start(group) >= 0) {
+						return segment.groupToRule[group];
+					}
+				}
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Counts a hit of a rule.
+	 * @param index index of the rule or -1
+	 * @return the rule or null if the index is -1
+	 */
+	private DenyRule hit(int index) {
+		if (index < 0) {
+			return null;
+		}
+		
+		this.hits.incrementAndGet(index);
+		return this.rules.get(index);
+	}
+	
+	/**
+	 * Returns the smaller of two rule indexes, ignoring -1 (no match).
+	 * @param a rule index or -1
+	 * @param b rule index or -1
+	 * @return the first rule index or -1 if both are -1
+	 */
+	private static int first(int a, int b) {
+		if (a < 0) {
+			return b;
+		} else if (b < 0) {
+			return a;
+		} else {
+			return Math.min(a, b);
+		}
+	}
+	
+	/**
+	 * Finds the first rule denying a client.
+	 * @param clientName name of the client, may be null
+	 * @param geoIp geolocation of the client, may be null
+	 * @return the matching rule or null if the client is allowed
+	 */
+	public DenyRule matchClient(String clientName, GeoIp geoIp) {
+		int index = -1;
+		
+		if (geoIp != null) {
+			if (geoIp.getCountryCode() != null && !this.countryRules.isEmpty()) {
+				Integer country = this.countryRules.get(geoIp.getCountryCode().toUpperCase(Locale.ROOT));
+				if (country != null) {
+					index = country;
+				}
+			}
+			
+			if (geoIp.isProxy()) {
+				index = first(index, this.proxyRule);
+			}
+		}
+		
+		// no need to run the regular expression if an earlier rule matched already
+		if (index != 0) {
+			index = first(index, matchName(clientName));
+		}
+		
+		return hit(index);
+	}
+	
+	/**
+	 * Finds the first name rule denying a company.
+	 * @param companyName name of the company, may be null
+	 * @param managerName name of the manager, may be null
+	 * @return the matching rule or null if the company is allowed
+	 */
+	public DenyRule matchCompany(String companyName, String managerName) {
+		return hit(first(matchName(companyName), matchName(managerName)));
+	}
+	
+	/**
+	 * Gets all rules in the order of their priority.
+	 * @return all rules
+	 */
+	public List<DenyRule> getRules() {
+		return this.rules;
+	}
+	
+	/**
+	 * Gets the number of times a rule matched.
+	 * @param index index of the rule as in {@link #getRules()}
+	 * @return number of hits
+	 */
+	public long getHits(int index) {
+		return this.hits.get(index);
+	}
+}
@@ -1,5 +1,7 @@
 package de.miltschek.genowefa;
 
+import org.apache.commons.codec.digest.DigestUtils;
+
 /**
  * Describes a game.
  */
@@ -109,6 +111,22 @@ public class GameData {
 		return mapSizeY;
 	}
 	
+	/**
+	 * Gets the natural key of the game: a hash over the server's address and port, its name
+	 * and all parameters of the map. Two descriptors of the same running game have the same identity.
+	 * @return SHA-256 hash of the game's identity (hex encoded)
+	 */
+	public String getIdentityHash() {
+		return DigestUtils.sha256Hex(address
+				+ '\n' + port
+				+ '\n' + serverName
+				+ '\n' + mapName
+				+ '\n' + generationSeed
+				+ '\n' + startingYear
+				+ '\n' + mapSizeX
+				+ '\n' + mapSizeY);
+	}
+	
 	/**
 	 * Returns a real-time timestamp of when the game is considered to be started.
 	 * @return a timestamp (milliseconds since Jan, 1st 1970).
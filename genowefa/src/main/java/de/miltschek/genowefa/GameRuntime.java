@@ -0,0 +1,371 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.miltschek.genowefa.Configuration.Game;
+import de.miltschek.genowefa.Context.EventType;
+import de.miltschek.integrations.GoogleTranslate;
+import de.miltschek.integrations.SlackOutbox;
+import de.miltschek.openttdadmin.OttdAdminClient;
+import de.miltschek.openttdadmin.data.Frequency;
+import de.miltschek.openttdadmin.data.FrequencyLong;
+import de.miltschek.openttdadmin.metrics.ListenerProfiler;
+import de.miltschek.openttdadmin.metrics.MetricsRegistry;
+
+/**
+ * Runtime of one game: the connection to the game server, the context and an own event thread.
+ * Events of the game server are processed in order by the event thread of the game within
+ * a bounded queue, so that a slow integration used by one game does not hold up other games.
+ * If the queue is full, the connection to the game server waits for the event thread (backpressure)
+ * instead of dropping events.
+ */
+public class GameRuntime {
+	private static final Logger LOGGER = LoggerFactory.getLogger(GameRuntime.class);
+	
+	/**
+	 * Receives the contexts of the game, each time the game gets (re-)started.
+	 */
+	public interface StartListener {
+		/**
+		 * Called once a new context of the game has been started.
+		 * @param runtime runtime of the game
+		 * @param context new context of the game
+		 */
+		void started(GameRuntime runtime, Context context);
+	}
+	
+	private volatile Configuration configuration;
+	private volatile Game game;
+	private final SlackOutbox slackOutbox;
+	private final GoogleTranslate googleTranslate;
+	private final DatabaseConnector db;
+	private final ListenerProfiler listenerProfiler;
+	private final StartListener startListener;
+	private final String name;
+	
+	private ThreadPoolExecutor events;
+	private volatile Thread eventThread;
+	private OttdAdminClient admin;
+	private volatile Context context;
+	/** Start time (System.nanoTime) of the event being processed, 0 if idle. */
+	private volatile long busySince;
+	
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicInteger restarts = new AtomicInteger();
+	
+	/**
+	 * Creates a runtime of the game, the game is not started yet.
+	 * @param configuration application's configuration
+	 * @param game settings of the game
+	 * @param slackOutbox outbox of the Slack connector or null if not available
+	 * @param googleTranslate Google Translate service or null if not available
+	 * @param db database connector or null if not available
+	 * @param listenerProfiler profiler of the listener calls or null if not profiled
+	 * @param startListener listener of new contexts of the game or null
+	 */
+	public GameRuntime(Configuration configuration,
+			Game game,
+			SlackOutbox slackOutbox,
+			GoogleTranslate googleTranslate,
+			DatabaseConnector db,
+			ListenerProfiler listenerProfiler,
+			StartListener startListener) {
+		this.configuration = configuration;
+		this.game = game;
+		this.slackOutbox = slackOutbox;
+		this.googleTranslate = googleTranslate;
+		this.db = db;
+		this.listenerProfiler = listenerProfiler;
+		this.startListener = startListener;
+		this.name = game.getAddress() + ":" + game.getPort();
+	}
+	
+	/**
+	 * Creates the event thread of the game.
+	 * @return executor of the events
+	 */
+	private ThreadPoolExecutor createEventExecutor() {
+		return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(Math.max(1, this.configuration.getRuntime().getEventQueueSize())),
+				r -> {
+					Thread thread = new Thread(r, "game-" + this.name);
+					thread.setDaemon(true);
+					this.eventThread = thread;
+					return thread;
+				},
+				this::queueFull) {
+			@Override
+			protected void beforeExecute(Thread t, Runnable r) {
+				busySince = System.nanoTime();
+			}
+			
+			@Override
+			protected void afterExecute(Runnable r, Throwable t) {
+				busySince = 0;
+				processed.incrementAndGet();
+			}
+		};
+	}
+	
+	/**
+	 * Handles an event not accepted by the full queue: the submitting thread waits for free space.
+	 * The event thread itself runs the event directly, as it would wait for itself otherwise.
+	 * Events are dropped only if the game is being stopped.
+	 * @param r event
+	 * @param executor executor of the events
+	 */
+	private void queueFull(Runnable r, ThreadPoolExecutor executor) {
+		if (executor.isShutdown()) {
+			this.dropped.incrementAndGet();
+			return;
+		}
+		
+		if (Thread.currentThread() == this.eventThread) {
+			r.run();
+			return;
+		}
+		
+		if (this.throttled.incrementAndGet() % 100 == 1) {
+			LOGGER.warn("Event queue of the game {} is full, waiting for the event thread ({} times so far).", this.name, this.throttled.get());
+		}
+		
+		try {
+			// not put(), as nobody takes from the queue anymore once the game gets stopped
+			while (!executor.getQueue().offer(r, 100, TimeUnit.MILLISECONDS)) {
+				if (executor.isShutdown()) {
+					this.dropped.incrementAndGet();
+					return;
+				}
+			}
+		} catch (InterruptedException ex) {
+			// the connection is being closed
+			this.dropped.incrementAndGet();
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Starts the game: connects to the game server and creates a new context.
+	 */
+	public synchronized void start() {
+		if (this.admin != null) {
+			throw new IllegalStateException("the game has been already started");
+		}
+		
+		LOGGER.info("Configuring OTTD Admin client to connect to {} on port {}.", this.game.getAddress(), this.game.getPort());
+		
+		this.events = createEventExecutor();
+		this.busySince = 0;
+		
+		this.admin = new OttdAdminClient(this.game.getAddress(), this.game.getPort(), this.game.getPassword());
+		this.admin.setDeliveryChatMessages(true);
+		this.admin.setUpdateClientInfos(true);
+		this.admin.setUpdateCompanyInfos(true);
+		//admin.setDeliveryCommandLogs(true); // TODO test
+		this.admin.setUpdateCompanyEconomyInfos(FrequencyLong.Quarterly);
+		this.admin.setUpdateCompanyStatistics(FrequencyLong.Quarterly);
+		this.admin.setUpdateDates(Frequency.Daily);
+		this.admin.setListenerExecutor(this.events);
+		this.admin.setListenerProfiler(this.listenerProfiler);
+		
+		Context context = new Context(this.configuration, this.game, this.admin, this.slackOutbox,
+				this.game.getSlackChannel(), this.game.getSlackAdminChannel(), this.googleTranslate, this.db, this.events);
+		this.admin.addChatListener(new ChatListener(context));
+		this.admin.addClientListener(new CustomClientListener(context));
+		this.admin.addCompanyListener(new CustomCompanyListener(context));
+		this.admin.addServerListener(new CustomServerListener(context));
+		this.context = context;
+		
+		if (this.startListener != null) {
+			this.startListener.started(this, context);
+		}
+		
+		MetricsRegistry metrics = MetricsRegistry.getDefault();
+		metrics.functionCounter("genowefa_events_processed_total", "Events of the game processed.", this.processed::get, "game", this.name);
+		metrics.functionCounter("genowefa_events_throttled_total", "Times the connection of the game waited for a full queue.", this.throttled::get, "game", this.name);
+		metrics.functionCounter("genowefa_events_dropped_total", "Events of the game dropped while stopping.", this.dropped::get, "game", this.name);
+		metrics.gauge("genowefa_events_queued", "Events of the game waiting to be processed.", this.events.getQueue()::size, "game", this.name);
+		metrics.functionCounter("genowefa_game_restarts_total", "Restarts of the game.", this.restarts::get, "game", this.name);
+		
+		LOGGER.debug("Starting the OTTD Admin client address {} port {}.", this.game.getAddress(), this.game.getPort());
+		this.admin.start();
+	}
+	
+	/**
+	 * Stops the game: disconnects from the game server, stops the event thread and posts pending digests.
+	 */
+	public synchronized void stop() {
+		if (this.admin == null) {
+			return;
+		}
+		
+		try {
+			this.admin.close();
+		} catch (IOException ex) {
+			LOGGER.warn("Failed to close the OTTD Admin client of the game {}.", this.name, ex);
+		}
+		
+		this.events.shutdownNow();
+		this.context.getTranslationStage().shutdown();
+		if (this.context.getSlackDigest() != null) {
+			this.context.getSlackDigest().close();
+		}
+		this.admin = null;
+		
+		MetricsRegistry metrics = MetricsRegistry.getDefault();
+		metrics.remove("genowefa_events_processed_total", "game", this.name);
+		metrics.remove("genowefa_events_throttled_total", "game", this.name);
+		metrics.remove("genowefa_events_dropped_total", "game", this.name);
+		metrics.remove("genowefa_events_queued", "game", this.name);
+		metrics.remove("genowefa_game_restarts_total", "game", this.name);
+	}
+	
+	/**
+	 * Restarts the game with a new context, other games are not affected.
+	 * @param reason reason of the restart
+	 */
+	public synchronized void restart(String reason) {
+		LOGGER.warn("Restarting the game {}: {}.", this.name, reason);
+		
+		stop();
+		start();
+		this.restarts.incrementAndGet();
+		
+		this.context.notifyAdmin(EventType.Server, ":warning: game context restarted: " + reason);
+	}
+	
+	/**
+	 * Applies a reloaded configuration to the game.
+	 * The connection to the game server is kept, unless the admin password has changed.
+	 * @param configuration the new application's configuration
+	 * @param game the new settings of the game, with the same address and port
+	 */
+	public synchronized void reconfigure(Configuration configuration, Game game) {
+		boolean passwordChanged = !this.game.getPassword().equals(game.getPassword());
+		
+		this.configuration = configuration;
+		this.game = game;
+		
+		if (this.admin == null) {
+			return;
+		}
+		
+		if (passwordChanged) {
+			restart("admin password changed");
+		} else {
+			this.context.reconfigure(configuration, game);
+		}
+	}
+	
+	/**
+	 * Checks the health of the game.
+	 * @return description of the failure or null if healthy or not started
+	 */
+	public synchronized String getFailure() {
+		if (this.admin == null) {
+			return null;
+		}
+		
+		if (!this.admin.isRunning()) {
+			return "connection worker stopped";
+		}
+		
+		long since = this.busySince;
+		int stallTimeout = this.configuration.getRuntime().getEventStallTimeout();
+		if (stallTimeout > 0 && since != 0
+				&& System.nanoTime() - since > TimeUnit.MILLISECONDS.toNanos(stallTimeout)) {
+			return "event processing stalled for more than " + stallTimeout + " ms";
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Gets the settings of the game.
+	 * @return settings of the game
+	 */
+	public Game getGame() {
+		return this.game;
+	}
+	
+	/**
+	 * Gets the current context of the game.
+	 * @return the current context of the game or null if never started
+	 */
+	public Context getContext() {
+		return this.context;
+	}
+	
+	/**
+	 * Gets the number of events waiting to be processed.
+	 * @return number of waiting events
+	 */
+	public synchronized int getQueuedEvents() {
+		return this.events == null ? 0 : this.events.getQueue().size();
+	}
+	
+	/**
+	 * Gets the number of events processed so far.
+	 * @return number of processed events
+	 */
+	public long getProcessedEvents() {
+		return this.processed.get();
+	}
+	
+	/**
+	 * Gets the number of times the connection waited for free space in the full queue.
+	 * @return number of waits
+	 */
+	public long getThrottledEvents() {
+		return this.throttled.get();
+	}
+	
+	/**
+	 * Gets the number of events dropped so far while stopping the game.
+	 * @return number of dropped events
+	 */
+	public long getDroppedEvents() {
+		return this.dropped.get();
+	}
+	
+	/**
+	 * Gets the number of restarts so far.
+	 * @return number of restarts
+	 */
+	public int getRestarts() {
+		return this.restarts.get();
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import de.miltschek.openttdadmin.data.Date;
+
+/**
+ * Decides when the in-game date and the performance of a game are written to the database.
+ * Both values are sampled together, so that a single write covers all pending changes of the game's row,
+ * and only if at least one of them changed since the last write.
+ * Additionally, keeps the recent performance samples in a ring buffer for trend queries.
+ */
+public class GameStateSampler {
+	/**
+	 * Sampling modes.
+	 */
+	public static enum Mode {
+		/** The interval is expressed in in-game days. */
+		GameDays,
+		/** The interval is expressed in real-time seconds. */
+		WallClock,
+	}
+	
+	/** Default distance between two writes. */
+	public static final int DEFAULT_INTERVAL = 10;
+	/** Default number of performance samples kept in memory. */
+	public static final int DEFAULT_RING_SIZE = 256;
+	
+	private final Mode mode;
+	private final int interval;
+	
+	private final int[] performanceSamples;
+	private final int[] performanceDates;
+	private int ringPosition;
+	private int ringCount;
+	
+	private Date currentDate;
+	private int performance = -1;
+	
+	private int writtenDate = -1;
+	private int writtenPerformance = -1;
+	private int lastWriteDate = -1;
+	private long lastWriteTs;
+	
+	/**
+	 * Creates a sampler.
+	 * @param mode sampling mode
+	 * @param interval minimum distance between two writes in units of the sampling mode
+	 * @param ringSize number of performance samples to keep in memory
+	 */
+	public GameStateSampler(Mode mode, int interval, int ringSize) {
+		this.mode = mode;
+		this.interval = Math.max(0, interval);
+		this.performanceSamples = new int[Math.max(1, ringSize)];
+		this.performanceDates = new int[this.performanceSamples.length];
+	}
+	
+	/**
+	 * Registers a new in-game date.
+	 * @param date current in-game date
+	 * @return true if the game state shall be written now, false otherwise
+	 */
+	public synchronized boolean dateChanged(Date date) {
+		this.currentDate = date;
+		return isDue();
+	}
+	
+	/**
+	 * Registers a new performance measurement and records it in the ring buffer.
+	 * @param performance duration of one in-game day expressed as real-time milliseconds
+	 * @return true if the game state shall be written now, false otherwise
+	 */
+	public synchronized boolean performanceMeasured(int performance) {
+		this.performance = performance;
+		
+		this.performanceSamples[ringPosition] = performance;
+		this.performanceDates[ringPosition] = currentDate == null ? 0 : currentDate.getRawValue();
+		this.ringPosition = (ringPosition + 1) % performanceSamples.length;
+		if (this.ringCount < performanceSamples.length) {
+			this.ringCount++;
+		}
+		
+		return isDue();
+	}
+	
+	/**
+	 * Marks the current state as written, shall be called after a successful write.
+	 */
+	public synchronized void written() {
+		this.writtenDate = currentDate == null ? -1 : currentDate.getRawValue();
+		this.writtenPerformance = performance;
+		this.lastWriteDate = this.writtenDate;
+		this.lastWriteTs = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Forgets about the last write, e.g. when a new game has been started.
+	 */
+	public synchronized void reset() {
+		this.writtenDate = -1;
+		this.writtenPerformance = -1;
+		this.lastWriteDate = -1;
+		this.lastWriteTs = 0;
+		this.ringPosition = 0;
+		this.ringCount = 0;
+	}
+	
+	private boolean isDue() {
+		int date = currentDate == null ? -1 : currentDate.getRawValue();
+		if (date == writtenDate && performance == writtenPerformance) {
+			return false;
+		}
+		
+		if (lastWriteDate < 0) {
+			return true;
+		}
+		
+		switch (mode) {
+		case WallClock:
+			return System.currentTimeMillis() - lastWriteTs >= interval * 1000L;
+		case GameDays:
+		default:
+			// raw dates are days since year 0, going backwards means a new game
+			return date - lastWriteDate >= interval || date < lastWriteDate;
+		}
+	}
+	
+	/**
+	 * Gets the recorded performance samples, the oldest first.
+	 * @return recorded performance samples
+	 */
+	public synchronized int[] getPerformanceSamples() {
+		int[] result = new int[ringCount];
+		int start = (ringPosition - ringCount + performanceSamples.length) % performanceSamples.length;
+		for (int n = 0; n < ringCount; n++) {
+			result[n] = performanceSamples[(start + n) % performanceSamples.length];
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Gets the average performance over the given number of the most recent samples.
+	 * @param lastSamples number of the most recent samples to be considered
+	 * @return average duration of one in-game day expressed as real-time milliseconds or -1 if no samples are available
+	 */
+	public synchronized int getAveragePerformance(int lastSamples) {
+		int count = Math.min(lastSamples, ringCount);
+		if (count <= 0) {
+			return -1;
+		}
+		
+		long sum = 0;
+		for (int n = 1; n <= count; n++) {
+			sum += performanceSamples[(ringPosition - n + performanceSamples.length) % performanceSamples.length];
+		}
+		
+		return (int)(sum / count);
+	}
+	
+	/**
+	 * Gets the number of in-game days covered by the recorded performance samples.
+	 * @return number of in-game days covered by the recorded performance samples
+	 */
+	public synchronized int getCoveredDays() {
+		if (ringCount < 2) {
+			return 0;
+		}
+		
+		int newest = performanceDates[(ringPosition - 1 + performanceSamples.length) % performanceSamples.length];
+		int oldest = performanceDates[(ringPosition - ringCount + performanceSamples.length) % performanceSamples.length];
+		return newest - oldest;
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Supervisor of the games of this process.
+ * Checks the health of all games periodically and restarts a failed game without touching the other ones.
+ */
+public class GameSupervisor implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(GameSupervisor.class);
+	
+	private final List<GameRuntime> runtimes = new CopyOnWriteArrayList<>();
+	private final ScheduledThreadPoolExecutor timer;
+	
+	/**
+	 * Creates the supervisor.
+	 * @param interval interval in seconds of checking the health of the games
+	 */
+	public GameSupervisor(int interval) {
+		this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "game-supervisor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		if (interval > 0) {
+			this.timer.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.SECONDS);
+		}
+	}
+	
+	/**
+	 * Starts a game and keeps it supervised.
+	 * @param runtime runtime of the game
+	 */
+	public void add(GameRuntime runtime) {
+		runtime.start();
+		this.runtimes.add(runtime);
+	}
+	
+	/**
+	 * Stops a game and stops supervising it.
+	 * @param runtime runtime of the game
+	 */
+	public void remove(GameRuntime runtime) {
+		if (this.runtimes.remove(runtime)) {
+			runtime.stop();
+		}
+	}
+	
+	/**
+	 * Checks all games and restarts the failed ones.
+	 */
+	private void check() {
+		for (GameRuntime runtime : this.runtimes) {
+			try {
+				String failure = runtime.getFailure();
+				if (failure != null) {
+					runtime.restart(failure);
+				}
+			} catch (Exception ex) {
+				LOGGER.error("Failed to supervise the game {}:{}.", runtime.getGame().getAddress(), runtime.getGame().getPort(), ex);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the runtime of the game the given context belongs to.
+	 * @param context context of the game
+	 * @return runtime of the game or null if not found
+	 */
+	public GameRuntime getRuntime(Context context) {
+		for (GameRuntime runtime : this.runtimes) {
+			if (runtime.getContext() == context) {
+				return runtime;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Gets all supervised games.
+	 * @return runtimes of all supervised games
+	 */
+	public Collection<GameRuntime> getRuntimes() {
+		return Collections.unmodifiableList(this.runtimes);
+	}
+	
+	/**
+	 * Stops supervising and stops all games.
+	 */
+	@Override
+	public void close() {
+		this.timer.shutdownNow();
+		
+		for (GameRuntime runtime : this.runtimes) {
+			runtime.stop();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+/**
+ * Single sample of a company's time series (economy or infrastructure).
+ * @param <T> type of the sampled data
+ */
+public class HistoryEntry<T> {
+	private final long dbCompanyId;
+	private final long ts;
+	private final String gameDate;
+	private final T data;
+	
+	/**
+	 * Creates a time series sample.
+	 * @param dbCompanyId database ID of the company
+	 * @param ts timestamp of the sample (real time, ms since epoch)
+	 * @param gameDate in-game date of the sample formatted as YYYY-MM-DD or null if unknown
+	 * @param data sampled data
+	 */
+	public HistoryEntry(long dbCompanyId, long ts, String gameDate, T data) {
+		super();
+		this.dbCompanyId = dbCompanyId;
+		this.ts = ts;
+		this.gameDate = gameDate;
+		this.data = data;
+	}
+	
+	/**
+	 * Gets the database ID of the company.
+	 * @return database ID of the company
+	 */
+	public long getDbCompanyId() {
+		return dbCompanyId;
+	}
+	
+	/**
+	 * Gets the timestamp of the sample.
+	 * @return real time timestamp in ms since epoch
+	 */
+	public long getTs() {
+		return ts;
+	}
+	
+	/**
+	 * Gets the in-game date of the sample.
+	 * @return in-game date formatted as YYYY-MM-DD or null if unknown
+	 */
+	public String getGameDate() {
+		return gameDate;
+	}
+	
+	/**
+	 * Gets the sampled data.
+	 * @return sampled data
+	 */
+	public T getData() {
+		return data;
+	}
+}
@@ -24,30 +24,34 @@
 package de.miltschek.genowefa;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.miltschek.genowefa.Configuration.Game;
 import de.miltschek.integrations.GeoIp;
+import de.miltschek.integrations.GeoIpCache;
+import de.miltschek.integrations.GeoIpDatabase;
 import de.miltschek.integrations.GoogleTranslate;
+import de.miltschek.integrations.IpApiProvider;
 import de.miltschek.integrations.SlackMessage;
+import de.miltschek.integrations.SlackOutbox;
 import de.miltschek.integrations.SlackRTMClient;
-import de.miltschek.openttdadmin.OttdAdminClient;
+import de.miltschek.integrations.TranslationCache;
 import de.miltschek.openttdadmin.data.ChatMessage;
 import de.miltschek.openttdadmin.data.ChatMessage.Recipient;
 import de.miltschek.openttdadmin.data.ClientInfo;
@@ -56,9 +60,10 @@ import de.miltschek.openttdadmin.data.Color;
 import de.miltschek.openttdadmin.data.CompanyEconomy;
 import de.miltschek.openttdadmin.data.CompanyInfo;
 import de.miltschek.openttdadmin.data.CompanyStatistics;
-import de.miltschek.openttdadmin.data.Frequency;
-import de.miltschek.openttdadmin.data.FrequencyLong;
 import de.miltschek.openttdadmin.data.Language;
+import de.miltschek.openttdadmin.metrics.Histogram;
+import de.miltschek.openttdadmin.metrics.ListenerProfiler;
+import de.miltschek.openttdadmin.metrics.MetricsRegistry;
 
 /**
  * Main class of Genowefa, a cool admin tool for OpenTTD.
@@ -66,11 +71,74 @@ import de.miltschek.openttdadmin.data.Language;
 public class Main {
 	private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
 
-	private static final Collection<OttdAdminClient> ottdAdminClients = new ArrayList<>();
-	private static final Map<String, Context> slackToContext = new HashMap<>();
+	private static GameSupervisor supervisor;
+	private static ConfigurationWatcher configurationWatcher;
+	private static String shard;
+	private static final Map<String, Context> slackToContext = new ConcurrentHashMap<>();
+	private static final CommandRegistry commands = new CommandRegistry(slackToContext::get);
 	private static SlackRTMClient slack;
+	private static SlackOutbox slackOutbox;
 	private static GoogleTranslate googleTranslate;
 	private static DatabaseConnector db;
+	private static GeoIpCache geoIpCache;
+	private static GeoIpDatabase geoIpDatabase;
+	private static MetricsEndpoint metricsEndpoint;
+	private static ListenerProfiler listenerProfiler;
+	
+	/** Metrics: time of posting messages to Slack. */
+	private static final Histogram SLACK_POST_TIME = MetricsRegistry.getDefault().histogram("genowefa_slack_post_seconds", "Time of posting messages to Slack.");
+	
+	/**
+	 * Posts a message to Slack, used by the outbox.
+	 * @param channel channel name or channel ID
+	 * @param text message text
+	 * @return result as defined by {@link SlackOutbox.Transport#post(String, String)}
+	 */
+	private static long postToSlack(String channel, String text) {
+		long start = System.nanoTime();
+		try {
+			return slack.postMessage(channel, text);
+		} finally {
+			SLACK_POST_TIME.recordSince(start);
+		}
+	}
+	
+	/**
+	 * Registers the metrics of the shared services.
+	 */
+	private static void registerMetrics() {
+		MetricsRegistry metrics = MetricsRegistry.getDefault();
+		
+		if (slackOutbox != null) {
+			metrics.gauge("genowefa_slack_outbox_queued", "Messages waiting in the Slack outbox.", slackOutbox::getQueued);
+			metrics.functionCounter("genowefa_slack_outbox_posted_total", "Messages posted by the Slack outbox.", slackOutbox::getPosted);
+			metrics.functionCounter("genowefa_slack_outbox_coalesced_total", "Messages coalesced by the Slack outbox.", slackOutbox::getCoalesced);
+			metrics.functionCounter("genowefa_slack_outbox_rate_limited_total", "Posts of the Slack outbox rejected by rate limits.", slackOutbox::getRateLimited);
+			metrics.functionCounter("genowefa_slack_outbox_failed_total", "Posts of the Slack outbox failed.", slackOutbox::getFailed);
+			metrics.functionCounter("genowefa_slack_outbox_dropped_total", "Messages dropped by the Slack outbox.", slackOutbox::getDropped);
+		}
+		
+		if (geoIpCache != null) {
+			metrics.gauge("genowefa_geoip_cache_entries", "Entries of the geolocation cache.", geoIpCache::size);
+			metrics.functionCounter("genowefa_geoip_cache_hits_total", "Hits of the geolocation cache.", geoIpCache::getHits);
+			metrics.functionCounter("genowefa_geoip_cache_negative_hits_total", "Hits of unknown addresses in the geolocation cache.", geoIpCache::getNegativeHits);
+			metrics.functionCounter("genowefa_geoip_cache_misses_total", "Misses of the geolocation cache.", geoIpCache::getMisses);
+			metrics.gauge("genowefa_geoip_cache_hit_ratio", "Hit ratio of the geolocation cache.", geoIpCache::getHitRate);
+		}
+		
+		if (googleTranslate != null && googleTranslate.getCache() != null) {
+			TranslationCache cache = googleTranslate.getCache();
+			metrics.gauge("genowefa_translation_cache_entries", "Entries of the translation cache.", cache::size);
+			metrics.functionCounter("genowefa_translation_cache_hits_total", "Hits of the translation cache.", cache::getHits);
+			metrics.functionCounter("genowefa_translation_cache_misses_total", "Misses of the translation cache.", cache::getMisses);
+			metrics.gauge("genowefa_translation_cache_hit_ratio", "Hit ratio of the translation cache.", cache::getHitRate);
+		}
+		
+		if (configurationWatcher != null) {
+			metrics.functionCounter("genowefa_config_reloads_total", "Reloads of the configuration file.", configurationWatcher::getReloads);
+			metrics.functionCounter("genowefa_config_rejected_total", "Rejected changes of the configuration file.", configurationWatcher::getRejected);
+		}
+	}
 	
 	/**
 	 * Handles incoming slack messages.
@@ -110,270 +178,505 @@ public class Main {
 	}
 	
 	/**
-	 * Handles incoming slack commands.
-	 * @param slackMessage command to be processed
-	 * @return true if identified and processed (independent of a processing result - this one is asynchronous), false otherwise
+	 * Registers handlers of all supported slack commands.
 	 */
-	private static Boolean onCommand(SlackMessage slackMessage) {
-		Context context = slackToContext.get(slackMessage.getChannelName());
-		if (context == null) {
-			LOGGER.error("No context found for the channel {}.", slackMessage.getChannelName());
-			return false;
-		} else {
-			if (slackMessage.getUserId() == null) {
-				LOGGER.warn("Command {} without a user id. Ignoring.", slackMessage.getCommand());
-				return false;
+	private static void registerCommands() {
+		commands.register("/date", (context, params, slackMessage) ->
+			":computer: Game date " + context.getCurrentDate());
+		
+		commands.register("/kickuser", (context, params, slackMessage) -> {
+			if (params.length == 2) {
+				if (params[0].matches("[1-9][0-9]*")) {
+					context.kickClient(Integer.parseInt(params[0]), params[1]);
+				} else {
+					context.kickClient(params[0], params[1]);
+				}
+				
+				return null;
+			} else {
+				return "Usage: /kickuser <client_id|ip_address> \"<reason>\"";
+			}
+		});
+		
+		commands.register("/ban", (context, params, slackMessage) -> {
+			if (params.length == 2) {
+				if (params[0].matches("[1-9][0-9]*")) {
+					context.banClient(Integer.parseInt(params[0]), params[1]);
+				} else {
+					context.banClient(params[0], params[1]);
+				}
+				
+				return null;
+			} else {
+				return "Usage: /ban <client_id|ip_address> \"<reason>\"";
+			}
+		});
+		
+		commands.register("/pause", (context, params, slackMessage) -> {
+			context.pauseGame();
+			return null;
+		});
+		
+		commands.register("/quit", (context, params, slackMessage) -> {
+			if ("roger".equals(slackMessage.getText())) {
+				context.quitGame();
+				return null;
+			} else {
+				return "In order to quit the game, provide the word 'roger' as an argument to the quit command.";
+			}
+		});
+		
+		commands.register("/unban", (context, params, slackMessage) -> {
+			if (params.length == 1) {
+				if (params[0].matches("[1-9][0-9]*")) {
+					context.unbanClient(Integer.parseInt(params[0]));
+				} else {
+					context.unbanClient(params[0]);
+				}
+				
+				return null;
+			} else {
+				return "Usage: /unban <ip_address|banlist_index>";
+			}
+		});
+		
+		commands.register("/unpause", (context, params, slackMessage) -> {
+			context.restoreGame();
+			return null;
+		});
+		
+		commands.register("/setting", (context, params, slackMessage) -> {
+			if (params.length == 1) {
+				context.getParameter(params[0]);
+			} else if (params.length == 2) {
+				context.setParameter(params[0], params[1]);
+			} else {
+				return "Usage: /setting <name> \"[value]\"";
 			}
 			
-			Configuration.Administrator administrator = context.getAdministrator(slackMessage.getUserId());
-			if (administrator == null) {
-				LOGGER.warn("Command {} from an unregistered user id {}. Ignoring.", slackMessage.getCommand(), slackMessage.getUserId());
-				return false;
+			return null;
+		});
+		
+		commands.register("/resetcompany", (context, params, slackMessage) -> {
+			if (params.length == 1 && params[0].matches("[1-9][0-9]*")) {
+				context.resetCompanyOneBased(Integer.parseInt(params[0]));
+				return null;
+			} else {
+				return "Usage: /resetcompany <company_id_1_based>";
 			}
+		});
+		
+		commands.register("/companies", Main::listCompanies);
+		commands.register("/clients", Main::listClients);
+		commands.register("/server", Main::describeServer);
+		commands.register("/listeners", Main::describeListeners);
+	}
+	
+	/**
+	 * Lists the companies of a game along with their clients.
+	 * @param context game context
+	 * @param params ignored
+	 * @param slackMessage ignored
+	 * @return list of companies
+	 */
+	private static String listCompanies(Context context, String[] params, SlackMessage slackMessage) {
+		StringBuffer sb = new StringBuffer();
+		for (CompanyData company : context.getCompanies()) {
+			sb.append(":office: ");
+			sb.append(company.getCompanyId() + 1);
+			sb.append(" ");
+			sb.append(company.getName());
+			sb.append(" (");
+			sb.append(company.getColorName());
+			sb.append(")");
 			
-			if (!administrator.getGrants().contains("*") && !administrator.getGrants().contains(slackMessage.getCommand())) {
-				LOGGER.warn("No grants for the command {} for the user id {}. Ignoring.", slackMessage.getCommand(), slackMessage.getUserId());
-				slack.sendMessage(slackMessage.getChannelName(), ":exclamation: No permission for the command.");
-				return false;
+			sb.append("\n");
+			
+			for (ClientData client : context.getClients()) {
+				if (client.getPlaysAs() == company.getCompanyId()) {
+					sb.append(" - ");
+					sb.append(client.getClientId());
+					sb.append(": ");
+					sb.append(client.getName());
+					sb.append("\n");
+				}
 			}
 			
-			try {
-				String[] params = parameters(slackMessage.getText());
-				
-				if ("/date".equals(slackMessage.getCommand())) {
-					slack.sendMessage(slackMessage.getChannelName(), ":computer: Game date " + context.getCurrentDate());
-					
-					
-				} else if ("/kickuser".equals(slackMessage.getCommand())) {
-					if (params.length == 2) {
-						if (params[0].matches("[1-9][0-9]*")) {
-							context.kickClient(Integer.parseInt(params[0]), params[1]);
-						} else {
-							context.kickClient(params[0], params[1]);
-						}
-					} else {
-						slack.sendMessage(slackMessage.getChannelName(), "Usage: /kickuser <client_id|ip_address> \"<reason>\"");
-					}
-					
-				} else if ("/ban".equals(slackMessage.getCommand())) {
-					if (params.length == 2) {
-						if (params[0].matches("[1-9][0-9]*")) {
-							context.banClient(Integer.parseInt(params[0]), params[1]);
-						} else {
-							context.banClient(params[0], params[1]);
-						}
-					} else {
-						slack.sendMessage(slackMessage.getChannelName(), "Usage: /ban <client_id|ip_address> \"<reason>\"");
-					}
-					
-				} else if ("/pause".equals(slackMessage.getCommand())) {
-					context.pauseGame();
-					
-				} else if ("/quit".equals(slackMessage.getCommand())) {
-					if ("roger".equals(slackMessage.getText())) {
-						context.quitGame();
-					} else {
-						slack.sendMessage(slackMessage.getChannelName(), "In order to quit the game, provide the word 'roger' as an argument to the quit command.");
-					}
-					
-				} else if ("/unban".equals(slackMessage.getCommand())) {
-					if (params.length == 1) {
-						if (params[0].matches("[1-9][0-9]*")) {
-							context.unbanClient(Integer.parseInt(params[0]));
-						} else {
-							context.unbanClient(params[0]);
-						}
-					} else {
-						slack.sendMessage(slackMessage.getChannelName(), "Usage: /unban <ip_address|banlist_index>");
-					}
-					
-				} else if ("/unpause".equals(slackMessage.getCommand())) {
-					context.restoreGame();
-					
-				} else if ("/setting".equals(slackMessage.getCommand())) {
-					if (params.length == 1) {
-						context.getParameter(params[0]);
-					} else if (params.length == 2) {
-						context.setParameter(params[0], params[1]);
-					} else {
-						slack.sendMessage(slackMessage.getChannelName(), "Usage: /setting <name> \"[value]\"");
-					}
-					
-				} else if ("/resetcompany".equals(slackMessage.getCommand())) {
-					if (params.length == 1 && params[0].matches("[1-9][0-9]*")) {
-						context.resetCompanyOneBased(Integer.parseInt(params[0]));
-					} else {
-						slack.sendMessage(slackMessage.getChannelName(), "Usage: /resetcompany <company_id_1_based>");
-					}
-					
-				} else if ("/companies".equals(slackMessage.getCommand())) {
-					StringBuffer sb = new StringBuffer();
-					for (CompanyData company : context.getCompanies()) {
-						sb.append(":office: ");
-						sb.append(company.getCompanyId() + 1);
-						sb.append(" ");
-						sb.append(company.getName());
-						sb.append(" (");
-						sb.append(company.getColorName());
-						sb.append(")");
-						
-						sb.append("\n");
-						
-						for (ClientData client : context.getClients()) {
-							if (client.getPlaysAs() == company.getCompanyId()) {
-								sb.append(" - ");
-								sb.append(client.getClientId());
-								sb.append(": ");
-								sb.append(client.getName());
-								sb.append("\n");
-							}
-						}
-						
-						sb.append("\n");
-					}
-					
-					slack.sendMessage(slackMessage.getChannelName(), sb.toString());
-					
-				} else if ("/clients".equals(slackMessage.getCommand())) {
-					StringBuffer sb = new StringBuffer();
+			sb.append("\n");
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Lists the clients currently connected to a game.
+	 * @param context game context
+	 * @param params ignored
+	 * @param slackMessage ignored
+	 * @return list of clients
+	 */
+	private static String listClients(Context context, String[] params, SlackMessage slackMessage) {
+		StringBuffer sb = new StringBuffer();
 
-					for (ClientData client : context.getClients()) {
-						if (client.getLeftTs() > 0) {
-							continue;
-						}
-						
-						sb.append(":bust_in_silhouette: ");
-						sb.append(client.getClientId());
-						
-						if (client.getName() != null) {
-							sb.append(" ");
-							sb.append(client.getName());
-						}
-						
-						sb.append("\n");
-						
-						if (client.getCountry() != null) {
-							sb.append(" - ");
-							sb.append(client.getCountry());
-							sb.append(", ");
-							sb.append(client.getCity());
-							sb.append("\n");
-						}
-						
-						if (client.getNetworkAddress() != null) {
-							sb.append(" - ");
-							sb.append(client.getNetworkAddress());
-							if (client.isProxy()) {
-								sb.append(" proxy");
-							}
-							sb.append("\n");
-						}
-						
-						sb.append(" - joined ");
-						sb.append(SDF.format(new Date(client.getJoinedTs())));
-						sb.append(" UTC");
-						
-						sb.append(" - plays as ");
-						switch (client.getPlaysAs()) {
-						case CompanyInfo.DEITY:
-							sb.append("deity (the server itself)"); break;
-						case CompanyInfo.INACTIVE_CLIENT:
-							sb.append("inactive client (should never happen)"); break;
-						case CompanyInfo.NEW_COMPANY:
-							sb.append("new company (ID not yet assigned)"); break;
-						case CompanyInfo.NONE:
-							sb.append("none (should never happen)"); break;
-						case CompanyInfo.SPECTATOR:
-							sb.append("spectator"); break;
-						case CompanyInfo.TOWN:
-							sb.append("town (should never happen)"); break;
-						case CompanyInfo.WATER:
-							sb.append("water (should never happen)"); break;
-							default:
-							{
-								CompanyData companyData = context.getCompany(client.getPlaysAs());
-								if (companyData == null) {
-									sb.append((int)client.getPlaysAs() + 1);
-								} else {
-									sb.append((int)client.getPlaysAs() + 1);
-									sb.append(": ");
-									sb.append(companyData.getName() == null ? "n/a" : companyData.getName());
-									String color = companyData.getColorName();
-									if (color != null) {
-										sb.append(" [");
-										sb.append(color);
-										sb.append("]");
-									}
-								}
-							}
-						}
-						
-						sb.append("\n");
-						
-						if (client.getJoinDate() != null) {
-							sb.append(" - joined ");
-							sb.append(client.getJoinDate().getDay());
-							sb.append("-");
-							sb.append(client.getJoinDate().getMonth());
-							sb.append("-");
-							sb.append(client.getJoinDate().getYear());
-							sb.append(" game time \n");
+		for (ClientData client : context.getClients()) {
+			if (client.getLeftTs() > 0) {
+				continue;
+			}
+			
+			sb.append(":bust_in_silhouette: ");
+			sb.append(client.getClientId());
+			
+			if (client.getName() != null) {
+				sb.append(" ");
+				sb.append(client.getName());
+			}
+			
+			sb.append("\n");
+			
+			if (client.getCountry() != null) {
+				sb.append(" - ");
+				sb.append(client.getCountry());
+				sb.append(", ");
+				sb.append(client.getCity());
+				sb.append("\n");
+			}
+			
+			if (client.getNetworkAddress() != null) {
+				sb.append(" - ");
+				sb.append(client.getNetworkAddress());
+				if (client.isProxy()) {
+					sb.append(" proxy");
+				}
+				sb.append("\n");
+			}
+			
+			sb.append(" - joined ");
+			synchronized (SDF) {
+				sb.append(SDF.format(new Date(client.getJoinedTs())));
+			}
+			sb.append(" UTC");
+			
+			sb.append(" - plays as ");
+			switch (client.getPlaysAs()) {
+			case CompanyInfo.DEITY:
+				sb.append("deity (the server itself)"); break;
+			case CompanyInfo.INACTIVE_CLIENT:
+				sb.append("inactive client (should never happen)"); break;
+			case CompanyInfo.NEW_COMPANY:
+				sb.append("new company (ID not yet assigned)"); break;
+			case CompanyInfo.NONE:
+				sb.append("none (should never happen)"); break;
+			case CompanyInfo.SPECTATOR:
+				sb.append("spectator"); break;
+			case CompanyInfo.TOWN:
+				sb.append("town (should never happen)"); break;
+			case CompanyInfo.WATER:
+				sb.append("water (should never happen)"); break;
+				default:
+				{
+					CompanyData companyData = context.getCompany(client.getPlaysAs());
+					if (companyData == null) {
+						sb.append((int)client.getPlaysAs() + 1);
+					} else {
+						sb.append((int)client.getPlaysAs() + 1);
+						sb.append(": ");
+						sb.append(companyData.getName() == null ? "n/a" : companyData.getName());
+						String color = companyData.getColorName();
+						if (color != null) {
+							sb.append(" [");
+							sb.append(color);
+							sb.append("]");
 						}
 					}
-					
-					slack.sendMessage(slackMessage.getChannelName(), sb.toString());
-				
-				} else if ("/server".equals(slackMessage.getCommand())) {
-					
-					slack.sendMessage(slackMessage.getChannelName(),
-							":computer: Server " + context.getAddress() + ":" + context.getPort() + "\n"
-							+ "Currently " + (context.isGameConnected() ? "connected" : "disconnected") + "\n"
-							+ "Database ID " + context.getDbGameId() + "\n"
-							+ "Game-Date " + context.getCurrentDate() + "\n"
-							+ "Performance " + context.getPerformance() + " ms/game-day\n"
-							+ "No. clients " + context.getClients().size() + "\n"
-							+ "No. companies " + context.getCompanies().size());
-					
-				} else {
-					return false;
 				}
-				
-				return true;
-			} catch (Exception ex) {
-				LOGGER.error("Failed to handle a command {}.", slackMessage, ex);
-				return false;
+			}
+			
+			sb.append("\n");
+			
+			if (client.getJoinDate() != null) {
+				sb.append(" - joined ");
+				sb.append(client.getJoinDate().getDay());
+				sb.append("-");
+				sb.append(client.getJoinDate().getMonth());
+				sb.append("-");
+				sb.append(client.getJoinDate().getYear());
+				sb.append(" game time \n");
 			}
 		}
+		
+		return sb.toString();
 	}
 	
-	private static final SimpleDateFormat SDF = new SimpleDateFormat("HH:mm:ss dd.MM.yyyy", Locale.ROOT);
-	private static final Pattern P_PARAM = Pattern.compile("\\\"(?<v1>[^\"]*)\\\"|(?<v2>[^ \t\"]+)");
-	private static String[] parameters(String line) {
-		List<String> result = new ArrayList<String>();
-		
-		Matcher m = P_PARAM.matcher(line);
-		while (m.find()) {
-			if (m.group("v1") != null) {
-				result.add(m.group("v1"));
+	/**
+	 * Describes the listeners taking the most time, over all games.
+	 * @param context ignored
+	 * @param params optional maximum number of listeners to be shown
+	 * @param slackMessage ignored
+	 * @return description of the listeners
+	 */
+	private static String describeListeners(Context context, String[] params, SlackMessage slackMessage) {
+		if (listenerProfiler == null) {
+			return ":stopwatch: Listener profiling is turned off.";
+		}
+		
+		int limit = 10;
+		if (params.length == 1 && params[0].matches("[1-9][0-9]{0,2}")) {
+			limit = Integer.parseInt(params[0]);
+		} else if (params.length > 0) {
+			return "Usage: /listeners [<count>]";
+		}
+		
+		List<ListenerProfiler.Offender> offenders = listenerProfiler.getTopOffenders(limit);
+		if (offenders.isEmpty()) {
+			return ":stopwatch: No listener calls recorded yet.";
+		}
+		
+		StringBuilder sb = new StringBuilder(":stopwatch: Listeners by total time over the last "
+				+ (ListenerProfiler.WINDOW / 60000) + " to " + (2 * ListenerProfiler.WINDOW / 60000) + " minutes, all games"
+				+ (listenerProfiler.getSlowThreshold() > 0 ? ", slow above " + listenerProfiler.getSlowThreshold() + " ms" : ""));
+		for (ListenerProfiler.Offender offender : offenders) {
+			sb.append('\n').append(offender.getListener()).append(" on ").append(offender.getEvent()).append(": ")
+				.append(offender.getCount()).append(" calls, total ").append(offender.getTotalTime())
+				.append(" ms, avg ").append(String.format(Locale.ROOT, "%.2f", offender.getAverageTime()))
+				.append(" ms, p95 ").append(String.format(Locale.ROOT, "%.1f", offender.getPercentile95()))
+				.append(" ms, max ").append(offender.getMaxTime()).append(" ms");
+			
+			if (offender.getSlowCalls() > 0) {
+				sb.append(", ").append(offender.getSlowCalls()).append(" slow");
+			}
+			
+			if (offender.getLastSample() != null) {
+				sb.append(", last stuck at ").append(offender.getLastSample());
+			}
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Describes the state of a game server and of the tool.
+	 * @param context game context
+	 * @param params ignored
+	 * @param slackMessage ignored
+	 * @return description of the server
+	 */
+	private static String describeServer(Context context, String[] params, SlackMessage slackMessage) {
+		return ":computer: Server " + context.getAddress() + ":" + context.getPort() + "\n"
+			+ "Currently " + (context.isGameConnected() ? "connected" : "disconnected") + "\n"
+			+ "Database ID " + context.getDbGameId() + "\n"
+			+ "Game-Date " + context.getCurrentDate() + "\n"
+			+ "Performance " + context.getPerformance() + " ms/game-day"
+			+ " (avg " + context.getAveragePerformance(Integer.MAX_VALUE) + " over the last " + context.getPerformanceHistoryDays() + " game-days)\n"
+			+ "No. clients " + context.getClients().size() + "\n"
+			+ "No. companies " + context.getCompanies().size()
+			+ "\nTranslations " + context.getTranslationStage().getDelivered() + " delivered, "
+					+ context.getTranslationStage().getExpired() + " expired, "
+					+ context.getTranslationStage().getRejected() + " rejected, latency avg "
+					+ context.getTranslationStage().getAverageLatency() + " ms, p95 "
+					+ context.getTranslationStage().getLatencyPercentile(0.95) + " ms, max "
+					+ context.getTranslationStage().getMaxLatency() + " ms"
+			+ (slackOutbox == null ? "" : ("\nSlack outbox " + slackOutbox.getQueued() + " queued, "
+					+ slackOutbox.getPosted() + " posted, " + slackOutbox.getCoalesced() + " coalesced, "
+					+ slackOutbox.getRateLimited() + " rate-limited, " + slackOutbox.getFailed() + " failed, "
+					+ slackOutbox.getDropped() + " dropped"))
+			+ (context.getSlackDigest() == null ? "" : ("\nSlack digest " + context.getSlackDigest().getDigestedEvents()
+					+ " events in " + context.getSlackDigest().getSummaries() + " summaries"))
+			+ (slack == null ? "" : ("\nSlack channels " + slack.getChannels().size() + " known, "
+					+ slack.getChannels().getRefreshes() + " refreshes, " + slack.getChannels().getLazyLookups() + " lazy look-ups"))
+			+ (geoIpCache == null ? "" : ("\nGeoIP cache " + geoIpCache.size() + " entries, hit rate "
+					+ Math.round(geoIpCache.getHitRate() * 100) + "% (" + geoIpCache.getHits() + " hits, "
+					+ geoIpCache.getNegativeHits() + " negative hits, " + geoIpCache.getMisses() + " misses)"))
+			+ (googleTranslate == null || googleTranslate.getCache() == null ? "" : ("\nTranslation cache " + googleTranslate.getCache().size()
+					+ " entries, hit rate " + Math.round(googleTranslate.getCache().getHitRate() * 100) + "% ("
+					+ googleTranslate.getCache().getHits() + " hits, " + googleTranslate.getCache().getMisses() + " misses)"))
+			+ describeRuntime(context)
+			+ (configurationWatcher == null ? "" : ("\nConfiguration " + configurationWatcher.getReloads() + " reloads, "
+					+ configurationWatcher.getRejected() + " rejected"))
+			+ "\nCompany resets " + context.getResetCoordinator().getActive() + " active, "
+					+ context.getResetCoordinator().getCompleted() + " completed, "
+					+ context.getResetCoordinator().getTimedOut() + " timed out"
+			+ describeDenyRules(context)
+			+ describeChatCommands(context)
+			+ describeCommands();
+	}
+	
+	/**
+	 * Describes the runtime of a game.
+	 * @param context game context
+	 * @return event processing statistics of the game
+	 */
+	private static String describeRuntime(Context context) {
+		GameRuntime runtime = supervisor == null ? null : supervisor.getRuntime(context);
+		if (runtime == null) {
+			return "";
+		}
+		
+		return "\nEvents " + runtime.getProcessedEvents() + " processed, "
+				+ runtime.getQueuedEvents() + " queued, "
+				+ runtime.getThrottledEvents() + " throttled, "
+				+ runtime.getDroppedEvents() + " dropped, "
+				+ runtime.getRestarts() + " restarts"
+				+ (runtime.getGame().getShard() == null ? "" : (", shard " + runtime.getGame().getShard()));
+	}
+	
+	/**
+	 * Describes the usage of the chat commands of a game.
+	 * @param context game context
+	 * @return one line per chat command used so far
+	 */
+	private static String describeChatCommands(Context context) {
+		StringBuilder sb = new StringBuilder();
+		for (ChatCommandRouter.Stats stats : context.getChatCommandRouter().getStats()) {
+			if (stats.getCalls() > 0 || stats.getDropped() > 0) {
+				sb.append("\nChat command ").append(stats.getName()).append(' ').append(stats.getCalls()).append(" calls, ")
+					.append(stats.getDropped()).append(" dropped, avg ").append(stats.getAverageLatency()).append(" us");
+			}
+		}
+		
+		if (context.getChatCommandRouter().getUnknown() > 0) {
+			sb.append("\nUnknown chat commands ").append(context.getChatCommandRouter().getUnknown());
+		}
+		
+		if (context.getOutboundDropped() > 0) {
+			sb.append("\nOutbound chat messages dropped ").append(context.getOutboundDropped());
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Describes the hit counters of the deny rules.
+	 * @param context game context
+	 * @return one line per rule matched so far
+	 */
+	private static String describeDenyRules(Context context) {
+		StringBuilder sb = new StringBuilder();
+		DenyRuleEngine engine = context.getDenyRuleEngine();
+		for (int index = 0; index < engine.getRules().size(); index++) {
+			if (engine.getHits(index) > 0) {
+				Configuration.DenyRule rule = engine.getRules().get(index);
+				sb.append("\nDeny rule ").append(rule.getType()).append('/').append(rule.getPattern())
+					.append(' ').append(engine.getHits(index)).append(" hits");
+			}
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Describes the execution statistics of the slack commands.
+	 * @return one line per command executed so far
+	 */
+	private static String describeCommands() {
+		StringBuilder sb = new StringBuilder();
+		for (String command : commands.getCommands()) {
+			CommandRegistry.Stats stats = commands.getStats(command);
+			if (stats.getCalls() > 0) {
+				sb.append("\nCommand ").append(command).append(' ').append(stats.getCalls()).append(" calls, ")
+					.append(stats.getFailures()).append(" failed, latency avg ").append(stats.getAverageLatency())
+					.append(" ms, max ").append(stats.getMaxLatency()).append(" ms");
+			}
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Creates a runtime of a game, the game is not started yet.
+	 * @param configuration application's configuration
+	 * @param game settings of the game
+	 * @return runtime of the game
+	 */
+	private static GameRuntime createRuntime(Configuration configuration, Game game) {
+		return new GameRuntime(configuration, game, slackOutbox, googleTranslate, db, listenerProfiler, (runtime, context) -> {
+			if (runtime.getGame().getSlackChannel() != null) {
+				slackToContext.put(runtime.getGame().getSlackChannel(), context);
+			}
+		});
+	}
+	
+	/**
+	 * Checks a reloaded configuration before it gets applied.
+	 * @param configuration reloaded configuration
+	 * @return description of the problem or null if the configuration may be applied
+	 */
+	private static String validateConfiguration(Configuration configuration) {
+		if (configuration.getGames() == null || configuration.getGames().isEmpty()) {
+			return "no games configured";
+		}
+		
+		if (slack != null && configuration.getSlack() == null) {
+			return "the Slack connector is running, the slack section cannot be removed";
+		}
+		
+		Set<String> games = new HashSet<>();
+		Set<String> slackChannels = new HashSet<>();
+		for (Game game : configuration.getGames()) {
+			if (!games.add(game.getAddress() + ":" + game.getPort())) {
+				return "game " + game.getAddress() + ":" + game.getPort() + " configured more than once";
+			}
+			
+			if (game.isInShard(shard) && game.getSlackChannel() != null && !slackChannels.add(game.getSlackChannel())) {
+				return "more than one game is using the same Slack channel " + game.getSlackChannel();
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Applies a reloaded configuration: updates the running games in place,
+	 * stops the removed ones and starts the added ones.
+	 * Settings of the integrations (Slack connector, Google, database, geolocation) need a restart.
+	 * @param configuration reloaded and validated configuration
+	 */
+	private static synchronized void applyConfiguration(Configuration configuration) {
+		Map<String, Game> games = new LinkedHashMap<>();
+		for (Game game : configuration.getGames()) {
+			if (game.isInShard(shard)) {
+				games.put(game.getAddress() + ":" + game.getPort(), game);
+			}
+		}
+		
+		for (GameRuntime runtime : supervisor.getRuntimes()) {
+			Game previous = runtime.getGame();
+			Context previousContext = runtime.getContext();
+			Game game = games.remove(previous.getAddress() + ":" + previous.getPort());
+			
+			if (game == null) {
+				LOGGER.info("Stopping the removed game {}:{}.", previous.getAddress(), previous.getPort());
+				supervisor.remove(runtime);
 			} else {
-				result.add(m.group("v2"));
+				runtime.reconfigure(configuration, game);
+				if (game.getSlackChannel() != null) {
+					slackToContext.put(game.getSlackChannel(), runtime.getContext());
+				}
+			}
+			
+			if (previous.getSlackChannel() != null && (game == null || !previous.getSlackChannel().equals(game.getSlackChannel()))) {
+				slackToContext.remove(previous.getSlackChannel(), previousContext);
 			}
 		}
 		
-		return result.toArray(new String[result.size()]);
+		for (Game game : games.values()) {
+			LOGGER.info("Starting the added game {}:{}.", game.getAddress(), game.getPort());
+			supervisor.add(createRuntime(configuration, game));
+		}
 	}
 	
+	private static final SimpleDateFormat SDF = new SimpleDateFormat("HH:mm:ss dd.MM.yyyy", Locale.ROOT);
+	
 	/**
 	 * Entry point of the application.
 	 * @param args arguments in the fixed order: OTTD server address, port number, admin password, slack channel name, slack token
 	 */
 	public static void main(String[] args) {
 		String cfgPath = "genowefa.json";
-		if (args.length == 1) {
+		if (args.length == 1 || args.length == 2) {
 			cfgPath = args[0];
-		} else if (args.length > 1) {
+		} else if (args.length > 2) {
 			System.err.println("Usage:");
-			System.err.println(Main.class.getName() + " <config_file_path>");
+			System.err.println(Main.class.getName() + " <config_file_path> [<shard>]");
 			return;
 		}
 		
@@ -394,20 +697,17 @@ public class Main {
 			LOGGER.debug("Starting slack connector.");
 			
 			try {
-				slack = new SlackRTMClient(configuration.getSlack().getAppToken(), configuration.getSlack().getBotToken());
+				slack = new SlackRTMClient(configuration.getSlack().getAppToken(), configuration.getSlack().getBotToken(),
+						configuration.getSlack().getChannelRefreshInterval());
 				slack.registerChatHandler(Main::onMessage);
-				slack.registerCommand("/date", Main::onCommand);
-				slack.registerCommand("/kickuser", Main::onCommand);
-				slack.registerCommand("/ban", Main::onCommand);
-				slack.registerCommand("/pause", Main::onCommand);
-				slack.registerCommand("/quit", Main::onCommand);
-				slack.registerCommand("/unban", Main::onCommand);
-				slack.registerCommand("/unpause", Main::onCommand);
-				slack.registerCommand("/setting", Main::onCommand);
-				slack.registerCommand("/resetcompany", Main::onCommand);
-				slack.registerCommand("/clients", Main::onCommand);
-				slack.registerCommand("/companies", Main::onCommand);
-				slack.registerCommand("/server", Main::onCommand);
+				registerCommands();
+				for (String command : commands.getCommands()) {
+					slack.registerAsyncCommand(command, commands::execute);
+				}
+				slackOutbox = new SlackOutbox(Main::postToSlack,
+						configuration.getSlack().getOutboxCoalesceWindow(),
+						configuration.getSlack().getOutboxMaxMessageLength(),
+						configuration.getSlack().getOutboxQueueSize());
 			} catch (IOException e) {
 				LOGGER.error("Failed to initialize the Slack client.", e);
 			}
@@ -420,11 +720,56 @@ public class Main {
 			
 			try {
 				googleTranslate = new GoogleTranslate(configuration.getGoogle().getKeyFile());
+				googleTranslate.setFastPath(configuration.getGoogle().isFastPath());
+				googleTranslate.setBatchWindow(configuration.getGoogle().getTranslationBatchWindow());
+				if (configuration.getGoogle().getTranslationCacheSize() > 0) {
+					googleTranslate.setCache(new TranslationCache(configuration.getGoogle().getTranslationCacheSize(),
+							configuration.getGoogle().getTranslationCacheTtl()));
+				}
 			} catch (IOException ex) {
 				LOGGER.error("Failed to initialize the google translate service.", ex);
 			}
 		}
 		
+		if (configuration.getGeolocation().getCacheSize() > 0) {
+			Configuration.Geolocation geolocation = configuration.getGeolocation();
+			geoIpCache = new GeoIpCache(geolocation.getCacheSize(),
+					geolocation.getCacheTtl(),
+					geolocation.getNegativeCacheTtl(),
+					geolocation.getCacheFile(),
+					geolocation.getSnapshotInterval());
+			geoIpCache.load();
+			GeoIp.setCache(geoIpCache);
+		}
+		
+		if (configuration.getGeolocation().getDatabaseFile() != null) {
+			Configuration.Geolocation geolocation = configuration.getGeolocation();
+			File databaseFile = new File(geolocation.getDatabaseFile());
+			
+			if (geolocation.getCsvFile() != null) {
+				File csvFile = new File(geolocation.getCsvFile());
+				if (csvFile.isFile() && (!databaseFile.isFile() || csvFile.lastModified() > databaseFile.lastModified())) {
+					LOGGER.info("Importing the geolocation data set {}.", csvFile);
+					try {
+						GeoIpDatabase.importCsv(csvFile.getPath(), databaseFile.getPath());
+					} catch (IOException ex) {
+						LOGGER.error("Failed to import the geolocation data set {}.", csvFile, ex);
+					}
+				}
+			}
+			
+			try {
+				geoIpDatabase = new GeoIpDatabase(databaseFile.getPath());
+				if (geolocation.isHttpFallback()) {
+					GeoIp.setProviders(geoIpDatabase, new IpApiProvider());
+				} else {
+					GeoIp.setProviders(geoIpDatabase);
+				}
+			} catch (IOException ex) {
+				LOGGER.error("Failed to open the geolocation database {}, using the remote service only.", databaseFile, ex);
+			}
+		}
+		
 		if (configuration.getDatabase() != null) {
 			try {
 				db = new DatabaseConnector(configuration.getDatabase());
@@ -479,36 +824,45 @@ public class Main {
 		*/
 		//if (true) return;
 		
+		shard = args.length > 1 ? args[1] : configuration.getRuntime().getShard();
+		LOGGER.info("Administering games of the shard {}.", shard == null ? "(all)" : shard);
+		
+		if (configuration.getRuntime().isListenerProfiling()) {
+			listenerProfiler = new ListenerProfiler(configuration.getRuntime().getSlowListenerThreshold());
+		}
+		
+		supervisor = new GameSupervisor(configuration.getRuntime().getSupervisorInterval());
+		Set<String> slackChannels = new HashSet<>();
 		for (Game game : configuration.getGames()) {
-			LOGGER.info("Configuring OTTD Admin client to connect to {} on port {}.", game.getAddress(), game.getPort());
-			
-			OttdAdminClient admin = new OttdAdminClient(game.getAddress(), game.getPort(), game.getPassword());
-
-			admin.setDeliveryChatMessages(true);
-			admin.setUpdateClientInfos(true);
-			admin.setUpdateCompanyInfos(true);
-			//admin.setDeliveryCommandLogs(true); // TODO test
-			admin.setUpdateCompanyEconomyInfos(FrequencyLong.Quarterly);
-			admin.setUpdateCompanyStatistics(FrequencyLong.Quarterly);
-			admin.setUpdateDates(Frequency.Daily);
-			
-			ResetLock resetLock = new ResetLock();
-			Context context = new Context(configuration, game, resetLock, admin, slack, game.getSlackChannel(), game.getSlackAdminChannel(), googleTranslate, db);
-			admin.addChatListener(new ChatListener(context));
-			admin.addClientListener(new CustomClientListener(context));
-			admin.addCompanyListener(new CustomCompanyListener(context));
-			admin.addServerListener(new CustomServerListener(context));
-
-			LOGGER.debug("Starting the OTTD Admin client address {} port {}.", game.getAddress(), game.getPort());
-			admin.start();
+			if (!game.isInShard(shard)) {
+				LOGGER.debug("Skipping the game {}:{} of the shard {}.", game.getAddress(), game.getPort(), game.getShard());
+				continue;
+			}
 			
-			ottdAdminClients.add(admin);
+			if (game.getSlackChannel() != null && !slackChannels.add(game.getSlackChannel())) {
+				LOGGER.warn("More than one game is using the same Slack channel {}. Undefined behavior.", game.getSlackChannel());
+				System.err.println("More than one game is using the same Slack channel " + game.getSlackChannel() + ". Undefined behavior.");
+			}
 			
-			if (game.getSlackChannel() != null) {
-				if (slackToContext.put(game.getSlackChannel(), context) != null) {
-					LOGGER.warn("More than one game is using the same Slack channel {}. Undefined behavior.", game.getSlackChannel());
-					System.err.println("More than one game is using the same Slack channel " + game.getSlackChannel() + ". Undefined behavior.");
-				}
+			supervisor.add(createRuntime(configuration, game));
+		}
+		
+		if (configuration.getRuntime().isConfigWatch()) {
+			try {
+				configurationWatcher = new ConfigurationWatcher(cfgPath, Main::validateConfiguration, Main::applyConfiguration);
+			} catch (IOException ex) {
+				LOGGER.error("Failed to watch the configuration file {}, changes need a restart.", cfgPath, ex);
+			}
+		}
+		
+		registerMetrics();
+		if (configuration.getMetrics().getPort() > 0) {
+			try {
+				metricsEndpoint = new MetricsEndpoint(configuration.getMetrics().getAddress(), configuration.getMetrics().getPort(),
+						MetricsRegistry.getDefault());
+			} catch (IOException ex) {
+				LOGGER.error("Failed to start the metrics endpoint on {}:{}.", configuration.getMetrics().getAddress(),
+						configuration.getMetrics().getPort(), ex);
 			}
 		}
 		
@@ -524,12 +878,23 @@ public class Main {
 		} while (!command.equals("q") && !command.equals("quit") && !command.equals("exit"));
 
 		LOGGER.info("Closing the basic tool.");
-		for (OttdAdminClient admin : ottdAdminClients) {
-			try {
-					admin.close();
-			} catch (IOException e) {
-				LOGGER.warn("Failed to close the OTTD Admin client.", e);
-			}
+		if (metricsEndpoint != null) {
+			metricsEndpoint.close();
+		}
+		
+		if (configurationWatcher != null) {
+			configurationWatcher.close();
+		}
+		
+		// stops the games, their pending digests get posted before the outbox is closed
+		supervisor.close();
+		
+		if (listenerProfiler != null) {
+			listenerProfiler.close();
+		}
+		
+		if (slackOutbox != null) {
+			slackOutbox.close();
 		}
 		
 		if (db != null) {
@@ -539,5 +904,21 @@ public class Main {
 				LOGGER.warn("Failed to close the database connection.", e);
 			}
 		}
+		
+		if (geoIpCache != null) {
+			try {
+				geoIpCache.close();
+			} catch (IOException e) {
+				LOGGER.warn("Failed to close the geo ip cache.", e);
+			}
+		}
+		
+		if (geoIpDatabase != null) {
+			try {
+				geoIpDatabase.close();
+			} catch (IOException e) {
+				LOGGER.warn("Failed to close the geolocation database.", e);
+			}
+		}
 	}
 }
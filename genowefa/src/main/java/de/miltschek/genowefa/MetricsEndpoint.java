@@ -0,0 +1,117 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.miltschek.openttdadmin.metrics.MetricsRegistry;
+
+/**
+ * Serves the metrics in the Prometheus text format over HTTP at /metrics.
+ * Uses the HTTP server of the JDK, no further dependencies.
+ */
+public class MetricsEndpoint implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MetricsEndpoint.class);
+	
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	
+	private final MetricsRegistry registry;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	
+	/**
+	 * Starts serving the metrics.
+	 * @param address local address to bind to
+	 * @param port port number to listen on
+	 * @param registry metrics to be served
+	 * @throws IOException if the port cannot be bound
+	 */
+	public MetricsEndpoint(String address, int port, MetricsRegistry registry) throws IOException {
+		this.registry = registry;
+		this.server = HttpServer.create(new InetSocketAddress(address, port), 0);
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "metrics-endpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		this.server.createContext("/metrics", this::handle);
+		this.server.setExecutor(this.executor);
+		this.server.start();
+		
+		LOGGER.info("Serving metrics on http://{}:{}/metrics.", address, port);
+	}
+	
+	/**
+	 * Handles a scrape request.
+	 * @param exchange HTTP request and response
+	 * @throws IOException if the response cannot be sent
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			
+			byte[] body = this.registry.scrape().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(200, -1);
+			} else {
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		} catch (RuntimeException ex) {
+			LOGGER.error("Failed to serve the metrics.", ex);
+			exchange.sendResponseHeaders(500, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Stops serving the metrics.
+	 */
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+}
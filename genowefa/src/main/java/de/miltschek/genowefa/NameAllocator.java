@@ -0,0 +1,167 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Allocator of player names from a fixed names table.
+ * Keeps track of names in use by all clients (allocated or chosen by the players themselves)
+ * and of the free entries of the table, so that allocating and releasing a name
+ * does not require scanning the clients.
+ */
+public class NameAllocator {
+	private final String[] names;
+	private final Map<String, Integer> indexes;
+	/** Entries of the names table currently in use. */
+	private final BitSet used;
+	/** Names in use mapped to the owning client. */
+	private final Map<String, Integer> inUse = new HashMap<>();
+	/** Clients mapped to their current names. */
+	private final Map<Integer, String> clients = new HashMap<>();
+	
+	/**
+	 * Creates the allocator.
+	 * @param names names table, duplicates are ignored
+	 */
+	public NameAllocator(String[] names) {
+		this.names = names;
+		this.indexes = new HashMap<>(names.length * 2);
+		this.used = new BitSet(names.length);
+		
+		for (int n = 0; n < names.length; n++) {
+			if (this.indexes.putIfAbsent(names[n], n) != null) {
+				// a duplicate can never be allocated
+				this.used.set(n);
+			}
+		}
+	}
+	
+	/**
+	 * Allocates a free name of the table to the client.
+	 * @param clientId client's ID
+	 * @param hash preferred position in the table, e.g. a hash of client's address
+	 * @return allocated name or null if all names are in use
+	 */
+	public synchronized String allocate(int clientId, int hash) {
+		if (this.names.length == 0) {
+			return null;
+		}
+		
+		int start = (hash & 0x7fffffff) % this.names.length;
+		int index = this.used.nextClearBit(start);
+		if (index >= this.names.length) {
+			index = this.used.nextClearBit(0);
+			if (index >= start) {
+				return null;
+			}
+		}
+		
+		String name = this.names[index];
+		update(clientId, name);
+		return name;
+	}
+	
+	/**
+	 * Records the current name of the client, releasing the previous one.
+	 * @param clientId client's ID
+	 * @param name client's current name, may be null
+	 */
+	public synchronized void update(int clientId, String name) {
+		String previous = name == null ? this.clients.remove(clientId) : this.clients.put(clientId, name);
+		if (previous != null && !previous.equals(name)) {
+			free(clientId, previous);
+		}
+		
+		if (name != null) {
+			this.inUse.put(name, clientId);
+			Integer index = this.indexes.get(name);
+			if (index != null) {
+				this.used.set(index);
+			}
+		}
+	}
+	
+	/**
+	 * Releases the name of the client.
+	 * @param clientId client's ID
+	 */
+	public synchronized void release(int clientId) {
+		String name = this.clients.remove(clientId);
+		if (name != null) {
+			free(clientId, name);
+		}
+	}
+	
+	/**
+	 * Releases all names.
+	 */
+	public synchronized void clear() {
+		this.clients.clear();
+		this.inUse.clear();
+		this.used.clear();
+		for (int n = 0; n < this.names.length; n++) {
+			if (this.indexes.get(this.names[n]) != n) {
+				this.used.set(n);
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether the name is in use by any client.
+	 * @param name name to check
+	 * @return true if in use, false otherwise
+	 */
+	public synchronized boolean isInUse(String name) {
+		return this.inUse.containsKey(name);
+	}
+	
+	/**
+	 * Gets the number of names in use.
+	 * @return number of names in use
+	 */
+	public synchronized int getInUse() {
+		return this.inUse.size();
+	}
+	
+	/**
+	 * Gets the number of free names of the table.
+	 * @return number of free names
+	 */
+	public synchronized int getFree() {
+		return this.names.length - this.used.cardinality();
+	}
+	
+	private void free(int clientId, String name) {
+		// another client may have taken over the name in the meantime
+		if (this.inUse.remove(name, clientId)) {
+			Integer index = this.indexes.get(name);
+			if (index != null) {
+				this.used.clear(index);
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Token buckets keyed by primitive long values, for example a client ID combined with a command index.
+ * Each bucket is stored as a single theoretical arrival time (generic cell rate algorithm) in an
+ * open-addressing hash table, so that checking a key does not allocate.
+ * A bucket that has refilled completely is equivalent to a missing one and gets purged when the table grows.
+ */
+public class RateLimiter {
+	/** The request is allowed. */
+	public static final int ALLOWED = 0;
+	/** The request is denied, first time since the last allowed one. */
+	public static final int DENIED = 1;
+	/** The request is denied, again. */
+	public static final int DENIED_AGAIN = 2;
+	
+	private static final long EMPTY = Long.MIN_VALUE;
+	
+	private long[] keys;
+	private long[] arrivals;
+	private boolean[] denied;
+	private int size;
+	
+	/**
+	 * Creates an empty set of buckets.
+	 * @param initialCapacity expected number of active buckets
+	 */
+	public RateLimiter(int initialCapacity) {
+		int capacity = 16;
+		while (capacity < initialCapacity * 2) {
+			capacity <<= 1;
+		}
+		
+		allocate(capacity);
+	}
+	
+	private void allocate(int capacity) {
+		this.keys = new long[capacity];
+		this.arrivals = new long[capacity];
+		this.denied = new boolean[capacity];
+		this.size = 0;
+		Arrays.fill(this.keys, EMPTY);
+	}
+	
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		int mask = this.keys.length - 1;
+		int index = (int)(h ^ (h >>> 32)) & mask;
+		
+		while (this.keys[index] != EMPTY && this.keys[index] != key) {
+			index = (index + 1) & mask;
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * Takes a token out of a bucket.
+	 * @param key bucket key, any value except {@link Long#MIN_VALUE}
+	 * @param interval time in nanoseconds needed to refill one token
+	 * @param burst capacity of the bucket (tokens available after a long pause)
+	 * @param now current time in nanoseconds ({@link System#nanoTime()})
+	 * @return {@link #ALLOWED}, {@link #DENIED} or {@link #DENIED_AGAIN}
+	 */
+	public int acquire(long key, long interval, int burst, long now) {
+		return acquire(key, interval, burst, 1, now);
+	}
+	
+	/**
+	 * Takes several tokens out of a bucket at once, either all of them or none.
+	 * More tokens than the capacity of the bucket are only given out of a full bucket,
+	 * the missing ones are refilled before the next request is allowed.
+	 * @param key bucket key, any value except {@link Long#MIN_VALUE}
+	 * @param interval time in nanoseconds needed to refill one token
+	 * @param burst capacity of the bucket (tokens available after a long pause)
+	 * @param tokens number of tokens to be taken, at least 1
+	 * @param now current time in nanoseconds ({@link System#nanoTime()})
+	 * @return {@link #ALLOWED}, {@link #DENIED} or {@link #DENIED_AGAIN}
+	 */
+	public synchronized int acquire(long key, long interval, int burst, int tokens, long now) {
+		int index = slot(key);
+		long arrival;
+		
+		if (this.keys[index] == EMPTY) {
+			if ((this.size + 1) * 2 > this.keys.length) {
+				rebuild(now, null);
+				index = slot(key);
+			}
+			
+			this.keys[index] = key;
+			this.denied[index] = false;
+			this.size++;
+			arrival = now;
+		} else {
+			arrival = Math.max(this.arrivals[index], now);
+		}
+		
+		int capacity = Math.max(1, burst);
+		if (arrival - now > interval * (capacity - Math.min(Math.max(1, tokens), capacity))) {
+			this.arrivals[index] = arrival;
+			if (this.denied[index]) {
+				return DENIED_AGAIN;
+			}
+			
+			this.denied[index] = true;
+			return DENIED;
+		}
+		
+		this.arrivals[index] = arrival + interval * Math.max(1, tokens);
+		this.denied[index] = false;
+		return ALLOWED;
+	}
+	
+	/**
+	 * Removes all buckets matching a condition, for example all buckets of a client that left.
+	 * @param filter condition on the key
+	 */
+	public synchronized void removeIf(LongPredicate filter) {
+		rebuild(System.nanoTime(), filter);
+	}
+	
+	/**
+	 * Re-hashes all live buckets, dropping refilled and filtered ones, and grows the table if still too full.
+	 * @param now current time in nanoseconds
+	 * @param filter condition of keys to be removed or null
+	 */
+	private void rebuild(long now, LongPredicate filter) {
+		long[] oldKeys = this.keys;
+		long[] oldArrivals = this.arrivals;
+		boolean[] oldDenied = this.denied;
+		
+		int live = 0;
+		for (int n = 0; n < oldKeys.length; n++) {
+			if (oldKeys[n] != EMPTY && oldArrivals[n] > now && (filter == null || !filter.test(oldKeys[n]))) {
+				live++;
+			}
+		}
+		
+		int capacity = oldKeys.length;
+		while ((live + 1) * 2 > capacity) {
+			capacity <<= 1;
+		}
+		
+		allocate(capacity);
+		for (int n = 0; n < oldKeys.length; n++) {
+			if (oldKeys[n] != EMPTY && oldArrivals[n] > now && (filter == null || !filter.test(oldKeys[n]))) {
+				int index = slot(oldKeys[n]);
+				this.keys[index] = oldKeys[n];
+				this.arrivals[index] = oldArrivals[n];
+				this.denied[index] = oldDenied[n];
+				this.size++;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of buckets currently stored.
+	 * @return number of buckets
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+}
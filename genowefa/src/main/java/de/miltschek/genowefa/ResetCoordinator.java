@@ -0,0 +1,301 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.miltschek.genowefa.Context.EventType;
+import de.miltschek.openttdadmin.data.CompanyInfo;
+
+/**
+ * Coordinates company resets of one game.
+ * The clients of the company are taken from the in-memory client index and kicked at once,
+ * the company is reset as soon as the last of them has quit. Resets of different companies
+ * run independently of each other.
+ */
+public class ResetCoordinator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ResetCoordinator.class);
+	
+	/** Default time in milliseconds for all the clients to quit. */
+	public static final long DEFAULT_TIMEOUT = 10000;
+	
+	private static ScheduledThreadPoolExecutor timer;
+	
+	/**
+	 * Result of a reset request.
+	 */
+	public enum Result {
+		/** Reset started, the company will be reset once its clients quit. */
+		Started,
+		/** Company has been reset immediately, no clients were playing it. */
+		Reset,
+		/** Another reset of the same company is still in progress. */
+		Busy,
+		/** The requesting client does not play any company. */
+		NoCompany
+	}
+	
+	/**
+	 * A reset in progress.
+	 */
+	private static class Reset {
+		private final byte companyId;
+		private final int requestedBy;
+		private final Set<Integer> pending = new HashSet<>();
+		private ScheduledFuture<?> timeout;
+		private boolean done;
+		
+		private Reset(byte companyId, int requestedBy) {
+			this.companyId = companyId;
+			this.requestedBy = requestedBy;
+		}
+	}
+	
+	private final Context context;
+	private final long timeout;
+	private final ConcurrentHashMap<Byte, Reset> resets = new ConcurrentHashMap<>();
+	
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	
+	/**
+	 * Creates the coordinator.
+	 * @param context context of the game
+	 * @param timeout time in milliseconds for all the clients to quit
+	 */
+	public ResetCoordinator(Context context, long timeout) {
+		this.context = context;
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Gets the shared timer of the timeouts, creates it if needed.
+	 * @return the timer
+	 */
+	private static synchronized ScheduledThreadPoolExecutor getTimer() {
+		if (timer == null) {
+			timer = new ScheduledThreadPoolExecutor(1, r -> {
+				Thread thread = new Thread(r, "company-reset");
+				thread.setDaemon(true);
+				return thread;
+			});
+			timer.setRemoveOnCancelPolicy(true);
+		}
+		
+		return timer;
+	}
+	
+	/**
+	 * Gets a value indicating whether the given ID is a company that can be reset.
+	 * @param playAs company ID
+	 * @return true if a regular company, false otherwise
+	 */
+	private static boolean isCompany(byte playAs) {
+		return !(playAs == CompanyInfo.DEITY
+				|| playAs == CompanyInfo.INACTIVE_CLIENT
+				|| playAs == CompanyInfo.NEW_COMPANY
+				|| playAs == CompanyInfo.NONE
+				|| playAs == CompanyInfo.SPECTATOR
+				|| playAs == CompanyInfo.TOWN
+				|| playAs == CompanyInfo.WATER);
+	}
+	
+	/**
+	 * Starts a reset of the company played by the given client.
+	 * All clients playing the company are kicked, the company is reset after they have quit.
+	 * @param clientId ID of the client requesting the reset
+	 * @param reason reason shown to the kicked clients
+	 * @return result of the request
+	 */
+	public Result start(int clientId, String reason) {
+		ClientData requester = this.context.getClient(clientId);
+		if (requester == null || !isCompany(requester.getPlaysAs())) {
+			return Result.NoCompany;
+		}
+		
+		byte companyId = requester.getPlaysAs();
+		Reset reset = new Reset(companyId, clientId);
+		if (this.resets.putIfAbsent(companyId, reset) != null) {
+			return Result.Busy;
+		}
+		
+		synchronized (reset) {
+			for (ClientData client : this.context.getClients()) {
+				if (client.getPlaysAs() == companyId) {
+					reset.pending.add(client.getClientId());
+				}
+			}
+			
+			if (!reset.pending.isEmpty()) {
+				reset.timeout = getTimer().schedule(() -> expire(reset), this.timeout, TimeUnit.MILLISECONDS);
+				
+				LOGGER.info("Resetting the company {}, kicking clients {}.", companyId, reset.pending);
+				for (Integer pendingId : reset.pending) {
+					this.context.kickClient(pendingId, reason);
+				}
+				
+				return Result.Started;
+			}
+		}
+		
+		complete(reset);
+		return Result.Reset;
+	}
+	
+	/**
+	 * Confirms that a client has quit the game.
+	 * @param clientId client ID
+	 */
+	public void clientQuit(int clientId) {
+		if (this.resets.isEmpty()) {
+			return;
+		}
+		
+		for (Reset reset : this.resets.values()) {
+			boolean last;
+			synchronized (reset) {
+				last = reset.pending.remove(clientId) && reset.pending.isEmpty() && !reset.done;
+			}
+			
+			if (last) {
+				complete(reset);
+			}
+		}
+	}
+	
+	/**
+	 * Checks a client that joined or changed a company while the company is being reset.
+	 * Such a client gets kicked as well.
+	 * @param clientId client ID
+	 * @param playAs client's company ID
+	 * @param reason reason shown to the kicked client
+	 * @return true if the client is being kicked, false otherwise
+	 */
+	public boolean clientUpdated(int clientId, byte playAs, String reason) {
+		if (this.resets.isEmpty()) {
+			return false;
+		}
+		
+		Reset reset = this.resets.get(playAs);
+		if (reset == null) {
+			return false;
+		}
+		
+		synchronized (reset) {
+			if (reset.done) {
+				return false;
+			} else if (!reset.pending.add(clientId)) {
+				// already kicked
+				return true;
+			}
+		}
+		
+		LOGGER.info("Client {} joined the company {} being reset, kicking.", clientId, playAs);
+		this.context.kickClient(clientId, reason);
+		return true;
+	}
+	
+	/**
+	 * Resets the company once all its clients have quit.
+	 * @param reset reset to be completed
+	 */
+	private void complete(Reset reset) {
+		synchronized (reset) {
+			if (reset.done) {
+				return;
+			}
+			
+			reset.done = true;
+			if (reset.timeout != null) {
+				reset.timeout.cancel(false);
+			}
+		}
+		
+		this.resets.remove(reset.companyId, reset);
+		this.completed.incrementAndGet();
+		
+		LOGGER.info("Resetting the company {} requested by {}.", reset.companyId, reset.requestedBy);
+		this.context.resetCompany(reset.companyId);
+		this.context.notifyAdmin(
+				EventType.Company,
+				":recycle: company " + (reset.companyId + 1) + " reset as requested by " + reset.requestedBy);
+	}
+	
+	/**
+	 * Gives up a reset whose clients did not quit in time.
+	 * @param reset reset to be given up
+	 */
+	private void expire(Reset reset) {
+		Set<Integer> remaining;
+		synchronized (reset) {
+			if (reset.done) {
+				return;
+			}
+			
+			reset.done = true;
+			remaining = new HashSet<>(reset.pending);
+		}
+		
+		this.resets.remove(reset.companyId, reset);
+		this.timedOut.incrementAndGet();
+		
+		LOGGER.warn("Reset of the company {} timed out, clients {} did not quit.", reset.companyId, remaining);
+		this.context.notifyAdmin(
+				EventType.Company,
+				":warning: reset of the company " + (reset.companyId + 1) + " timed out, clients " + remaining + " did not quit");
+	}
+	
+	/**
+	 * Gets the number of resets in progress.
+	 * @return number of resets in progress
+	 */
+	public int getActive() {
+		return this.resets.size();
+	}
+	
+	/**
+	 * Gets the number of companies reset so far.
+	 * @return number of completed resets
+	 */
+	public long getCompleted() {
+		return this.completed.get();
+	}
+	
+	/**
+	 * Gets the number of resets given up so far.
+	 * @return number of timed-out resets
+	 */
+	public long getTimedOut() {
+		return this.timedOut.get();
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.miltschek.genowefa.Context.EventType;
+import de.miltschek.integrations.SlackOutbox;
+
+/**
+ * Aggregates admin notifications of one game and posts them as a single summary per event type.
+ * The first notification of a type opens a window; when the window elapses, all notifications
+ * of this type collected in the meantime are posted as one message. Repeated identical notifications
+ * are counted instead of being repeated.
+ * Open windows are posted when the digest gets closed.
+ */
+public class SlackDigest implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SlackDigest.class);
+	
+	/** Maximum number of distinct lines of a summary, further ones are only counted. */
+	private static final int MAX_LINES = 50;
+	
+	private static ScheduledThreadPoolExecutor timer;
+	
+	/**
+	 * Notifications of one type collected within the current window.
+	 */
+	private static class Batch {
+		private final LinkedHashMap<String, Integer> lines = new LinkedHashMap<>();
+		private final long openedTs = System.currentTimeMillis();
+		private int events;
+		private int omitted;
+		private ScheduledFuture<?> flush;
+	}
+	
+	private final SlackOutbox outbox;
+	private volatile String channel;
+	private volatile Configuration.Slack config;
+	private final Map<EventType, Batch> batches = new EnumMap<>(EventType.class);
+	private boolean closed;
+	
+	private long digestedEvents;
+	private long summaries;
+	
+	/**
+	 * Creates a digest.
+	 * @param outbox outbox the summaries are posted to
+	 * @param channel Slack channel of the game
+	 * @param config Slack settings holding the windows per event type
+	 */
+	public SlackDigest(SlackOutbox outbox, String channel, Configuration.Slack config) {
+		this.outbox = outbox;
+		this.channel = channel;
+		this.config = config;
+	}
+	
+	/**
+	 * Applies new settings, collected notifications are posted to the new channel.
+	 * @param channel Slack channel of the game
+	 * @param config Slack settings holding the windows per event type
+	 */
+	public void reconfigure(String channel, Configuration.Slack config) {
+		this.channel = channel;
+		this.config = config;
+	}
+	
+	/**
+	 * Gets the shared timer closing the windows, creates it if needed.
+	 * @return the timer
+	 */
+	private static synchronized ScheduledThreadPoolExecutor getTimer() {
+		if (timer == null) {
+			timer = new ScheduledThreadPoolExecutor(1, r -> {
+				Thread thread = new Thread(r, "slack-digest");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+		return timer;
+	}
+	
+	/**
+	 * Gets a value indicating whether notifications of the given type are aggregated.
+	 * @param eventType event type
+	 * @return true if aggregated, false if to be sent immediately
+	 */
+	public boolean isDigested(EventType eventType) {
+		return config.getDigestWindow(eventType) > 0;
+	}
+	
+	/**
+	 * Adds a notification to the summary of its type.
+	 * @param eventType event type, must be an aggregated one
+	 * @param message notification text
+	 * @return true if collected or posted, false if the game has no Slack channel or the outbox rejected the notification
+	 */
+	public boolean add(EventType eventType, String message) {
+		synchronized (this) {
+			if (channel == null) {
+				return false;
+			}
+			
+			if (closed) {
+				return outbox.offer(channel, message, false);
+			}
+			
+			Batch batch = batches.get(eventType);
+			if (batch == null) {
+				batch = new Batch();
+				batches.put(eventType, batch);
+				batch.flush = getTimer().schedule(() -> flush(eventType), config.getDigestWindow(eventType), TimeUnit.MILLISECONDS);
+			}
+			
+			batch.events++;
+			digestedEvents++;
+			
+			Integer count = batch.lines.get(message);
+			if (count != null) {
+				batch.lines.put(message, count + 1);
+			} else if (batch.lines.size() < MAX_LINES) {
+				batch.lines.put(message, 1);
+			} else {
+				batch.omitted++;
+			}
+			
+			return true;
+		}
+	}
+	
+	/**
+	 * Posts the summary of the given type and closes its window.
+	 * @param eventType event type
+	 */
+	private void flush(EventType eventType) {
+		Batch batch;
+		synchronized (this) {
+			batch = batches.remove(eventType);
+			if (batch == null) {
+				return;
+			}
+			
+			summaries++;
+		}
+		
+		post(eventType, batch);
+	}
+	
+	/**
+	 * Posts the summary of a batch.
+	 * @param eventType event type
+	 * @param batch notifications collected within the window
+	 */
+	private void post(EventType eventType, Batch batch) {
+		String channel = this.channel;
+		if (channel == null) {
+			LOGGER.warn("Dropping a digest of {} {} events, the game has no Slack channel anymore.", batch.events, eventType);
+			return;
+		}
+		
+		if (batch.events == 1) {
+			// nothing to summarize
+			outbox.offer(channel, batch.lines.keySet().iterator().next(), false);
+			return;
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(":clipboard: ").append(batch.events).append(' ').append(eventType.name().toLowerCase())
+			.append(" events in the last ").append((System.currentTimeMillis() - batch.openedTs + 500) / 1000).append(" s");
+		
+		for (Map.Entry<String, Integer> line : batch.lines.entrySet()) {
+			sb.append("\n").append(line.getKey());
+			if (line.getValue() > 1) {
+				sb.append(" (x").append(line.getValue()).append(')');
+			}
+		}
+		
+		if (batch.omitted > 0) {
+			sb.append("\n... and ").append(batch.omitted).append(" more");
+		}
+		
+		if (!outbox.offer(channel, sb.toString(), false)) {
+			LOGGER.warn("Failed to post a digest of {} {} events.", batch.events, eventType);
+		}
+	}
+	
+	/**
+	 * Posts all open windows immediately; notifications added afterwards are not aggregated anymore.
+	 * Must be called before the outbox gets closed.
+	 */
+	@Override
+	public void close() {
+		List<EventType> eventTypes;
+		List<Batch> open;
+		synchronized (this) {
+			closed = true;
+			eventTypes = new ArrayList<>(batches.keySet());
+			open = new ArrayList<>(batches.values());
+			batches.clear();
+			summaries += open.size();
+		}
+		
+		for (int n = 0; n < open.size(); n++) {
+			open.get(n).flush.cancel(false);
+			post(eventTypes.get(n), open.get(n));
+		}
+	}
+	
+	/**
+	 * Gets the number of notifications aggregated so far.
+	 * @return number of aggregated notifications
+	 */
+	public synchronized long getDigestedEvents() {
+		return digestedEvents;
+	}
+	
+	/**
+	 * Gets the number of summaries posted so far.
+	 * @return number of summaries
+	 */
+	public synchronized long getSummaries() {
+		return summaries;
+	}
+}
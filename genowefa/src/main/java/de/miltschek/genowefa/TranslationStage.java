@@ -0,0 +1,356 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.miltschek.genowefa.Context.EventType;
+import de.miltschek.openttdadmin.data.ChatMessage;
+
+/**
+ * Translates chat messages of one game off the thread reading from the game server.
+ * Translations are requested in parallel on a bounded executor but delivered in the order
+ * of the chat messages by the event thread of the game, so that each client gets its translations in order.
+ * No thread waits for a translation; translations not ready within the deadline are dropped,
+ * the admin notification is sent anyway.
+ */
+public class TranslationStage {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TranslationStage.class);
+	
+	/** Upper bounds of the latency histogram buckets in milliseconds, the last bucket is unbounded. */
+	private static final long[] LATENCY_BUCKETS = new long[] { 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+	
+	/**
+	 * Translations prepared for one chat message.
+	 */
+	private static class Outcome {
+		private Statement translation;
+		private final List<ClientData> recipients = new ArrayList<>();
+		private final List<Statement> statements = new ArrayList<>();
+		private volatile boolean expired;
+	}
+	
+	private final Context context;
+	private final ThreadPoolExecutor executor;
+	private final long deadline;
+	private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+	
+	private long delivered;
+	private long expired;
+	private long rejected;
+	private long latencySum;
+	private long latencyMax;
+	private final long[] latencyHistogram = new long[LATENCY_BUCKETS.length + 1];
+	
+	/**
+	 * Creates the stage.
+	 * @param context context of the game
+	 * @param threads number of threads preparing translations
+	 * @param queueSize maximum number of chat messages waiting for a thread, further ones are not translated
+	 * @param deadline time in milliseconds after which a translation is not delivered anymore
+	 */
+	public TranslationStage(Context context, int threads, int queueSize, int deadline) {
+		this.context = context;
+		this.deadline = TimeUnit.MILLISECONDS.toNanos(deadline);
+		this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads),
+				60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+				r -> {
+					Thread thread = new Thread(r, "translate-" + context.getAddress() + ":" + context.getPort());
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Submits a chat message to be translated and reported.
+	 * Never blocks; if the stage is overloaded, the message is reported to the admin without a translation.
+	 * @param t chat message
+	 * @param senderId description of the sender
+	 */
+	public void submit(ChatMessage t, String senderId) {
+		long receivedTs = System.nanoTime();
+		long deadlineTs = receivedTs + this.deadline;
+		
+		synchronized (this) {
+			CompletableFuture<Outcome> work;
+			try {
+				work = CompletableFuture.supplyAsync(() -> prepare(t, deadlineTs), this.executor)
+						.thenCompose(outcome -> outcome);
+			} catch (RejectedExecutionException ex) {
+				rejected++;
+				LOGGER.warn("Translation stage overloaded, skipping the translation of a message of {}.", senderId);
+				notifyAdmin(t, senderId, null);
+				return;
+			}
+			
+			// chained to the previous message to keep the order of deliveries
+			this.tail = this.tail.thenCombine(work, (previous, outcome) -> outcome)
+					.thenAcceptAsync(outcome -> deliver(t, senderId, outcome, receivedTs, deadlineTs), this.context.getEventExecutor())
+					.exceptionally(ex -> {
+						LOGGER.error("Failed to translate a message of {}.", senderId, ex);
+						return null;
+					});
+		}
+	}
+	
+	/**
+	 * Requests all translations of a chat message, starts on the stage's executor.
+	 * @param t chat message
+	 * @param deadlineTs deadline as of {@link System#nanoTime()}
+	 * @return future completed with the prepared translations, at the latest at the deadline
+	 */
+	private CompletableFuture<Outcome> prepare(ChatMessage t, long deadlineTs) {
+		Outcome outcome = new Outcome();
+		return withDeadline(this.context.translateAsync(new Statement(t.getMessage())), deadlineTs, outcome)
+				.thenCompose(translation -> prepareRecipients(t, translation, deadlineTs, outcome));
+	}
+	
+	/**
+	 * Requests the translations of a chat message for all other clients, once the source language is known.
+	 * @param t chat message
+	 * @param translation translation to English or null if failed or expired
+	 * @param deadlineTs deadline as of {@link System#nanoTime()}
+	 * @param outcome outcome to be filled in
+	 * @return future completed with the prepared translations, at the latest at the deadline
+	 */
+	private CompletableFuture<Outcome> prepareRecipients(ChatMessage t, Statement translation, long deadlineTs, Outcome outcome) {
+		outcome.translation = translation;
+		
+		// only public chats are to be translated to others
+		if (!t.isPublic() || translation == null) {
+			return CompletableFuture.completedFuture(outcome);
+		}
+		
+		// request all target languages at once, so that they are sent together
+		HashMap<String, CompletableFuture<Statement>> translations = new HashMap<>();
+		translations.put(translation.getTargetLanguage(), CompletableFuture.completedFuture(translation));
+		
+		for (ClientData user : this.context.getClients()) {
+			// skip disconnected users
+			if (user.getLeftTs() > 0) {
+				continue;
+			}
+			
+			// skip translations to the sender
+			if (user.getClientId() == t.getSenderId()) {
+				continue;
+			}
+			
+			// only for users that requested a translation...
+			String target;
+			if ((target = user.getTranslationLanguage()) != null) {
+				
+				// only if the statement is not already in the target language...
+				if (!target.equals(translation.getSourceLanguage())) {
+					translations.computeIfAbsent(target, language -> withDeadline(
+							this.context.translateAsync(new Statement(null, language, t.getMessage())), deadlineTs, outcome));
+					outcome.recipients.add(user);
+				}
+			}
+		}
+		
+		List<CompletableFuture<Statement>> pending = new ArrayList<>(outcome.recipients.size());
+		for (ClientData user : outcome.recipients) {
+			pending.add(translations.get(user.getTranslationLanguage()));
+		}
+		
+		return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+			for (CompletableFuture<Statement> statement : pending) {
+				outcome.statements.add(statement.join());
+			}
+			
+			return outcome;
+		});
+	}
+	
+	/**
+	 * Limits a pending translation to the deadline without blocking any thread.
+	 * @param future pending translation, owned by the caller
+	 * @param deadlineTs deadline as of {@link System#nanoTime()}
+	 * @param outcome outcome to be marked as expired if the deadline passes
+	 * @return future completed with the translation or with null if failed or expired, never completed exceptionally
+	 */
+	private static CompletableFuture<Statement> withDeadline(CompletableFuture<Statement> future, long deadlineTs, Outcome outcome) {
+		if (future == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		return future.orTimeout(Math.max(0, deadlineTs - System.nanoTime()), TimeUnit.NANOSECONDS)
+				.handle((statement, ex) -> {
+					if (ex == null) {
+						return statement;
+					}
+					
+					Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+					if (cause instanceof TimeoutException) {
+						outcome.expired = true;
+					} else {
+						LOGGER.error("Translation failed.", cause);
+					}
+					
+					return null;
+				});
+	}
+	
+	/**
+	 * Delivers prepared translations in the order of chat messages, runs on the event thread of the game.
+	 * @param t chat message
+	 * @param senderId description of the sender
+	 * @param outcome prepared translations
+	 * @param receivedTs time of receiving the chat message as of {@link System#nanoTime()}
+	 * @param deadlineTs deadline as of {@link System#nanoTime()}
+	 */
+	private void deliver(ChatMessage t, String senderId, Outcome outcome, long receivedTs, long deadlineTs) {
+		long now = System.nanoTime();
+		if (outcome.expired || now > deadlineTs) {
+			synchronized (this) {
+				expired++;
+			}
+			
+			LOGGER.warn("Dropping stale translations of the message {} of {}.", t.getMessage(), senderId);
+		} else {
+			for (int n = 0; n < outcome.recipients.size(); n++) {
+				Statement statement = outcome.statements.get(n);
+				if (statement == null || statement.getStatement() == null) {
+					LOGGER.warn("Failed to translate the message {} to {}.", t.getMessage(), outcome.recipients.get(n).getTranslationLanguage());
+				} else {
+					this.context.notifyUser(outcome.recipients.get(n).getClientId(), "[translation] " + statement.getStatement());
+				}
+			}
+			
+			recordLatency(TimeUnit.NANOSECONDS.toMillis(now - receivedTs));
+		}
+		
+		notifyAdmin(t, senderId, outcome.translation);
+	}
+	
+	private void notifyAdmin(ChatMessage t, String senderId, Statement translation) {
+		if (translation != null && translation.getStatement() != null && !"en".equals(translation.getSourceLanguage())) {
+			this.context.notifyAdmin(
+					EventType.Chat,
+					":pencil: " + senderId + " "
+					+ (t.isPrivate() ? ("(P->" + t.getRecipientId() + ") ") : (t.isCompany() ? ("(C->" + t.getRecipientId() + ") ") : ""))
+					+ t.getMessage() + "\r\n"
+					+ ":flags: " + translation.getStatement());
+		} else {
+			this.context.notifyAdmin(
+					EventType.Chat,
+					":pencil: " + senderId + " "
+					+ (t.isPrivate() ? ("(P->" + t.getRecipientId() + ") ") : (t.isCompany() ? ("(C->" + t.getRecipientId() + ") ") : ""))
+					+ t.getMessage());
+		}
+	}
+	
+	private synchronized void recordLatency(long millis) {
+		delivered++;
+		latencySum += millis;
+		latencyMax = Math.max(latencyMax, millis);
+		
+		int bucket = 0;
+		while (bucket < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[bucket]) {
+			bucket++;
+		}
+		
+		latencyHistogram[bucket]++;
+	}
+	
+	/**
+	 * Gets the number of chat messages whose translations have been delivered in time.
+	 * @return number of delivered messages
+	 */
+	public synchronized long getDelivered() {
+		return delivered;
+	}
+	
+	/**
+	 * Gets the number of chat messages whose translations have been dropped due to the deadline.
+	 * @return number of expired messages
+	 */
+	public synchronized long getExpired() {
+		return expired;
+	}
+	
+	/**
+	 * Gets the number of chat messages not translated due to an overloaded stage.
+	 * @return number of rejected messages
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+	
+	/**
+	 * Gets the average latency between receiving a chat message and delivering its translations.
+	 * @return average latency in milliseconds or 0 if nothing delivered yet
+	 */
+	public synchronized long getAverageLatency() {
+		return delivered == 0 ? 0 : latencySum / delivered;
+	}
+	
+	/**
+	 * Gets the maximum latency between receiving a chat message and delivering its translations.
+	 * @return maximum latency in milliseconds
+	 */
+	public synchronized long getMaxLatency() {
+		return latencyMax;
+	}
+	
+	/**
+	 * Gets an upper estimate of a latency percentile, as the upper bound of the histogram bucket containing it.
+	 * @param percentile percentile between 0 and 1, e.g. 0.95
+	 * @return latency in milliseconds or 0 if nothing delivered yet
+	 */
+	public synchronized long getLatencyPercentile(double percentile) {
+		long rank = (long)Math.ceil(delivered * percentile);
+		long count = 0;
+		for (int n = 0; n < latencyHistogram.length; n++) {
+			count += latencyHistogram[n];
+			if (count >= rank && count > 0) {
+				return n < LATENCY_BUCKETS.length ? LATENCY_BUCKETS[n] : latencyMax;
+			}
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * Stops accepting new chat messages; already submitted ones are still processed.
+	 */
+	public void shutdown() {
+		this.executor.shutdown();
+	}
+}
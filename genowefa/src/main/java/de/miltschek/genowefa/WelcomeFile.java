@@ -0,0 +1,98 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content of a welcome-message file, cached in memory.
+ * The file's modification time and size are checked at most once per check interval
+ * and the file is read again only if any of them changed.
+ */
+public class WelcomeFile {
+	private static final Logger LOGGER = LoggerFactory.getLogger(WelcomeFile.class);
+	
+	/** Minimum time in milliseconds between two checks of the file. */
+	private static final long CHECK_INTERVAL = 10000;
+	
+	private final File file;
+	private List<String> lines = Collections.emptyList();
+	private long lastModified = -1;
+	private long size = -1;
+	private long checkedTs;
+	
+	/**
+	 * Creates the cache, the file is read on the first access.
+	 * @param path path to the file, may be null
+	 */
+	public WelcomeFile(String path) {
+		this.file = path == null ? null : new File(path);
+	}
+	
+	/**
+	 * Gets the lines of the file.
+	 * @return lines of the file or an empty list if the file does not exist or cannot be read
+	 */
+	public synchronized List<String> getLines() {
+		if (this.file == null) {
+			return this.lines;
+		}
+		
+		long now = System.currentTimeMillis();
+		if (this.checkedTs != 0 && now - this.checkedTs < CHECK_INTERVAL) {
+			return this.lines;
+		}
+		
+		this.checkedTs = now;
+		long fileModified = this.file.lastModified();
+		long fileSize = this.file.length();
+		if (fileModified == this.lastModified && fileSize == this.size) {
+			return this.lines;
+		}
+		
+		if (fileModified == 0) {
+			// not existing (anymore)
+			this.lines = Collections.emptyList();
+		} else {
+			try {
+				this.lines = Collections.unmodifiableList(Files.readAllLines(this.file.toPath()));
+				LOGGER.debug("Welcome message file {} loaded, {} lines.", this.file, this.lines.size());
+			} catch (IOException ex) {
+				LOGGER.error("Failed to read the welcome message file {}.", this.file, ex);
+				this.lines = Collections.emptyList();
+			}
+		}
+		
+		this.lastModified = fileModified;
+		this.size = fileSize;
+		return this.lines;
+	}
+}
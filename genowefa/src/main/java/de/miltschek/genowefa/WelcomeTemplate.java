@@ -0,0 +1,141 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Welcome-message template parsed once into literal text segments and variables,
+ * so that rendering is plain appending without regular expressions.
+ * Supported variables are ${USERNAME}, ${COUNTRY} and ${CITY}.
+ */
+public class WelcomeTemplate {
+	private static final String[] VARIABLES = new String[] { "${USERNAME}", "${COUNTRY}", "${CITY}" };
+	private static final int USERNAME = 0;
+	private static final int COUNTRY = 1;
+	private static final int CITY = 2;
+	
+	private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+	
+	/** Literal texts, one more than variables: literal, variable, literal, ..., literal. */
+	private final String[] literals;
+	private final int[] variables;
+	private final int length;
+	
+	private WelcomeTemplate(String[] literals, int[] variables) {
+		this.literals = literals;
+		this.variables = variables;
+		
+		int total = 0;
+		for (String literal : literals) {
+			total += literal.length();
+		}
+		
+		this.length = total;
+	}
+	
+	/**
+	 * Parses a template.
+	 * @param text template text
+	 * @return parsed template
+	 */
+	public static WelcomeTemplate parse(String text) {
+		List<String> literals = new ArrayList<>();
+		List<Integer> variables = new ArrayList<>();
+		
+		int start = 0;
+		int pos = 0;
+		while ((pos = text.indexOf("${", pos)) >= 0) {
+			int variable = -1;
+			for (int n = 0; n < VARIABLES.length; n++) {
+				if (text.startsWith(VARIABLES[n], pos)) {
+					variable = n;
+					break;
+				}
+			}
+			
+			if (variable < 0) {
+				// unknown variables stay literal text
+				pos += 2;
+			} else {
+				literals.add(text.substring(start, pos));
+				variables.add(variable);
+				pos += VARIABLES[variable].length();
+				start = pos;
+			}
+		}
+		
+		literals.add(text.substring(start));
+		
+		int[] variableArray = new int[variables.size()];
+		for (int n = 0; n < variableArray.length; n++) {
+			variableArray[n] = variables.get(n);
+		}
+		
+		return new WelcomeTemplate(literals.toArray(new String[literals.size()]), variableArray);
+	}
+	
+	/**
+	 * Renders the template into a buffer.
+	 * @param sb buffer to append to
+	 * @param userName player's name
+	 * @param country player's country
+	 * @param city player's city
+	 */
+	public void render(StringBuilder sb, String userName, String country, String city) {
+		sb.ensureCapacity(sb.length() + this.length + 64);
+		sb.append(this.literals[0]);
+		
+		for (int n = 0; n < this.variables.length; n++) {
+			switch (this.variables[n]) {
+			case USERNAME:
+				sb.append(userName);
+				break;
+			case COUNTRY:
+				sb.append(country);
+				break;
+			case CITY:
+				sb.append(city);
+				break;
+			}
+			
+			sb.append(this.literals[n + 1]);
+		}
+	}
+	
+	/**
+	 * Renders the template using a buffer reused by the calling thread.
+	 * @param userName player's name
+	 * @param country player's country
+	 * @param city player's city
+	 * @return rendered message
+	 */
+	public String render(String userName, String country, String city) {
+		StringBuilder sb = BUFFER.get();
+		sb.setLength(0);
+		render(sb, userName, country, city);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.miltschek.openttdadmin.data.ChatMessage;
+import de.miltschek.openttdadmin.data.ChatMessage.Recipient;
+
+/**
+ * Tests of the matching and the rate limiting of chat commands.
+ */
+public class ChatCommandRouterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private final List<String> answers = new ArrayList<>();
+	private final List<String> executed = new ArrayList<>();
+	private ChatCommandRouter router;
+	
+	@Before
+	public void createRouter() throws IOException {
+		File file = folder.newFile("genowefa.json");
+		Files.write(file.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+		Configuration configuration = new Configuration(file.getPath());
+		
+		Context context = new Context(configuration, new Configuration.Game("test", "localhost", 3977, "secret"),
+				null, null, null, null, null, null, Runnable::run) {
+			@Override
+			public boolean notifyUser(int clientId, String message) {
+				answers.add(message);
+				return true;
+			}
+			
+			@Override
+			public void respondUser(int clientId, String message) {
+				answers.add(message);
+			}
+		};
+		
+		router = new ChatCommandRouter(context);
+		router.setRateLimitMessage("Slow down with ${COMMAND}.");
+		router.register("!admin", true, false, 0, 1, handler("admin"));
+		router.register("!reset", false, true, 0, 1, handler("reset"));
+		router.register("!res", false, false, 0, 1, handler("res"));
+		router.register("!top", false, true, 60000, 2, handler("top"));
+		router.register("!lang", true, false, 0, 1, handler("lang"));
+		router.register("!language", false, false, 0, 1, handler("language"));
+	}
+	
+	private ChatCommandRouter.Handler handler(String name) {
+		return (t, senderId, senderData) -> executed.add(name + ":" + t.getMessage());
+	}
+	
+	private boolean route(String line) {
+		return router.route(new ChatMessage(7, Recipient.All, 0, line), "player", null);
+	}
+	
+	@Test
+	public void plainChatIsNotACommand() {
+		assertFalse(route("hello !reset"));
+		assertFalse(route(""));
+		assertTrue(executed.isEmpty());
+	}
+	
+	@Test
+	public void exactCommandAcceptsTheWholeLineOnly() {
+		assertTrue(route("!reset"));
+		assertTrue(route("!reset foo"));
+		assertTrue(route("!resetx"));
+		
+		assertEquals(1, executed.size());
+		assertEquals("reset:!reset", executed.get(0));
+		assertEquals(2, router.getUnknown());
+		assertEquals("No such command. For help, enter !help", answers.get(0));
+	}
+	
+	@Test
+	public void wordCommandAcceptsArguments() {
+		assertTrue(route("!res now"));
+		
+		assertEquals("res:!res now", executed.get(0));
+	}
+	
+	@Test
+	public void prefixCommandAcceptsLongerWords() {
+		assertTrue(route("!admin help me"));
+		assertTrue(route("!admin: help me"));
+		
+		assertEquals("admin:!admin help me", executed.get(0));
+		assertEquals("admin:!admin: help me", executed.get(1));
+	}
+	
+	@Test
+	public void exactWordWinsOverPrefix() {
+		assertTrue(route("!language de"));
+		assertTrue(route("!lang de"));
+		assertTrue(route("!langx"));
+		
+		assertEquals("language:!language de", executed.get(0));
+		assertEquals("lang:!lang de", executed.get(1));
+		assertEquals("lang:!langx", executed.get(2));
+	}
+	
+	@Test
+	public void unknownCommandIsAnswered() {
+		assertTrue(route("!unknown"));
+		
+		assertTrue(executed.isEmpty());
+		assertEquals(1, router.getUnknown());
+		assertEquals(1, answers.size());
+	}
+	
+	@Test
+	public void unknownSlashLineIsPlainChat() {
+		assertFalse(route("/shrug"));
+		
+		assertEquals(0, router.getUnknown());
+		assertTrue(answers.isEmpty());
+	}
+	
+	@Test
+	public void floodOfCommandsIsDropped() {
+		assertTrue(route("!top"));
+		assertTrue(route("!top"));
+		assertTrue(route("!top"));
+		assertTrue(route("!top"));
+		
+		assertEquals(2, executed.size());
+		assertEquals(1, answers.size());
+		assertEquals("Slow down with !top.", answers.get(0));
+		
+		ChatCommandRouter.Stats stats = router.getStats().get(3);
+		assertEquals("!top", stats.getName());
+		assertEquals(2, stats.getCalls());
+		assertEquals(2, stats.getDropped());
+	}
+	
+	@Test
+	public void forgottenClientStartsWithAFullBurst() {
+		route("!top");
+		route("!top");
+		router.forget(7);
+		route("!top");
+		
+		assertEquals(3, executed.size());
+		assertTrue(answers.isEmpty());
+	}
+}
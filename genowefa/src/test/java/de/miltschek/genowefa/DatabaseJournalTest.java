@@ -0,0 +1,245 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the record format and the recovery of the database journal.
+ */
+public class DatabaseJournalTest {
+	private static final long MAX_SIZE = 64 * 1024 * 1024;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	private Path segment(Path directory) throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.log")) {
+			return stream.iterator().next();
+		}
+	}
+	
+	@Test
+	public void recordsAreReadBackInOrder() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			assertTrue(journal.isEmpty());
+			assertTrue(journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("first")));
+			assertTrue(journal.append((byte)2, 42, bytes("second")));
+			assertTrue(journal.append((byte)3, 7, new byte[0]));
+			assertFalse(journal.isEmpty());
+			
+			List<DatabaseJournal.Record> records = journal.read(10);
+			assertEquals(3, records.size());
+			assertEquals(1, records.get(0).getType());
+			assertEquals(DatabaseJournal.NO_KEY, records.get(0).getKey());
+			assertArrayEquals(bytes("first"), records.get(0).getPayload());
+			assertEquals(2, records.get(1).getType());
+			assertEquals(42, records.get(1).getKey());
+			assertArrayEquals(bytes("second"), records.get(1).getPayload());
+			assertEquals(0, records.get(2).getPayload().length);
+		}
+	}
+	
+	@Test
+	public void readDoesNotAdvanceWithoutCommit() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("a"));
+			journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("b"));
+			
+			assertEquals(2, journal.read(10).size());
+			assertEquals(2, journal.read(10).size());
+			
+			List<DatabaseJournal.Record> first = journal.read(1);
+			assertEquals(1, first.size());
+			journal.commit(first.get(0));
+			
+			List<DatabaseJournal.Record> rest = journal.read(10);
+			assertEquals(1, rest.size());
+			assertArrayEquals(bytes("b"), rest.get(0).getPayload());
+			
+			journal.commit(rest.get(0));
+			assertTrue(journal.isEmpty());
+			assertTrue(journal.read(10).isEmpty());
+		}
+	}
+	
+	@Test
+	public void checkpointSurvivesReopening() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("a"));
+			journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("b"));
+			journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("c"));
+			journal.commit(journal.read(1).get(0));
+		}
+		
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			assertFalse(journal.isEmpty());
+			List<DatabaseJournal.Record> records = journal.read(10);
+			assertEquals(2, records.size());
+			assertArrayEquals(bytes("b"), records.get(0).getPayload());
+			assertArrayEquals(bytes("c"), records.get(1).getPayload());
+			
+			// appending after reopening continues behind the existing records
+			journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("d"));
+			assertEquals(3, journal.read(10).size());
+		}
+	}
+	
+	@Test
+	public void tornTailIsIgnored() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("complete"));
+		}
+		
+		// a record cut off by a crash: header announcing 100 bytes, only a few of them written
+		try (RandomAccessFile file = new RandomAccessFile(segment(directory).toFile(), "rw")) {
+			file.seek(file.length());
+			file.writeInt(100);
+			file.writeInt(0);
+			file.write(bytes("torn"));
+		}
+		
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			List<DatabaseJournal.Record> records = journal.read(10);
+			assertEquals(1, records.size());
+			assertArrayEquals(bytes("complete"), records.get(0).getPayload());
+		}
+	}
+	
+	@Test
+	public void truncatedHeaderIsIgnored() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("complete"));
+		}
+		
+		try (RandomAccessFile file = new RandomAccessFile(segment(directory).toFile(), "rw")) {
+			file.seek(file.length());
+			file.write(new byte[] { 0, 0, 0 });
+		}
+		
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			assertEquals(1, journal.read(10).size());
+		}
+	}
+	
+	@Test
+	public void corruptedRecordStopsTheSegment() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("good"));
+			journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("flipped"));
+			journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("behind"));
+		}
+		
+		// record layout: length (4), CRC32 (4), type (1), key (8), payload
+		long secondPayload = 8 + 9 + 4 + 8 + 9;
+		try (RandomAccessFile file = new RandomAccessFile(segment(directory).toFile(), "rw")) {
+			file.seek(secondPayload);
+			file.write('F');
+		}
+		
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			List<DatabaseJournal.Record> records = journal.read(10);
+			assertEquals(1, records.size());
+			assertArrayEquals(bytes("good"), records.get(0).getPayload());
+		}
+	}
+	
+	@Test
+	public void failedWriteLeavesNoTornRecord() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE) {
+			private int writes;
+			
+			@Override
+			void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+				if (++writes == 2) {
+					buffer.limit(buffer.limit() / 2);
+					super.write(channel, buffer);
+					throw new IOException("disk full");
+				}
+				
+				super.write(channel, buffer);
+			}
+		}) {
+			assertTrue(journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("before")));
+			assertFalse(journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("failed")));
+			assertTrue(journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("after")));
+			
+			List<DatabaseJournal.Record> records = journal.read(10);
+			assertEquals(2, records.size());
+			assertArrayEquals(bytes("before"), records.get(0).getPayload());
+			assertArrayEquals(bytes("after"), records.get(1).getPayload());
+		}
+		
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			assertEquals(2, journal.read(10).size());
+		}
+	}
+	
+	@Test
+	public void invalidLengthStopsTheSegment() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			journal.append((byte)1, DatabaseJournal.NO_KEY, bytes("good"));
+		}
+		
+		try (RandomAccessFile file = new RandomAccessFile(segment(directory).toFile(), "rw")) {
+			file.seek(file.length());
+			file.writeInt(3);
+			file.writeInt(0);
+			file.write(new byte[16]);
+		}
+		
+		try (DatabaseJournal journal = new DatabaseJournal(directory, MAX_SIZE)) {
+			assertEquals(1, journal.read(10).size());
+		}
+	}
+}
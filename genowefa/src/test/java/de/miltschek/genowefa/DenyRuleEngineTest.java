@@ -0,0 +1,189 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.miltschek.genowefa.Configuration.DenyRule;
+import de.miltschek.integrations.GeoIp;
+
+/**
+ * Tests of the evaluation of deny rules, especially of the combined name patterns.
+ */
+public class DenyRuleEngineTest {
+	private static DenyRule name(String pattern) {
+		return new DenyRule("name", pattern, "denied by " + pattern);
+	}
+	
+	private static GeoIp geoIp(String countryCode, boolean proxy) {
+		return new GeoIp() {
+			@Override
+			public String getCountryCode() {
+				return countryCode;
+			}
+			
+			@Override
+			public boolean isProxy() {
+				return proxy;
+			}
+		};
+	}
+	
+	private static DenyRule match(DenyRuleEngine engine, String name) {
+		return engine.matchClient(name, null);
+	}
+	
+	@Test
+	public void firstMatchingRuleWins() {
+		List<DenyRule> rules = Arrays.asList(name("admin.*"), name(".*bot"), name("adminbot"));
+		DenyRuleEngine engine = new DenyRuleEngine(rules);
+		
+		assertSame(rules.get(0), match(engine, "adminbot"));
+		assertSame(rules.get(1), match(engine, "spambot"));
+		assertNull(match(engine, "player"));
+		assertNull(match(engine, null));
+	}
+	
+	@Test
+	public void wholeNameMustMatch() {
+		DenyRuleEngine engine = new DenyRuleEngine(Arrays.asList(name("bad")));
+		
+		assertNull(match(engine, "notbad"));
+		assertNull(match(engine, "badly"));
+		assertEquals("bad", match(engine, "bad").getPattern());
+	}
+	
+	@Test
+	public void ownGroupsDoNotShiftRules() {
+		List<DenyRule> rules = Arrays.asList(name("(a)(b)?c"), name("(x|y)+"), name("z"));
+		DenyRuleEngine engine = new DenyRuleEngine(rules);
+		
+		assertSame(rules.get(0), match(engine, "ac"));
+		assertSame(rules.get(1), match(engine, "xyx"));
+		assertSame(rules.get(2), match(engine, "z"));
+	}
+	
+	@Test
+	public void backReferencesKeepTheOrder() {
+		List<DenyRule> rules = Arrays.asList(name("x.*"), name("(.)\\1"), name(".."));
+		DenyRuleEngine engine = new DenyRuleEngine(rules);
+		
+		assertSame(rules.get(0), match(engine, "xx"));
+		assertSame(rules.get(1), match(engine, "yy"));
+		assertSame(rules.get(2), match(engine, "yz"));
+	}
+	
+	@Test
+	public void inlineFlagsStayWithinTheirRule() {
+		List<DenyRule> rules = Arrays.asList(name("(?i)abc"), name("def"));
+		DenyRuleEngine engine = new DenyRuleEngine(rules);
+		
+		assertSame(rules.get(0), match(engine, "ABC"));
+		assertNull(match(engine, "DEF"));
+		assertSame(rules.get(1), match(engine, "def"));
+	}
+	
+	@Test
+	public void unterminatedQuoteIsEvaluatedOnItsOwn() {
+		List<DenyRule> rules = Arrays.asList(name("\\Q*+"), name("\\Qy\\E"), name("z"));
+		DenyRuleEngine engine = new DenyRuleEngine(rules);
+		
+		assertSame(rules.get(0), match(engine, "*+"));
+		assertSame(rules.get(1), match(engine, "y"));
+		assertSame(rules.get(2), match(engine, "z"));
+	}
+	
+	@Test
+	public void commentInCommentsModeIsEvaluatedOnItsOwn() {
+		List<DenyRule> rules = Arrays.asList(name("(?x) a b # spaces are ignored"), name("c"));
+		DenyRuleEngine engine = new DenyRuleEngine(rules);
+		
+		assertSame(rules.get(0), match(engine, "ab"));
+		assertSame(rules.get(1), match(engine, "c"));
+	}
+	
+	@Test
+	public void duplicateGroupNamesFallBackToSingleRules() {
+		List<DenyRule> rules = Arrays.asList(name("(?<n>a)b"), name("(?<n>c)d"), name("e"));
+		DenyRuleEngine engine = new DenyRuleEngine(rules);
+		
+		assertSame(rules.get(0), match(engine, "ab"));
+		assertSame(rules.get(1), match(engine, "cd"));
+		assertSame(rules.get(2), match(engine, "e"));
+		assertNull(match(engine, "ad"));
+	}
+	
+	@Test
+	public void invalidAndUnknownRulesAreIgnored() {
+		List<DenyRule> rules = Arrays.asList(name("(unclosed"), new DenyRule("unknown", "x", null), name("x"));
+		DenyRuleEngine engine = new DenyRuleEngine(rules);
+		
+		assertSame(rules.get(2), match(engine, "x"));
+	}
+	
+	@Test
+	public void countryAndProxyRulesFollowThePriority() {
+		List<DenyRule> rules = Arrays.asList(
+				new DenyRule("proxy", null, "no proxies"),
+				name("evil"),
+				new DenyRule("country", "xx", "not from XX"));
+		DenyRuleEngine engine = new DenyRuleEngine(rules);
+		
+		assertSame(rules.get(0), engine.matchClient("evil", geoIp("XX", true)));
+		assertSame(rules.get(1), engine.matchClient("evil", geoIp("XX", false)));
+		assertSame(rules.get(2), engine.matchClient("good", geoIp("XX", false)));
+		assertNull(engine.matchClient("good", geoIp("YY", false)));
+		assertNull(engine.matchClient("good", null));
+	}
+	
+	@Test
+	public void companyRulesCheckBothNames() {
+		List<DenyRule> rules = Arrays.asList(name("x"), name("y"));
+		DenyRuleEngine engine = new DenyRuleEngine(rules);
+		
+		assertSame(rules.get(0), engine.matchCompany("y", "x"));
+		assertSame(rules.get(1), engine.matchCompany("y", null));
+		assertNull(engine.matchCompany(null, null));
+	}
+	
+	@Test
+	public void hitsAreCounted() {
+		DenyRuleEngine engine = new DenyRuleEngine(Arrays.asList(name("a"), name("b")));
+		
+		match(engine, "a");
+		match(engine, "b");
+		match(engine, "b");
+		match(engine, "c");
+		
+		assertEquals(1, engine.getHits(0));
+		assertEquals(2, engine.getHits(1));
+	}
+}
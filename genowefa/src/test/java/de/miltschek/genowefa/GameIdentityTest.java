@@ -0,0 +1,60 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of the game identity used to continue an active game in the database.
+ */
+public class GameIdentityTest {
+	private static GameData game(int port, int generationSeed) {
+		return new GameData("127.0.0.1", port, "Genowefa", "Random Map", generationSeed, 1950, 256, 256);
+	}
+	
+	@Test
+	public void sameGameHasTheSameIdentity() {
+		assertEquals(game(3979, 42).getIdentityHash(), game(3979, 42).getIdentityHash());
+		assertEquals(64, game(3979, 42).getIdentityHash().length());
+	}
+	
+	@Test
+	public void differentGamesHaveDifferentIdentities() {
+		assertNotEquals(game(3979, 42).getIdentityHash(), game(3980, 42).getIdentityHash());
+		assertNotEquals(game(3979, 42).getIdentityHash(), game(3979, 43).getIdentityHash());
+	}
+	
+	@Test
+	public void gamesOfTheSameIdentityDoNotCollide() {
+		// two games of the same identity may be finished in the same second,
+		// and an update of a game may give it the identity of another, stale game
+		assertTrue(DatabaseConnector.CREATE_GAMES.contains(DatabaseConnector.GAME_IDENTITY_INDEX));
+		assertFalse(DatabaseConnector.GAME_IDENTITY_INDEX.contains("UNIQUE"));
+	}
+}
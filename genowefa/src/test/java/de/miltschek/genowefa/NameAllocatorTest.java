@@ -0,0 +1,154 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests of the allocation and the release of player names.
+ */
+public class NameAllocatorTest {
+	private static final String[] NAMES = new String[] { "Ada", "Bob", "Cid", "Dan" };
+	
+	@Test
+	public void allocatesUniqueNamesUntilExhausted() {
+		NameAllocator allocator = new NameAllocator(NAMES);
+		Set<String> allocated = new HashSet<>();
+		
+		for (int client = 1; client <= NAMES.length; client++) {
+			// same preferred position for everyone, collisions move on to the next free entry
+			String name = allocator.allocate(client, 7);
+			assertTrue(allocated.add(name));
+		}
+		
+		assertEquals(NAMES.length, allocated.size());
+		assertEquals(0, allocator.getFree());
+		assertNull(allocator.allocate(99, 7));
+	}
+	
+	@Test
+	public void prefersThePositionOfTheHash() {
+		NameAllocator allocator = new NameAllocator(NAMES);
+		
+		assertEquals("Cid", allocator.allocate(1, 2));
+		assertEquals("Dan", allocator.allocate(2, 2));
+		// wraps around to the beginning of the table
+		assertEquals("Ada", allocator.allocate(3, 2));
+		assertEquals("Bob", allocator.allocate(4, -2));
+	}
+	
+	@Test
+	public void releasedNameIsFreeAgain() {
+		NameAllocator allocator = new NameAllocator(NAMES);
+		String name = allocator.allocate(1, 0);
+		
+		assertTrue(allocator.isInUse(name));
+		allocator.release(1);
+		
+		assertFalse(allocator.isInUse(name));
+		assertEquals(NAMES.length, allocator.getFree());
+		assertEquals(name, allocator.allocate(2, 0));
+	}
+	
+	@Test
+	public void renamingReleasesThePreviousName() {
+		NameAllocator allocator = new NameAllocator(NAMES);
+		allocator.allocate(1, 0);
+		
+		allocator.update(1, "Bob");
+		
+		assertFalse(allocator.isInUse("Ada"));
+		assertTrue(allocator.isInUse("Bob"));
+		assertEquals(NAMES.length - 1, allocator.getFree());
+		assertEquals(1, allocator.getInUse());
+		assertNotEquals("Bob", allocator.allocate(2, 1));
+	}
+	
+	@Test
+	public void ownNamesBlockTableEntries() {
+		NameAllocator allocator = new NameAllocator(NAMES);
+		
+		allocator.update(1, "Cid");
+		allocator.update(2, "Player");
+		
+		assertEquals(2, allocator.getInUse());
+		assertEquals(NAMES.length - 1, allocator.getFree());
+		assertEquals("Dan", allocator.allocate(3, 2));
+		
+		allocator.update(2, null);
+		assertFalse(allocator.isInUse("Player"));
+	}
+	
+	@Test
+	public void takenOverNameStaysInUse() {
+		NameAllocator allocator = new NameAllocator(NAMES);
+		
+		allocator.update(1, "Ada");
+		allocator.update(2, "Ada");
+		allocator.release(1);
+		
+		// the name belongs to the second client now
+		assertTrue(allocator.isInUse("Ada"));
+		assertEquals(NAMES.length - 1, allocator.getFree());
+		
+		allocator.release(2);
+		assertFalse(allocator.isInUse("Ada"));
+	}
+	
+	@Test
+	public void duplicatesAreNeverAllocated() {
+		NameAllocator allocator = new NameAllocator(new String[] { "Ada", "Ada", "Bob" });
+		
+		assertEquals(2, allocator.getFree());
+		assertEquals("Bob", allocator.allocate(1, 1));
+		assertEquals("Ada", allocator.allocate(2, 1));
+		assertNull(allocator.allocate(3, 1));
+	}
+	
+	@Test
+	public void clearReleasesAllNames() {
+		NameAllocator allocator = new NameAllocator(new String[] { "Ada", "Ada", "Bob" });
+		allocator.allocate(1, 0);
+		allocator.allocate(2, 0);
+		
+		allocator.clear();
+		
+		assertEquals(0, allocator.getInUse());
+		assertEquals(2, allocator.getFree());
+	}
+	
+	@Test
+	public void emptyTableAllocatesNothing() {
+		assertNull(new NameAllocator(new String[0]).allocate(1, 0));
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests of the token buckets: the generic cell rate algorithm and the open-addressing table.
+ */
+public class RateLimiterTest {
+	private static final long SECOND = 1000000000L;
+	
+	@Test
+	public void allowsBurstThenDenies() {
+		RateLimiter limiter = new RateLimiter(1);
+		long now = 1000 * SECOND;
+		
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 3, now));
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 3, now));
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 3, now));
+		assertEquals(RateLimiter.DENIED, limiter.acquire(1, SECOND, 3, now));
+		assertEquals(RateLimiter.DENIED_AGAIN, limiter.acquire(1, SECOND, 3, now));
+	}
+	
+	@Test
+	public void refillsOneTokenPerInterval() {
+		RateLimiter limiter = new RateLimiter(1);
+		long now = 1000 * SECOND;
+		
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 2, now));
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 2, now));
+		assertEquals(RateLimiter.DENIED, limiter.acquire(1, SECOND, 2, now + SECOND / 2));
+		
+		// one token back after one interval, the denied state is reset by an allowed request
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 2, now + SECOND));
+		assertEquals(RateLimiter.DENIED, limiter.acquire(1, SECOND, 2, now + SECOND));
+		
+		// a long pause refills the bucket up to the burst only
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 2, now + 100 * SECOND));
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 2, now + 100 * SECOND));
+		assertEquals(RateLimiter.DENIED, limiter.acquire(1, SECOND, 2, now + 100 * SECOND));
+	}
+	
+	@Test
+	public void takesSeveralTokensAllOrNothing() {
+		RateLimiter limiter = new RateLimiter(1);
+		long now = 1000 * SECOND;
+		
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 3, 2, now));
+		assertEquals(RateLimiter.DENIED, limiter.acquire(1, SECOND, 3, 2, now));
+		
+		// the denied request took nothing, the last token is still there
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 3, now));
+		assertEquals(RateLimiter.DENIED, limiter.acquire(1, SECOND, 3, now));
+	}
+	
+	@Test
+	public void moreTokensThanTheBurstNeedAFullBucket() {
+		RateLimiter limiter = new RateLimiter(1);
+		long now = 1000 * SECOND;
+		
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 3, 5, now));
+		
+		// the two tokens above the capacity are refilled first
+		assertEquals(RateLimiter.DENIED, limiter.acquire(1, SECOND, 3, now + 2 * SECOND));
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 3, now + 3 * SECOND));
+		assertEquals(RateLimiter.DENIED, limiter.acquire(1, SECOND, 3, 5, now + 3 * SECOND));
+	}
+	
+	@Test
+	public void burstBelowOneActsAsOne() {
+		RateLimiter limiter = new RateLimiter(1);
+		long now = 1000 * SECOND;
+		
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 0, now));
+		assertEquals(RateLimiter.DENIED, limiter.acquire(1, SECOND, 0, now));
+	}
+	
+	@Test
+	public void keysAreIndependent() {
+		RateLimiter limiter = new RateLimiter(1);
+		long now = 1000 * SECOND;
+		
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1, SECOND, 1, now));
+		assertEquals(RateLimiter.DENIED, limiter.acquire(1, SECOND, 1, now));
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(2, SECOND, 1, now));
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(-1, SECOND, 1, now));
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(1L << 32 | 1, SECOND, 1, now));
+		assertEquals(3 + 1, limiter.size());
+	}
+	
+	@Test
+	public void growsAndKeepsLiveBuckets() {
+		RateLimiter limiter = new RateLimiter(1);
+		long now = 1000 * SECOND;
+		
+		// colliding and non-colliding keys, far beyond the initial capacity
+		for (long key = 0; key < 1000; key++) {
+			assertEquals(RateLimiter.ALLOWED, limiter.acquire(key * 16, SECOND, 1, now));
+		}
+		
+		assertEquals(1000, limiter.size());
+		for (long key = 0; key < 1000; key++) {
+			assertEquals(RateLimiter.DENIED, limiter.acquire(key * 16, SECOND, 1, now));
+		}
+	}
+	
+	@Test
+	public void purgesRefilledBucketsWhenGrowing() {
+		RateLimiter limiter = new RateLimiter(1);
+		long now = 1000 * SECOND;
+		
+		for (long key = 0; key < 8; key++) {
+			limiter.acquire(key, SECOND, 1, now);
+		}
+		
+		assertEquals(8, limiter.size());
+		
+		// all earlier buckets have refilled, the rebuild triggered by the 9th key drops them
+		limiter.acquire(100, SECOND, 1, now + 10 * SECOND);
+		assertEquals(1, limiter.size());
+		
+		// a purged bucket behaves like a full one
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire(0, SECOND, 1, now + 10 * SECOND));
+	}
+	
+	@Test
+	public void removesMatchingKeys() {
+		RateLimiter limiter = new RateLimiter(1);
+		long now = System.nanoTime();
+		
+		for (int command = 0; command < 3; command++) {
+			for (int client = 1; client <= 3; client++) {
+				limiter.acquire(((long)command << 32) | client, 60 * SECOND, 1, now);
+			}
+		}
+		
+		assertEquals(9, limiter.size());
+		limiter.removeIf(key -> (int)key == 2);
+		assertEquals(6, limiter.size());
+		
+		assertEquals(RateLimiter.ALLOWED, limiter.acquire((1L << 32) | 2, 60 * SECOND, 1, now));
+		assertEquals(RateLimiter.DENIED, limiter.acquire((1L << 32) | 1, 60 * SECOND, 1, now));
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.miltschek.genowefa.Context.EventType;
+import de.miltschek.openttdadmin.data.CompanyInfo;
+
+/**
+ * Tests of the company resets.
+ */
+public class ResetCoordinatorTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private final Map<Integer, ClientData> clients = new LinkedHashMap<>();
+	private final List<Integer> kicked = new ArrayList<>();
+	private final List<Byte> reset = new ArrayList<>();
+	private final List<String> notified = new ArrayList<>();
+	private Context context;
+	
+	@Before
+	public void createContext() throws IOException {
+		File file = folder.newFile("genowefa.json");
+		Files.write(file.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+		Configuration configuration = new Configuration(file.getPath());
+		
+		context = new Context(configuration, new Configuration.Game("test", "localhost", 3977, "secret"),
+				null, null, null, null, null, null, Runnable::run) {
+			@Override
+			public ClientData getClient(int clientId) {
+				return clients.get(clientId);
+			}
+			
+			@Override
+			public Collection<ClientData> getClients() {
+				return new ArrayList<>(clients.values());
+			}
+			
+			@Override
+			public void kickClient(int clientId, String reason) {
+				kicked.add(clientId);
+			}
+			
+			@Override
+			public void resetCompany(byte companyId) {
+				reset.add(companyId);
+			}
+			
+			@Override
+			public boolean notifyAdmin(EventType eventType, String message) {
+				notified.add(message);
+				return true;
+			}
+		};
+	}
+	
+	private void join(int clientId, byte playAs) {
+		clients.put(clientId, new ClientData(clientId, null) {
+			@Override
+			public byte getPlaysAs() {
+				return playAs;
+			}
+		});
+	}
+	
+	@Test
+	public void spectatorHasNoCompany() {
+		join(1, CompanyInfo.SPECTATOR);
+		ResetCoordinator coordinator = new ResetCoordinator(context, 60000);
+		
+		assertEquals(ResetCoordinator.Result.NoCompany, coordinator.start(1, "reset"));
+		assertEquals(ResetCoordinator.Result.NoCompany, coordinator.start(2, "reset"));
+		assertTrue(kicked.isEmpty());
+		assertTrue(reset.isEmpty());
+	}
+	
+	@Test
+	public void companyIsResetAfterTheLastClientQuits() {
+		join(1, (byte)3);
+		join(2, (byte)3);
+		join(3, (byte)4);
+		ResetCoordinator coordinator = new ResetCoordinator(context, 60000);
+		
+		assertEquals(ResetCoordinator.Result.Started, coordinator.start(1, "reset"));
+		assertEquals(2, kicked.size());
+		assertTrue(kicked.contains(1));
+		assertTrue(kicked.contains(2));
+		assertEquals(1, coordinator.getActive());
+		
+		coordinator.clientQuit(1);
+		assertTrue(reset.isEmpty());
+		coordinator.clientQuit(3);
+		assertTrue(reset.isEmpty());
+		
+		coordinator.clientQuit(2);
+		assertEquals(1, reset.size());
+		assertEquals(3, (byte)reset.get(0));
+		assertEquals(0, coordinator.getActive());
+		assertEquals(1, coordinator.getCompleted());
+		assertEquals(1, notified.size());
+		
+		coordinator.clientQuit(2);
+		assertEquals(1, reset.size());
+	}
+	
+	@Test
+	public void secondResetOfTheSameCompanyIsBusy() {
+		join(1, (byte)3);
+		join(2, (byte)3);
+		join(3, (byte)4);
+		ResetCoordinator coordinator = new ResetCoordinator(context, 60000);
+		
+		assertEquals(ResetCoordinator.Result.Started, coordinator.start(1, "reset"));
+		assertEquals(ResetCoordinator.Result.Busy, coordinator.start(2, "reset"));
+		assertEquals(ResetCoordinator.Result.Started, coordinator.start(3, "reset"));
+		assertEquals(2, coordinator.getActive());
+		
+		coordinator.clientQuit(3);
+		assertEquals(1, reset.size());
+		assertEquals(4, (byte)reset.get(0));
+		assertEquals(1, coordinator.getActive());
+	}
+	
+	@Test
+	public void clientJoiningTheCompanyIsKicked() {
+		join(1, (byte)3);
+		ResetCoordinator coordinator = new ResetCoordinator(context, 60000);
+		
+		assertEquals(ResetCoordinator.Result.Started, coordinator.start(1, "reset"));
+		assertTrue(coordinator.clientUpdated(5, (byte)3, "reset"));
+		assertTrue(coordinator.clientUpdated(5, (byte)3, "reset"));
+		assertFalse(coordinator.clientUpdated(6, (byte)4, "reset"));
+		assertEquals(2, kicked.size());
+		
+		coordinator.clientQuit(1);
+		assertTrue(reset.isEmpty());
+		coordinator.clientQuit(5);
+		assertEquals(1, reset.size());
+		assertFalse(coordinator.clientUpdated(5, (byte)3, "reset"));
+	}
+	
+	@Test
+	public void resetTimesOutIfClientsDoNotQuit() throws InterruptedException {
+		join(1, (byte)3);
+		join(2, (byte)3);
+		ResetCoordinator coordinator = new ResetCoordinator(context, 50);
+		
+		assertEquals(ResetCoordinator.Result.Started, coordinator.start(1, "reset"));
+		coordinator.clientQuit(1);
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		while (coordinator.getTimedOut() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		assertEquals(1, coordinator.getTimedOut());
+		assertEquals(0, coordinator.getActive());
+		assertTrue(reset.isEmpty());
+		
+		coordinator.clientQuit(2);
+		assertTrue(reset.isEmpty());
+		assertEquals(0, coordinator.getCompleted());
+	}
+}
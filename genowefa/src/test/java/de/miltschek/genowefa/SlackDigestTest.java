@@ -0,0 +1,138 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.miltschek.genowefa.Context.EventType;
+import de.miltschek.integrations.SlackOutbox;
+
+/**
+ * Tests of the aggregation of admin notifications into summaries.
+ */
+public class SlackDigestTest {
+	private final BlockingQueue<String> posts = new LinkedBlockingQueue<>();
+	private final Configuration.Slack config = new Configuration.Slack("app", "bot");
+	private SlackOutbox outbox;
+	
+	@Before
+	public void open() {
+		outbox = new SlackOutbox((channel, text) -> {
+			posts.add(channel + ":" + text);
+			return 0;
+		}, 0, 4000, 100);
+		config.setDigestClientWindow(100);
+		config.setDigestCompanyWindow(10000);
+		config.setDigestServerWindow(0);
+	}
+	
+	@After
+	public void close() {
+		outbox.close();
+	}
+	
+	private String nextPost() throws InterruptedException {
+		return posts.poll(5, TimeUnit.SECONDS);
+	}
+	
+	@Test
+	public void onlyTypesWithAWindowAreDigested() {
+		SlackDigest digest = new SlackDigest(outbox, "#game", config);
+		
+		assertTrue(digest.isDigested(EventType.Client));
+		assertTrue(digest.isDigested(EventType.Company));
+		assertFalse(digest.isDigested(EventType.Server));
+		assertFalse(digest.isDigested(EventType.Chat));
+	}
+	
+	@Test
+	public void notificationsOfAWindowArePostedAsOneSummary() throws InterruptedException {
+		SlackDigest digest = new SlackDigest(outbox, "#game", config);
+		
+		assertTrue(digest.add(EventType.Client, "player joined"));
+		assertTrue(digest.add(EventType.Client, "player left"));
+		assertTrue(digest.add(EventType.Client, "player joined"));
+		
+		String post = nextPost();
+		assertTrue(post, post.startsWith("#game::clipboard: 3 client events in the last "));
+		assertTrue(post, post.endsWith("\nplayer joined (x2)\nplayer left"));
+		assertEquals(3, digest.getDigestedEvents());
+		assertEquals(1, digest.getSummaries());
+	}
+	
+	@Test
+	public void singleNotificationIsPostedAsIs() throws InterruptedException {
+		SlackDigest digest = new SlackDigest(outbox, "#game", config);
+		
+		digest.add(EventType.Client, "player joined");
+		
+		assertEquals("#game:player joined", nextPost());
+	}
+	
+	@Test
+	public void closePostsOpenWindowsAndStopsAggregating() throws InterruptedException {
+		SlackDigest digest = new SlackDigest(outbox, "#game", config);
+		digest.add(EventType.Company, "company founded");
+		
+		digest.close();
+		assertEquals("#game:company founded", nextPost());
+		
+		assertTrue(digest.add(EventType.Company, "company closed"));
+		assertEquals("#game:company closed", nextPost());
+		assertEquals(1, digest.getDigestedEvents());
+	}
+	
+	@Test
+	public void summaryGoesToTheReconfiguredChannel() throws InterruptedException {
+		SlackDigest digest = new SlackDigest(outbox, "#game", config);
+		digest.add(EventType.Company, "company founded");
+		
+		digest.reconfigure("#other", config);
+		digest.close();
+		
+		assertEquals("#other:company founded", nextPost());
+	}
+	
+	@Test
+	public void gameWithoutChannelIsSkipped() throws InterruptedException {
+		SlackDigest digest = new SlackDigest(outbox, null, config);
+		
+		assertFalse(digest.add(EventType.Client, "player joined"));
+		digest.close();
+		
+		assertEquals(0, digest.getDigestedEvents());
+		assertNull(posts.poll(300, TimeUnit.MILLISECONDS));
+	}
+}
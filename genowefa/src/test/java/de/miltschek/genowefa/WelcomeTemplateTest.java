@@ -0,0 +1,85 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.genowefa;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests of the placeholder expansion of welcome-message templates.
+ */
+public class WelcomeTemplateTest {
+	@Test
+	public void expandsAllVariables() {
+		WelcomeTemplate template = WelcomeTemplate.parse("Hi ${USERNAME} from ${CITY}, ${COUNTRY}!");
+		
+		assertEquals("Hi Anna from Gdansk, Poland!", template.render("Anna", "Poland", "Gdansk"));
+	}
+	
+	@Test
+	public void keepsTextWithoutVariables() {
+		assertEquals("Welcome!", WelcomeTemplate.parse("Welcome!").render("Anna", "Poland", "Gdansk"));
+		assertEquals("", WelcomeTemplate.parse("").render("Anna", "Poland", "Gdansk"));
+	}
+	
+	@Test
+	public void expandsVariablesAtBothEnds() {
+		WelcomeTemplate template = WelcomeTemplate.parse("${USERNAME}${USERNAME} - ${COUNTRY}");
+		
+		assertEquals("AnnaAnna - Poland", template.render("Anna", "Poland", null));
+	}
+	
+	@Test
+	public void keepsUnknownAndIncompleteVariables() {
+		WelcomeTemplate template = WelcomeTemplate.parse("${NAME} ${USERNAME ${ ${USERNAME}");
+		
+		assertEquals("${NAME} ${USERNAME ${ Anna", template.render("Anna", "Poland", "Gdansk"));
+	}
+	
+	@Test
+	public void doesNotExpandValuesAgain() {
+		WelcomeTemplate template = WelcomeTemplate.parse("Hi ${USERNAME}, ${CITY}");
+		
+		assertEquals("Hi ${CITY}, Gdansk", template.render("${CITY}", "Poland", "Gdansk"));
+	}
+	
+	@Test
+	public void appendsToBuffer() {
+		WelcomeTemplate template = WelcomeTemplate.parse("${USERNAME}!");
+		StringBuilder sb = new StringBuilder("> ");
+		
+		template.render(sb, "Anna", "Poland", "Gdansk");
+		
+		assertEquals("> Anna!", sb.toString());
+	}
+	
+	@Test
+	public void reusedBufferDoesNotLeak() {
+		WelcomeTemplate template = WelcomeTemplate.parse("${USERNAME}");
+		
+		assertEquals("a long user name", template.render("a long user name", null, null));
+		assertEquals("b", template.render("b", null, null));
+	}
+}
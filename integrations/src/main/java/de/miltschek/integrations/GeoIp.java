@@ -24,24 +24,25 @@
 package de.miltschek.integrations;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Geolocation of an IP address.
- * Current implementation uses ip-api.com as a provider.
+ * Addresses are located by a chain of providers, per default the remote service of ip-api.com only,
+ * see {@link #setProviders(GeoIpProvider...)}.
+ * Results may be cached in-process, see {@link #setCache(GeoIpCache)}.
  */
 public class GeoIp {
 	private static final Logger LOGGER = LoggerFactory.getLogger(GeoIp.class);
 	
+	private static volatile GeoIpCache cache;
+	private static volatile GeoIpProvider[] providers = new GeoIpProvider[] { new IpApiProvider() };
+	private static final ConcurrentHashMap<String, CompletableFuture<GeoIp>> inFlight = new ConcurrentHashMap<>();
+	
 	private String countryCode;
 	private String country;
 	private String city;
@@ -52,56 +53,149 @@ public class GeoIp {
 	 */
 	protected GeoIp() {}
 	
+	/**
+	 * Creates a geolocation object out of known values.
+	 * @param countryCode country code (ISO 3166-1 alpha-2)
+	 * @param country country name
+	 * @param city city name
+	 * @param proxy true in case of a proxy, VPN or a Tor-exit point
+	 */
+	GeoIp(String countryCode, String country, String city, boolean proxy) {
+		this.countryCode = countryCode;
+		this.country = country;
+		this.city = city;
+		this.proxy = proxy;
+	}
+	
+	/**
+	 * Sets the cache to be consulted before querying the providers.
+	 * @param cache cache of lookup results or null to disable caching
+	 */
+	public static void setCache(GeoIpCache cache) {
+		GeoIp.cache = cache;
+	}
+	
+	/**
+	 * Gets the cache consulted before querying the providers.
+	 * @return cache of lookup results or null if caching is disabled
+	 */
+	public static GeoIpCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * Sets the providers to be asked, in the given order, until one of them knows the address.
+	 * @param providers providers of the geolocation data, e.g. a local {@link GeoIpDatabase} followed by an {@link IpApiProvider} as a fallback
+	 */
+	public static void setProviders(GeoIpProvider... providers) {
+		GeoIp.providers = providers.clone();
+	}
+	
 	/**
 	 * Looks up the given address and returns geolocation of the IP address if found.
+	 * Cached results are served without asking the providers.
 	 * @param address address to be looked up (textual form of an IPv4 or IPv6 address).
 	 * @return the geolocation object or null if not possible
 	 */
 	public static GeoIp lookup(String address) {
-		HttpURLConnection http;
-		try {
-			http = (HttpURLConnection)new URL("http://ip-api.com/json/"
-					+ URLEncoder.encode(address, StandardCharsets.UTF_8)
-					+ "?fields=status,country,city,proxy,countryCode")
-					.openConnection();
-		} catch (MalformedURLException e) {
-			LOGGER.error("invalid url for ip geo lookups", e);
-			return null;
-		} catch (IOException e) {
-			LOGGER.error("could not connect to the ip geo lookup api", e);
-			return null;
+		GeoIpCache cache = GeoIp.cache;
+		if (cache != null) {
+			GeoIpCache.Entry entry = cache.get(address);
+			if (entry != null) {
+				return entry.getGeoIp();
+			}
 		}
 		
-		StringBuilder response = new StringBuilder();
+		// a negative result is cached only if all providers gave a definite answer
+		boolean definite = true;
+		for (GeoIpProvider provider : providers) {
+			try {
+				GeoIp geoIp = provider.locate(address);
+				if (geoIp != null) {
+					if (cache != null) {
+						cache.put(address, geoIp);
+					}
+					
+					return geoIp;
+				}
+			} catch (IOException ex) {
+				LOGGER.error("geo ip provider {} failed for {}", provider.getClass().getSimpleName(), address, ex);
+				definite = false;
+			}
+		}
+		
+		if (definite && cache != null) {
+			cache.putNegative(address);
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Looks up the given address without blocking the caller.
+	 * Cached results are delivered immediately (the future is already completed).
+	 * Concurrent lookups of the same address share one request to the providers.
+	 * @param address address to be looked up (textual form of an IPv4 or IPv6 address).
+	 * @return future completed with the geolocation object or null if not possible, never completed exceptionally
+	 */
+	public static CompletableFuture<GeoIp> lookupAsync(String address) {
+		if (address == null) {
+			return CompletableFuture.completedFuture(null);
+		}
 		
-		try (InputStreamReader isr = new InputStreamReader(http.getInputStream(), StandardCharsets.UTF_8)) {
-			char[] buffer = new char[1024];
-			int read;
-			while ((read = isr.read(buffer, 0, buffer.length)) > 0) {
-				response.append(buffer, 0, read);
+		GeoIpCache cache = GeoIp.cache;
+		if (cache != null) {
+			GeoIpCache.Entry entry = cache.get(address);
+			if (entry != null) {
+				return CompletableFuture.completedFuture(entry.getGeoIp());
 			}
-		} catch (IOException ex) {
-			LOGGER.error("failed querying the ip geo lookup api", ex);
-			return null;
 		}
 		
-		try {
-			JSONObject data = new JSONObject(response.toString());
-			if (!"success".equals(data.getString("status"))) {
-				LOGGER.error("geo ip lookup api responded with a status {}", data.getString("status"));
-				return null;
+		CompletableFuture<GeoIp> result = new CompletableFuture<>();
+		CompletableFuture<GeoIp> existing = inFlight.putIfAbsent(address, result);
+		if (existing != null) {
+			return existing;
+		}
+		
+		result.whenComplete((geoIp, ex) -> inFlight.remove(address, result));
+		locateAsync(address, providers, 0, true, cache, result);
+		return result;
+	}
+	
+	/**
+	 * Asks the providers one by one, starting with the given one, until one of them knows the address.
+	 * @param address address to be looked up
+	 * @param providers providers to be asked
+	 * @param index index of the provider to be asked now
+	 * @param definite true if all providers asked so far gave a definite answer
+	 * @param cache cache to store the result in or null
+	 * @param result future to be completed with the result
+	 */
+	private static void locateAsync(String address, GeoIpProvider[] providers, int index, boolean definite, GeoIpCache cache, CompletableFuture<GeoIp> result) {
+		if (index >= providers.length) {
+			if (definite && cache != null) {
+				cache.putNegative(address);
 			}
 			
-			GeoIp geoIp = new GeoIp();
-			geoIp.countryCode = data.getString("countryCode");
-			geoIp.country = data.getString("country");
-			geoIp.city = data.getString("city");
-			geoIp.proxy = data.getBoolean("proxy");
-			return geoIp;
-		} catch (Exception ex) {
-			LOGGER.error("geo lookup api json parse failed", ex);
-			return null;
+			result.complete(null);
+			return;
 		}
+		
+		GeoIpProvider provider = providers[index];
+		provider.locateAsync(address).whenComplete((geoIp, ex) -> {
+			if (ex != null) {
+				LOGGER.error("geo ip provider {} failed for {}", provider.getClass().getSimpleName(), address, ex);
+				locateAsync(address, providers, index + 1, false, cache, result);
+			} else if (geoIp != null) {
+				if (cache != null) {
+					cache.put(address, geoIp);
+				}
+				
+				result.complete(geoIp);
+			} else {
+				locateAsync(address, providers, index + 1, definite, cache, result);
+			}
+		});
 	}
 
 	/**
@@ -0,0 +1,425 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.integrations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process cache of geolocation lookups keyed by the network address.
+ * The cache is a bounded LRU map, each entry expires after a configurable time.
+ * Failed lookups (unknown or reserved addresses) are cached as well, usually with a shorter lifetime.
+ * The content may be saved to and restored from a snapshot file, so that it survives restarts.
+ * Addresses are never kept as such: entries are keyed by a salted SHA-256 hash of the address,
+ * the salt is random and stored in the snapshot file.
+ */
+public class GeoIpCache implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(GeoIpCache.class);
+	
+	private static final int SNAPSHOT_MAGIC = 0x47656f43;
+	private static final int SNAPSHOT_VERSION = 2;
+	private static final int SALT_SIZE = 16;
+	
+	/**
+	 * Cached result of a lookup.
+	 */
+	static class Entry {
+		private final GeoIp geoIp;
+		private final long expiresTs;
+		
+		private Entry(GeoIp geoIp, long expiresTs) {
+			this.geoIp = geoIp;
+			this.expiresTs = expiresTs;
+		}
+		
+		/**
+		 * Gets the cached geolocation.
+		 * @return cached geolocation or null if the address could not be located
+		 */
+		GeoIp getGeoIp() {
+			return geoIp;
+		}
+	}
+	
+	private final int maxEntries;
+	private final long ttl;
+	private final long negativeTtl;
+	private final File snapshotFile;
+	private final LinkedHashMap<String, Entry> entries;
+	private final ScheduledExecutorService snapshotExecutor;
+	private volatile byte[] salt;
+	
+	private long hits;
+	private long negativeHits;
+	private long misses;
+	private long expirations;
+	private long evictions;
+	
+	/**
+	 * Creates an empty cache.
+	 * @param maxEntries maximum number of cached addresses
+	 * @param ttl time in seconds a successful lookup is served from the cache
+	 * @param negativeTtl time in seconds a failed lookup is served from the cache, 0 not to cache failed lookups
+	 * @param snapshotPath path to the snapshot file or null if the content shall not be persisted
+	 * @param snapshotInterval interval in seconds of saving the snapshot, 0 to save it on close only
+	 */
+	public GeoIpCache(int maxEntries, int ttl, int negativeTtl, String snapshotPath, int snapshotInterval) {
+		this.maxEntries = Math.max(1, maxEntries);
+		this.ttl = ttl * 1000L;
+		this.negativeTtl = negativeTtl * 1000L;
+		this.snapshotFile = snapshotPath == null || snapshotPath.isEmpty() ? null : new File(snapshotPath);
+		this.salt = new byte[SALT_SIZE];
+		new SecureRandom().nextBytes(this.salt);
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > GeoIpCache.this.maxEntries) {
+					evictions++;
+					return true;
+				}
+				
+				return false;
+			}
+		};
+		
+		if (this.snapshotFile != null && snapshotInterval > 0) {
+			this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "geoip-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.snapshotExecutor.scheduleWithFixedDelay(this::save, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+		} else {
+			this.snapshotExecutor = null;
+		}
+	}
+	
+	/**
+	 * Gets the key of an address: a hex-encoded SHA-256 hash of the salt and the address.
+	 * @param address network address
+	 * @return key of the address
+	 */
+	private String key(String address) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(salt);
+			byte[] hash = digest.digest(address.getBytes(StandardCharsets.UTF_8));
+			
+			StringBuilder sb = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			
+			return sb.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			// every Java platform supports SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+	
+	/**
+	 * Gets a cached lookup result and updates the hit-rate counters.
+	 * @param address network address
+	 * @return cached entry or null if not cached or expired
+	 */
+	Entry get(String address) {
+		String key = key(address);
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+			
+			if (entry.expiresTs <= System.currentTimeMillis()) {
+				entries.remove(key);
+				expirations++;
+				misses++;
+				return null;
+			}
+			
+			if (entry.geoIp == null) {
+				negativeHits++;
+			} else {
+				hits++;
+			}
+			
+			return entry;
+		}
+	}
+	
+	/**
+	 * Stores a successful lookup result.
+	 * @param address network address
+	 * @param geoIp geolocation of the address
+	 */
+	void put(String address, GeoIp geoIp) {
+		String key = key(address);
+		synchronized (this) {
+			entries.put(key, new Entry(geoIp, System.currentTimeMillis() + ttl));
+		}
+	}
+	
+	/**
+	 * Stores a failed lookup result if negative caching is enabled.
+	 * @param address network address that could not be located
+	 */
+	void putNegative(String address) {
+		if (negativeTtl > 0) {
+			String key = key(address);
+			synchronized (this) {
+				entries.put(key, new Entry(null, System.currentTimeMillis() + negativeTtl));
+			}
+		}
+	}
+	
+	/**
+	 * Removes all entries.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+	
+	/**
+	 * Gets the number of cached addresses (including expired ones not yet removed).
+	 * @return number of cached addresses
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Gets the number of lookups served with a geolocation from the cache.
+	 * @return number of positive hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * Gets the number of lookups served with a cached failure.
+	 * @return number of negative hits
+	 */
+	public synchronized long getNegativeHits() {
+		return negativeHits;
+	}
+	
+	/**
+	 * Gets the number of lookups that needed to be forwarded to the provider.
+	 * @return number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * Gets the number of entries removed due to their expiration.
+	 * @return number of expired entries
+	 */
+	public synchronized long getExpirations() {
+		return expirations;
+	}
+	
+	/**
+	 * Gets the number of entries removed due to the size limit.
+	 * @return number of evicted entries
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	/**
+	 * Gets the ratio of lookups served from the cache (positive and negative hits) to all lookups.
+	 * @return hit rate between 0 and 1, 0 if there were no lookups yet
+	 */
+	public synchronized double getHitRate() {
+		long total = hits + negativeHits + misses;
+		return total == 0 ? 0 : (double)(hits + negativeHits) / total;
+	}
+	
+	/**
+	 * Restores the content of the snapshot file, skipping expired entries.
+	 * Shall be called before the first lookup: the entries are keyed with the salt of the snapshot,
+	 * so the snapshot is only restored into an empty cache.
+	 * @return number of restored entries or -1 in case of an error
+	 */
+	public int load() {
+		if (snapshotFile == null || !snapshotFile.isFile()) {
+			return 0;
+		}
+		
+		long now = System.currentTimeMillis();
+		int restored = 0;
+		
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+			if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+				LOGGER.warn("Ignoring the geo ip cache snapshot {} of an unknown format.", snapshotFile);
+				return 0;
+			}
+			
+			byte[] salt = new byte[SALT_SIZE];
+			in.readFully(salt);
+			
+			int count = in.readInt();
+			synchronized (this) {
+				if (!entries.isEmpty()) {
+					LOGGER.warn("Ignoring the geo ip cache snapshot {}, the cache is already in use.", snapshotFile);
+					return 0;
+				}
+				
+				this.salt = salt;
+				for (int n = 0; n < count; n++) {
+					String key = in.readUTF();
+					long expiresTs = in.readLong();
+					GeoIp geoIp = null;
+					if (in.readBoolean()) {
+						geoIp = new GeoIp(readString(in), readString(in), readString(in), in.readBoolean());
+					}
+					
+					if (expiresTs > now) {
+						entries.put(key, new Entry(geoIp, expiresTs));
+						restored++;
+					}
+				}
+			}
+			
+			LOGGER.info("Restored {} geo ip cache entries out of {}.", restored, count);
+			return restored;
+		} catch (IOException ex) {
+			LOGGER.error("Failed to read the geo ip cache snapshot {}.", snapshotFile, ex);
+			return -1;
+		}
+	}
+	
+	/**
+	 * Writes non-expired entries to the snapshot file, least recently used first.
+	 * @return true on success, false otherwise
+	 */
+	public boolean save() {
+		if (snapshotFile == null) {
+			return false;
+		}
+		
+		List<String> keys = new ArrayList<>();
+		List<Entry> values = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		byte[] salt;
+		synchronized (this) {
+			salt = this.salt;
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Entry> entry = iterator.next();
+				if (entry.getValue().expiresTs <= now) {
+					iterator.remove();
+					expirations++;
+				} else {
+					keys.add(entry.getKey());
+					values.add(entry.getValue());
+				}
+			}
+		}
+		
+		File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.write(salt);
+			out.writeInt(keys.size());
+			for (int n = 0; n < keys.size(); n++) {
+				Entry entry = values.get(n);
+				out.writeUTF(keys.get(n));
+				out.writeLong(entry.expiresTs);
+				out.writeBoolean(entry.geoIp != null);
+				if (entry.geoIp != null) {
+					writeString(out, entry.geoIp.getCountryCode());
+					writeString(out, entry.geoIp.getCountry());
+					writeString(out, entry.geoIp.getCity());
+					out.writeBoolean(entry.geoIp.isProxy());
+				}
+			}
+		} catch (IOException ex) {
+			LOGGER.error("Failed to write the geo ip cache snapshot {}.", tmpFile, ex);
+			return false;
+		}
+		
+		try {
+			Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			LOGGER.error("Failed to replace the geo ip cache snapshot {}.", snapshotFile, ex);
+			return false;
+		}
+		
+		LOGGER.debug("Saved {} geo ip cache entries, hit rate {}.", keys.size(), getHitRate());
+		return true;
+	}
+	
+	/**
+	 * Stops the periodic snapshots and saves the final one.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (snapshotExecutor != null) {
+			snapshotExecutor.shutdown();
+		}
+		
+		save();
+	}
+	
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
@@ -0,0 +1,563 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.integrations;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Geolocation provider using a local, memory-mapped database of IP ranges.
+ * The database is a compact binary file created out of a CSV data set by {@link #importCsv(String, String)}.
+ * Lookups are binary searches on the mapped file, IPv4 lookups do not allocate any memory.
+ * <p>
+ * File layout (big endian):
+ * <ul>
+ * <li>header: magic, version, number of IPv4 ranges, number of IPv6 ranges, number of locations (5 x int)</li>
+ * <li>IPv4 ranges sorted by the first address: first address, last address, location index (3 x int)</li>
+ * <li>IPv6 ranges sorted by the first address: first address, last address (2 x 2 x long), location index (int)</li>
+ * <li>locations: country code, country, city (each as a length-prefixed UTF-8 string), proxy flag (byte)</li>
+ * </ul>
+ */
+public class GeoIpDatabase implements GeoIpProvider, Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(GeoIpDatabase.class);
+	
+	private static final int MAGIC = 0x47495044;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 20;
+	private static final int V4_RECORD_SIZE = 12;
+	private static final int V6_RECORD_SIZE = 36;
+	private static final int NULL_STRING = 0xffff;
+	
+	private static final BigInteger MAX_IPV4 = BigInteger.valueOf(0xffffffffL);
+	private static final BigInteger MASK_64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+	
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int v4Count;
+	private final int v6Count;
+	private final int v6Offset;
+	private final GeoIp[] locations;
+	
+	/**
+	 * Opens a database file created by {@link #importCsv(String, String)}.
+	 * @param path path to the database file
+	 * @throws IOException if the file could not be read or has an unknown format
+	 */
+	public GeoIpDatabase(String path) throws IOException {
+		this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+		
+		try {
+			this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+				throw new IOException("unknown format of the geo ip database " + path);
+			}
+			
+			this.v4Count = buffer.getInt(8);
+			this.v6Count = buffer.getInt(12);
+			this.v6Offset = HEADER_SIZE + v4Count * V4_RECORD_SIZE;
+			
+			ByteBuffer in = buffer.duplicate();
+			in.position(v6Offset + v6Count * V6_RECORD_SIZE);
+			this.locations = new GeoIp[buffer.getInt(16)];
+			for (int n = 0; n < locations.length; n++) {
+				locations[n] = new GeoIp(readString(in), readString(in), readString(in), in.get() != 0);
+			}
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		} catch (RuntimeException ex) {
+			channel.close();
+			throw new IOException("corrupted geo ip database " + path, ex);
+		}
+		
+		LOGGER.info("Opened the geo ip database {} with {} IPv4 ranges, {} IPv6 ranges and {} locations.", path, v4Count, v6Count, locations.length);
+	}
+	
+	@Override
+	public GeoIp locate(String address) {
+		if (address == null) {
+			return null;
+		}
+		
+		long ipv4 = parseIpv4(address);
+		if (ipv4 >= 0) {
+			return locateIpv4((int)ipv4);
+		}
+		
+		// only literals, a host name shall never trigger a name resolution here
+		if (address.indexOf(':') < 0) {
+			return null;
+		}
+		
+		byte[] bytes;
+		try {
+			bytes = InetAddress.getByName(address).getAddress();
+		} catch (UnknownHostException ex) {
+			return null;
+		}
+		
+		if (bytes.length == 4) {
+			return locateIpv4((int)toLong(bytes, 0, 4));
+		}
+		
+		long hi = toLong(bytes, 0, 8);
+		long lo = toLong(bytes, 8, 8);
+		if (hi == 0 && (lo >>> 32) == 0xffffL) {
+			return locateIpv4((int)lo);
+		}
+		
+		return locateIpv6(hi, lo);
+	}
+	
+	/**
+	 * Gets the number of IP ranges in the database.
+	 * @return number of IP ranges in the database
+	 */
+	public int getRangeCount() {
+		return v4Count + v6Count;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	private GeoIp locateIpv4(int ip) {
+		int low = 0;
+		int high = v4Count - 1;
+		int found = -1;
+		
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (Integer.compareUnsigned(buffer.getInt(HEADER_SIZE + mid * V4_RECORD_SIZE), ip) <= 0) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		
+		if (found < 0) {
+			return null;
+		}
+		
+		int position = HEADER_SIZE + found * V4_RECORD_SIZE;
+		if (Integer.compareUnsigned(buffer.getInt(position + 4), ip) < 0) {
+			return null;
+		}
+		
+		return locations[buffer.getInt(position + 8)];
+	}
+	
+	private GeoIp locateIpv6(long hi, long lo) {
+		int low = 0;
+		int high = v6Count - 1;
+		int found = -1;
+		
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int position = v6Offset + mid * V6_RECORD_SIZE;
+			if (compare(buffer.getLong(position), buffer.getLong(position + 8), hi, lo) <= 0) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		
+		if (found < 0) {
+			return null;
+		}
+		
+		int position = v6Offset + found * V6_RECORD_SIZE;
+		if (compare(buffer.getLong(position + 16), buffer.getLong(position + 24), hi, lo) < 0) {
+			return null;
+		}
+		
+		return locations[buffer.getInt(position + 32)];
+	}
+	
+	private static int compare(long hiA, long loA, long hiB, long loB) {
+		int result = Long.compareUnsigned(hiA, hiB);
+		return result == 0 ? Long.compareUnsigned(loA, loB) : result;
+	}
+	
+	private static long toLong(byte[] bytes, int offset, int length) {
+		long result = 0;
+		for (int n = 0; n < length; n++) {
+			result = (result << 8) | (bytes[offset + n] & 0xff);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Parses a dotted IPv4 address without allocating memory.
+	 * @param address textual address
+	 * @return the address as an unsigned 32-bit value or -1 if not an IPv4 address
+	 */
+	private static long parseIpv4(String address) {
+		long result = 0;
+		int octet = 0;
+		int digits = 0;
+		int dots = 0;
+		
+		for (int n = 0; n < address.length(); n++) {
+			char c = address.charAt(n);
+			if (c >= '0' && c <= '9') {
+				octet = octet * 10 + (c - '0');
+				if (++digits > 3 || octet > 255) {
+					return -1;
+				}
+			} else if (c == '.' && digits > 0 && dots < 3) {
+				result = (result << 8) | octet;
+				octet = 0;
+				digits = 0;
+				dots++;
+			} else {
+				return -1;
+			}
+		}
+		
+		if (dots != 3 || digits == 0) {
+			return -1;
+		}
+		
+		return (result << 8) | octet;
+	}
+	
+	private static String readString(ByteBuffer in) {
+		int length = in.getShort() & 0xffff;
+		if (length == NULL_STRING) {
+			return null;
+		}
+		
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeShort(NULL_STRING);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			int length = Math.min(bytes.length, NULL_STRING - 1);
+			out.writeShort(length);
+			out.write(bytes, 0, length);
+		}
+	}
+	
+	/**
+	 * IP range read out of a CSV file.
+	 */
+	private static class Range {
+		private final long startHi;
+		private final long startLo;
+		private final long endHi;
+		private final long endLo;
+		private final int location;
+		
+		private Range(long startHi, long startLo, long endHi, long endLo, int location) {
+			this.startHi = startHi;
+			this.startLo = startLo;
+			this.endHi = endHi;
+			this.endLo = endLo;
+			this.location = location;
+		}
+	}
+	
+	private static final Comparator<Range> RANGE_ORDER = (a, b) -> compare(a.startHi, a.startLo, b.startHi, b.startLo);
+	
+	/**
+	 * Imports a CSV data set of IP ranges into a database file.
+	 * Each line consists of the fields: first address, last address, country code, country, city and an optional proxy flag (1/true/yes).
+	 * Addresses may be given in the textual form (IPv4 or IPv6) or as decimal numbers.
+	 * Fields may be quoted, empty fields and fields containing a dash only are treated as unknown values.
+	 * Lines starting with # and lines with unparsable addresses (e.g. a header) are skipped.
+	 * Overlapping ranges are skipped as well, the first one wins.
+	 * @param csvPath path to the CSV file
+	 * @param databasePath path to the database file to be created or replaced
+	 * @return number of imported ranges
+	 * @throws IOException if the CSV file could not be read or the database file could not be written
+	 */
+	public static int importCsv(String csvPath, String databasePath) throws IOException {
+		List<Range> v4Ranges = new ArrayList<>();
+		List<Range> v6Ranges = new ArrayList<>();
+		List<String[]> locations = new ArrayList<>();
+		List<Boolean> proxies = new ArrayList<>();
+		Map<String, Integer> locationIndex = new HashMap<>();
+		
+		long[] start = new long[2];
+		long[] end = new long[2];
+		int skipped = 0;
+		
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csvPath), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				
+				List<String> fields = splitCsv(line);
+				if (fields.size() < 5) {
+					skipped++;
+					continue;
+				}
+				
+				int startFamily = parseAddress(fields.get(0), start);
+				int endFamily = parseAddress(fields.get(1), end);
+				String countryCode = value(fields.get(2));
+				if (startFamily == 0 || startFamily != endFamily || countryCode == null
+						|| compare(start[0], start[1], end[0], end[1]) > 0) {
+					skipped++;
+					continue;
+				}
+				
+				String country = value(fields.get(3));
+				String city = value(fields.get(4));
+				String proxyField = fields.size() > 5 ? value(fields.get(5)) : null;
+				boolean proxy = "1".equals(proxyField) || "true".equalsIgnoreCase(proxyField) || "yes".equalsIgnoreCase(proxyField);
+				
+				String key = countryCode + '\0' + country + '\0' + city + '\0' + proxy;
+				Integer location = locationIndex.get(key);
+				if (location == null) {
+					location = locations.size();
+					locationIndex.put(key, location);
+					locations.add(new String[] { countryCode, country, city });
+					proxies.add(proxy);
+				}
+				
+				(startFamily == 4 ? v4Ranges : v6Ranges).add(new Range(start[0], start[1], end[0], end[1], location));
+			}
+		}
+		
+		skipped += removeOverlaps(v4Ranges);
+		skipped += removeOverlaps(v6Ranges);
+		
+		File tmpFile = new File(databasePath + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(v4Ranges.size());
+			out.writeInt(v6Ranges.size());
+			out.writeInt(locations.size());
+			
+			for (Range range : v4Ranges) {
+				out.writeInt((int)range.startLo);
+				out.writeInt((int)range.endLo);
+				out.writeInt(range.location);
+			}
+			
+			for (Range range : v6Ranges) {
+				out.writeLong(range.startHi);
+				out.writeLong(range.startLo);
+				out.writeLong(range.endHi);
+				out.writeLong(range.endLo);
+				out.writeInt(range.location);
+			}
+			
+			for (int n = 0; n < locations.size(); n++) {
+				String[] location = locations.get(n);
+				writeString(out, location[0]);
+				writeString(out, location[1]);
+				writeString(out, location[2]);
+				out.writeByte(proxies.get(n) ? 1 : 0);
+			}
+		}
+		
+		Files.move(tmpFile.toPath(), Paths.get(databasePath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		LOGGER.info("Imported {} IPv4 ranges, {} IPv6 ranges and {} locations out of {}, skipped {} lines.",
+				v4Ranges.size(), v6Ranges.size(), locations.size(), csvPath, skipped);
+		return v4Ranges.size() + v6Ranges.size();
+	}
+	
+	/**
+	 * Sorts the ranges and removes the ones overlapping with a preceding range.
+	 * @param ranges ranges to be processed
+	 * @return number of removed ranges
+	 */
+	private static int removeOverlaps(List<Range> ranges) {
+		ranges.sort(RANGE_ORDER);
+		
+		int removed = 0;
+		int target = 0;
+		for (int n = 0; n < ranges.size(); n++) {
+			Range range = ranges.get(n);
+			if (target > 0) {
+				Range previous = ranges.get(target - 1);
+				if (compare(range.startHi, range.startLo, previous.endHi, previous.endLo) <= 0) {
+					removed++;
+					continue;
+				}
+			}
+			
+			ranges.set(target++, range);
+		}
+		
+		ranges.subList(target, ranges.size()).clear();
+		
+		if (removed > 0) {
+			LOGGER.warn("Skipped {} overlapping ranges.", removed);
+		}
+		
+		return removed;
+	}
+	
+	/**
+	 * Parses an address out of a CSV field.
+	 * IPv4-mapped IPv6 addresses are stored as IPv4 ones.
+	 * @param field textual address or a decimal number
+	 * @param result target array for the high and the low 64 bits of the address
+	 * @return 4 for an IPv4 address, 6 for an IPv6 address, 0 if not parsable
+	 */
+	private static int parseAddress(String field, long[] result) {
+		field = field.trim();
+		if (field.isEmpty()) {
+			return 0;
+		}
+		
+		long ipv4 = parseIpv4(field);
+		if (ipv4 >= 0) {
+			result[0] = 0;
+			result[1] = ipv4;
+			return 4;
+		}
+		
+		if (field.indexOf(':') >= 0) {
+			byte[] bytes;
+			try {
+				bytes = InetAddress.getByName(field).getAddress();
+			} catch (UnknownHostException ex) {
+				return 0;
+			}
+			
+			if (bytes.length == 4) {
+				result[0] = 0;
+				result[1] = toLong(bytes, 0, 4);
+				return 4;
+			}
+			
+			result[0] = toLong(bytes, 0, 8);
+			result[1] = toLong(bytes, 8, 8);
+		} else {
+			BigInteger number;
+			try {
+				number = new BigInteger(field);
+			} catch (NumberFormatException ex) {
+				return 0;
+			}
+			
+			if (number.signum() < 0 || number.bitLength() > 128) {
+				return 0;
+			}
+			
+			if (number.compareTo(MAX_IPV4) <= 0) {
+				result[0] = 0;
+				result[1] = number.longValue();
+				return 4;
+			}
+			
+			result[0] = number.shiftRight(64).longValue();
+			result[1] = number.and(MASK_64).longValue();
+		}
+		
+		if (result[0] == 0 && (result[1] >>> 32) == 0xffffL) {
+			result[1] &= 0xffffffffL;
+			return 4;
+		}
+		
+		return 6;
+	}
+	
+	private static String value(String field) {
+		String value = field.trim();
+		return value.isEmpty() || "-".equals(value) ? null : value;
+	}
+	
+	/**
+	 * Splits a CSV line into fields, supporting quoted fields with escaped ("") quotes.
+	 * @param line line to be split
+	 * @return list of fields
+	 */
+	private static List<String> splitCsv(String line) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		
+		for (int n = 0; n < line.length(); n++) {
+			char c = line.charAt(n);
+			if (quoted) {
+				if (c == '"') {
+					if (n + 1 < line.length() && line.charAt(n + 1) == '"') {
+						field.append('"');
+						n++;
+					} else {
+						quoted = false;
+					}
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		
+		fields.add(field.toString());
+		return fields;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.integrations;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Source of geolocation data of network addresses.
+ */
+public interface GeoIpProvider {
+	/**
+	 * Locates the given address.
+	 * @param address address to be located (textual form of an IPv4 or IPv6 address)
+	 * @return the geolocation object or null if the provider does not know the address
+	 * @throws IOException if the provider could not be asked (the result is unknown)
+	 */
+	GeoIp locate(String address) throws IOException;
+	
+	/**
+	 * Locates the given address without blocking the caller.
+	 * The default implementation calls {@link #locate(String)} directly, which suits local providers.
+	 * @param address address to be located (textual form of an IPv4 or IPv6 address)
+	 * @return future completed with the geolocation object or null if the provider does not know the address,
+	 * or completed exceptionally if the provider could not be asked
+	 */
+	default CompletableFuture<GeoIp> locateAsync(String address) {
+		try {
+			return CompletableFuture.completedFuture(locate(address));
+		} catch (IOException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+	}
+}
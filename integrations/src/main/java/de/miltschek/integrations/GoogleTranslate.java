@@ -3,6 +3,22 @@ package de.miltschek.integrations;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,10 +31,18 @@ import com.google.cloud.translate.Translation;
 
 /**
  * Provides natural language translation services of Google Cloud.
+ * Translations may be cached in-process, see {@link #setCache(TranslationCache)}.
+ * Concurrent requests of the same translation share one call to the service.
+ * Asynchronous requests are collected for a short time window and sent as one call per target language,
+ * see {@link #translateAsync(String, String)}.
  */
 public class GoogleTranslate {
 	private static final Logger LOGGER = LoggerFactory.getLogger(GoogleTranslate.class);
 	
+	/** Maximum number of texts per call, as limited by the service. */
+	private static final int MAX_BATCH_SIZE = 128;
+	private static final int BATCH_THREADS = 4;
+	
 	private static final String[] LANGUAGES = new String[] {
 			"af", // Afrikaans
 			"sq", // Albanian
@@ -165,7 +189,7 @@ public class GoogleTranslate {
 			this.errorMessage = errorMessage;
 		}
 		
-		private Result(String sourceLanguage, String targetLanguage, String translatedText) {
+		Result(String sourceLanguage, String targetLanguage, String translatedText) {
 			this.success = true;
 			this.sourceLanguage = sourceLanguage;
 			this.targetLanguage = targetLanguage;
@@ -223,7 +247,29 @@ public class GoogleTranslate {
 		return translate(sourceText, "en");
 	}
 	
+	/**
+	 * Requests collected for one call to the service.
+	 */
+	/** Common chat tokens that are English or language-neutral, lower case. */
+	static final Set<String> CHAT_TOKENS = new HashSet<>(Arrays.asList(
+			"gg", "gl", "hf", "glhf", "wp", "ggwp", "lol", "ok", "okay", "thx", "ty", "np",
+			"brb", "afk", "hi", "hey", "hello", "bye", "cya", "yes", "yep", "xd"));
+	
+	private static class PendingBatch {
+		/** Source texts by their cache keys. */
+		private final Map<String, String> texts = new LinkedHashMap<>();
+		/** Scheduled sending of the batch or null if sent immediately. */
+		private ScheduledFuture<?> flush;
+	}
+	
 	private final Translate translateService;
+	private final ConcurrentHashMap<String, CompletableFuture<Result>> inFlight = new ConcurrentHashMap<>();
+	private volatile TranslationCache cache;
+	private volatile boolean fastPath = true;
+	private volatile int batchWindow = 100;
+	private final Map<String, PendingBatch> pendingBatches = new HashMap<>();
+	private ScheduledExecutorService batchScheduler;
+	private ExecutorService batchExecutor;
 	
 	/**
 	 * Instantiates the translation service with a configuration file expected to be given
@@ -245,14 +291,260 @@ public class GoogleTranslate {
 		} finally {}
 	}
 	
+	/**
+	 * Sets the cache to be consulted before calling the service.
+	 * @param cache cache of translations or null to disable caching
+	 */
+	public void setCache(TranslationCache cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * Gets the cache consulted before calling the service.
+	 * @return cache of translations or null if caching is disabled
+	 */
+	public TranslationCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * Sets whether texts made of common chat tokens only (see {@link #CHAT_TOKENS}) are assumed to be English without calling the service.
+	 * @param fastPath true to recognize common chat tokens locally, false to always call the service
+	 */
+	public void setFastPath(boolean fastPath) {
+		this.fastPath = fastPath;
+	}
+	
+	/**
+	 * Sets the time window of collecting asynchronous requests to be sent together.
+	 * @param batchWindow time window in milliseconds, 0 to send each request immediately
+	 */
+	public void setBatchWindow(int batchWindow) {
+		this.batchWindow = batchWindow;
+	}
+	
+	/**
+	 * Detects the language of a text locally if possible.
+	 * @param sourceText text to be examined
+	 * @param fastPath true to recognize common chat tokens, false to detect texts without letters only
+	 * @return an empty string for texts without any letters (nothing to translate), "en" for texts
+	 * whose words are all common chat tokens or null if the service needs to be asked
+	 */
+	static String detectFast(String sourceText, boolean fastPath) {
+		boolean letters = false;
+		boolean tokens = true;
+		int start = -1;
+		for (int n = 0; n <= sourceText.length(); n++) {
+			if (n < sourceText.length() && Character.isLetter(sourceText.charAt(n))) {
+				letters = true;
+				if (start < 0) {
+					start = n;
+				}
+			} else if (start >= 0) {
+				if (!CHAT_TOKENS.contains(sourceText.substring(start, n).toLowerCase(Locale.ROOT))) {
+					tokens = false;
+				}
+				
+				start = -1;
+			}
+		}
+		
+		if (!letters) {
+			return "";
+		}
+		
+		return fastPath && tokens ? "en" : null;
+	}
+	
 	/**
 	 * Detects the source language automatically and tries to translate it to the requested language.
+	 * Texts without letters, texts made of common chat tokens only (if the target language is English) and cached translations are not sent to the service.
 	 * @param sourceText source text to be translated
 	 * @param targetLanguage an ISO-639-1 identifier of the requested target language
-	 * @return
+	 * @return translation result
 	 * @see <a href="https://en.wikipedia.org/wiki/List_of_ISO_639-1_codes">ISO-639-1 Codes</a>
 	 */
 	public Result translate(String sourceText, String targetLanguage) {
+		String detected = detectFast(sourceText, fastPath);
+		if (detected != null && (detected.isEmpty() || detected.equals(targetLanguage))) {
+			return new Result(detected.isEmpty() ? targetLanguage : detected, targetLanguage, sourceText);
+		}
+		
+		String key = TranslationCache.key(sourceText, targetLanguage);
+		TranslationCache cache = this.cache;
+		if (cache != null) {
+			Result result = cache.get(key);
+			if (result != null) {
+				return result;
+			}
+		}
+		
+		CompletableFuture<Result> own = new CompletableFuture<>();
+		CompletableFuture<Result> existing = inFlight.putIfAbsent(key, own);
+		if (existing != null) {
+			return existing.join();
+		}
+		
+		Result result = null;
+		try {
+			result = call(sourceText, targetLanguage);
+			if (cache != null && result.isSuccess()) {
+				cache.put(key, result);
+			}
+			
+			return result;
+		} finally {
+			inFlight.remove(key, own);
+			own.complete(result == null ? new Result("translation aborted") : result);
+		}
+	}
+	
+	/**
+	 * Detects the source language automatically and translates it to the requested language without blocking the caller.
+	 * Requests are collected for the configured time window and sent as one call per target language.
+	 * Texts without letters, texts made of common chat tokens only (if the target language is English) and cached translations are delivered immediately (the future is already completed).
+	 * @param sourceText source text to be translated
+	 * @param targetLanguage an ISO-639-1 identifier of the requested target language
+	 * @return future completed with the translation result, never completed exceptionally
+	 */
+	public CompletableFuture<Result> translateAsync(String sourceText, String targetLanguage) {
+		String detected = detectFast(sourceText, fastPath);
+		if (detected != null && (detected.isEmpty() || detected.equals(targetLanguage))) {
+			return CompletableFuture.completedFuture(new Result(detected.isEmpty() ? targetLanguage : detected, targetLanguage, sourceText));
+		}
+		
+		String key = TranslationCache.key(sourceText, targetLanguage);
+		TranslationCache cache = this.cache;
+		if (cache != null) {
+			Result result = cache.get(key);
+			if (result != null) {
+				return CompletableFuture.completedFuture(result);
+			}
+		}
+		
+		CompletableFuture<Result> own = new CompletableFuture<>();
+		CompletableFuture<Result> existing = inFlight.putIfAbsent(key, own);
+		if (existing != null) {
+			return existing;
+		}
+		
+		own.whenComplete((result, ex) -> {
+			inFlight.remove(key, own);
+			if (cache != null && result != null && result.isSuccess()) {
+				cache.put(key, result);
+			}
+		});
+		
+		int window = this.batchWindow;
+		PendingBatch batch = null;
+		synchronized (pendingBatches) {
+			PendingBatch pending = pendingBatches.get(targetLanguage);
+			if (pending == null) {
+				PendingBatch created = new PendingBatch();
+				pendingBatches.put(targetLanguage, created);
+				if (window > 0) {
+					created.flush = getBatchScheduler().schedule(() -> flush(targetLanguage, created), window, TimeUnit.MILLISECONDS);
+				}
+				
+				pending = created;
+			}
+			
+			pending.texts.put(key, sourceText);
+			
+			if (window <= 0 || pending.texts.size() >= MAX_BATCH_SIZE) {
+				batch = pendingBatches.remove(targetLanguage);
+				if (batch.flush != null) {
+					// sent early, the timer must not flush the next batch before its window elapses
+					batch.flush.cancel(false);
+				}
+			}
+		}
+		
+		if (batch != null) {
+			Map<String, String> texts = batch.texts;
+			getBatchExecutor().execute(() -> callBatch(texts, targetLanguage));
+		}
+		
+		return own;
+	}
+	
+	/**
+	 * Sends a batch of pending requests once its time window has elapsed, unless already sent.
+	 * @param targetLanguage target language
+	 * @param batch batch to be sent
+	 */
+	private void flush(String targetLanguage, PendingBatch batch) {
+		synchronized (pendingBatches) {
+			if (!pendingBatches.remove(targetLanguage, batch)) {
+				return;
+			}
+		}
+		
+		getBatchExecutor().execute(() -> callBatch(batch.texts, targetLanguage));
+	}
+	
+	/**
+	 * Calls the translation service with a list of texts and completes the respective in-flight requests.
+	 * @param batch source texts by their cache keys
+	 * @param targetLanguage an ISO-639-1 identifier of the requested target language
+	 */
+	private void callBatch(Map<String, String> batch, String targetLanguage) {
+		List<String> keys = new ArrayList<>(batch.keySet());
+		List<Result> results = new ArrayList<>(keys.size());
+		
+		try {
+			List<Translation> translations = this.translateService.translate(new ArrayList<>(batch.values()), TranslateOption.targetLanguage(targetLanguage));
+			LOGGER.debug("Translated {} texts to {} in one call.", translations.size(), targetLanguage);
+			for (Translation translation : translations) {
+				results.add(new Result(translation.getSourceLanguage(), targetLanguage, translation.getTranslatedText()));
+			}
+		} catch (Exception ex) {
+			LOGGER.error("Failed to call Google Translation API.", ex);
+			results.clear();
+			for (int n = 0; n < keys.size(); n++) {
+				results.add(new Result(ex.getMessage()));
+			}
+		}
+		
+		for (int n = 0; n < keys.size(); n++) {
+			CompletableFuture<Result> future = inFlight.get(keys.get(n));
+			if (future != null) {
+				future.complete(n < results.size() ? results.get(n) : new Result("no translation delivered"));
+			}
+		}
+	}
+	
+	private synchronized ScheduledExecutorService getBatchScheduler() {
+		if (batchScheduler == null) {
+			batchScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "translate-batch");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+		return batchScheduler;
+	}
+	
+	private synchronized ExecutorService getBatchExecutor() {
+		if (batchExecutor == null) {
+			batchExecutor = Executors.newFixedThreadPool(BATCH_THREADS, r -> {
+				Thread thread = new Thread(r, "translate-call");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+		return batchExecutor;
+	}
+	
+	/**
+	 * Calls the translation service.
+	 * @param sourceText source text to be translated
+	 * @param targetLanguage an ISO-639-1 identifier of the requested target language
+	 * @return translation result
+	 */
+	private Result call(String sourceText, String targetLanguage) {
 		try {
 			Translation translation = this.translateService.translate(sourceText, TranslateOption.targetLanguage(targetLanguage));
 			LOGGER.debug("Translated from {}:{} to {}:{}.",
@@ -0,0 +1,251 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.integrations;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Geolocation provider using the remote service of ip-api.com.
+ * Asynchronous lookups are collected for a short time and resolved by the batch endpoint,
+ * up to {@value #BATCH_SIZE} addresses per request.
+ */
+public class IpApiProvider implements GeoIpProvider {
+	private static final Logger LOGGER = LoggerFactory.getLogger(IpApiProvider.class);
+	
+	private static final String FIELDS = "status,country,city,proxy,countryCode";
+	private static final int BATCH_SIZE = 100;
+	private static final long BATCH_WINDOW = 50;
+	private static final Duration TIMEOUT = Duration.ofSeconds(10);
+	
+	private final Map<String, CompletableFuture<GeoIp>> pending = new LinkedHashMap<>();
+	/** Scheduled sending of the pending lookups, guarded by the pending map. */
+	private ScheduledFuture<?> scheduledFlush;
+	/** Number of the pending batch, guarded by the pending map. */
+	private long batchNumber;
+	private HttpClient httpClient;
+	private ScheduledExecutorService scheduler;
+	
+	@Override
+	public GeoIp locate(String address) throws IOException {
+		HttpURLConnection http = (HttpURLConnection)new URL("http://ip-api.com/json/"
+				+ URLEncoder.encode(address, StandardCharsets.UTF_8)
+				+ "?fields=" + FIELDS)
+				.openConnection();
+		
+		StringBuilder response = new StringBuilder();
+		
+		try (InputStreamReader isr = new InputStreamReader(http.getInputStream(), StandardCharsets.UTF_8)) {
+			char[] buffer = new char[1024];
+			int read;
+			while ((read = isr.read(buffer, 0, buffer.length)) > 0) {
+				response.append(buffer, 0, read);
+			}
+		}
+		
+		try {
+			return parse(new JSONObject(response.toString()));
+		} catch (JSONException ex) {
+			throw new IOException("geo lookup api json parse failed", ex);
+		}
+	}
+	
+	@Override
+	public CompletableFuture<GeoIp> locateAsync(String address) {
+		Map<String, CompletableFuture<GeoIp>> batch = null;
+		CompletableFuture<GeoIp> future;
+		
+		synchronized (pending) {
+			future = pending.get(address);
+			if (future != null) {
+				return future;
+			}
+			
+			future = new CompletableFuture<>();
+			pending.put(address, future);
+			
+			if (pending.size() >= BATCH_SIZE) {
+				batch = drain();
+			} else if (pending.size() == 1) {
+				long number = batchNumber;
+				scheduledFlush = getScheduler().schedule(() -> flush(number), BATCH_WINDOW, TimeUnit.MILLISECONDS);
+			}
+		}
+		
+		if (batch != null) {
+			send(batch);
+		}
+		
+		return future;
+	}
+	
+	/**
+	 * Sends all pending lookups when the batch window elapses.
+	 * @param number number of the batch the flush has been scheduled for
+	 */
+	private void flush(long number) {
+		Map<String, CompletableFuture<GeoIp>> batch;
+		synchronized (pending) {
+			if (number != batchNumber) {
+				// the batch has been sent early, the next one has its own window
+				return;
+			}
+			
+			batch = drain();
+		}
+		
+		if (!batch.isEmpty()) {
+			send(batch);
+		}
+	}
+	
+	/**
+	 * Takes over all pending lookups, shall be called while holding the lock on the pending map.
+	 * @return pending lookups
+	 */
+	private Map<String, CompletableFuture<GeoIp>> drain() {
+		Map<String, CompletableFuture<GeoIp>> batch = new LinkedHashMap<>(pending);
+		pending.clear();
+		batchNumber++;
+		if (scheduledFlush != null) {
+			scheduledFlush.cancel(false);
+			scheduledFlush = null;
+		}
+		
+		return batch;
+	}
+	
+	/**
+	 * Resolves the given lookups with one request to the batch endpoint.
+	 * Results are delivered in the order of the request.
+	 * @param batch lookups to be resolved
+	 */
+	private void send(Map<String, CompletableFuture<GeoIp>> batch) {
+		List<String> addresses = new ArrayList<>(batch.keySet());
+		JSONArray body = new JSONArray();
+		for (String address : addresses) {
+			body.put(address);
+		}
+		
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://ip-api.com/batch?fields=" + FIELDS))
+				.timeout(TIMEOUT)
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+				.build();
+		
+		LOGGER.debug("Resolving {} addresses in a batch.", addresses.size());
+		
+		getHttpClient().sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+			.whenComplete((response, ex) -> {
+				Throwable failure = ex;
+				if (failure == null && response.statusCode() != 200) {
+					failure = new IOException("geo ip batch api responded with a status code " + response.statusCode());
+				}
+				
+				if (failure == null) {
+					try {
+						JSONArray results = new JSONArray(response.body());
+						for (int n = 0; n < results.length() && n < addresses.size(); n++) {
+							batch.remove(addresses.get(n)).complete(parse(results.getJSONObject(n)));
+						}
+						
+						if (!batch.isEmpty()) {
+							failure = new IOException("geo ip batch api delivered " + results.length() + " results for " + addresses.size() + " addresses");
+						}
+					} catch (JSONException jsonEx) {
+						failure = new IOException("geo ip batch api json parse failed", jsonEx);
+					}
+				}
+				
+				if (failure != null) {
+					for (CompletableFuture<GeoIp> future : batch.values()) {
+						future.completeExceptionally(failure);
+					}
+				}
+			});
+	}
+	
+	/**
+	 * Parses a single result of the API.
+	 * @param data result of the API
+	 * @return the geolocation object or null if the API could not locate the address
+	 */
+	private static GeoIp parse(JSONObject data) {
+		if (!"success".equals(data.getString("status"))) {
+			LOGGER.error("geo ip lookup api responded with a status {}", data.getString("status"));
+			return null;
+		}
+		
+		return new GeoIp(data.getString("countryCode"),
+				data.getString("country"),
+				data.getString("city"),
+				data.getBoolean("proxy"));
+	}
+	
+	private synchronized HttpClient getHttpClient() {
+		if (httpClient == null) {
+			httpClient = HttpClient.newBuilder()
+					.connectTimeout(TIMEOUT)
+					.build();
+		}
+		
+		return httpClient;
+	}
+	
+	private synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "geoip-batch");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+		return scheduler;
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.integrations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.slack.api.methods.MethodsClient;
+import com.slack.api.methods.SlackApiException;
+import com.slack.api.methods.response.conversations.ConversationsInfoResponse;
+import com.slack.api.methods.response.conversations.ConversationsListResponse;
+import com.slack.api.model.Conversation;
+
+/**
+ * Directory of Slack channels mapping channel IDs to names (including the hash-symbol).
+ * The whole list of channels is fetched page by page and refreshed periodically in the background;
+ * channels not known yet are looked up one by one on the first access.
+ * A refresh evicts only channels it has listed before, channels looked up one by one
+ * (e.g. private or archived ones, not included in the list) are kept.
+ * Look-ups are served from a concurrent map and never block unless the channel is unknown.
+ */
+public class SlackChannelDirectory implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SlackChannelDirectory.class);
+	
+	/** Number of channels requested per page. */
+	private static final int PAGE_SIZE = 200;
+	/** Time in milliseconds an unsuccessful look-up of a channel is not repeated. */
+	private static final long NEGATIVE_TTL = 300000;
+	
+	private final MethodsClient client;
+	private final ConcurrentHashMap<String, String> idToName = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Long> unknownUntil = new ConcurrentHashMap<>();
+	/** IDs of channels delivered by the last complete list. */
+	private final Set<String> listed = ConcurrentHashMap.newKeySet();
+	private ScheduledExecutorService refresher;
+	
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong lazyLookups = new AtomicLong();
+	
+	/**
+	 * Creates an empty directory.
+	 * @param client Slack API client
+	 */
+	public SlackChannelDirectory(MethodsClient client) {
+		this.client = client;
+	}
+	
+	/**
+	 * Fetches the complete list of channels, following the pagination cursor.
+	 * Channels not listed anymore are removed only if all pages have been fetched successfully.
+	 * @return true if succeeded, false otherwise
+	 */
+	public boolean refresh() {
+		Set<String> seen = new HashSet<>();
+		String cursor = null;
+		
+		try {
+			do {
+				String pageCursor = cursor;
+				ConversationsListResponse clr = client.conversationsList(r -> {
+					r.limit(PAGE_SIZE).excludeArchived(true);
+					if (pageCursor != null) {
+						r.cursor(pageCursor);
+					}
+					
+					return r;
+				});
+				
+				if (!clr.isOk()) {
+					LOGGER.error("Failed to get a list of channels: {}.", clr.getError());
+					return false;
+				}
+				
+				for (Conversation c : clr.getChannels()) {
+					LOGGER.debug("Caching channel id {} and name {}.", c.getId(), c.getName());
+					idToName.put(c.getId(), "#" + c.getName());
+					unknownUntil.remove(c.getId());
+					seen.add(c.getId());
+				}
+				
+				cursor = clr.getResponseMetadata() == null ? null : clr.getResponseMetadata().getNextCursor();
+			} while (cursor != null && !cursor.isEmpty());
+		} catch (IOException e) {
+			LOGGER.error("Failed to get channels (IO).", e);
+			return false;
+		} catch (SlackApiException e) {
+			LOGGER.error("Failed to get channels (API).", e);
+			return false;
+		}
+		
+		// the list has no authority over channels looked up one by one
+		for (Iterator<String> iterator = listed.iterator(); iterator.hasNext(); ) {
+			String channelId = iterator.next();
+			if (!seen.contains(channelId)) {
+				idToName.remove(channelId);
+				iterator.remove();
+			}
+		}
+		
+		listed.addAll(seen);
+		refreshes.incrementAndGet();
+		LOGGER.debug("Channel directory refreshed, {} channels.", idToName.size());
+		return true;
+	}
+	
+	/**
+	 * Starts refreshing the directory periodically in the background.
+	 * @param interval refresh interval in seconds, 0 or less turns the refresh off
+	 */
+	public synchronized void start(int interval) {
+		if (interval <= 0 || refresher != null) {
+			return;
+		}
+		
+		refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "slack-channels");
+			thread.setDaemon(true);
+			return thread;
+		});
+		refresher.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Gets the name of a channel, looks it up at Slack if not known yet.
+	 * @param channelId channel ID
+	 * @return channel name including the hash-symbol or null if not available
+	 */
+	public String getName(String channelId) {
+		if (channelId == null) {
+			return null;
+		}
+		
+		String name = idToName.get(channelId);
+		if (name != null) {
+			return name;
+		}
+		
+		Long until = unknownUntil.get(channelId);
+		if (until != null && until > System.currentTimeMillis()) {
+			return null;
+		}
+		
+		return lookup(channelId);
+	}
+	
+	/**
+	 * Looks up a single channel at Slack and caches the result.
+	 * @param channelId channel ID
+	 * @return channel name including the hash-symbol or null if not available
+	 */
+	private String lookup(String channelId) {
+		lazyLookups.incrementAndGet();
+		
+		try {
+			ConversationsInfoResponse cir = client.conversationsInfo(r -> r.channel(channelId));
+			if (cir.isOk() && cir.getChannel() != null && cir.getChannel().getName() != null) {
+				String name = "#" + cir.getChannel().getName();
+				idToName.put(channelId, name);
+				unknownUntil.remove(channelId);
+				return name;
+			} else {
+				LOGGER.warn("Failed to get the channel {}: {}.", channelId, cir.getError());
+			}
+		} catch (IOException e) {
+			LOGGER.error("Failed to get the channel {} (IO).", channelId, e);
+		} catch (SlackApiException e) {
+			LOGGER.error("Failed to get the channel {} (API).", channelId, e);
+		}
+		
+		unknownUntil.put(channelId, System.currentTimeMillis() + NEGATIVE_TTL);
+		return null;
+	}
+	
+	/**
+	 * Gets the number of known channels.
+	 * @return number of known channels
+	 */
+	public int size() {
+		return idToName.size();
+	}
+	
+	/**
+	 * Gets the number of complete refreshes so far.
+	 * @return number of complete refreshes
+	 */
+	public long getRefreshes() {
+		return refreshes.get();
+	}
+	
+	/**
+	 * Gets the number of single-channel look-ups caused by unknown channels.
+	 * @return number of single-channel look-ups
+	 */
+	public long getLazyLookups() {
+		return lazyLookups.get();
+	}
+	
+	@Override
+	public synchronized void close() {
+		if (refresher != null) {
+			refresher.shutdownNow();
+			refresher = null;
+		}
+	}
+}
@@ -60,48 +60,69 @@ public class SlackClient {
 	}
 	
 	/**
-	 * Sends a message to the slack channel.
+	 * Sends a message to the slack channel, retrying once after a second if it fails.
+	 * Blocks the caller, see {@link #postMessage(String)} for posting through a {@link SlackOutbox}.
 	 * @param message message to be sent
 	 * @return true in case the message has been successfully sent, false otherwise
 	 */
 	public boolean sendMessage(String message) {
 		for (int retryCount = 2; retryCount > 0; retryCount--) {
-			try {
-	    		String messageEncoded = URLEncoder.encode(message, StandardCharsets.UTF_8);
-		    	BodyPublisher publisher = BodyPublishers.ofString("channel=" + channelEncoded + "&text=" + messageEncoded);
-		    	HttpRequest request = HttpRequest.newBuilder(new URI("https://slack.com/api/chat.postMessage"))
-		    			.setHeader("Authorization", "Bearer " + token)
-		    			.setHeader("Content-Type", "application/x-www-form-urlencoded")
-		    			.POST(publisher)
-		    			.build();
-		    	BodyHandler<String> responseHandler = BodyHandlers.ofString();
-		    	HttpResponse<String> response = http.send(request, responseHandler);
-		    	
-		    	if (response.statusCode() == 200) {
-		    		JSONObject jsonResponse = new JSONObject(response.body());
-		    		if (jsonResponse.getBoolean("ok")) {
-		    			return true;
-		    		} else {
-		    			LOGGER.error("failed to send slack message; response {}", jsonResponse.getString("error"));
-		    		}
-		    	} else if (response.statusCode() == 429) {
-		    		// rate exceeded
-		    		LOGGER.warn("slack reported rate exceeded");
-		    	} else {
-		    		LOGGER.error("slack responded with error code {}", response.statusCode());
-		    	}
-	    	} catch (Exception ex) {
-	    		LOGGER.error("slack exception", ex);
-	    	}
+			if (postMessage(message) == 0) {
+				return true;
+			}
 			
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				break;
+			if (retryCount > 1) {
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
 			}
 		}
 		
-		LOGGER.debug("failed to deliver the message {}", message);
 		return false;
 	}
+	
+	/**
+	 * Sends a message to the slack channel without retrying, reporting the rate limit to the caller.
+	 * Use it as a {@link SlackOutbox.Transport} to get rate-limit-aware retries without blocking.
+	 * @param message message to be sent
+	 * @return 0 in case the message has been successfully sent,
+	 * a positive number of milliseconds to wait (Retry-After) if rate-limited,
+	 * a negative value otherwise
+	 */
+	public long postMessage(String message) {
+		try {
+    		String messageEncoded = URLEncoder.encode(message, StandardCharsets.UTF_8);
+	    	BodyPublisher publisher = BodyPublishers.ofString("channel=" + channelEncoded + "&text=" + messageEncoded);
+	    	HttpRequest request = HttpRequest.newBuilder(new URI("https://slack.com/api/chat.postMessage"))
+	    			.setHeader("Authorization", "Bearer " + token)
+	    			.setHeader("Content-Type", "application/x-www-form-urlencoded")
+	    			.POST(publisher)
+	    			.build();
+	    	BodyHandler<String> responseHandler = BodyHandlers.ofString();
+	    	HttpResponse<String> response = http.send(request, responseHandler);
+	    	
+	    	if (response.statusCode() == 200) {
+	    		JSONObject jsonResponse = new JSONObject(response.body());
+	    		if (jsonResponse.getBoolean("ok")) {
+	    			return 0;
+	    		} else {
+	    			LOGGER.error("failed to send slack message; response {}", jsonResponse.getString("error"));
+	    		}
+	    	} else if (response.statusCode() == 429) {
+	    		// rate exceeded
+	    		LOGGER.warn("slack reported rate exceeded");
+	    		return SlackOutbox.parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null));
+	    	} else {
+	    		LOGGER.error("slack responded with error code {}", response.statusCode());
+	    	}
+    	} catch (Exception ex) {
+    		LOGGER.error("slack exception", ex);
+    	}
+		
+		LOGGER.debug("failed to deliver the message {}", message);
+		return -1;
+	}
 }
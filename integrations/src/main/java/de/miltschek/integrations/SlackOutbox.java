@@ -0,0 +1,348 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.integrations;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous outbound queue of Slack messages, one queue per channel.
+ * Offering a message never blocks: messages are posted by a small pool of background threads.
+ * Messages queued in a short window are coalesced into one post (joined by new lines),
+ * priority messages are posted before any regular ones,
+ * at most one post per channel per second is made and a 429 response (Retry-After) pauses the channel.
+ */
+public class SlackOutbox implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SlackOutbox.class);
+	
+	/** Minimum time in milliseconds between two posts to the same channel (Slack's per-channel limit). */
+	private static final long MIN_INTERVAL = 1000;
+	/** Time in milliseconds to wait if rate-limited without a valid Retry-After header. */
+	private static final long DEFAULT_RETRY_AFTER = 1000;
+	
+	/**
+	 * Posts messages to Slack.
+	 */
+	public interface Transport {
+		/**
+		 * Posts a message to a Slack channel.
+		 * @param channel channel name or channel ID
+		 * @param text message text
+		 * @return 0 if posted, a positive number of milliseconds to wait before a retry if rate-limited,
+		 * a negative value if failed otherwise
+		 */
+		long post(String channel, String text);
+	}
+	
+	private static class ChannelQueue {
+		private final String channel;
+		private final ArrayDeque<String> priority = new ArrayDeque<>();
+		private final ArrayDeque<String> regular = new ArrayDeque<>();
+		private long notBefore;
+		private ScheduledFuture<?> pending;
+		private boolean scheduled;
+		
+		private ChannelQueue(String channel) {
+			this.channel = channel;
+		}
+		
+		private int size() {
+			return priority.size() + regular.size();
+		}
+	}
+	
+	private final Transport transport;
+	private final long coalesceWindow;
+	private final int maxMessageLength;
+	private final int maxQueueSize;
+	private final ConcurrentHashMap<String, ChannelQueue> queues = new ConcurrentHashMap<>();
+	private final ScheduledThreadPoolExecutor executor;
+	private volatile boolean closed;
+	
+	private final AtomicLong enqueued = new AtomicLong();
+	private final AtomicLong posted = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong rateLimited = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	
+	/**
+	 * Creates an outbox.
+	 * @param transport Slack connector posting the messages
+	 * @param coalesceWindow time in milliseconds regular messages wait for further messages to be coalesced with
+	 * @param maxMessageLength maximum length of a coalesced message
+	 * @param maxQueueSize maximum number of messages waiting per channel, the oldest regular messages are dropped first
+	 */
+	public SlackOutbox(Transport transport, int coalesceWindow, int maxMessageLength, int maxQueueSize) {
+		this.transport = transport;
+		this.coalesceWindow = Math.max(0, coalesceWindow);
+		this.maxMessageLength = Math.max(1, maxMessageLength);
+		this.maxQueueSize = Math.max(1, maxQueueSize);
+		this.executor = new ScheduledThreadPoolExecutor(2, r -> {
+			Thread thread = new Thread(r, "slack-outbox");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.executor.setRemoveOnCancelPolicy(true);
+	}
+	
+	/**
+	 * Converts a value of the Retry-After header into milliseconds.
+	 * @param retryAfter header value in seconds, may be null
+	 * @return time to wait in milliseconds, always positive
+	 */
+	public static long parseRetryAfter(String retryAfter) {
+		if (retryAfter != null) {
+			try {
+				long seconds = Long.parseLong(retryAfter.trim());
+				if (seconds > 0) {
+					return seconds * 1000;
+				}
+			} catch (NumberFormatException ex) {
+				LOGGER.debug("Invalid Retry-After value {}.", retryAfter);
+			}
+		}
+		
+		return DEFAULT_RETRY_AFTER;
+	}
+	
+	/**
+	 * Queues a message to be posted to the channel. Never blocks.
+	 * @param channel channel name or channel ID, null is rejected
+	 * @param text message text
+	 * @param priority true to post the message before any regular ones and without waiting for coalescing
+	 * @return true if queued (possibly to be coalesced with other messages), false if the outbox is closed,
+	 * the channel is null or the message is dropped as the queue is full of priority messages
+	 */
+	public boolean offer(String channel, String text, boolean priority) {
+		if (closed || channel == null) {
+			return false;
+		}
+		
+		ChannelQueue queue = queues.computeIfAbsent(channel, ChannelQueue::new);
+		synchronized (queue) {
+			if (queue.size() >= maxQueueSize) {
+				if (!queue.regular.isEmpty()) {
+					queue.regular.poll();
+				} else if (priority) {
+					queue.priority.poll();
+				} else {
+					dropped.incrementAndGet();
+					LOGGER.warn("Slack outbox of {} is full, dropping a message.", channel);
+					return false;
+				}
+				
+				dropped.incrementAndGet();
+				LOGGER.warn("Slack outbox of {} is full, dropping the oldest message.", channel);
+			}
+			
+			if (priority) {
+				queue.priority.add(text);
+			} else {
+				queue.regular.add(text);
+			}
+			
+			enqueued.incrementAndGet();
+			schedule(queue, priority ? 0 : coalesceWindow, priority);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Schedules posting of the queue's content unless already scheduled.
+	 * Must be called while holding the queue's lock.
+	 * @param queue channel queue
+	 * @param delay minimum delay in milliseconds
+	 * @param hurry true to move an already scheduled post forward to the given delay
+	 */
+	private void schedule(ChannelQueue queue, long delay, boolean hurry) {
+		long wait = Math.max(delay, queue.notBefore - System.currentTimeMillis());
+		
+		if (queue.scheduled) {
+			if (!hurry || queue.pending == null
+					|| queue.pending.getDelay(TimeUnit.MILLISECONDS) <= wait
+					|| !queue.pending.cancel(false)) {
+				// a post is due early enough or being executed right now and will re-schedule itself
+				return;
+			}
+		}
+		
+		try {
+			queue.pending = executor.schedule(() -> drain(queue), wait, TimeUnit.MILLISECONDS);
+			queue.scheduled = true;
+		} catch (RejectedExecutionException ex) {
+			queue.pending = null;
+			queue.scheduled = false;
+			LOGGER.warn("Slack outbox is shut down, {} messages to {} not sent.", queue.size(), queue.channel);
+		}
+	}
+	
+	/**
+	 * Posts one coalesced message of the queue and schedules the next one if needed.
+	 * @param queue channel queue
+	 */
+	private void drain(ChannelQueue queue) {
+		ArrayDeque<String> source;
+		String text;
+		
+		synchronized (queue) {
+			queue.pending = null;
+			source = queue.priority.isEmpty() ? queue.regular : queue.priority;
+			if (source.isEmpty()) {
+				queue.scheduled = false;
+				return;
+			}
+			
+			StringBuilder sb = new StringBuilder(source.poll());
+			while (!source.isEmpty() && sb.length() + 1 + source.peek().length() <= maxMessageLength) {
+				sb.append('\n').append(source.poll());
+				coalesced.incrementAndGet();
+			}
+			
+			text = sb.toString();
+		}
+		
+		long result;
+		try {
+			result = transport.post(queue.channel, text);
+		} catch (RuntimeException ex) {
+			LOGGER.error("Failed to post a message to {}.", queue.channel, ex);
+			result = -1;
+		}
+		
+		synchronized (queue) {
+			long now = System.currentTimeMillis();
+			if (result > 0) {
+				rateLimited.incrementAndGet();
+				LOGGER.warn("Slack rate limit reached for {}, pausing for {} ms.", queue.channel, result);
+				source.addFirst(text);
+				queue.notBefore = now + result;
+			} else {
+				if (result == 0) {
+					posted.incrementAndGet();
+				} else {
+					failed.incrementAndGet();
+				}
+				
+				queue.notBefore = now + MIN_INTERVAL;
+			}
+			
+			queue.scheduled = false;
+			if (queue.size() > 0) {
+				schedule(queue, 0, false);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of messages accepted by the outbox.
+	 * @return number of messages accepted
+	 */
+	public long getEnqueued() {
+		return enqueued.get();
+	}
+	
+	/**
+	 * Gets the number of successful posts to Slack.
+	 * @return number of successful posts
+	 */
+	public long getPosted() {
+		return posted.get();
+	}
+	
+	/**
+	 * Gets the number of messages merged into a preceding one.
+	 * @return number of coalesced messages
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+	
+	/**
+	 * Gets the number of posts rejected by Slack due to the rate limit.
+	 * @return number of rate-limited posts
+	 */
+	public long getRateLimited() {
+		return rateLimited.get();
+	}
+	
+	/**
+	 * Gets the number of posts that failed for other reasons than the rate limit.
+	 * @return number of failed posts
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+	
+	/**
+	 * Gets the number of messages dropped due to a full queue.
+	 * @return number of dropped messages
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	/**
+	 * Gets the number of messages waiting in all queues.
+	 * @return number of waiting messages
+	 */
+	public int getQueued() {
+		int total = 0;
+		for (ChannelQueue queue : queues.values()) {
+			synchronized (queue) {
+				total += queue.size();
+			}
+		}
+		
+		return total;
+	}
+	
+	/**
+	 * Stops accepting messages and waits a few seconds for the queued ones to be posted.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+				LOGGER.warn("Slack outbox closed with {} messages not sent.", getQueued());
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException ex) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -2,14 +2,18 @@ package de.miltschek.integrations;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.slack.api.app_backend.slash_commands.response.SlashCommandResponse;
 import com.slack.api.bolt.App;
 import com.slack.api.bolt.AppConfig;
 import com.slack.api.bolt.socket_mode.SocketModeApp;
@@ -17,10 +21,9 @@ import com.slack.api.methods.MethodsClient;
 import com.slack.api.methods.SlackApiException;
 import com.slack.api.methods.request.chat.ChatPostMessageRequest;
 import com.slack.api.methods.response.chat.ChatPostMessageResponse;
-import com.slack.api.methods.response.conversations.ConversationsListResponse;
 import com.slack.api.methods.response.reactions.ReactionsAddResponse;
-import com.slack.api.model.Conversation;
 import com.slack.api.model.event.MessageEvent;
+import com.slack.api.webhook.WebhookResponse;
 
 /**
  * A Slack client supporting real-time messaging (bi-directional).
@@ -32,8 +35,8 @@ public class SlackRTMClient implements Closeable {
 	private final MethodsClient client;
 	private final SocketModeApp socketModeApp;
 	private final Thread socketModeThread;
-	private final Map<String, String> channelsIdToName = new HashMap<>();
-	//private final Map<String, String> channelsNameToId = new HashMap<>();
+	private final SlackChannelDirectory channels;
+	private ExecutorService commandExecutor;
 
 	/**
 	 * Creates an instance of the Slack client.
@@ -52,21 +55,39 @@ public class SlackRTMClient implements Closeable {
 	 * @return true in case the message has been successfully sent, false otherwise
 	 */
 	public boolean sendMessage(String channel, String message) {
+		return postMessage(channel, message) == 0;
+	}
+	
+	/**
+	 * Sends a message to the slack channel without retrying, reporting the rate limit to the caller.
+	 * @param channel channel name or channel ID
+	 * @param message message to be sent
+	 * @return 0 in case the message has been successfully sent,
+	 * a positive number of milliseconds to wait (Retry-After) if rate-limited,
+	 * a negative value otherwise
+	 */
+	public long postMessage(String channel, String message) {
 		try {
 		    ChatPostMessageRequest cpmrq = ChatPostMessageRequest.builder().channel(channel).text(message).build();
 		    ChatPostMessageResponse cpmrp = this.client.chatPostMessage(cpmrq);
 		    if (cpmrp.isOk()) {
-		    	return true;
+		    	return 0;
+		    } else if ("ratelimited".equals(cpmrp.getError())) {
+		    	return SlackOutbox.parseRetryAfter(null);
 		    } else {
 		    	LOGGER.error("Failed to post a message to Slack: {}.", cpmrp.getError());
 		    }
 		} catch (SlackApiException e) {
+			if (e.getResponse() != null && e.getResponse().code() == 429) {
+				return SlackOutbox.parseRetryAfter(e.getResponse().header("Retry-After"));
+			}
+			
 			LOGGER.error("Failed to post a message to Slack (API).", e);
 		} catch (Exception e) {
 			LOGGER.error("Failed to post a message to Slack (EX).", e);
 		}
 		
-		return false;
+		return -1;
 	}
 	
 	/**
@@ -99,6 +120,86 @@ public class SlackRTMClient implements Closeable {
 		});
 	}
 	
+	/**
+	 * Registers a command handler executed asynchronously.
+	 * The command is acknowledged immediately (Slack expects it within 3 seconds),
+	 * the handler runs on a background thread and its answer is posted to the channel
+	 * using the command's response URL (or as a regular message if that fails).
+	 * See {@link #registerCommand(String, Function)} for the required application settings.
+	 * @param command a /command (slash-something) to be serviced
+	 * @param handler a function that will receive these command calls,
+	 * returning a text to be answered with or null if there is nothing to answer
+	 */
+	public void registerAsyncCommand(String command, Function<SlackMessage, String> handler) {
+		this.app.command(command, (req, ctx) -> {
+			SlackMessage slackMessage = new SlackMessage();
+			slackMessage.setChannelId(req.getPayload().getChannelId());
+			slackMessage.setChannelName("#" + req.getPayload().getChannelName());
+			slackMessage.setCommand(req.getPayload().getCommand());
+			slackMessage.setText(req.getPayload().getText());
+			slackMessage.setUserId(req.getPayload().getUserId());
+			slackMessage.setUserName(req.getPayload().getUserName());
+			
+			try {
+				getCommandExecutor().execute(() -> {
+					String answer;
+					try {
+						answer = handler.apply(slackMessage);
+					} catch (Exception ex) {
+						LOGGER.error("Failed to handle a command: {}.", slackMessage, ex);
+						answer = ":x: Failed to execute " + slackMessage.getCommand();
+					}
+					
+					if (answer == null) {
+						return;
+					}
+					
+					try {
+						WebhookResponse response = ctx.respond(SlashCommandResponse.builder()
+								.responseType("in_channel")
+								.text(answer)
+								.build());
+						if (response != null && response.getCode() != null && response.getCode() == 200) {
+							return;
+						}
+						
+						LOGGER.warn("Failed to respond to a command {}, code {}.", slackMessage.getCommand(), response == null ? null : response.getCode());
+					} catch (IOException ex) {
+						LOGGER.warn("Failed to respond to a command {}.", slackMessage.getCommand(), ex);
+					}
+					
+					sendMessage(slackMessage.getChannelId(), answer);
+				});
+			} catch (RejectedExecutionException ex) {
+				LOGGER.error("Too many commands pending, rejecting: {}.", slackMessage);
+				return ctx.ack(":hourglass: Too many commands pending, please try again later.");
+			}
+			
+			return ctx.ack();
+		});
+	}
+	
+	/**
+	 * Gets the executor of asynchronous commands, creates it if needed.
+	 * @return the executor of asynchronous commands
+	 */
+	private synchronized ExecutorService getCommandExecutor() {
+		if (this.commandExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4,
+					60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(64),
+					r -> {
+						Thread thread = new Thread(r, "slack-command");
+						thread.setDaemon(true);
+						return thread;
+					});
+			executor.allowCoreThreadTimeOut(true);
+			this.commandExecutor = executor;
+		}
+		
+		return this.commandExecutor;
+	}
+	
 	/**
 	 * Registers a chat handler.
 	 * In order to get it work, you need to enable 'Event Subscriptions' in the application's settings
@@ -111,7 +212,7 @@ public class SlackRTMClient implements Closeable {
 		app.event(MessageEvent.class, (req, ctx) -> {
     		SlackMessage slackMessage = new SlackMessage();
     		slackMessage.setChannelId(req.getEvent().getChannel());
-    		slackMessage.setChannelName(this.channelsIdToName.get(req.getEvent().getChannel()));
+    		slackMessage.setChannelName(this.channels.getName(req.getEvent().getChannel()));
     		slackMessage.setText(req.getEvent().getText());
     		slackMessage.setUserId(req.getEvent().getUser());
     		
@@ -148,28 +249,25 @@ public class SlackRTMClient implements Closeable {
 	 * @throws IOException thrown in case of a failed initialization
 	 */
 	public SlackRTMClient(String appToken, String botToken) throws IOException {
+		this(appToken, botToken, 600);
+	}
+	
+	/**
+	 * Creates an instance of the Slack client.
+	 * @param appToken application token (for the socket mode).
+	 * @param botToken bot token (for writing to the chat and sending reactions).
+	 * @param channelRefreshInterval interval in seconds of refreshing the list of channels, 0 to turn it off
+	 * (unknown channels are looked up on demand anyway)
+	 * @throws IOException thrown in case of a failed initialization
+	 */
+	public SlackRTMClient(String appToken, String botToken, int channelRefreshInterval) throws IOException {
 	    this.app = new App(AppConfig.builder().singleTeamBotToken(botToken).build());
 	    this.client = app.slack().methods(botToken);
 
 	    // create a list of available channels and their IDs
-	    MethodsClient methods = app.slack().methods(botToken);
-    	ConversationsListResponse clr;
-		try {
-			clr = methods.conversationsList(r -> r);
-	    	if (clr.isOk()) {
-	    		for (Conversation c : clr.getChannels()) {
-	    			LOGGER.debug("Caching channel id {} and name {}.", c.getId(), c.getName());
-	    			channelsIdToName.put(c.getId(), "#" + c.getName());
-	    			//channelsNameToId.put(c.getName(), c.getId());
-	    		}
-	    	} else {
-	    		LOGGER.error("Failed to get a list of channels: {}.", clr.getError());
-	    	}
-		} catch (IOException e) {
-			LOGGER.error("Failed to get channels (IO).", e);
-		} catch (SlackApiException e) {
-			LOGGER.error("Failed to get channels (API).", e);
-		}
+	    this.channels = new SlackChannelDirectory(this.client);
+	    this.channels.refresh();
+	    this.channels.start(channelRefreshInterval);
 
 	    socketModeApp = new SocketModeApp(appToken, app);
 	    this.socketModeThread = new Thread(new Runnable() {
@@ -188,8 +286,24 @@ public class SlackRTMClient implements Closeable {
 	    this.socketModeThread.start();
 	}
 	
+	/**
+	 * Gets the directory of channels known to the client.
+	 * @return the directory of channels
+	 */
+	public SlackChannelDirectory getChannels() {
+		return channels;
+	}
+	
 	@Override
 	public void close() {
+		this.channels.close();
+		
+		synchronized (this) {
+			if (this.commandExecutor != null) {
+				this.commandExecutor.shutdown();
+			}
+		}
+		
 		try {
 			this.socketModeApp.stop();
 		} catch (Exception e) {
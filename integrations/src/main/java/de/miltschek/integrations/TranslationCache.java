@@ -0,0 +1,184 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.integrations;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.miltschek.integrations.GoogleTranslate.Result;
+
+/**
+ * In-process cache of successful translations keyed by the normalized source text and the target language.
+ * The cache is a bounded LRU map, each entry expires after a configurable time.
+ * Normalization collapses white spaces and ignores the case, so that "GG" and "gg " share one entry.
+ */
+public class TranslationCache {
+	private static class Entry {
+		private final Result result;
+		private final long expiresTs;
+		
+		private Entry(Result result, long expiresTs) {
+			this.result = result;
+			this.expiresTs = expiresTs;
+		}
+	}
+	
+	private final int maxEntries;
+	private final long ttl;
+	private final LinkedHashMap<String, Entry> entries;
+	
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	/**
+	 * Creates an empty cache.
+	 * @param maxEntries maximum number of cached translations
+	 * @param ttl time in seconds a translation is served from the cache
+	 */
+	public TranslationCache(int maxEntries, int ttl) {
+		this.maxEntries = Math.max(1, maxEntries);
+		this.ttl = ttl * 1000L;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > TranslationCache.this.maxEntries) {
+					evictions++;
+					return true;
+				}
+				
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * Creates a cache key out of a text and a target language.
+	 * @param sourceText text to be translated
+	 * @param targetLanguage target language
+	 * @return cache key
+	 */
+	static String key(String sourceText, String targetLanguage) {
+		StringBuilder sb = new StringBuilder(sourceText.length() + 8);
+		sb.append(targetLanguage).append('\0');
+		
+		boolean space = false;
+		for (int n = 0; n < sourceText.length(); n++) {
+			char c = sourceText.charAt(n);
+			if (Character.isWhitespace(c)) {
+				space = true;
+			} else {
+				if (space && sb.charAt(sb.length() - 1) != '\0') {
+					sb.append(' ');
+				}
+				
+				space = false;
+				sb.append(Character.toLowerCase(c));
+			}
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Gets a cached translation and updates the hit-rate counters.
+	 * @param key cache key as created by {@link #key(String, String)}
+	 * @return cached translation or null if not cached or expired
+	 */
+	synchronized Result get(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		
+		if (entry.expiresTs <= System.currentTimeMillis()) {
+			entries.remove(key);
+			misses++;
+			return null;
+		}
+		
+		hits++;
+		return entry.result;
+	}
+	
+	/**
+	 * Stores a successful translation.
+	 * @param key cache key as created by {@link #key(String, String)}
+	 * @param result successful translation
+	 */
+	synchronized void put(String key, Result result) {
+		entries.put(key, new Entry(result, System.currentTimeMillis() + ttl));
+	}
+	
+	/**
+	 * Removes all entries.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+	
+	/**
+	 * Gets the number of cached translations (including expired ones not yet removed).
+	 * @return number of cached translations
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Gets the number of translations served from the cache.
+	 * @return number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * Gets the number of translations that needed to be requested from the service.
+	 * @return number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * Gets the number of entries removed due to the size limit.
+	 * @return number of evicted entries
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	/**
+	 * Gets the ratio of translations served from the cache to all cache lookups.
+	 * @return hit rate between 0 and 1, 0 if there were no lookups yet
+	 */
+	public synchronized double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double)hits / total;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.integrations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the lookups, the eviction and the snapshot of the geo ip cache.
+ */
+public class GeoIpCacheTest {
+	private static final GeoIp BERLIN = new GeoIp("DE", "Germany", "Berlin", false);
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void lookupsAreCountedAsHitsAndMisses() {
+		GeoIpCache cache = new GeoIpCache(10, 3600, 3600, null, 0);
+		assertNull(cache.get("192.0.2.1"));
+		
+		cache.put("192.0.2.1", BERLIN);
+		cache.putNegative("10.0.0.1");
+		
+		assertEquals("Berlin", cache.get("192.0.2.1").getGeoIp().getCity());
+		assertNull(cache.get("10.0.0.1").getGeoIp());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getNegativeHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(2.0 / 3, cache.getHitRate(), 1e-9);
+	}
+	
+	@Test
+	public void leastRecentlyUsedEntryIsEvicted() {
+		GeoIpCache cache = new GeoIpCache(2, 3600, 3600, null, 0);
+		cache.put("192.0.2.1", BERLIN);
+		cache.put("192.0.2.2", BERLIN);
+		assertNotNull(cache.get("192.0.2.1"));
+		cache.put("192.0.2.3", BERLIN);
+		
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertNotNull(cache.get("192.0.2.1"));
+		assertNull(cache.get("192.0.2.2"));
+	}
+	
+	@Test
+	public void negativeLookupsAreNotCachedWithoutLifetime() {
+		GeoIpCache cache = new GeoIpCache(10, 3600, 0, null, 0);
+		cache.putNegative("10.0.0.1");
+		
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void snapshotIsRestored() throws IOException {
+		String path = new File(folder.getRoot(), "geoip-cache.bin").getPath();
+		GeoIpCache cache = new GeoIpCache(10, 3600, 3600, path, 0);
+		cache.put("192.0.2.1", BERLIN);
+		cache.putNegative("10.0.0.1");
+		assertTrue(cache.save());
+		
+		GeoIpCache restored = new GeoIpCache(10, 3600, 3600, path, 0);
+		assertEquals(2, restored.load());
+		
+		GeoIp geoIp = restored.get("192.0.2.1").getGeoIp();
+		assertEquals("DE", geoIp.getCountryCode());
+		assertEquals("Germany", geoIp.getCountry());
+		assertEquals("Berlin", geoIp.getCity());
+		assertFalse(geoIp.isProxy());
+		assertNull(restored.get("10.0.0.1").getGeoIp());
+		assertNull(restored.get("192.0.2.2"));
+	}
+	
+	@Test
+	public void snapshotContainsNoAddresses() throws IOException {
+		File file = new File(folder.getRoot(), "geoip-cache.bin");
+		GeoIpCache cache = new GeoIpCache(10, 3600, 3600, file.getPath(), 0);
+		cache.put("192.0.2.1", BERLIN);
+		assertTrue(cache.save());
+		
+		String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+		assertTrue(content.contains("Berlin"));
+		assertFalse(content.contains("192.0.2.1"));
+	}
+	
+	@Test
+	public void expiredEntriesAreNotRestored() throws IOException {
+		String path = new File(folder.getRoot(), "geoip-cache.bin").getPath();
+		GeoIpCache cache = new GeoIpCache(10, 0, 0, path, 0);
+		cache.put("192.0.2.1", BERLIN);
+		assertTrue(cache.save());
+		
+		assertEquals(0, new GeoIpCache(10, 3600, 3600, path, 0).load());
+	}
+}
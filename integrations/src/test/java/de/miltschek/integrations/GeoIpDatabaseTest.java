@@ -0,0 +1,180 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.integrations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the CSV import and the range search of the local geo ip database.
+ */
+public class GeoIpDatabaseTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private GeoIpDatabase importLines(String... lines) throws IOException {
+		File csv = folder.newFile("ranges.csv");
+		Files.write(csv.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+		
+		String database = new File(folder.getRoot(), "geoip.bin").getPath();
+		GeoIpDatabase.importCsv(csv.getPath(), database);
+		return new GeoIpDatabase(database);
+	}
+	
+	@Test
+	public void importSkipsHeaderCommentsAndInvalidLines() throws IOException {
+		File csv = folder.newFile("ranges.csv");
+		Files.write(csv.toPath(), String.join("\n",
+				"first,last,code,country,city,proxy",
+				"# a comment",
+				"",
+				"1.0.0.0,1.0.0.255,AU,Australia,Sydney",
+				"1.0.1.0,1.0.0.0,CN,China,Fuzhou",
+				"1.0.2.0,1.0.2.255,-,Unknown,Nowhere",
+				"1.0.3.0,1.0.3.255,JP").getBytes(StandardCharsets.UTF_8));
+		
+		String database = new File(folder.getRoot(), "geoip.bin").getPath();
+		assertEquals(1, GeoIpDatabase.importCsv(csv.getPath(), database));
+		
+		try (GeoIpDatabase db = new GeoIpDatabase(database)) {
+			assertEquals(1, db.getRangeCount());
+			assertEquals("AU", db.locate("1.0.0.1").getCountryCode());
+			assertNull(db.locate("1.0.1.0"));
+			assertNull(db.locate("1.0.2.1"));
+			assertNull(db.locate("1.0.3.1"));
+		}
+	}
+	
+	@Test
+	public void parsesQuotedFieldsAndProxyFlag() throws IOException {
+		try (GeoIpDatabase db = importLines(
+				"\"10.0.0.0\",\"10.0.0.255\",\"US\",\"United States\",\"Washington, \"\"D.C.\"\"\",yes",
+				"10.0.1.0,10.0.1.255,DE,Germany,-,0")) {
+			GeoIp first = db.locate("10.0.0.17");
+			assertEquals("US", first.getCountryCode());
+			assertEquals("United States", first.getCountry());
+			assertEquals("Washington, \"D.C.\"", first.getCity());
+			assertTrue(first.isProxy());
+			
+			GeoIp second = db.locate("10.0.1.17");
+			assertEquals("Germany", second.getCountry());
+			assertNull(second.getCity());
+			assertFalse(second.isProxy());
+		}
+	}
+	
+	@Test
+	public void findsIpv4RangeBoundariesAndGaps() throws IOException {
+		// deliberately unsorted, the import sorts the ranges
+		try (GeoIpDatabase db = importLines(
+				"192.168.0.0,192.168.255.255,C,Country C,",
+				"10.0.0.0,10.255.255.255,A,Country A,",
+				"172.16.0.0,172.31.255.255,B,Country B,",
+				"255.255.255.0,255.255.255.255,D,Country D,")) {
+			assertEquals(4, db.getRangeCount());
+			
+			assertNull(db.locate("9.255.255.255"));
+			assertEquals("A", db.locate("10.0.0.0").getCountryCode());
+			assertEquals("A", db.locate("10.255.255.255").getCountryCode());
+			assertNull(db.locate("11.0.0.0"));
+			assertEquals("B", db.locate("172.20.1.1").getCountryCode());
+			assertNull(db.locate("172.32.0.0"));
+			assertEquals("C", db.locate("192.168.1.1").getCountryCode());
+			
+			// addresses above 127.255.255.255 are negative as signed integers
+			assertEquals("D", db.locate("255.255.255.255").getCountryCode());
+			assertNull(db.locate("255.255.254.255"));
+		}
+	}
+	
+	@Test
+	public void acceptsDecimalAddresses() throws IOException {
+		try (GeoIpDatabase db = importLines("167772160,184549375,A,Country A,")) {
+			assertEquals("A", db.locate("10.1.2.3").getCountryCode());
+			assertNull(db.locate("11.0.0.0"));
+		}
+	}
+	
+	@Test
+	public void findsIpv6RangesAndMappedIpv4() throws IOException {
+		try (GeoIpDatabase db = importLines(
+				"2001:db8::,2001:db8:ffff:ffff:ffff:ffff:ffff:ffff,X,Country X,",
+				"2a00::,2a00::ffff,Y,Country Y,",
+				"::ffff:8.8.8.0,::ffff:8.8.8.255,Z,Country Z,")) {
+			assertEquals(3, db.getRangeCount());
+			
+			assertEquals("X", db.locate("2001:db8::1").getCountryCode());
+			assertEquals("X", db.locate("2001:db8:ffff:ffff:ffff:ffff:ffff:ffff").getCountryCode());
+			assertNull(db.locate("2001:db9::"));
+			assertEquals("Y", db.locate("2a00::ff").getCountryCode());
+			assertNull(db.locate("2a00::1:0"));
+			
+			// mapped addresses are stored and searched as IPv4
+			assertEquals("Z", db.locate("8.8.8.8").getCountryCode());
+			assertEquals("Z", db.locate("::ffff:8.8.8.8").getCountryCode());
+		}
+	}
+	
+	@Test
+	public void skipsOverlappingRanges() throws IOException {
+		try (GeoIpDatabase db = importLines(
+				"10.0.0.0,10.0.0.255,A,Country A,",
+				"10.0.0.128,10.0.1.255,B,Country B,",
+				"10.0.2.0,10.0.2.255,C,Country C,")) {
+			assertEquals(2, db.getRangeCount());
+			assertEquals("A", db.locate("10.0.0.200").getCountryCode());
+			assertNull(db.locate("10.0.1.0"));
+			assertEquals("C", db.locate("10.0.2.0").getCountryCode());
+		}
+	}
+	
+	@Test
+	public void ignoresHostNamesAndInvalidInput() throws IOException {
+		try (GeoIpDatabase db = importLines("0.0.0.0,255.255.255.255,A,Country A,")) {
+			assertNull(db.locate(null));
+			assertNull(db.locate("localhost"));
+			assertNull(db.locate("1.2.3"));
+			assertNull(db.locate("1.2.3.256"));
+			assertEquals("A", db.locate("0.0.0.0").getCountryCode());
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void rejectsUnknownFormat() throws IOException {
+		File file = folder.newFile("garbage.bin");
+		Files.write(file.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 });
+		new GeoIpDatabase(file.getPath()).close();
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.integrations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of the queueing, coalescing and rate limiting of the Slack outbox.
+ */
+public class SlackOutboxTest {
+	private final BlockingQueue<String> posts = new LinkedBlockingQueue<>();
+	private SlackOutbox outbox;
+	
+	@After
+	public void close() {
+		if (outbox != null) {
+			outbox.close();
+		}
+	}
+	
+	private String nextPost() throws InterruptedException {
+		return posts.poll(5, TimeUnit.SECONDS);
+	}
+	
+	@Test
+	public void nullChannelIsRejected() {
+		outbox = new SlackOutbox((channel, text) -> 0, 0, 1000, 10);
+		
+		assertFalse(outbox.offer(null, "lost", false));
+		assertFalse(outbox.offer(null, "lost", true));
+		assertEquals(0, outbox.getEnqueued());
+	}
+	
+	@Test
+	public void closedOutboxRejectsMessages() {
+		outbox = new SlackOutbox((channel, text) -> 0, 0, 1000, 10);
+		outbox.close();
+		
+		assertFalse(outbox.offer("#game", "late", false));
+	}
+	
+	@Test
+	public void messagesWithinTheWindowAreCoalesced() throws InterruptedException {
+		outbox = new SlackOutbox((channel, text) -> {
+			posts.add(channel + ":" + text);
+			return 0;
+		}, 200, 1000, 10);
+		
+		assertTrue(outbox.offer("#game", "first", false));
+		assertTrue(outbox.offer("#game", "second", false));
+		
+		assertEquals("#game:first\nsecond", nextPost());
+		assertEquals(2, outbox.getEnqueued());
+		assertEquals(1, outbox.getCoalesced());
+	}
+	
+	@Test
+	public void coalescedMessageIsLimitedInLength() throws InterruptedException {
+		outbox = new SlackOutbox((channel, text) -> {
+			posts.add(text);
+			return 0;
+		}, 200, 10, 10);
+		
+		outbox.offer("#game", "12345", false);
+		outbox.offer("#game", "67890", false);
+		
+		assertEquals("12345", nextPost());
+		assertEquals(1, outbox.getQueued());
+	}
+	
+	@Test
+	public void priorityMessageIsPostedFirst() throws InterruptedException {
+		outbox = new SlackOutbox((channel, text) -> {
+			posts.add(text);
+			return 0;
+		}, 10000, 1000, 10);
+		
+		outbox.offer("#game", "regular", false);
+		outbox.offer("#game", "urgent", true);
+		
+		assertEquals("urgent", nextPost());
+		assertEquals(1, outbox.getQueued());
+	}
+	
+	@Test
+	public void oldestRegularMessageIsDroppedFromAFullQueue() {
+		outbox = new SlackOutbox((channel, text) -> 0, 10000, 1000, 2);
+		
+		assertTrue(outbox.offer("#game", "first", false));
+		assertTrue(outbox.offer("#game", "second", false));
+		assertTrue(outbox.offer("#game", "third", false));
+		
+		assertEquals(1, outbox.getDropped());
+		assertEquals(2, outbox.getQueued());
+	}
+	
+	@Test
+	public void regularMessageIsRejectedByAQueueFullOfPriorityOnes() throws InterruptedException {
+		CountDownLatch posting = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		outbox = new SlackOutbox((channel, text) -> {
+			posting.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			
+			return 0;
+		}, 10000, 1000, 2);
+		
+		assertTrue(outbox.offer("#game", "urgent 1", true));
+		assertTrue(posting.await(5, TimeUnit.SECONDS));
+		assertTrue(outbox.offer("#game", "urgent 2", true));
+		assertTrue(outbox.offer("#game", "urgent 3", true));
+		
+		assertFalse(outbox.offer("#game", "regular", false));
+		assertEquals(1, outbox.getDropped());
+		release.countDown();
+	}
+	
+	@Test
+	public void rateLimitedMessageIsRetried() throws InterruptedException {
+		AtomicInteger calls = new AtomicInteger();
+		outbox = new SlackOutbox((channel, text) -> {
+			posts.add(text);
+			return calls.incrementAndGet() == 1 ? 100 : 0;
+		}, 0, 1000, 10);
+		
+		outbox.offer("#game", "retried", false);
+		
+		assertEquals("retried", nextPost());
+		assertEquals("retried", nextPost());
+		assertEquals(1, outbox.getRateLimited());
+		assertNull(posts.poll(200, TimeUnit.MILLISECONDS));
+		assertEquals(1, outbox.getPosted());
+	}
+	
+	@Test
+	public void retryAfterIsConvertedToMilliseconds() {
+		assertEquals(30000, SlackOutbox.parseRetryAfter("30"));
+		assertEquals(1000, SlackOutbox.parseRetryAfter(null));
+		assertEquals(1000, SlackOutbox.parseRetryAfter("soon"));
+		assertEquals(1000, SlackOutbox.parseRetryAfter("0"));
+	}
+}
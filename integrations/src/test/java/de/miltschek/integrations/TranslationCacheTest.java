@@ -0,0 +1,107 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.integrations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import de.miltschek.integrations.GoogleTranslate.Result;
+
+/**
+ * Tests of the translation cache and of the local language detection.
+ */
+public class TranslationCacheTest {
+	private static Result result(String translatedText) {
+		return new Result("de", "en", translatedText);
+	}
+	
+	@Test
+	public void keyIgnoresCaseAndWhiteSpaces() {
+		assertEquals(TranslationCache.key("gg", "en"), TranslationCache.key(" GG ", "en"));
+		assertEquals(TranslationCache.key("guten tag", "en"), TranslationCache.key("Guten \t Tag", "en"));
+		assertEquals("en\0guten tag", TranslationCache.key("Guten  Tag ", "en"));
+	}
+	
+	@Test
+	public void keyDependsOnTheTargetLanguage() {
+		TranslationCache cache = new TranslationCache(10, 3600);
+		Result result = result("good day");
+		cache.put(TranslationCache.key("guten Tag", "en"), result);
+		
+		assertSame(result, cache.get(TranslationCache.key("Guten tag", "en")));
+		assertNull(cache.get(TranslationCache.key("guten Tag", "fr")));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.5, cache.getHitRate(), 1e-9);
+	}
+	
+	@Test
+	public void leastRecentlyUsedTranslationIsEvicted() {
+		TranslationCache cache = new TranslationCache(2, 3600);
+		cache.put("a", result("a"));
+		cache.put("b", result("b"));
+		cache.get("a");
+		cache.put("c", result("c"));
+		
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertEquals("a", cache.get("a").getTranslatedText());
+		assertNull(cache.get("b"));
+	}
+	
+	@Test
+	public void expiredTranslationIsNotServed() {
+		TranslationCache cache = new TranslationCache(10, 0);
+		cache.put("a", result("a"));
+		
+		assertNull(cache.get("a"));
+		assertEquals(1, cache.getMisses());
+	}
+	
+	@Test
+	public void textsWithoutLettersAreNotTranslated() {
+		assertEquals("", GoogleTranslate.detectFast("123 :) !!!", true));
+		assertEquals("", GoogleTranslate.detectFast("", true));
+		assertEquals("", GoogleTranslate.detectFast("42", false));
+	}
+	
+	@Test
+	public void commonChatTokensAreEnglish() {
+		assertEquals("en", GoogleTranslate.detectFast("gg", true));
+		assertEquals("en", GoogleTranslate.detectFast("GG WP!", true));
+		assertEquals("en", GoogleTranslate.detectFast("lol :)", true));
+		assertNull(GoogleTranslate.detectFast("gg", false));
+	}
+	
+	@Test
+	public void shortAsciiTextsAreNotAssumedToBeEnglish() {
+		assertNull(GoogleTranslate.detectFast("hallo", true));
+		assertNull(GoogleTranslate.detectFast("ca va", true));
+		assertNull(GoogleTranslate.detectFast("gg danke", true));
+		assertNull(GoogleTranslate.detectFast("\u043f\u0440\u0438\u0432\u0435\u0442", true));
+	}
+}
@@ -30,10 +30,15 @@ import java.io.OutputStream;
 import java.lang.Thread.State;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
@@ -98,6 +103,10 @@ import de.miltschek.openttdadmin.packets.ServerShutdown;
 import de.miltschek.openttdadmin.packets.ServerWelcome;
 import de.miltschek.openttdadmin.packets.UpdateFrequency;
 import de.miltschek.openttdadmin.packets.UpdateType;
+import de.miltschek.openttdadmin.metrics.Counter;
+import de.miltschek.openttdadmin.metrics.Histogram;
+import de.miltschek.openttdadmin.metrics.ListenerProfiler;
+import de.miltschek.openttdadmin.metrics.MetricsRegistry;
 
 /**
  * OTTD Admin Client.
@@ -117,7 +126,7 @@ public class OttdAdminClient implements Closeable
 	private final static String CLIENT_VERSION = "1.4";
 	/** Supported admin protocol's version. */
 	private final static byte SUPPORTED_SERVER_VERSION = 3;
-
+	
 	/** Configuration parameter: address. */
 	private final String host;
 	/** Configuration parameter: port number. */
@@ -126,6 +135,27 @@ public class OttdAdminClient implements Closeable
 	private final String password;
 	/** Internal worker thread. */
 	private final Worker worker;
+	/** Label of the metrics of this client. */
+	private final String server;
+	/** Metrics: successful connections to the server. */
+	private final Counter connects;
+	/** Metrics: lost connections to the server. */
+	private final Counter disconnects;
+	/** Metrics: packets sent to the server. */
+	private final Counter packetsSent;
+	/** Metrics: packets received from the server per packet type. */
+	private final ClassValue<Counter> packetsReceived = new ClassValue<Counter>() {
+		@Override
+		protected Counter computeValue(Class<?> type) {
+			return MetricsRegistry.getDefault().counter("ottd_packets_received_total", "Packets received from the servers.", "server", server, "type", type.getSimpleName());
+		}
+	};
+	/** Metrics: packets received from the server, which could not be identified. */
+	private final Counter packetsUnknown;
+	/** Metrics: time of decoding packets received from the server. */
+	private final Histogram decodeTime;
+	/** Metrics: time of calling the listeners per event. */
+	private final Map<String, Histogram> listenerTime = new ConcurrentHashMap<>();
 	
 	/** Internal collection of chat message listeners. */
     private Set<Consumer<ChatMessage>> chatMessageListeners = new HashSet<Consumer<ChatMessage>>();
@@ -135,6 +165,10 @@ public class OttdAdminClient implements Closeable
     private Set<CompanyListenerAdapter> companyListeners = new HashSet<CompanyListenerAdapter>();
     /** Internal collection of server info listeners. */
     private Set<ServerListenerAdapter> serverListeners = new HashSet<ServerListenerAdapter>();
+    /** Executor calling the listeners, null to call them on the worker thread. */
+    private volatile Executor listenerExecutor;
+    /** Profiler of the listener calls, null if not profiled. */
+    private volatile ListenerProfiler listenerProfiler;
     
     /** Configuration: update frequency of available notifications. */
     private UpdateFrequency updateDate = UpdateFrequency.ADMIN_FREQUENCY_POLL,
@@ -173,6 +207,15 @@ public class OttdAdminClient implements Closeable
     	this.worker = new Worker();
     	this.worker.setDaemon(true);
     	this.worker.setName("OttdAdminWorkerThread");
+    	
+    	MetricsRegistry metrics = MetricsRegistry.getDefault();
+    	this.server = host + ":" + port;
+    	this.connects = metrics.counter("ottd_connects_total", "Successful connections to the servers.", "server", this.server);
+    	this.disconnects = metrics.counter("ottd_disconnects_total", "Connections lost to the servers.", "server", this.server);
+    	this.packetsSent = metrics.counter("ottd_packets_sent_total", "Packets sent to the servers.", "server", this.server);
+    	this.packetsUnknown = metrics.counter("ottd_packets_received_total", "Packets received from the servers.", "server", this.server, "type", "unknown");
+    	this.decodeTime = metrics.histogram("ottd_packet_decode_seconds", "Time of decoding received packets.", "server", this.server);
+    	metrics.gauge("ottd_send_queue_depth", "Packets waiting to be sent to the servers.", this.worker.requests::size, "server", this.server);
     }
     
     /**
@@ -192,6 +235,8 @@ public class OttdAdminClient implements Closeable
      * This action makes destroys the client. It cannot be reused anymore.
      */
     public void close() throws IOException {
+    	MetricsRegistry.getDefault().remove("ottd_send_queue_depth", "server", this.server);
+    	
     	try {
     		this.worker.close();
     	} catch (InterruptedException ex) {
@@ -199,6 +244,87 @@ public class OttdAdminClient implements Closeable
     	}
     }
     
+    /**
+     * Gets a value indicating whether the client is running, i.e. started, not closed and not failed.
+     * @return true if running, false otherwise
+     */
+    public boolean isRunning() {
+    	return this.worker.isAlive();
+    }
+    
+    /**
+     * Sets an executor calling the listeners, so that slow listeners do not hold up
+     * the connection to the server. The executor should run the calls in order,
+     * e.g. by using a single thread.
+     * @param listenerExecutor executor calling the listeners or null to call them on the worker thread (default)
+     */
+    public void setListenerExecutor(Executor listenerExecutor) {
+    	this.listenerExecutor = listenerExecutor;
+    }
+    
+    /**
+     * Sets a profiler timing each call of a listener, e.g. to find listeners slowing down the processing of events.
+     * @param listenerProfiler profiler of the listener calls or null to turn off profiling (default)
+     */
+    public void setListenerProfiler(ListenerProfiler listenerProfiler) {
+    	this.listenerProfiler = listenerProfiler;
+    }
+    
+    /**
+     * Calls the listeners of an event, either directly or via the listener executor.
+     * @param <T> type of the listeners
+     * @param description description of the event for logging purposes
+     * @param listeners listeners of the event
+     * @param call call of a listener
+     */
+    private <T> void dispatch(String description, Collection<T> listeners, Consumer<T> call) {
+    	Executor executor = this.listenerExecutor;
+    	if (executor == null) {
+    		call(description, listeners, call);
+    	} else {
+    		try {
+    			executor.execute(() -> call(description, listeners, call));
+    		} catch (RejectedExecutionException ex) {
+    			LOGGER.warn("{} listener(s) call rejected", description);
+    		}
+    	}
+    }
+    
+    /**
+     * Calls the listeners of an event, a failing listener does not prevent calling the other ones.
+     * @param <T> type of the listeners
+     * @param description description of the event for logging purposes
+     * @param listeners listeners of the event
+     * @param call call of a listener
+     */
+    private <T> void call(String description, Collection<T> listeners, Consumer<T> call) {
+    	Histogram time = this.listenerTime.get(description);
+    	if (time == null) {
+    		time = this.listenerTime.computeIfAbsent(description,
+    				key -> MetricsRegistry.getDefault().histogram("ottd_listener_seconds", "Time of calling the listeners per event.", "server", this.server, "event", key));
+    	}
+    	
+    	ListenerProfiler profiler = this.listenerProfiler;
+    	long start = System.nanoTime();
+    	for (T listener : listeners) {
+    		if (profiler != null) {
+    			profiler.enter(description, listener);
+    		}
+    		
+    		try {
+    			call.accept(listener);
+    		} catch (Exception ex) {
+    			LOGGER.error("failed to call {} listener {}", description, listener.getClass().getName(), ex);
+    		} finally {
+    			if (profiler != null) {
+    				profiler.exit();
+    			}
+    		}
+    	}
+    	
+    	time.recordSince(start);
+    }
+    
     /**
      * Registers a chat listener.
      * Works only if enabled by {@link #setDeliveryChatMessages(boolean)}
@@ -514,6 +640,7 @@ public class OttdAdminClient implements Closeable
 	    						LOGGER.debug("sending request...");
 		    					outputStream.write(task);
 		    					outputStream.flush();
+		    					packetsSent.inc();
 	    	    			} catch (IOException ex) {
 	    	    				LOGGER.error("writing to socket failed", ex);
 	    	    			} catch (Exception ex) {
@@ -581,6 +708,7 @@ public class OttdAdminClient implements Closeable
 			    		LOGGER.debug("trying to connect...");
 						client = new Socket(OttdAdminClient.this.host, OttdAdminClient.this.port);
 						LOGGER.debug("socket created");
+						connects.inc();
 						// TODO: fine tuning client.setKeepAlive(true);
 					} catch (UnknownHostException e) {
 						LOGGER.error("unknown host {}", OttdAdminClient.this.host);
@@ -632,14 +760,9 @@ public class OttdAdminClient implements Closeable
 					    	if (read <= 0) {
 					    		LOGGER.debug("connection closed (1)");
 					    		
-					    		try {
-				    				for (ServerListenerAdapter listener : serverListeners) {
-				    						listener.disconnected();
-				    				}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server disconnected listener(s)", ex);
-			    				}
+					    		dispatch("server disconnected", serverListeners, listener -> listener.disconnected());
 
+					    		disconnects.inc();
 					    		OttdAdminClient.wait(WaitReason.CONNECTION_INTERRUPTED);
 					    		break;
 					    	}
@@ -656,19 +779,18 @@ public class OttdAdminClient implements Closeable
 					    	if (read <= 0) {
 					    		LOGGER.debug("connection closed (2)");
 					    		
-					    		try {
-				    				for (ServerListenerAdapter listener : serverListeners) {
-				    						listener.disconnected();
-				    				}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server disconnected listener(s)", ex);
-			    				}
+					    		dispatch("server disconnected", serverListeners, listener -> listener.disconnected());
 					    		
+					    		disconnects.inc();
 					    		OttdAdminClient.wait(WaitReason.CONNECTION_INTERRUPTED);
 					    		break;
 					    	}
 					    	
+					    	long decodeStart = System.nanoTime();
 					    	OttdPacket packetReceived = OttdPacket.parsePacket(OttdAdminClient.this.serverVersion, buffer);
+					    	decodeTime.recordSince(decodeStart);
+					    	(packetReceived == null ? packetsUnknown : packetsReceived.get(packetReceived.getClass())).inc();
+					    	
 				    		if (packetReceived == null) {
 				    			// the packet could not be identified - ignore it
 				    			LOGGER.warn("an unidentified packet has been received");
@@ -678,13 +800,7 @@ public class OttdAdminClient implements Closeable
 			    					LOGGER.warn("the server implements a potentially unsupported protocol version {}", p.getAdminVersion());
 			    				}
 			    				
-			    				try {
-				    				for (ServerListenerAdapter listener : serverListeners) {
-				    						listener.connected();
-				    				}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server connected listener(s)", ex);
-			    				}
+			    				dispatch("server connected", serverListeners, listener -> listener.connected());
 			    			} else if (packetReceived instanceof ServerWelcome) {
 			    				welcomeReceived = true;
 	
@@ -700,13 +816,7 @@ public class OttdAdminClient implements Closeable
 			    						p.getMapSizeX(),
 			    						p.getMapSizeY());
 	
-			    				try {
-				    				for (ServerListenerAdapter listener : serverListeners) {
-				    						listener.serverInfoReceived(serverInfo);
-				    				}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server info listener(s)", ex);
-			    				}
+			    				dispatch("server info", serverListeners, listener -> listener.serverInfoReceived(serverInfo));
 			    			} else if (packetReceived instanceof ServerError) {
 			    				ServerError p = (ServerError)packetReceived;
 			    				LOGGER.warn("server error received {} ({})", p.getErrorCode(), p.getRawErrorCode());
@@ -717,13 +827,7 @@ public class OttdAdminClient implements Closeable
 			    					break;
 			    					
 			    				case NETWORK_ERROR_WRONG_PASSWORD:
-			    					try {
-					    				for (ServerListenerAdapter listener : serverListeners) {
-					    						listener.wrongPassword();
-					    				}
-				    				} catch (Exception ex) {
-				    					LOGGER.error("failed to call server wrong password listener(s)", ex);
-				    				}
+			    					dispatch("server wrong password", serverListeners, listener -> listener.wrongPassword());
 
 			    					OttdAdminClient.wait(WaitReason.WRONG_PASSWORD);
 			    					break;
@@ -751,23 +855,11 @@ public class OttdAdminClient implements Closeable
 			    						p.getData(),
 			    						p.getMessage());
 			    				
-			    				try {
-				    				for (Consumer<ChatMessage> listener : chatMessageListeners) {
-				    						listener.accept(chatMessage);
-				    				}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call chat message listener(s)", ex);
-			    				}
+			    				dispatch("chat message", chatMessageListeners, listener -> listener.accept(chatMessage));
 			    			} else if (packetReceived instanceof ServerClientError) {
 			    				ServerClientError p = (ServerClientError)packetReceived;
 			    				
-			    				try {
-			    					for (ClientListenerAdapter listener : clientListeners) {
-			    						listener.clientError(p.getClientId(), ErrorCode.get(p.getErrorCode()));
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call client error listener(s)", ex);
-			    				}
+			    				dispatch("client error", clientListeners, listener -> listener.clientError(p.getClientId(), ErrorCode.get(p.getErrorCode())));
 			    			} else if (packetReceived instanceof ServerClientInfo) {
 			    				ServerClientInfo p = (ServerClientInfo)packetReceived;
 			    				
@@ -779,43 +871,19 @@ public class OttdAdminClient implements Closeable
 			    						new Date(p.getJoinDate()),
 			    						p.getPlayAs());
 			    				
-			    				try {
-			    					for (ClientListenerAdapter listener : clientListeners) {
-			    						listener.clientInfoReceived(clientInfo);
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call client info listener(s)", ex);
-			    				}
+			    				dispatch("client info", clientListeners, listener -> listener.clientInfoReceived(clientInfo));
 			    			} else if (packetReceived instanceof ServerClientJoin) {
 			    				ServerClientJoin p = (ServerClientJoin)packetReceived;
 			    				
-			    				try {
-			    					for (ClientListenerAdapter listener : clientListeners) {
-			    						listener.clientConnected(p.getClientId());
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call client connected listener(s)", ex);
-			    				}
+			    				dispatch("client connected", clientListeners, listener -> listener.clientConnected(p.getClientId()));
 			    			} else if (packetReceived instanceof ServerClientQuit) {
 			    				ServerClientQuit p = (ServerClientQuit)packetReceived;
 			    				
-			    				try {
-			    					for (ClientListenerAdapter listener : clientListeners) {
-			    						listener.clientDisconnected(p.getClientId());
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call client disconnected listener(s)", ex);
-			    				}
+			    				dispatch("client disconnected", clientListeners, listener -> listener.clientDisconnected(p.getClientId()));
 			    			} else if (packetReceived instanceof ServerClientUpdate) {
 			    				ServerClientUpdate p = (ServerClientUpdate)packetReceived;
 			    				
-			    				try {
-			    					for (ClientListenerAdapter listener : clientListeners) {
-			    						listener.clientUpdated(p.getClientId(), p.getClientName(), p.getPlayAs());
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call client updated listener(s)", ex);
-			    				}
+			    				dispatch("client updated", clientListeners, listener -> listener.clientUpdated(p.getClientId(), p.getClientName(), p.getPlayAs()));
 			    			} else if (packetReceived instanceof ServerCompanyInfo) {
 			    				ServerCompanyInfo p = (ServerCompanyInfo)packetReceived;
 			    				
@@ -831,23 +899,11 @@ public class OttdAdminClient implements Closeable
 			    						p.isSharesSupported(),
 			    						new byte[] { p.getShareOwners(0), p.getShareOwners(1), p.getShareOwners(2), p.getShareOwners(3) });
 			    				
-			    				try {
-			    					for (CompanyListenerAdapter listener : companyListeners) {
-			    						listener.companyInfoReceived(companyInfo);
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call company info listener(s)", ex);
-			    				}
+			    				dispatch("company info", companyListeners, listener -> listener.companyInfoReceived(companyInfo));
 			    			} else if (packetReceived instanceof ServerCompanyNew) {
 			    				ServerCompanyNew p = (ServerCompanyNew)packetReceived;
 	
-			    				try {
-			    					for (CompanyListenerAdapter listener : companyListeners) {
-			    						listener.companyCreated(p.getCompanyId());
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call company created listener(s)", ex);
-			    				}
+			    				dispatch("company created", companyListeners, listener -> listener.companyCreated(p.getCompanyId()));
 			    			} else if (packetReceived instanceof ServerCompanyRemove) {
 			    				ServerCompanyRemove p = (ServerCompanyRemove)packetReceived;
 			    				
@@ -863,13 +919,7 @@ public class OttdAdminClient implements Closeable
 			    						reason = ClosureReason.Unknown; break;
 			    				}
 			    				
-			    				try {
-			    					for (CompanyListenerAdapter listener : companyListeners) {
-			    						listener.companyRemoved(p.getCompanyId(), reason);
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call company removed listener(s)", ex);
-			    				}
+			    				dispatch("company removed", companyListeners, listener -> listener.companyRemoved(p.getCompanyId(), reason));
 			    			} else if (packetReceived instanceof ServerCompanyUpdate) {
 			    				ServerCompanyUpdate p = (ServerCompanyUpdate)packetReceived;
 			    				
@@ -883,63 +933,27 @@ public class OttdAdminClient implements Closeable
 			    						p.isSharesSupported(),
 			    						new byte[] { p.getShareOwners(0), p.getShareOwners(1), p.getShareOwners(2), p.getShareOwners(3) });
 			    				
-			    				try {
-			    					for (CompanyListenerAdapter listener : companyListeners) {
-			    						listener.companyUpdated(companyInfo);
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call company updated listener(s)", ex);
-			    				}
+			    				dispatch("company updated", companyListeners, listener -> listener.companyUpdated(companyInfo));
 			    			} else if (packetReceived instanceof ServerConsole) {
 			    				ServerConsole p = (ServerConsole)packetReceived;
 	
-			    				try {
-			    					for (ServerListenerAdapter listener : serverListeners) {
-			    						listener.console(p.getOrigin(), p.getText());
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server console listener(s)", ex);
-			    				}
+			    				dispatch("server console", serverListeners, listener -> listener.console(p.getOrigin(), p.getText()));
 			    			} else if (packetReceived instanceof ServerRcon) {
 			    				ServerRcon p = (ServerRcon)packetReceived;
 			    				
-			    				try {
-			    					for (ServerListenerAdapter listener : serverListeners) {
-			    						listener.rcon(p.getColor(), p.getResult());
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server rcon listener(s)", ex);
-			    				}
+			    				dispatch("server rcon", serverListeners, listener -> listener.rcon(p.getColor(), p.getResult()));
 			    			} else if (packetReceived instanceof ServerRconEnd) {
 			    				ServerRconEnd p = (ServerRconEnd)packetReceived;
 			    				
-			    				try {
-			    					for (ServerListenerAdapter listener : serverListeners) {
-			    						listener.rconFinished(p.getCommand());
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server rcon finished listener(s)", ex);
-			    				}
+			    				dispatch("server rcon finished", serverListeners, listener -> listener.rconFinished(p.getCommand()));
 			    			} else if (packetReceived instanceof ServerNewGame) {
 			    				//ServerNewGame p = (ServerNewGame)packetReceived;
 			    				
-			    				try {
-			    					for (ServerListenerAdapter listener : serverListeners) {
-			    						listener.newGame();
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server new game listener(s)", ex);
-			    				}
+			    				dispatch("server new game", serverListeners, listener -> listener.newGame());
 			    			} else if (packetReceived instanceof ServerDate) {
 			    				ServerDate p = (ServerDate)packetReceived;
 			    				
-			    				try {
-			    					for (ServerListenerAdapter listener : serverListeners) {
-			    						listener.newDate(new Date(p.getDate()));
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server new date listener(s)", ex);
-			    				}
+			    				dispatch("server new date", serverListeners, listener -> listener.newDate(new Date(p.getDate())));
 			    			} else if (packetReceived instanceof ServerCompanyEconomy) {
 			    				ServerCompanyEconomy p = (ServerCompanyEconomy)packetReceived;
 			    				
@@ -962,13 +976,7 @@ public class OttdAdminClient implements Closeable
 			    						pastPerformance,
 			    						pastDeliveredCargo);
 			    				
-			    				try {
-			    					for (CompanyListenerAdapter listener : companyListeners) {
-			    						listener.companyEconomy(p.getIndex(), companyEconomy);
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call company economy listener(s)", ex);
-			    				}
+			    				dispatch("company economy", companyListeners, listener -> listener.companyEconomy(p.getIndex(), companyEconomy));
 			    			} else if (packetReceived instanceof ServerCompanyStats) {
 			    				ServerCompanyStats p = (ServerCompanyStats)packetReceived;
 			    				
@@ -984,79 +992,31 @@ public class OttdAdminClient implements Closeable
 			    						p.getStations(ServerCompanyStats.PLANE),
 			    						p.getStations(ServerCompanyStats.SHIP));
 			    				
-			    				try {
-			    					for (CompanyListenerAdapter listener : companyListeners) {
-			    						listener.companyStatistics(p.getIndex(), companyStatistics);
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call company statistics listener(s)", ex);
-			    				}
+			    				dispatch("company statistics", companyListeners, listener -> listener.companyStatistics(p.getIndex(), companyStatistics));
 			    			} else if (packetReceived instanceof ServerCmdNames) {
 			    				ServerCmdNames p = (ServerCmdNames)packetReceived;
 			    				
-			    				try {
-			    					for (ServerListenerAdapter listener : serverListeners) {
-			    						listener.commandNamesReceived(p.getCommands());
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server command names listener(s)", ex);
-			    				}
+			    				dispatch("server command names", serverListeners, listener -> listener.commandNamesReceived(p.getCommands()));
 			    			} else if (packetReceived instanceof ServerCmdLogging) {
 			    				ServerCmdLogging p = (ServerCmdLogging)packetReceived;
 	
-			    				try {
-			    					for (ServerListenerAdapter listener : serverListeners) {
-			    						listener.logging(p.getClientId(), p.getCompanyId(), p.getCmdId(), p.getP1(), p.getP2(), p.getTile(), p.getText(), p.getFrame());
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server command logging listener(s)", ex);
-			    				}
+			    				dispatch("server command logging", serverListeners, listener -> listener.logging(p.getClientId(), p.getCompanyId(), p.getCmdId(), p.getP1(), p.getP2(), p.getTile(), p.getText(), p.getFrame()));
 			    			} else if (packetReceived instanceof ServerGameScript) {
 			    				ServerGameScript p = (ServerGameScript)packetReceived;
 			    				
-			    				try {
-			    					for (ServerListenerAdapter listener : serverListeners) {
-			    						listener.gameScript(p.getJson());
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server game script listener(s)", ex);
-			    				}
+			    				dispatch("server game script", serverListeners, listener -> listener.gameScript(p.getJson()));
 			    			} else if (packetReceived instanceof ServerPong) {
 			    				ServerPong p = (ServerPong)packetReceived;
 			    				
-			    				try {
-			    					for (ServerListenerAdapter listener : serverListeners) {
-			    						listener.pong(p.getD1());
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server pong listener(s)", ex);
-			    				}
+			    				dispatch("server pong", serverListeners, listener -> listener.pong(p.getD1()));
 			    			} else if (packetReceived instanceof ServerFull) {
 			    				//ServerFull p = (ServerFull)packetReceived;
-			    				try {
-			    					for (ServerListenerAdapter listener : serverListeners) {
-			    						listener.serverFull();
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server full listener(s)", ex);
-			    				}
+			    				dispatch("server full", serverListeners, listener -> listener.serverFull());
 			    			} else if (packetReceived instanceof ServerBanned) {
 			    				//ServerBanned p = (ServerBanned)packetReceived;
-			    				try {
-			    					for (ServerListenerAdapter listener : serverListeners) {
-			    						listener.serverBanned();
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server banned listener(s)", ex);
-			    				}
+			    				dispatch("server banned", serverListeners, listener -> listener.serverBanned());
 			    			} else if (packetReceived instanceof ServerShutdown) {
-			    				try {
-			    					for (ServerListenerAdapter listener : serverListeners) {
-			    						listener.shutdown();
-			    					}
-			    				} catch (Exception ex) {
-			    					LOGGER.error("failed to call server shutdown listener(s)", ex);
-			    				}
+			    				dispatch("server shutdown", serverListeners, listener -> listener.shutdown());
 			    			} else {
 			    				LOGGER.error("received an unimplemented package {}", packetReceived.getClass().getSimpleName());
 			    			}
@@ -0,0 +1,63 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.openttdadmin.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonically increasing counter.
+ * Recording does not allocate and does not block.
+ */
+public final class Counter {
+	private final LongAdder value = new LongAdder();
+	
+	/**
+	 * Creates a counter, use {@link MetricsRegistry#counter(String, String, String...)} to get a registered one.
+	 */
+	Counter() {
+	}
+	
+	/**
+	 * Increments the counter by one.
+	 */
+	public void inc() {
+		this.value.increment();
+	}
+	
+	/**
+	 * Increments the counter.
+	 * @param amount non-negative amount to add
+	 */
+	public void add(long amount) {
+		this.value.add(amount);
+	}
+	
+	/**
+	 * Gets the current value.
+	 * @return the current value
+	 */
+	public long get() {
+		return this.value.sum();
+	}
+}
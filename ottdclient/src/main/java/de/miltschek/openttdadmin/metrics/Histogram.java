@@ -0,0 +1,183 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.openttdadmin.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of values over fixed buckets.
+ * Values are recorded as longs (e.g. nanoseconds) and exported multiplied by a scale (e.g. to seconds).
+ * Recording does not allocate and does not block.
+ */
+public final class Histogram {
+	/** Default upper bounds of latency buckets in nanoseconds, from 100 us to 10 s. */
+	public static final long[] LATENCY_BOUNDS = new long[] {
+			100_000L, 250_000L, 500_000L,
+			1_000_000L, 2_500_000L, 5_000_000L,
+			10_000_000L, 25_000_000L, 50_000_000L,
+			100_000_000L, 250_000_000L, 500_000_000L,
+			1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L };
+	
+	/** Scale of nanoseconds to seconds. */
+	public static final double NANOS_TO_SECONDS = 1e-9;
+	
+	private final long[] bounds;
+	private final double scale;
+	/** Counts per bucket (not cumulative), the last one for values above all bounds. */
+	private final AtomicLongArray counts;
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+	
+	/**
+	 * Creates a histogram, use {@link MetricsRegistry#histogram(String, String, String...)} to get a registered one.
+	 * @param bounds ascending upper bounds of the buckets
+	 * @param scale factor applied to the values on export
+	 */
+	Histogram(long[] bounds, double scale) {
+		this.bounds = bounds.clone();
+		this.scale = scale;
+		this.counts = new AtomicLongArray(bounds.length + 1);
+	}
+	
+	/**
+	 * Records a value.
+	 * @param value value to be recorded, e.g. a duration in nanoseconds
+	 */
+	public void record(long value) {
+		int index = Arrays.binarySearch(this.bounds, value);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		
+		this.counts.incrementAndGet(index);
+		this.sum.add(value);
+		this.max.accumulate(value);
+	}
+	
+	/**
+	 * Records the time elapsed since the given start.
+	 * @param startNanos start time as of {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+	
+	/**
+	 * Gets the number of recorded values.
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int n = 0; n < this.counts.length(); n++) {
+			count += this.counts.get(n);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Gets the sum of all recorded values (unscaled).
+	 * @return sum of all recorded values
+	 */
+	public long getSum() {
+		return this.sum.sum();
+	}
+	
+	/**
+	 * Gets the maximum recorded value (unscaled).
+	 * @return maximum recorded value or 0 if none recorded
+	 */
+	public long getMax() {
+		long result = this.max.get();
+		return result == Long.MIN_VALUE ? 0 : result;
+	}
+	
+	/**
+	 * Estimates a quantile as the upper bound of the bucket containing it.
+	 * @param quantile quantile between 0 and 1, e.g. 0.95
+	 * @return upper bound of the bucket (unscaled), the maximum if above all bounds, 0 if none recorded
+	 */
+	public long getQuantile(double quantile) {
+		long[] snapshot = new long[this.counts.length()];
+		long count = 0;
+		for (int n = 0; n < snapshot.length; n++) {
+			snapshot[n] = this.counts.get(n);
+			count += snapshot[n];
+		}
+		
+		if (count == 0) {
+			return 0;
+		}
+		
+		long rank = (long)Math.ceil(quantile * count);
+		long seen = 0;
+		for (int n = 0; n < this.bounds.length; n++) {
+			seen += snapshot[n];
+			if (seen >= rank) {
+				return this.bounds[n];
+			}
+		}
+		
+		return getMax();
+	}
+	
+	/**
+	 * Adds all recorded values of this histogram to another one with the same bounds.
+	 * @param target histogram to add to
+	 */
+	void addTo(Histogram target) {
+		for (int n = 0; n < this.counts.length(); n++) {
+			target.counts.addAndGet(n, this.counts.get(n));
+		}
+		
+		target.sum.add(this.sum.sum());
+		target.max.accumulate(this.max.get());
+	}
+	
+	/**
+	 * Writes the histogram in the Prometheus text format.
+	 * @param sb buffer to append to
+	 * @param name name of the metric
+	 * @param labels labels of the series without braces, may be empty
+	 */
+	void write(StringBuilder sb, String name, String labels) {
+		String separator = labels.isEmpty() ? "" : ",";
+		long cumulative = 0;
+		for (int n = 0; n < this.bounds.length; n++) {
+			cumulative += this.counts.get(n);
+			sb.append(name).append("_bucket{").append(labels).append(separator).append("le=\"")
+				.append(MetricsRegistry.format(this.bounds[n] * this.scale)).append("\"} ").append(cumulative).append('\n');
+		}
+		
+		cumulative += this.counts.get(this.bounds.length);
+		sb.append(name).append("_bucket{").append(labels).append(separator).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+		
+		String braced = labels.isEmpty() ? "" : "{" + labels + "}";
+		sb.append(name).append("_sum").append(braced).append(' ').append(MetricsRegistry.format(this.sum.sum() * this.scale)).append('\n');
+		sb.append(name).append("_count").append(braced).append(' ').append(cumulative).append('\n');
+	}
+}
@@ -0,0 +1,406 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.openttdadmin.metrics;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Times every call of a listener per event and listener class.
+ * Keeps a histogram of the whole run time (exported as ottd_listener_call_seconds) and a rolling one
+ * of the last one or two windows, used for reporting the top offenders.
+ * A watchdog thread samples the stack of a call running for longer than the threshold,
+ * so that the cause of a lagging server can be found while it is still lagging.
+ */
+public class ListenerProfiler implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ListenerProfiler.class);
+	
+	/** Length of a window of the rolling statistics in milliseconds. */
+	public static final long WINDOW = 5 * 60 * 1000;
+	/** Maximum number of stack frames logged of a slow call. */
+	private static final int MAX_STACK_DEPTH = 30;
+	/** Minimum interval in milliseconds of the watchdog. */
+	private static final long MIN_WATCHDOG_INTERVAL = 10;
+	
+	/** Readable names of listener classes. */
+	private static final ClassValue<String> NAMES = new ClassValue<String>() {
+		@Override
+		protected String computeValue(Class<?> type) {
+			String name = type.getName();
+			int lambda = name.indexOf("$$Lambda");
+			if (lambda > 0) {
+				name = name.substring(0, lambda) + "$$Lambda";
+			}
+			
+			return name.substring(name.lastIndexOf('.') + 1);
+		}
+	};
+	
+	/**
+	 * Statistics of one window.
+	 */
+	private static class Window {
+		private final Histogram time = new Histogram(Histogram.LATENCY_BOUNDS, Histogram.NANOS_TO_SECONDS);
+		private final LongAdder slow = new LongAdder();
+	}
+	
+	/**
+	 * Statistics of one listener class handling one event.
+	 */
+	private static class Stats {
+		private final String event;
+		private final String listener;
+		private final Histogram time;
+		private final Counter slow;
+		private volatile Window current = new Window();
+		private volatile Window previous = new Window();
+		/** Top stack frame of the last sample or null if never sampled. */
+		private volatile String lastSample;
+		
+		private Stats(String event, String listener, MetricsRegistry registry) {
+			this.event = event;
+			this.listener = listener;
+			this.time = registry.histogram("ottd_listener_call_seconds", "Time of calling a listener per event and listener.",
+					"event", event, "listener", listener);
+			this.slow = registry.counter("ottd_listener_slow_calls_total", "Listener calls exceeding the slow threshold.",
+					"event", event, "listener", listener);
+		}
+	}
+	
+	/**
+	 * Call of a listener in progress on one thread.
+	 */
+	private static class InFlight {
+		private final Thread thread;
+		private volatile long start;
+		/** Statistics of the call in progress, null if none. */
+		private volatile Stats stats;
+		/** Start of the call sampled last, used by the watchdog only. */
+		private long sampled;
+		
+		private InFlight(Thread thread) {
+			this.thread = thread;
+		}
+	}
+	
+	/**
+	 * Report on a listener handling an event.
+	 */
+	public static class Offender {
+		private final String event;
+		private final String listener;
+		private final long count;
+		private final long sum;
+		private final long max;
+		private final long percentile95;
+		private final long slow;
+		private final String lastSample;
+		
+		private Offender(Stats stats) {
+			Histogram merged = new Histogram(Histogram.LATENCY_BOUNDS, Histogram.NANOS_TO_SECONDS);
+			Window current = stats.current, previous = stats.previous;
+			current.time.addTo(merged);
+			previous.time.addTo(merged);
+			
+			this.event = stats.event;
+			this.listener = stats.listener;
+			this.count = merged.getCount();
+			this.sum = merged.getSum();
+			this.max = merged.getMax();
+			this.percentile95 = merged.getQuantile(0.95);
+			this.slow = current.slow.sum() + previous.slow.sum();
+			this.lastSample = stats.lastSample;
+		}
+		
+		/**
+		 * Gets the name of the event.
+		 * @return name of the event
+		 */
+		public String getEvent() {
+			return event;
+		}
+		
+		/**
+		 * Gets the name of the listener class.
+		 * @return name of the listener class
+		 */
+		public String getListener() {
+			return listener;
+		}
+		
+		/**
+		 * Gets the number of calls.
+		 * @return number of calls
+		 */
+		public long getCount() {
+			return count;
+		}
+		
+		/**
+		 * Gets the total time of all calls in milliseconds.
+		 * @return total time of all calls in milliseconds
+		 */
+		public long getTotalTime() {
+			return sum / 1_000_000;
+		}
+		
+		/**
+		 * Gets the average time of a call in milliseconds.
+		 * @return average time of a call in milliseconds, 0 if no calls
+		 */
+		public double getAverageTime() {
+			return count == 0 ? 0 : sum / 1e6 / count;
+		}
+		
+		/**
+		 * Gets the upper bound of the 95th percentile of the time of a call in milliseconds.
+		 * @return upper bound of the 95th percentile in milliseconds
+		 */
+		public double getPercentile95() {
+			return percentile95 / 1e6;
+		}
+		
+		/**
+		 * Gets the longest time of a call in milliseconds.
+		 * @return longest time of a call in milliseconds
+		 */
+		public long getMaxTime() {
+			return max / 1_000_000;
+		}
+		
+		/**
+		 * Gets the number of calls exceeding the slow threshold.
+		 * @return number of slow calls
+		 */
+		public long getSlowCalls() {
+			return slow;
+		}
+		
+		/**
+		 * Gets the top stack frame of the last stack sample of a slow call.
+		 * @return top stack frame or null if never sampled
+		 */
+		public String getLastSample() {
+			return lastSample;
+		}
+	}
+	
+	private final long threshold;
+	private final MetricsRegistry registry;
+	private final Map<String, Map<Class<?>, Stats>> stats = new ConcurrentHashMap<>();
+	private final Map<Thread, InFlight> inFlight = new ConcurrentHashMap<>();
+	private final ThreadLocal<InFlight> current = ThreadLocal.withInitial(this::register);
+	private final ScheduledExecutorService watchdog;
+	private long windowStart = System.currentTimeMillis();
+	
+	/**
+	 * Creates a profiler exporting its histograms to the default registry.
+	 * @param slowThreshold time in milliseconds of a slow listener call, 0 to turn off detecting slow calls
+	 */
+	public ListenerProfiler(long slowThreshold) {
+		this(slowThreshold, MetricsRegistry.getDefault());
+	}
+	
+	/**
+	 * Creates a profiler.
+	 * @param slowThreshold time in milliseconds of a slow listener call, 0 to turn off detecting slow calls
+	 * @param registry registry the histograms are exported to
+	 */
+	public ListenerProfiler(long slowThreshold, MetricsRegistry registry) {
+		this.threshold = TimeUnit.MILLISECONDS.toNanos(slowThreshold);
+		this.registry = registry;
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "listener-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		long interval = slowThreshold > 0 ? Math.max(slowThreshold / 2, MIN_WATCHDOG_INTERVAL) : WINDOW;
+		this.watchdog.scheduleWithFixedDelay(this::watch, interval, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Registers the calling thread.
+	 * @return call tracker of the calling thread
+	 */
+	private InFlight register() {
+		InFlight result = new InFlight(Thread.currentThread());
+		this.inFlight.put(result.thread, result);
+		return result;
+	}
+	
+	/**
+	 * Marks the start of a listener call on the calling thread.
+	 * Must be followed by {@link #exit()} on the same thread.
+	 * @param event name of the event
+	 * @param listener listener being called
+	 */
+	public void enter(String event, Object listener) {
+		Map<Class<?>, Stats> byListener = this.stats.get(event);
+		if (byListener == null) {
+			byListener = this.stats.computeIfAbsent(event, key -> new ConcurrentHashMap<>());
+		}
+		
+		Class<?> type = listener.getClass();
+		Stats stats = byListener.get(type);
+		if (stats == null) {
+			stats = byListener.computeIfAbsent(type, key -> new Stats(event, NAMES.get(key), this.registry));
+		}
+		
+		InFlight call = this.current.get();
+		call.start = System.nanoTime();
+		call.stats = stats;
+	}
+	
+	/**
+	 * Marks the end of the listener call on the calling thread.
+	 */
+	public void exit() {
+		InFlight call = this.current.get();
+		Stats stats = call.stats;
+		if (stats == null) {
+			return;
+		}
+		
+		long time = System.nanoTime() - call.start;
+		call.stats = null;
+		
+		stats.time.record(time);
+		Window window = stats.current;
+		window.time.record(time);
+		
+		if (this.threshold > 0 && time >= this.threshold) {
+			stats.slow.inc();
+			window.slow.increment();
+			LOGGER.warn("Listener {} took {} ms handling the event {}.", stats.listener, time / 1_000_000, stats.event);
+		}
+	}
+	
+	/**
+	 * Samples the stacks of slow calls in progress and rotates the windows, called by the watchdog.
+	 */
+	private void watch() {
+		try {
+			long now = System.currentTimeMillis();
+			if (now - this.windowStart >= WINDOW) {
+				this.windowStart = now;
+				for (Map<Class<?>, Stats> byListener : this.stats.values()) {
+					for (Stats stats : byListener.values()) {
+						stats.previous = stats.current;
+						stats.current = new Window();
+					}
+				}
+			}
+			
+			if (this.threshold <= 0) {
+				return;
+			}
+			
+			for (InFlight call : this.inFlight.values()) {
+				if (!call.thread.isAlive()) {
+					this.inFlight.remove(call.thread);
+					continue;
+				}
+				
+				Stats stats = call.stats;
+				long start = call.start;
+				if (stats == null || start == call.sampled || System.nanoTime() - start < this.threshold) {
+					continue;
+				}
+				
+				StackTraceElement[] stack = call.thread.getStackTrace();
+				if (call.stats != stats || call.start != start) {
+					// finished in the meantime
+					continue;
+				}
+				
+				call.sampled = start;
+				if (stack.length > 0) {
+					stats.lastSample = stack[0].toString();
+				}
+				
+				StringBuilder sb = new StringBuilder();
+				for (int n = 0; n < stack.length && n < MAX_STACK_DEPTH; n++) {
+					sb.append("\n\tat ").append(stack[n]);
+				}
+				
+				if (stack.length > MAX_STACK_DEPTH) {
+					sb.append("\n\t... ").append(stack.length - MAX_STACK_DEPTH).append(" more");
+				}
+				
+				LOGGER.warn("Listener {} has been handling the event {} for {} ms on the thread {}:{}",
+						stats.listener, stats.event, (System.nanoTime() - start) / 1_000_000, call.thread.getName(), sb);
+			}
+		} catch (RuntimeException ex) {
+			LOGGER.error("Listener watchdog failed.", ex);
+		}
+	}
+	
+	/**
+	 * Gets the listeners with the longest total time of the last one or two windows.
+	 * @param limit maximum number of listeners to be returned
+	 * @return listeners sorted by the total time, descending
+	 */
+	public List<Offender> getTopOffenders(int limit) {
+		List<Offender> result = new ArrayList<>();
+		for (Map<Class<?>, Stats> byListener : this.stats.values()) {
+			for (Stats stats : byListener.values()) {
+				Offender offender = new Offender(stats);
+				if (offender.getCount() > 0) {
+					result.add(offender);
+				}
+			}
+		}
+		
+		result.sort(Comparator.comparingLong((Offender offender) -> offender.sum).reversed());
+		return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+	}
+	
+	/**
+	 * Gets the time in milliseconds of a slow listener call.
+	 * @return time in milliseconds of a slow listener call, 0 if detecting slow calls is turned off
+	 */
+	public long getSlowThreshold() {
+		return TimeUnit.NANOSECONDS.toMillis(this.threshold);
+	}
+	
+	/**
+	 * Stops the watchdog.
+	 */
+	@Override
+	public void close() {
+		this.watchdog.shutdownNow();
+	}
+}
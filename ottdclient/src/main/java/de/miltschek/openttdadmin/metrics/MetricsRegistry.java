@@ -0,0 +1,259 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.openttdadmin.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of named metrics with optional labels, exported in the Prometheus text format.
+ * Metrics are looked up once (e.g. into a static field) and then recorded without any allocation.
+ * Registering the same name and labels again returns the existing counter or histogram.
+ */
+public final class MetricsRegistry {
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+	
+	/**
+	 * Type of a metric family.
+	 */
+	private enum Type {
+		counter, gauge, histogram
+	}
+	
+	/**
+	 * All series of one metric name.
+	 */
+	private static class Family {
+		private final String help;
+		private final Type type;
+		/** Series by their labels (without braces): Counter, Histogram, LongSupplier or DoubleSupplier. */
+		private final Map<String, Object> series = new ConcurrentSkipListMap<>();
+		
+		private Family(String help, Type type) {
+			this.help = help;
+			this.type = type;
+		}
+	}
+	
+	private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+	
+	/**
+	 * Gets the registry shared by the whole process.
+	 * @return the default registry
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+	
+	/**
+	 * Gets or registers a counter.
+	 * @param name name of the metric, by convention ending with _total
+	 * @param help description of the metric
+	 * @param labels pairs of label names and values
+	 * @return the counter
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		return (Counter)family(name, help, Type.counter).series.computeIfAbsent(labels(labels), key -> new Counter());
+	}
+	
+	/**
+	 * Gets or registers a latency histogram with the default buckets,
+	 * recording nanoseconds and exporting seconds.
+	 * @param name name of the metric, by convention ending with _seconds
+	 * @param help description of the metric
+	 * @param labels pairs of label names and values
+	 * @return the histogram
+	 */
+	public Histogram histogram(String name, String help, String... labels) {
+		return histogram(name, help, Histogram.LATENCY_BOUNDS, Histogram.NANOS_TO_SECONDS, labels);
+	}
+	
+	/**
+	 * Gets or registers a histogram.
+	 * @param name name of the metric
+	 * @param help description of the metric
+	 * @param bounds ascending upper bounds of the buckets, in units of the recorded values
+	 * @param scale factor applied to the values on export
+	 * @param labels pairs of label names and values
+	 * @return the histogram
+	 */
+	public Histogram histogram(String name, String help, long[] bounds, double scale, String... labels) {
+		return (Histogram)family(name, help, Type.histogram).series.computeIfAbsent(labels(labels), key -> new Histogram(bounds, scale));
+	}
+	
+	/**
+	 * Registers a gauge whose value is read on export, replaces a previous one of the same name and labels.
+	 * @param name name of the metric
+	 * @param help description of the metric
+	 * @param value supplier of the current value
+	 * @param labels pairs of label names and values
+	 */
+	public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+		family(name, help, Type.gauge).series.put(labels(labels), value);
+	}
+	
+	/**
+	 * Registers a counter maintained elsewhere, whose value is read on export;
+	 * replaces a previous one of the same name and labels.
+	 * @param name name of the metric, by convention ending with _total
+	 * @param help description of the metric
+	 * @param value supplier of the current value
+	 * @param labels pairs of label names and values
+	 */
+	public void functionCounter(String name, String help, LongSupplier value, String... labels) {
+		family(name, help, Type.counter).series.put(labels(labels), value);
+	}
+	
+	/**
+	 * Removes a series, e.g. a gauge referring to a closed object.
+	 * @param name name of the metric
+	 * @param labels pairs of label names and values
+	 */
+	public void remove(String name, String... labels) {
+		Family family = this.families.get(name);
+		if (family != null) {
+			family.series.remove(labels(labels));
+		}
+	}
+	
+	/**
+	 * Gets or creates a family of metrics.
+	 * @param name name of the metric
+	 * @param help description of the metric
+	 * @param type type of the metric
+	 * @return the family
+	 * @throws IllegalArgumentException if the name is already registered with another type
+	 */
+	private Family family(String name, String help, Type type) {
+		Family family = this.families.computeIfAbsent(name, key -> new Family(help, type));
+		if (family.type != type) {
+			throw new IllegalArgumentException("metric " + name + " already registered as a " + family.type);
+		}
+		
+		return family;
+	}
+	
+	/**
+	 * Formats the labels of a series.
+	 * @param labels pairs of label names and values
+	 * @return labels in the Prometheus format without braces
+	 */
+	private static String labels(String[] labels) {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("labels must be pairs of names and values");
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		for (int n = 0; n < labels.length; n += 2) {
+			if (n > 0) {
+				sb.append(',');
+			}
+			
+			sb.append(labels[n]).append("=\"");
+			String value = labels[n + 1] == null ? "" : labels[n + 1];
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				switch (c) {
+				case '\\': sb.append("\\\\"); break;
+				case '"': sb.append("\\\""); break;
+				case '\n': sb.append("\\n"); break;
+				default: sb.append(c);
+				}
+			}
+			
+			sb.append('"');
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Formats a sample value.
+	 * @param value value
+	 * @return value in the Prometheus format
+	 */
+	static String format(double value) {
+		if (Double.isNaN(value)) {
+			return "NaN";
+		} else if (Double.isInfinite(value)) {
+			return value > 0 ? "+Inf" : "-Inf";
+		} else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long)value);
+		} else {
+			return Double.toString(value);
+		}
+	}
+	
+	/**
+	 * Exports all metrics in the Prometheus text format (version 0.0.4).
+	 * @return the metrics
+	 */
+	public String scrape() {
+		StringBuilder sb = new StringBuilder(4096);
+		for (Map.Entry<String, Family> entry : this.families.entrySet()) {
+			String name = entry.getKey();
+			Family family = entry.getValue();
+			if (family.series.isEmpty()) {
+				continue;
+			}
+			
+			sb.append("# HELP ").append(name).append(' ').append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+			sb.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+			
+			for (Map.Entry<String, Object> series : family.series.entrySet()) {
+				String labels = series.getKey();
+				Object metric = series.getValue();
+				
+				if (metric instanceof Histogram) {
+					((Histogram)metric).write(sb, name, labels);
+					continue;
+				}
+				
+				sb.append(name);
+				if (!labels.isEmpty()) {
+					sb.append('{').append(labels).append('}');
+				}
+				
+				sb.append(' ');
+				try {
+					if (metric instanceof Counter) {
+						sb.append(((Counter)metric).get());
+					} else if (metric instanceof LongSupplier) {
+						sb.append(((LongSupplier)metric).getAsLong());
+					} else {
+						sb.append(format(((DoubleSupplier)metric).getAsDouble()));
+					}
+				} catch (RuntimeException ex) {
+					sb.append("NaN");
+				}
+				
+				sb.append('\n');
+			}
+		}
+		
+		return sb.toString();
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.openttdadmin.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of the profiling of listener calls.
+ */
+public class ListenerProfilerTest {
+	private static class FastListener {
+	}
+	
+	private static class SlowListener {
+	}
+	
+	private final MetricsRegistry registry = new MetricsRegistry();
+	private ListenerProfiler profiler;
+	
+	@After
+	public void closeProfiler() {
+		if (profiler != null) {
+			profiler.close();
+		}
+	}
+	
+	private void call(String event, Object listener, long millis) throws InterruptedException {
+		profiler.enter(event, listener);
+		try {
+			if (millis > 0) {
+				Thread.sleep(millis);
+			}
+		} finally {
+			profiler.exit();
+		}
+	}
+	
+	@Test
+	public void callsAreCountedPerEventAndListener() throws InterruptedException {
+		profiler = new ListenerProfiler(0, registry);
+		call("chat", new FastListener(), 0);
+		call("chat", new FastListener(), 0);
+		call("clientJoin", new FastListener(), 0);
+		call("chat", new SlowListener(), 0);
+		
+		List<ListenerProfiler.Offender> offenders = profiler.getTopOffenders(10);
+		assertEquals(3, offenders.size());
+		
+		long chatFast = 0;
+		for (ListenerProfiler.Offender offender : offenders) {
+			if (offender.getEvent().equals("chat") && offender.getListener().equals("ListenerProfilerTest$FastListener")) {
+				chatFast = offender.getCount();
+			}
+			
+			assertEquals(0, offender.getSlowCalls());
+		}
+		
+		assertEquals(2, chatFast);
+		
+		String scrape = registry.scrape();
+		assertTrue(scrape.contains("ottd_listener_call_seconds_count{event=\"chat\",listener=\"ListenerProfilerTest$FastListener\"} 2\n"));
+		assertTrue(scrape.contains("ottd_listener_call_seconds_count{event=\"clientJoin\",listener=\"ListenerProfilerTest$FastListener\"} 1\n"));
+	}
+	
+	@Test
+	public void topOffendersAreSortedByTotalTimeAndLimited() throws InterruptedException {
+		profiler = new ListenerProfiler(0, registry);
+		call("chat", new FastListener(), 0);
+		call("chat", new SlowListener(), 30);
+		call("date", new FastListener(), 10);
+		
+		List<ListenerProfiler.Offender> offenders = profiler.getTopOffenders(2);
+		assertEquals(2, offenders.size());
+		assertEquals("chat", offenders.get(0).getEvent());
+		assertEquals("ListenerProfilerTest$SlowListener", offenders.get(0).getListener());
+		assertTrue(offenders.get(0).getTotalTime() >= 30);
+		assertTrue(offenders.get(0).getMaxTime() >= 30);
+		assertEquals("date", offenders.get(1).getEvent());
+	}
+	
+	@Test
+	public void lambdaListenersShareOneName() throws InterruptedException {
+		profiler = new ListenerProfiler(0, registry);
+		Consumer<String> listener = message -> { };
+		call("chat", listener, 0);
+		
+		String name = profiler.getTopOffenders(1).get(0).getListener();
+		assertTrue(name, name.endsWith("$$Lambda"));
+		assertTrue(name, name.startsWith("ListenerProfilerTest"));
+	}
+	
+	@Test
+	public void exitWithoutEnterIsIgnored() {
+		profiler = new ListenerProfiler(0, registry);
+		profiler.exit();
+		assertTrue(profiler.getTopOffenders(10).isEmpty());
+	}
+	
+	@Test
+	public void slowCallIsCountedAndSampled() throws InterruptedException {
+		profiler = new ListenerProfiler(20, registry);
+		assertEquals(20, profiler.getSlowThreshold());
+		
+		call("chat", new FastListener(), 0);
+		call("chat", new SlowListener(), 200);
+		
+		List<ListenerProfiler.Offender> offenders = profiler.getTopOffenders(10);
+		assertEquals(2, offenders.size());
+		
+		ListenerProfiler.Offender slow = offenders.get(0);
+		assertEquals("ListenerProfilerTest$SlowListener", slow.getListener());
+		assertEquals(1, slow.getSlowCalls());
+		assertNotNull(slow.getLastSample());
+		
+		ListenerProfiler.Offender fast = offenders.get(1);
+		assertEquals(0, fast.getSlowCalls());
+		assertNull(fast.getLastSample());
+		
+		assertTrue(registry.scrape().contains(
+				"ottd_listener_slow_calls_total{event=\"chat\",listener=\"ListenerProfilerTest$SlowListener\"} 1\n"));
+	}
+}
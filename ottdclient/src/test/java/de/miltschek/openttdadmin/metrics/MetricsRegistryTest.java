@@ -0,0 +1,146 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2021 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.openttdadmin.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of the export of metrics in the Prometheus text format.
+ */
+public class MetricsRegistryTest {
+	@Test
+	public void emptyRegistryExportsNothing() {
+		assertEquals("", new MetricsRegistry().scrape());
+	}
+	
+	@Test
+	public void counterIsExportedWithHelpAndType() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("test_events_total", "Events.").add(3);
+		
+		assertEquals("# HELP test_events_total Events.\n"
+				+ "# TYPE test_events_total counter\n"
+				+ "test_events_total 3\n", registry.scrape());
+	}
+	
+	@Test
+	public void sameNameAndLabelsReturnTheSameSeries() {
+		MetricsRegistry registry = new MetricsRegistry();
+		Counter a = registry.counter("test_packets_total", "Packets.", "server", "a:1");
+		Counter b = registry.counter("test_packets_total", "Packets.", "server", "b:2");
+		assertSame(a, registry.counter("test_packets_total", "Packets.", "server", "a:1"));
+		
+		a.inc();
+		a.inc();
+		b.inc();
+		
+		assertEquals("# HELP test_packets_total Packets.\n"
+				+ "# TYPE test_packets_total counter\n"
+				+ "test_packets_total{server=\"a:1\"} 2\n"
+				+ "test_packets_total{server=\"b:2\"} 1\n", registry.scrape());
+	}
+	
+	@Test
+	public void labelValuesAreEscaped() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("test_total", "Multi\nline.", "name", "a\"b\\c\nd").inc();
+		
+		String scrape = registry.scrape();
+		assertTrue(scrape.contains("# HELP test_total Multi\\nline.\n"));
+		assertTrue(scrape.contains("test_total{name=\"a\\\"b\\\\c\\nd\"} 1\n"));
+	}
+	
+	@Test
+	public void histogramIsExportedCumulatively() {
+		MetricsRegistry registry = new MetricsRegistry();
+		Histogram histogram = registry.histogram("test_size", "Sizes.", new long[] { 10, 100 }, 1, "kind", "x");
+		histogram.record(5);
+		histogram.record(10);
+		histogram.record(50);
+		histogram.record(500);
+		
+		assertEquals("# HELP test_size Sizes.\n"
+				+ "# TYPE test_size histogram\n"
+				+ "test_size_bucket{kind=\"x\",le=\"10\"} 2\n"
+				+ "test_size_bucket{kind=\"x\",le=\"100\"} 3\n"
+				+ "test_size_bucket{kind=\"x\",le=\"+Inf\"} 4\n"
+				+ "test_size_sum{kind=\"x\"} 565\n"
+				+ "test_size_count{kind=\"x\"} 4\n", registry.scrape());
+	}
+	
+	@Test
+	public void latencyHistogramIsExportedInSeconds() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.histogram("test_seconds", "Latency.").record(1_500_000_000L);
+		
+		String scrape = registry.scrape();
+		assertTrue(scrape.contains("test_seconds_bucket{le=\"1.0E-4\"} 0\n"));
+		assertTrue(scrape.contains("test_seconds_bucket{le=\"1\"} 0\n"));
+		assertTrue(scrape.contains("test_seconds_bucket{le=\"2.5\"} 1\n"));
+		assertTrue(scrape.contains("test_seconds_sum 1.5\n"));
+		assertTrue(scrape.contains("test_seconds_count 1\n"));
+	}
+	
+	@Test
+	public void gaugeIsReadOnExportAndCanBeRemoved() {
+		MetricsRegistry registry = new MetricsRegistry();
+		double[] value = new double[] { 1.25 };
+		registry.gauge("test_depth", "Depth.", () -> value[0], "server", "a");
+		assertTrue(registry.scrape().contains("test_depth{server=\"a\"} 1.25\n"));
+		
+		value[0] = 7;
+		assertTrue(registry.scrape().contains("test_depth{server=\"a\"} 7\n"));
+		
+		registry.remove("test_depth", "server", "a");
+		assertFalse(registry.scrape().contains("test_depth"));
+	}
+	
+	@Test
+	public void failingGaugeIsExportedAsNaN() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.gauge("test_broken", "Broken.", () -> { throw new IllegalStateException(); });
+		registry.functionCounter("test_calls_total", "Calls.", () -> 42);
+		
+		String scrape = registry.scrape();
+		assertTrue(scrape.contains("test_broken NaN\n"));
+		assertTrue(scrape.contains("# TYPE test_calls_total counter\ntest_calls_total 42\n"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void nameCannotChangeItsType() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("test_mixed", "Mixed.");
+		registry.histogram("test_mixed", "Mixed.");
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void labelsMustBePairs() {
+		new MetricsRegistry().counter("test_total", "Odd.", "server");
+	}
+}
@@ -225,21 +225,17 @@ class MyDao {
 	function getTopTen($limit = 10, $gameName) {
 		$filter = $gameName !== null;
 
+		// materialized by genowefa on each economy update, see genowefa_top_list
 		$sql = $this->connection->prepare(
-			'SELECT c.name, c.color, '
-			. 'e.income, e.loan, e.money, e.value, e.performance, '
-			. 'i.num_busses, i.num_lorries, i.num_trains, i.num_ships, i.num_planes, '
-			. 'i.num_stops, i.num_depots, i.num_stations, i.num_harbours, i.num_airports, '
-			. 'g.ts_started, g.ts_finished '
-			. 'FROM '
-			. 'genowefa_companies AS c '
-			. 'LEFT JOIN genowefa_economics AS e ON (e.company_id = c.id) '
-			. 'LEFT JOIN genowefa_infrastructure i ON (i.company_id = c.id) '
-			. 'LEFT JOIN genowefa_games g ON (g.id = c.game_id) '
-			. 'WHERE c.id IN '
-				// 1 = server name
-				. '(SELECT DISTINCT id FROM genowefa_companies WHERE game_id IN (SELECT DISTINCT id FROM genowefa_games WHERE game_name = ?)) '
-			. 'ORDER BY e.value DESC '
+			'SELECT name, color, '
+			. 'income, loan, money, value, performance, '
+			. 'num_busses, num_lorries, num_trains, num_ships, num_planes, '
+			. 'num_stops, num_depots, num_stations, num_harbours, num_airports, '
+			. 'ts_started, ts_finished '
+			. 'FROM genowefa_top_list '
+			// 1 = server name
+			. 'WHERE game_name = ? '
+			. 'ORDER BY value DESC '
 			// 2 = limit
 			. 'LIMIT ?;');
 